@@ -27,7 +27,9 @@ import edu.cmu.tetrad.cli.util.AppTool;
 import edu.cmu.tetrad.cli.util.Args;
 import edu.cmu.tetrad.cli.validation.DataValidation;
 import edu.cmu.tetrad.cli.validation.TabularContinuousData;
+import edu.cmu.tetrad.data.DataModel;
 import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.data.ICovarianceMatrix;
 import edu.cmu.tetrad.data.IKnowledge;
 import edu.cmu.tetrad.graph.Graph;
 import edu.cmu.tetrad.io.DataReader;
@@ -118,15 +120,14 @@ public abstract class AbstractAlgorithmCli extends AbstractApplicationCli implem
         Set<String> excludedVariables = getExcludedVariables();
         runPreDataValidations(excludedVariables);
 
-        DataSet dataSet = AlgorithmCommonTask.readInDataSet(excludedVariables, dataFile, getDataReader(dataFile, delimiter));
-        runDataValidations(dataSet);
+        DataModel dataModel = readInData(excludedVariables);
 
         IKnowledge knowledge = AlgorithmCommonTask.readInPriorKnowledge(knowledgeFile);
 
         Path outputFile = Paths.get(dirOut.toString(), outputPrefix + ".txt");
         try (PrintStream writer = new PrintStream(new BufferedOutputStream(Files.newOutputStream(outputFile, StandardOpenOption.CREATE)))) {
             writer.println(heading);
-            writer.println(createRunInfo(excludedVariables, dataSet));
+            writer.println(createRunInfo(excludedVariables, dataModel));
 
             Algorithm algorithm = getAlgorithm(knowledge);
             Parameters parameters = getParameters();
@@ -134,7 +135,7 @@ public abstract class AbstractAlgorithmCli extends AbstractApplicationCli implem
                 parameters.set(ParamAttrs.PRINT_STREAM, writer);
             }
 
-            Graph graph = search(dataSet, algorithm, parameters);
+            Graph graph = search(dataModel, algorithm, parameters);
             writer.println();
             writer.println(graph.toString());
 
@@ -151,7 +152,20 @@ public abstract class AbstractAlgorithmCli extends AbstractApplicationCli implem
         }
     }
 
-    private String createRunInfo(Set<String> excludedVariables, DataSet dataSet) {
+    /**
+     * Read in the data and validate it. Exits if the data is not valid.
+     *
+     * @param excludedVariables variables to leave out
+     * @return the data to run the algorithm on
+     */
+    protected DataModel readInData(Set<String> excludedVariables) {
+        DataSet dataSet = AlgorithmCommonTask.readInDataSet(excludedVariables, dataFile, getDataReader(dataFile, delimiter));
+        runDataValidations(getDataValidations(dataSet, dirOut, outputPrefix));
+
+        return dataSet;
+    }
+
+    private String createRunInfo(Set<String> excludedVariables, DataModel dataModel) {
         Formatter fmt = new Formatter();
 
         fmt.format("Runtime Parameters:%n");
@@ -162,8 +176,12 @@ public abstract class AbstractAlgorithmCli extends AbstractApplicationCli implem
         fmt.format("Dataset:%n");
         fmt.format("file = %s%n", dataFile.getFileName());
         fmt.format("delimiter = %s%n", Args.getDelimiterName(delimiter));
-        fmt.format("cases read in = %s%n", dataSet.getNumRows());
-        fmt.format("variables read in = %s%n", dataSet.getNumColumns());
+        if (dataModel instanceof ICovarianceMatrix) {
+            fmt.format("cases read in = %s%n", ((ICovarianceMatrix) dataModel).getSampleSize());
+        } else {
+            fmt.format("cases read in = %s%n", ((DataSet) dataModel).getNumRows());
+        }
+        fmt.format("variables read in = %s%n", dataModel.getVariables().size());
         fmt.format("%n");
 
         if (excludedVariableFile != null || knowledgeFile != null) {
@@ -187,9 +205,8 @@ public abstract class AbstractAlgorithmCli extends AbstractApplicationCli implem
         return fmt.toString();
     }
 
-    private void runDataValidations(DataSet dataSet) {
+    protected void runDataValidations(List<DataValidation> dataValidations) {
         boolean isValid = true;
-        List<DataValidation> dataValidations = getDataValidations(dataSet, dirOut, outputPrefix);
         for (DataValidation dataValidation : dataValidations) {
             isValid = dataValidation.validate(System.err, verbose) && isValid;
         }
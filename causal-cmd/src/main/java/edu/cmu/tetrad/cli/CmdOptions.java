@@ -55,6 +55,9 @@ public class CmdOptions {
     public static final String SKIP_UNIQUE_VAR_NAME = "skip-unique-var-name";
     public static final String SKIP_NONZERO_VARIANCE = "skip-nonzero-variance";
     public static final String SKIP_CATEGORY_LIMIT = "skip-category-limit";
+    public static final String SKIP_UNIQUE_COLUMNS = "skip-unique-columns";
+
+    public static final String STREAM = "stream";
 
     public static int getInt(String cmdOption, String paramAttr, CommandLine cmd) {
         ParamDescription paramDesc = PARAM_DESCRIPTIONS.get(paramAttr);
@@ -110,6 +113,10 @@ public class CmdOptions {
                 return "Skip check for zero variance variables.";
             case SKIP_CATEGORY_LIMIT:
                 return "Skip 'limit number of categories' check.";
+            case SKIP_UNIQUE_COLUMNS:
+                return "Skip check for variables with the same values (with --stream only).";
+            case STREAM:
+                return "Read the data in a single pass, keeping only the covariance matrix in memory.";
             default:
                 return "";
         }
@@ -26,11 +26,17 @@ import edu.cmu.tetrad.cli.AlgorithmType;
 import edu.cmu.tetrad.cli.CmdOptions;
 import edu.cmu.tetrad.cli.ParamAttrs;
 import edu.cmu.tetrad.cli.validation.DataValidation;
+import edu.cmu.tetrad.cli.util.AlgorithmCommonTask;
 import edu.cmu.tetrad.cli.validation.NonZeroVariance;
+import edu.cmu.tetrad.cli.validation.UniqueColumns;
 import edu.cmu.tetrad.cli.validation.UniqueVariableNames;
+import edu.cmu.tetrad.data.DataModel;
 import edu.cmu.tetrad.data.DataSet;
 import edu.cmu.tetrad.data.IKnowledge;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.io.ContinuousSufficientStatistics;
 import edu.cmu.tetrad.io.DataReader;
+import edu.cmu.tetrad.io.TabularContinuousCovarianceReader;
 import edu.cmu.tetrad.io.TabularContinuousDataReader;
 import edu.cmu.tetrad.util.Parameters;
 import java.nio.file.Path;
@@ -39,6 +45,7 @@ import java.util.Collections;
 import java.util.Formatter;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 
@@ -56,6 +63,9 @@ public class FgscCli extends AbstractAlgorithmCli {
 
     protected boolean skipUniqueVarName;
     protected boolean skipZeroVariance;
+    protected boolean skipUniqueColumns;
+
+    protected boolean stream;
 
     public FgscCli(String[] args) {
         super(args);
@@ -65,6 +75,9 @@ public class FgscCli extends AbstractAlgorithmCli {
     public void printValidationInfos(Formatter fmt) {
         fmt.format("ensure variable names are unique = %s%n", !skipUniqueVarName);
         fmt.format("ensure variables have non-zero variance = %s%n", !skipZeroVariance);
+        if (stream) {
+            fmt.format("ensure variables have unique values = %s%n", !skipUniqueColumns);
+        }
     }
 
     @Override
@@ -72,6 +85,7 @@ public class FgscCli extends AbstractAlgorithmCli {
         fmt.format("penalty discount = %f%n", penaltyDiscount);
         fmt.format("max degree = %d%n", maxDegree);
         fmt.format("faithfulness assumed = %s%n", faithfulnessAssumed);
+        fmt.format("stream = %s%n", stream);
     }
 
     @Override
@@ -95,6 +109,24 @@ public class FgscCli extends AbstractAlgorithmCli {
         return fgs;
     }
 
+    /**
+     * With --stream, the data is read in a single pass into its sufficient
+     * statistics and the search is run on the covariance matrix, so the data
+     * itself is never held in memory.
+     */
+    @Override
+    protected DataModel readInData(Set<String> excludedVariables) {
+        if (!stream) {
+            return super.readInData(excludedVariables);
+        }
+
+        TabularContinuousCovarianceReader dataReader = new TabularContinuousCovarianceReader(dataFile, delimiter);
+        ContinuousSufficientStatistics statistics = AlgorithmCommonTask.readInStatistics(excludedVariables, dataFile, dataReader);
+        runDataValidations(getDataValidations(statistics, dirOut, outputPrefix));
+
+        return statistics.getCovarianceMatrix();
+    }
+
     @Override
     public DataReader getDataReader(Path dataFile, char delimiter) {
         return new TabularContinuousDataReader(dataFile, delimiter);
@@ -123,6 +155,27 @@ public class FgscCli extends AbstractAlgorithmCli {
         return validations;
     }
 
+    private List<DataValidation> getDataValidations(ContinuousSufficientStatistics statistics, Path dirOut, String filePrefix) {
+        List<DataValidation> validations = new LinkedList<>();
+
+        String outputDir = dirOut.toString();
+        if (!skipUniqueVarName) {
+            List<String> variableNames = new LinkedList<>();
+            for (Node variable : statistics.getVariables()) {
+                variableNames.add(variable.getName());
+            }
+            validations.add(new UniqueVariableNames(variableNames, validationOutput ? Paths.get(outputDir, filePrefix + "_duplicate_var_name.txt") : null));
+        }
+        if (!skipZeroVariance) {
+            validations.add(new NonZeroVariance(statistics, validationOutput ? Paths.get(outputDir, filePrefix + "_zero_variance.txt") : null));
+        }
+        if (!skipUniqueColumns) {
+            validations.add(new UniqueColumns(statistics, validationOutput ? Paths.get(outputDir, filePrefix + "_duplicate_column.txt") : null));
+        }
+
+        return validations;
+    }
+
     @Override
     public void parseRequiredOptions(CommandLine cmd) throws Exception {
     }
@@ -134,6 +187,8 @@ public class FgscCli extends AbstractAlgorithmCli {
         faithfulnessAssumed = cmd.hasOption(CmdOptions.FAITHFULNESS_ASSUMED);
         skipUniqueVarName = cmd.hasOption(CmdOptions.SKIP_UNIQUE_VAR_NAME);
         skipZeroVariance = cmd.hasOption(CmdOptions.SKIP_NONZERO_VARIANCE);
+        skipUniqueColumns = cmd.hasOption(CmdOptions.SKIP_UNIQUE_COLUMNS);
+        stream = cmd.hasOption(CmdOptions.STREAM);
     }
 
     @Override
@@ -149,6 +204,8 @@ public class FgscCli extends AbstractAlgorithmCli {
         options.add(new Option(null, CmdOptions.FAITHFULNESS_ASSUMED, false, CmdOptions.getDescription(CmdOptions.FAITHFULNESS_ASSUMED)));
         options.add(new Option(null, CmdOptions.SKIP_UNIQUE_VAR_NAME, false, CmdOptions.getDescription(CmdOptions.SKIP_UNIQUE_VAR_NAME)));
         options.add(new Option(null, CmdOptions.SKIP_NONZERO_VARIANCE, false, CmdOptions.getDescription(CmdOptions.SKIP_NONZERO_VARIANCE)));
+        options.add(new Option(null, CmdOptions.SKIP_UNIQUE_COLUMNS, false, CmdOptions.getDescription(CmdOptions.SKIP_UNIQUE_COLUMNS)));
+        options.add(new Option(null, CmdOptions.STREAM, false, CmdOptions.getDescription(CmdOptions.STREAM)));
 
         return options;
     }
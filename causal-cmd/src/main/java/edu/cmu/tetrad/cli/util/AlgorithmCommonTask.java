@@ -22,10 +22,13 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import edu.cmu.tetrad.algcomparison.algorithm.Algorithm;
 import edu.cmu.tetrad.cli.data.IKnowledgeFactory;
+import edu.cmu.tetrad.data.DataModel;
 import edu.cmu.tetrad.data.DataSet;
 import edu.cmu.tetrad.data.IKnowledge;
 import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.io.ContinuousSufficientStatistics;
 import edu.cmu.tetrad.io.DataReader;
+import edu.cmu.tetrad.io.TabularContinuousCovarianceReader;
 import edu.cmu.tetrad.util.Parameters;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
@@ -88,10 +91,10 @@ public class AlgorithmCommonTask {
         logEndTask(task);
     }
 
-    public static Graph search(DataSet dataSet, Algorithm algorithm, Parameters parameters) {
+    public static Graph search(DataModel dataModel, Algorithm algorithm, Parameters parameters) {
         String task = "running algorithm " + algorithm.getDescription();
         logStartTask(task);
-        Graph graph = algorithm.search(dataSet, parameters);
+        Graph graph = algorithm.search(dataModel, parameters);
         logEndTask(task);
 
         return graph;
@@ -131,6 +134,22 @@ public class AlgorithmCommonTask {
         return dataSet;
     }
 
+    public static ContinuousSufficientStatistics readInStatistics(Set<String> excludedVariables, Path dataFile, TabularContinuousCovarianceReader dataReader) {
+        ContinuousSufficientStatistics statistics = null;
+
+        String task = "reading in data file " + dataFile.getFileName() + " in a single pass";
+        logStartTask(task);
+        try {
+            statistics = excludedVariables.isEmpty() ? dataReader.readInStatistics() : dataReader.readInStatistics(excludedVariables);
+        } catch (IOException exception) {
+            logFailedTask(task, exception);
+            System.exit(-127);
+        }
+        logEndTask(task);
+
+        return statistics;
+    }
+
     public static Set<String> readInVariables(Path variableFile) {
         Set<String> variables = new HashSet<>();
 
@@ -20,6 +20,8 @@ package edu.cmu.tetrad.cli.validation;
 
 import edu.cmu.tetrad.cli.util.FileIO;
 import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.io.ContinuousSufficientStatistics;
 import edu.cmu.tetrad.stat.RealVariance;
 import edu.cmu.tetrad.stat.RealVarianceVectorForkJoin;
 import java.io.IOException;
@@ -43,6 +45,8 @@ public class NonZeroVariance implements DataValidation {
 
     private final DataSet dataSet;
 
+    private final ContinuousSufficientStatistics statistics;
+
     private final int numOfThreads;
 
     private final Path outputFile;
@@ -60,25 +64,45 @@ public class NonZeroVariance implements DataValidation {
      */
     public NonZeroVariance(DataSet dataSet, int numOfThreads, Path outputFile) {
         this.dataSet = dataSet;
+        this.statistics = null;
         this.numOfThreads = numOfThreads;
         this.outputFile = outputFile;
     }
 
+    /**
+     * Constructor for data that has been read in as sufficient statistics.
+     *
+     * @param statistics statistics of the dataset to validate
+     * @param outputFile file to write out zero-variance variables
+     */
+    public NonZeroVariance(ContinuousSufficientStatistics statistics, Path outputFile) {
+        this.dataSet = null;
+        this.statistics = statistics;
+        this.numOfThreads = 1;
+        this.outputFile = outputFile;
+    }
+
     @Override
     public boolean validate(PrintStream stderr, boolean verbose) {
         if (stderr == null) {
             stderr = System.err;
         }
 
-        RealVariance variance = new RealVarianceVectorForkJoin(dataSet.getDoubleData().toArray(), numOfThreads);
-        double[] varianceVector = variance.compute(true);
-
         List<String> list = new LinkedList<>();
-        List<String> variables = dataSet.getVariableNames();
-        int index = 0;
-        for (String variable : variables) {
-            if (varianceVector[index++] == 0) {
-                list.add(variable);
+        if (statistics == null) {
+            RealVariance variance = new RealVarianceVectorForkJoin(dataSet.getDoubleData().toArray(), numOfThreads);
+            double[] varianceVector = variance.compute(true);
+
+            List<String> variables = dataSet.getVariableNames();
+            int index = 0;
+            for (String variable : variables) {
+                if (varianceVector[index++] == 0) {
+                    list.add(variable);
+                }
+            }
+        } else {
+            for (Node variable : statistics.getZeroVarianceVariables()) {
+                list.add(variable.getName());
             }
         }
 
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 University of Pittsburgh.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package edu.cmu.tetrad.cli.validation;
+
+import edu.cmu.tetrad.cli.util.FileIO;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.io.ContinuousSufficientStatistics;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ensure that no variable has the same values as another variable.
+ *
+ * @author Kevin V. Bui (kvb2@pitt.edu)
+ */
+public class UniqueColumns implements DataValidation {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UniqueColumns.class);
+
+    private final ContinuousSufficientStatistics statistics;
+
+    private final Path outputFile;
+
+    public UniqueColumns(ContinuousSufficientStatistics statistics) {
+        this(statistics, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param statistics statistics of the dataset to validate
+     * @param outputFile file to write out the duplicate variables
+     */
+    public UniqueColumns(ContinuousSufficientStatistics statistics, Path outputFile) {
+        this.statistics = statistics;
+        this.outputFile = outputFile;
+    }
+
+    @Override
+    public boolean validate(PrintStream stderr, boolean verbose) {
+        if (stderr == null) {
+            stderr = System.err;
+        }
+
+        Map<Node, Node> duplicates = statistics.getDuplicateVariables();
+
+        // only the duplicates are written out, so that the file can be used with '--exclude-variables'
+        List<String> list = new LinkedList<>();
+        for (Node variable : duplicates.keySet()) {
+            list.add(variable.getName());
+        }
+
+        int size = list.size();
+        if (size > 0) {
+            String errMsg = (size == 1)
+                    ? String.format("Dataset contains %d variable with the same values as another variable.  Please remove the variable from the dataset or use the '--exclude-variables' option to exclude it.", size)
+                    : String.format("Dataset contains %d variables with the same values as other variables.  Please remove the variables from the dataset or use the '--exclude-variables' option to exclude them.", size);
+            stderr.println(errMsg);
+            LOGGER.error(errMsg);
+
+            if (outputFile != null) {
+                try {
+                    FileIO.writeLineByLine(list, outputFile);
+                    errMsg = (size == 1)
+                            ? String.format("The name of the duplicate variable has been saved to file %s.", outputFile.getFileName().toString())
+                            : String.format("The names of the duplicate variables have been saved to file %s.", outputFile.getFileName().toString());
+                    stderr.println(errMsg);
+                    LOGGER.error(errMsg);
+                } catch (IOException exception) {
+                    errMsg = String.format("Unable to write variable names to file %s.", outputFile.getFileName().toString());
+                    System.err.println(errMsg);
+                    LOGGER.error(errMsg, exception);
+                }
+            }
+
+            if (verbose) {
+                for (Map.Entry<Node, Node> entry : duplicates.entrySet()) {
+                    errMsg = String.format("Variable '%s' has the same values as variable '%s'.", entry.getKey().getName(), entry.getValue().getName());
+                    stderr.println(errMsg);
+                    LOGGER.error(errMsg);
+                }
+            }
+        }
+
+        return size == 0;
+    }
+
+}
@@ -74,6 +74,7 @@ public final class SemEstimatorEditor extends JPanel {
         optimizerCombo.addItem("Powell");
         optimizerCombo.addItem("Random Search");
         optimizerCombo.addItem("RICF");
+        optimizerCombo.addItem("L-BFGS");
 
         optimizerCombo.addActionListener(new ActionListener() {
             @Override
@@ -307,6 +308,8 @@ public final class SemEstimatorEditor extends JPanel {
             optimizer = new SemOptimizerScattershot();
         } else if ("RICF".equals(type)) {
             optimizer = new SemOptimizerRicf();
+        } else if ("L-BFGS".equals(type)) {
+            optimizer = new SemOptimizerLbfgs();
         } else if ("Powell".equals(type)) {
             optimizer = new SemOptimizerPowell();
         } else {
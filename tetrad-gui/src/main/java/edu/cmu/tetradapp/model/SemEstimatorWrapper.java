@@ -378,6 +378,8 @@ public class SemEstimatorWrapper implements SessionModel, GraphSource, Unmarshal
             optimizer = new SemOptimizerScattershot();
         } else if ("RICF".equals(type)) {
             optimizer = new SemOptimizerRicf();
+        } else if ("L-BFGS".equals(type)) {
+            optimizer = new SemOptimizerLbfgs();
         } else if ("Powell".equals(type)) {
             optimizer = new SemOptimizerPowell();
         } else {
@@ -410,6 +412,8 @@ public class SemEstimatorWrapper implements SessionModel, GraphSource, Unmarshal
             _type = "Random Search";
         } else if (optimizer instanceof SemOptimizerRicf) {
             _type = "RICF";
+        } else if (optimizer instanceof SemOptimizerLbfgs) {
+            _type = "L-BFGS";
         }
 
         return _type;
@@ -747,7 +747,7 @@ public class Comparison {
                             }
                         }
 
-                        while (tasks.size() > Runtime.getRuntime().availableProcessors()) {
+                        while (tasks.size() > ExecutionContext.current().getParallelism()) {
                             AlgorithmTask _task = tasks.poll();
                             _task.join();
                         }
@@ -763,7 +763,7 @@ public class Comparison {
 
             Task task = new Task(tasks);
 
-            ForkJoinPoolInstance.getInstance().getPool().invoke(task);
+            ExecutionContext.current().invoke(task);
         }
 
         return allStats;
@@ -1437,7 +1437,7 @@ public class Comparison {
             this.graphs = new ArrayList<>();
             this.dataSets = new ArrayList<>();
             for (int i = 0; i < simulation.getNumDataSets(); i++) {
-                this.graphs.add(simulation.getTrueGraph(i));
+                this.graphs.add(new ColumnarGraph(simulation.getTrueGraph(i)));
                 this.dataSets.add(simulation.getDataSet(i));
             }
         }
@@ -1450,7 +1450,7 @@ public class Comparison {
         @Override
         public Graph getTrueGraph(int index) {
             if (graphs == null) return null;
-            else return new EdgeListGraph(graphs.get(index));
+            else return new ColumnarGraph(graphs.get(index));
         }
 
         @Override
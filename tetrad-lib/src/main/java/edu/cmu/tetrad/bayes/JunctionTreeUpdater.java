@@ -0,0 +1,887 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.bayes;
+
+import edu.cmu.tetrad.graph.Dag;
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.Node;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.*;
+
+/**
+ * Calculates updated marginals for a Bayes IM by message passing over a junction tree. The tree
+ * is compiled once from the moralized, triangulated graph of the Bayes IM; since manipulating a
+ * variable only removes edges into it, the same tree serves for any manipulation. Setting evidence
+ * invalidates the calibrated clique potentials, which are recalculated by one collect and one
+ * distribute pass the first time a marginal is asked for, after which the marginals of all variables,
+ * and the updated Bayes IM, are read off the calibrated potentials.
+ * </p>
+ * Cost is exponential in the size of the largest clique rather than in the number of variables, so
+ * networks with many variables can be updated as long as they are not too densely connected.
+ *
+ * @author Joseph Ramsey
+ */
+public final class JunctionTreeUpdater implements ManipulatingBayesUpdater {
+    static final long serialVersionUID = 23L;
+
+    /**
+     * The IM which this updater modifies.
+     *
+     * @serial Cannot be null.
+     */
+    private BayesIm bayesIm;
+
+    /**
+     * Stores evidence for all variables.
+     *
+     * @serial Cannot be null.
+     */
+    private Evidence evidence;
+
+    /**
+     * The manipulated Bayes IM--that is, bayesIm after the manipulations in
+     * evidence have been applied to it.
+     *
+     * @serial Cannot be null.
+     */
+    private BayesIm manipulatedBayesIm;
+
+    /**
+     * The IM after update, if this was calculated.
+     *
+     * @serial Can be null.
+     */
+    private BayesIm updatedBayesIm;
+
+    /**
+     * The compiled junction tree.
+     */
+    private transient JunctionTree tree;
+
+    /**
+     * Clique potentials with the CPTs of the manipulated IM multiplied in, before evidence.
+     */
+    private transient double[][] basePotentials;
+
+    /**
+     * Calibrated clique potentials for the evidence, or null if they have not been calculated
+     * or the evidence is impossible.
+     */
+    private transient double[][] potentials;
+
+    /**
+     * True if the potentials for the evidence have been calculated.
+     */
+    private transient boolean calibrated;
+
+    //==============================CONSTRUCTORS===========================//
+
+    public JunctionTreeUpdater(BayesIm bayesIm) {
+        this(bayesIm, Evidence.tautology(bayesIm));
+    }
+
+    /**
+     * Constructs a new updater for the given Bayes net.
+     */
+    public JunctionTreeUpdater(BayesIm bayesIm, Evidence evidence) {
+        if (bayesIm == null) {
+            throw new NullPointerException();
+        }
+
+        this.bayesIm = bayesIm;
+        setEvidence(evidence);
+    }
+
+    /**
+     * Generates a simple exemplar of this class to test serialization.
+     */
+    public static JunctionTreeUpdater serializableInstance() {
+        return new JunctionTreeUpdater(MlBayesIm.serializableInstance());
+    }
+
+    //============================PUBLIC METHODS==========================//
+
+    public BayesIm getBayesIm() {
+        return this.bayesIm;
+    }
+
+    public BayesIm getManipulatedBayesIm() {
+        return this.manipulatedBayesIm;
+    }
+
+    public Graph getManipulatedGraph() {
+        return getManipulatedBayesIm().getDag();
+    }
+
+    public BayesIm getUpdatedBayesIm() {
+        if (updatedBayesIm == null) {
+            updateAll();
+        }
+
+        return this.updatedBayesIm;
+    }
+
+    public Evidence getEvidence() {
+        return new Evidence(this.evidence);
+    }
+
+    public void setEvidence(Evidence evidence) {
+        if (evidence == null) {
+            throw new NullPointerException();
+        }
+
+        if (evidence.isIncompatibleWith(bayesIm)) {
+            throw new IllegalArgumentException("The variable list for this evidence " +
+                    "must be compatible with the variable list of the stored IM.");
+        }
+
+        boolean manipulationChanged = this.evidence == null;
+
+        for (int i = 0; i < evidence.getNumNodes() && !manipulationChanged; i++) {
+            manipulationChanged = evidence.isManipulated(i) != this.evidence.isManipulated(i);
+        }
+
+        this.evidence = new Evidence(evidence);
+
+        if (manipulationChanged || manipulatedBayesIm == null) {
+            Dag manipulatedGraph = createManipulatedGraph(bayesIm.getBayesPm().getDag());
+            BayesPm manipulatedBayesPm = new BayesPm(manipulatedGraph, bayesIm.getBayesPm());
+            this.manipulatedBayesIm = new MlBayesIm(manipulatedBayesPm, bayesIm, MlBayesIm.RANDOM);
+            this.basePotentials = null;
+        }
+
+        this.updatedBayesIm = null;
+        this.potentials = null;
+        this.calibrated = false;
+    }
+
+    public double getMarginal(int variable, int category) {
+        double[][] potentials = getPotentials();
+        if (potentials == null) return Double.NaN;
+        return getTree().marginal(potentials, variable)[category];
+    }
+
+    public boolean isJointMarginalSupported() {
+        return true;
+    }
+
+    /**
+     * @return P(variables[i] = values[i] for all i | evidence). If the variables are all in one clique
+     * this is read off the calibrated potentials; otherwise it is calculated by the chain rule, with
+     * one calibration for each variable after the first.
+     */
+    public double getJointMarginal(int[] variables, int[] values) {
+        if (variables.length != values.length) {
+            throw new IllegalArgumentException("Values must match variables.");
+        }
+
+        double[][] potentials = getPotentials();
+        if (potentials == null) return Double.NaN;
+
+        JunctionTree tree = getTree();
+        int clique = tree.cliqueContaining(variables);
+
+        if (clique != -1) {
+            return tree.jointMarginal(potentials, clique, variables, values);
+        }
+
+        boolean[][] allowed = allowed(evidence.getProposition());
+        double p = 1.0;
+
+        for (int i = 0; i < variables.length; i++) {
+            double q = tree.marginal(potentials, variables[i])[values[i]];
+            p *= q;
+
+            if (p == 0.0 || i == variables.length - 1) break;
+
+            Arrays.fill(allowed[variables[i]], false);
+            allowed[variables[i]][values[i]] = true;
+            potentials = tree.calibrate(getBasePotentials(), allowed);
+        }
+
+        return p;
+    }
+
+    public double[] calculatePriorMarginals(int nodeIndex) {
+        Evidence evidence = getEvidence();
+        setEvidence(Evidence.tautology(evidence.getVariableSource()));
+
+        double[] marginals = new double[evidence.getNumCategories(nodeIndex)];
+
+        for (int i = 0; i < getBayesIm().getNumColumns(nodeIndex); i++) {
+            marginals[i] = getMarginal(nodeIndex, i);
+        }
+
+        setEvidence(evidence);
+        return marginals;
+    }
+
+    public double[] calculateUpdatedMarginals(int nodeIndex) {
+        double[][] potentials = getPotentials();
+
+        if (potentials == null) {
+            double[] marginals = new double[evidence.getNumCategories(nodeIndex)];
+            Arrays.fill(marginals, Double.NaN);
+            return marginals;
+        }
+
+        return getTree().marginal(potentials, nodeIndex);
+    }
+
+    /**
+     * @return the size of the largest clique table of the junction tree.
+     */
+    public int getMaxCliqueSize() {
+        return getTree().maxTableSize();
+    }
+
+    /**
+     * Prints out the most recent marginal.
+     */
+    public String toString() {
+        return "Junction tree updater, evidence = " + evidence;
+    }
+
+    //==============================PRIVATE METHODS=======================//
+
+    private JunctionTree getTree() {
+        if (tree == null) {
+            tree = new JunctionTree(bayesIm);
+        }
+
+        return tree;
+    }
+
+    private double[][] getBasePotentials() {
+        if (basePotentials == null) {
+            boolean[] manipulated = new boolean[bayesIm.getNumNodes()];
+
+            for (int i = 0; i < manipulated.length; i++) {
+                manipulated[i] = evidence.isManipulated(i);
+            }
+
+            basePotentials = getTree().basePotentials(bayesIm, manipulated);
+        }
+
+        return basePotentials;
+    }
+
+    private double[][] getPotentials() {
+        if (!calibrated) {
+            potentials = getTree().calibrate(getBasePotentials(), allowed(evidence.getProposition()));
+            calibrated = true;
+        }
+
+        return potentials;
+    }
+
+    private boolean[][] allowed(Proposition proposition) {
+        boolean[][] allowed = new boolean[bayesIm.getNumNodes()][];
+
+        for (int i = 0; i < allowed.length; i++) {
+            allowed[i] = new boolean[bayesIm.getNumColumns(i)];
+
+            for (int j = 0; j < allowed[i].length; j++) {
+                allowed[i][j] = proposition.isAllowed(i, j);
+            }
+        }
+
+        return allowed;
+    }
+
+    // Conditional probabilities of each variable given its parents in the manipulated IM, given the
+    // evidence.
+    private void updateAll() {
+        BayesIm updatedBayesIm = new MlBayesIm(manipulatedBayesIm);
+        double[][] potentials = getPotentials();
+        JunctionTree tree = getTree();
+
+        for (int node = 0; node < manipulatedBayesIm.getNumNodes(); node++) {
+            int numRows = manipulatedBayesIm.getNumRows(node);
+            int numCols = manipulatedBayesIm.getNumColumns(node);
+            int[] parents = manipulatedBayesIm.getParents(node);
+
+            // The family in the indices of bayesIm, parents first.
+            int[] family = new int[parents.length + 1];
+
+            for (int k = 0; k < parents.length; k++) {
+                family[k] = bayesIm.getNodeIndex(bayesIm.getNode(manipulatedBayesIm.getNode(parents[k]).getName()));
+            }
+
+            family[parents.length] = bayesIm.getNodeIndex(bayesIm.getNode(manipulatedBayesIm.getNode(node).getName()));
+
+            double[] joint = potentials == null ? null : tree.familyMarginal(potentials, family);
+
+            for (int row = 0; row < numRows; row++) {
+                int[] parentValues = manipulatedBayesIm.getParentValues(node, row);
+                int base = 0;
+
+                for (int k = 0; k < parents.length; k++) {
+                    base = base * manipulatedBayesIm.getParentDim(node, k) + parentValues[k];
+                }
+
+                base *= numCols;
+                double sum = 0.0;
+
+                if (joint != null) {
+                    for (int col = 0; col < numCols; col++) {
+                        sum += joint[base + col];
+                    }
+                }
+
+                for (int col = 0; col < numCols; col++) {
+                    double p = sum == 0.0 ? Double.NaN : joint[base + col] / sum;
+                    updatedBayesIm.setProbability(node, row, col, p);
+                }
+            }
+        }
+
+        this.updatedBayesIm = updatedBayesIm;
+    }
+
+    private Dag createManipulatedGraph(Graph graph) {
+        Dag updatedGraph = new Dag(graph);
+
+        for (int i = 0; i < evidence.getNumNodes(); ++i) {
+            if (evidence.isManipulated(i)) {
+                Node node = updatedGraph.getNode(evidence.getNode(i).getName());
+                List<Node> parents = updatedGraph.getParents(node);
+
+                for (Node parent : parents) {
+                    updatedGraph.removeEdge(node, parent);
+                }
+            }
+        }
+
+        return updatedGraph;
+    }
+
+    /**
+     * Adds semantic checks to the default deserialization method. This method
+     * must have the standard signature for a readObject method, and the body of
+     * the method must begin with "s.defaultReadObject();". Other than that, any
+     * semantic checks can be specified and do not need to stay the same from
+     * version to version. A readObject method of this form may be added to any
+     * class, even if Tetrad sessions were previously saved out using a version
+     * of the class that didn't include it. (That's what the
+     * "s.defaultReadObject();" is for. See J. Bloch, Effective Java, for help.
+     *
+     * @throws java.io.IOException
+     * @throws ClassNotFoundException
+     */
+    private void readObject(ObjectInputStream s)
+            throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+
+        if (bayesIm == null) {
+            throw new NullPointerException();
+        }
+
+        if (evidence == null) {
+            throw new NullPointerException();
+        }
+
+        if (manipulatedBayesIm == null) {
+            throw new NullPointerException();
+        }
+    }
+
+    /**
+     * A junction tree for the moral graph of a Bayes IM, with variables indexed as in the IM. Clique
+     * tables are indexed with the clique's variables in increasing order, the last varying fastest.
+     */
+    private static final class JunctionTree {
+
+        // Number of categories of each variable.
+        private final int[] dims;
+
+        // Variables of each clique, in increasing order.
+        private final int[][] cliques;
+
+        // Strides of the variables of each clique in its table.
+        private final int[][] strides;
+
+        // Table size of each clique.
+        private final int[] sizes;
+
+        // Parent of each clique in the tree, or -1 for the root.
+        private final int[] parent;
+
+        // Cliques in breadth first order from the root.
+        private final int[] order;
+
+        // For each non-root clique, the index into the separator table with its parent of each
+        // entry of its table, and of each entry of its parent's table.
+        private final int[][] childToSeparator;
+        private final int[][] parentToSeparator;
+        private final int[] separatorSizes;
+
+        // The smallest clique containing each variable.
+        private final int[] home;
+
+        // A clique containing each variable and its parents, to which its CPT is assigned.
+        private final int[] familyClique;
+
+        private JunctionTree(BayesIm bayesIm) {
+            int n = bayesIm.getNumNodes();
+            this.dims = new int[n];
+
+            BitSet[] adj = new BitSet[n];
+
+            for (int i = 0; i < n; i++) {
+                dims[i] = bayesIm.getNumColumns(i);
+                adj[i] = new BitSet(n);
+            }
+
+            // Moralize.
+            for (int i = 0; i < n; i++) {
+                int[] parents = bayesIm.getParents(i);
+
+                for (int p : parents) {
+                    adj[i].set(p);
+                    adj[p].set(i);
+
+                    for (int q : parents) {
+                        if (p != q) adj[p].set(q);
+                    }
+                }
+            }
+
+            List<BitSet> _cliques = triangulate(adj);
+            int numCliques = _cliques.size();
+
+            this.cliques = new int[numCliques][];
+            this.strides = new int[numCliques][];
+            this.sizes = new int[numCliques];
+
+            for (int c = 0; c < numCliques; c++) {
+                BitSet clique = _cliques.get(c);
+                int[] vars = new int[clique.cardinality()];
+                int k = 0;
+
+                for (int v = clique.nextSetBit(0); v >= 0; v = clique.nextSetBit(v + 1)) {
+                    vars[k++] = v;
+                }
+
+                cliques[c] = vars;
+                strides[c] = new int[vars.length];
+                long size = 1;
+
+                for (int j = vars.length - 1; j >= 0; j--) {
+                    strides[c][j] = (int) size;
+                    size *= dims[vars[j]];
+
+                    if (size > Integer.MAX_VALUE - 8) {
+                        throw new IllegalArgumentException("The Bayes net is too densely connected for " +
+                                "junction tree updating; a clique has more than " + Integer.MAX_VALUE + " cells.");
+                    }
+                }
+
+                sizes[c] = (int) size;
+            }
+
+            // Maximum spanning tree on separator sizes (Prim).
+            this.parent = new int[numCliques];
+            this.order = new int[numCliques];
+            boolean[] inTree = new boolean[numCliques];
+            int[] best = new int[numCliques];
+            int[] bestWeight = new int[numCliques];
+            Arrays.fill(parent, -1);
+            Arrays.fill(bestWeight, -1);
+            bestWeight[0] = 0;
+            best[0] = -1;
+
+            for (int k = 0; k < numCliques; k++) {
+                int next = -1;
+
+                for (int c = 0; c < numCliques; c++) {
+                    if (!inTree[c] && (next == -1 || bestWeight[c] > bestWeight[next])) next = c;
+                }
+
+                inTree[next] = true;
+                parent[next] = best[next];
+                order[k] = next;
+
+                for (int c = 0; c < numCliques; c++) {
+                    if (inTree[c]) continue;
+                    BitSet sep = (BitSet) _cliques.get(c).clone();
+                    sep.and(_cliques.get(next));
+                    int weight = sep.cardinality();
+
+                    if (weight > bestWeight[c]) {
+                        bestWeight[c] = weight;
+                        best[c] = next;
+                    }
+                }
+            }
+
+            // Separators.
+            this.childToSeparator = new int[numCliques][];
+            this.parentToSeparator = new int[numCliques][];
+            this.separatorSizes = new int[numCliques];
+
+            for (int c = 0; c < numCliques; c++) {
+                int p = parent[c];
+                if (p == -1) continue;
+
+                BitSet _sep = (BitSet) _cliques.get(c).clone();
+                _sep.and(_cliques.get(p));
+                int[] sep = new int[_sep.cardinality()];
+                int k = 0;
+
+                for (int v = _sep.nextSetBit(0); v >= 0; v = _sep.nextSetBit(v + 1)) {
+                    sep[k++] = v;
+                }
+
+                int[] sepStrides = new int[sep.length];
+                int size = 1;
+
+                for (int j = sep.length - 1; j >= 0; j--) {
+                    sepStrides[j] = size;
+                    size *= dims[sep[j]];
+                }
+
+                separatorSizes[c] = size;
+                childToSeparator[c] = project(c, sep, sepStrides);
+                parentToSeparator[c] = project(p, sep, sepStrides);
+            }
+
+            // Homes of variables and CPTs.
+            this.home = new int[n];
+            this.familyClique = new int[n];
+
+            for (int i = 0; i < n; i++) {
+                home[i] = smallestContaining(new int[]{i});
+
+                int[] parents = bayesIm.getParents(i);
+                int[] family = Arrays.copyOf(parents, parents.length + 1);
+                family[parents.length] = i;
+                familyClique[i] = smallestContaining(family);
+            }
+        }
+
+        // Eliminates variables greedily, each time the one whose clique with its neighbors has the
+        // smallest table, and returns the maximal elimination cliques.
+        private List<BitSet> triangulate(BitSet[] adj) {
+            int n = adj.length;
+            BitSet[] _adj = new BitSet[n];
+
+            for (int i = 0; i < n; i++) {
+                _adj[i] = (BitSet) adj[i].clone();
+            }
+
+            boolean[] eliminated = new boolean[n];
+            List<BitSet> cliques = new ArrayList<>();
+
+            for (int k = 0; k < n; k++) {
+                int next = -1;
+                double nextWeight = Double.POSITIVE_INFINITY;
+
+                for (int v = 0; v < n; v++) {
+                    if (eliminated[v]) continue;
+                    double weight = Math.log(dims[v]);
+
+                    for (int w = _adj[v].nextSetBit(0); w >= 0; w = _adj[v].nextSetBit(w + 1)) {
+                        weight += Math.log(dims[w]);
+                    }
+
+                    if (weight < nextWeight) {
+                        next = v;
+                        nextWeight = weight;
+                    }
+                }
+
+                BitSet clique = (BitSet) _adj[next].clone();
+                clique.set(next);
+
+                for (int w = _adj[next].nextSetBit(0); w >= 0; w = _adj[next].nextSetBit(w + 1)) {
+                    _adj[w].or(_adj[next]);
+                    _adj[w].clear(w);
+                    _adj[w].clear(next);
+                }
+
+                eliminated[next] = true;
+
+                boolean contained = false;
+
+                for (BitSet other : cliques) {
+                    BitSet _clique = (BitSet) clique.clone();
+                    _clique.andNot(other);
+
+                    if (_clique.isEmpty()) {
+                        contained = true;
+                        break;
+                    }
+                }
+
+                if (!contained) cliques.add(clique);
+            }
+
+            return cliques;
+        }
+
+        // For each entry of the table of clique c, the index of its values of vars in a table with the
+        // given strides.
+        private int[] project(int c, int[] vars, int[] varStrides) {
+            int[] cliqueVars = cliques[c];
+            int[] positions = new int[vars.length];
+
+            for (int j = 0; j < vars.length; j++) {
+                positions[j] = Arrays.binarySearch(cliqueVars, vars[j]);
+            }
+
+            int[] map = new int[sizes[c]];
+
+            for (int idx = 0; idx < map.length; idx++) {
+                int index = 0;
+
+                for (int j = 0; j < vars.length; j++) {
+                    int pos = positions[j];
+                    index += ((idx / strides[c][pos]) % dims[cliqueVars[pos]]) * varStrides[j];
+                }
+
+                map[idx] = index;
+            }
+
+            return map;
+        }
+
+        private int smallestContaining(int[] vars) {
+            int best = -1;
+
+            for (int c = 0; c < cliques.length; c++) {
+                if (contains(c, vars) && (best == -1 || sizes[c] < sizes[best])) best = c;
+            }
+
+            return best;
+        }
+
+        private int cliqueContaining(int[] vars) {
+            return smallestContaining(vars);
+        }
+
+        private boolean contains(int c, int[] vars) {
+            for (int v : vars) {
+                if (Arrays.binarySearch(cliques[c], v) < 0) return false;
+            }
+
+            return true;
+        }
+
+        private int maxTableSize() {
+            int max = 0;
+            for (int size : sizes) max = Math.max(max, size);
+            return max;
+        }
+
+        // Clique tables with the CPT of each variable multiplied into its family's clique. Manipulated
+        // variables get a uniform distribution with no parents.
+        private double[][] basePotentials(BayesIm bayesIm, boolean[] manipulated) {
+            double[][] potentials = new double[cliques.length][];
+
+            for (int c = 0; c < cliques.length; c++) {
+                potentials[c] = new double[sizes[c]];
+                Arrays.fill(potentials[c], 1.0);
+            }
+
+            for (int i = 0; i < dims.length; i++) {
+                int c = familyClique[i];
+                double[] table = potentials[c];
+                int pos = Arrays.binarySearch(cliques[c], i);
+
+                if (manipulated[i]) {
+                    for (int idx = 0; idx < table.length; idx++) {
+                        table[idx] /= dims[i];
+                    }
+
+                    continue;
+                }
+
+                int[] parents = bayesIm.getParents(i);
+                int[] parentPositions = new int[parents.length];
+
+                for (int k = 0; k < parents.length; k++) {
+                    parentPositions[k] = Arrays.binarySearch(cliques[c], parents[k]);
+                }
+
+                int[] parentValues = new int[parents.length];
+
+                for (int idx = 0; idx < table.length; idx++) {
+                    for (int k = 0; k < parents.length; k++) {
+                        int _pos = parentPositions[k];
+                        parentValues[k] = (idx / strides[c][_pos]) % dims[parents[k]];
+                    }
+
+                    int row = bayesIm.getRowIndex(i, parentValues);
+                    int col = (idx / strides[c][pos]) % dims[i];
+                    table[idx] *= bayesIm.getProbability(i, row, col);
+                }
+            }
+
+            return potentials;
+        }
+
+        // Hugin propagation: collect to the root, then distribute from it. Each message is normalized,
+        // and each calibrated clique table is P(clique | evidence). Returns null if the evidence has
+        // probability zero.
+        private double[][] calibrate(double[][] base, boolean[][] allowed) {
+            int numCliques = cliques.length;
+            double[][] potentials = new double[numCliques][];
+
+            for (int c = 0; c < numCliques; c++) {
+                potentials[c] = Arrays.copyOf(base[c], base[c].length);
+            }
+
+            for (int v = 0; v < allowed.length; v++) {
+                boolean restricted = false;
+
+                for (boolean a : allowed[v]) {
+                    if (!a) restricted = true;
+                }
+
+                if (!restricted) continue;
+
+                int c = home[v];
+                double[] table = potentials[c];
+                int stride = strides[c][Arrays.binarySearch(cliques[c], v)];
+
+                for (int idx = 0; idx < table.length; idx++) {
+                    if (!allowed[v][(idx / stride) % dims[v]]) table[idx] = 0.0;
+                }
+            }
+
+            double[][] separators = new double[numCliques][];
+
+            for (int k = numCliques - 1; k >= 0; k--) {
+                int c = order[k];
+                int p = parent[c];
+
+                if (p == -1) {
+                    if (!normalize(potentials[c])) return null;
+                    continue;
+                }
+
+                double[] message = marginalize(potentials[c], childToSeparator[c], separatorSizes[c]);
+                if (!normalize(message)) return null;
+                separators[c] = message;
+
+                double[] parentTable = potentials[p];
+                int[] map = parentToSeparator[c];
+
+                for (int idx = 0; idx < parentTable.length; idx++) {
+                    parentTable[idx] *= message[map[idx]];
+                }
+            }
+
+            for (int k = 0; k < numCliques; k++) {
+                int c = order[k];
+                int p = parent[c];
+                if (p == -1) continue;
+
+                double[] message = marginalize(potentials[p], parentToSeparator[c], separatorSizes[c]);
+                double[] old = separators[c];
+                double[] table = potentials[c];
+                int[] map = childToSeparator[c];
+
+                for (int idx = 0; idx < table.length; idx++) {
+                    double o = old[map[idx]];
+                    table[idx] = o == 0.0 ? 0.0 : table[idx] * message[map[idx]] / o;
+                }
+
+                normalize(table);
+            }
+
+            return potentials;
+        }
+
+        private double[] marginal(double[][] potentials, int v) {
+            int c = home[v];
+            double[] table = potentials[c];
+            int stride = strides[c][Arrays.binarySearch(cliques[c], v)];
+            double[] marginal = new double[dims[v]];
+
+            for (int idx = 0; idx < table.length; idx++) {
+                marginal[(idx / stride) % dims[v]] += table[idx];
+            }
+
+            return marginal;
+        }
+
+        private double jointMarginal(double[][] potentials, int c, int[] vars, int[] values) {
+            double[] table = potentials[c];
+            int[] varStrides = new int[vars.length];
+
+            for (int j = 0; j < vars.length; j++) {
+                varStrides[j] = strides[c][Arrays.binarySearch(cliques[c], vars[j])];
+            }
+
+            double p = 0.0;
+
+            for (int idx = 0; idx < table.length; idx++) {
+                boolean match = true;
+
+                for (int j = 0; j < vars.length && match; j++) {
+                    match = (idx / varStrides[j]) % dims[vars[j]] == values[j];
+                }
+
+                if (match) p += table[idx];
+            }
+
+            return p;
+        }
+
+        // The joint of the given variables, which must be in one clique, indexed in the given order
+        // with the last varying fastest.
+        private double[] familyMarginal(double[][] potentials, int[] family) {
+            int c = cliqueContaining(family);
+            int[] familyStrides = new int[family.length];
+            int size = 1;
+
+            for (int j = family.length - 1; j >= 0; j--) {
+                familyStrides[j] = size;
+                size *= dims[family[j]];
+            }
+
+            return marginalize(potentials[c], project(c, family, familyStrides), size);
+        }
+
+        private static double[] marginalize(double[] table, int[] map, int size) {
+            double[] marginal = new double[size];
+
+            for (int idx = 0; idx < table.length; idx++) {
+                marginal[map[idx]] += table[idx];
+            }
+
+            return marginal;
+        }
+
+        private static boolean normalize(double[] table) {
+            double sum = 0.0;
+            for (double d : table) sum += d;
+            if (!(sum > 0.0)) return false;
+            for (int i = 0; i < table.length; i++) table[i] /= sum;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.calculator.expression;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An expression compiled for repeated evaluation. Variables are read from slots of a double array
+ * rather than looked up by name in a Context, parameters are replaced by their values, and the
+ * common operators and the Normal and Uniform distributions are evaluated directly, the latter with
+ * a random generator supplied by the caller, so that independent evaluations may be made in parallel
+ * with generators of their own. Any other expression is evaluated as is, with a Context over the
+ * slots; such parts take their random draws, if any, from RandomUtil rather than from the generator
+ * passed in, so an expression that has them should only be evaluated from one thread at a time.
+ *
+ * @author Joseph Ramsey
+ */
+public abstract class CompiledExpression {
+
+    // True if some part of the expression is interpreted.
+    private boolean interpreted = false;
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param values The values of the variables, by slot.
+     * @param random The generator for random draws.
+     */
+    public abstract double evaluate(double[] values, RandomGenerator random);
+
+    /**
+     * Compiles the given expression.
+     *
+     * @param expression The expression.
+     * @param slots      The slot of each variable.
+     * @param constants  The value of each parameter. Names are looked up here before in slots.
+     * @throws IllegalArgumentException if a variable in the expression is neither a slot nor a constant.
+     */
+    public static CompiledExpression compile(Expression expression, Map<String, Integer> slots,
+                                             Map<String, Double> constants) {
+        if (expression instanceof ConstantExpression) {
+            return new Constant(expression.evaluate(null));
+        }
+
+        if (expression instanceof VariableExpression) {
+            String name = ((VariableExpression) expression).getVariable();
+            Double value = constants.get(name);
+            if (value != null) return new Constant(value);
+            Integer slot = slots.get(name);
+            if (slot == null) throw new IllegalArgumentException("No value recorded for '" + name + "'");
+            return new Slot(slot);
+        }
+
+        List<Expression> expressions = expression.getExpressions();
+        final CompiledExpression[] args = new CompiledExpression[expressions.size()];
+
+        for (int i = 0; i < args.length; i++) {
+            args[i] = compile(expressions.get(i), slots, constants);
+        }
+
+        CompiledExpression compiled = compile(expression, args, slots, constants);
+
+        for (CompiledExpression arg : args) {
+            if (arg.interpreted) compiled.interpreted = true;
+        }
+
+        return compiled;
+    }
+
+    /**
+     * @return true if some part of the expression has no compiled form and is evaluated as is. Random draws in
+     * such parts come from RandomUtil, not from the generator passed to evaluate, so the results of evaluations
+     * made in parallel depend on how the threads interleave.
+     */
+    public boolean isInterpreted() {
+        return interpreted;
+    }
+
+    // Compiles an expression that is neither a constant nor a variable, given its compiled arguments.
+    private static CompiledExpression compile(Expression expression, final CompiledExpression[] args,
+                                              Map<String, Integer> slots, Map<String, Double> constants) {
+        String token = expression.getToken();
+
+        if (args.length == 1) {
+            final CompiledExpression a = args[0];
+
+            switch (token) {
+                case "+":
+                case "*":
+                case "max":
+                case "min":
+                    return a;
+                case "-":
+                    return new CompiledExpression() {
+                        public double evaluate(double[] values, RandomGenerator random) {
+                            return -a.evaluate(values, random);
+                        }
+                    };
+                case "exp":
+                case "ln":
+                case "log10":
+                case "sqrt":
+                case "abs":
+                case "signum":
+                case "floor":
+                case "ceil":
+                case "round":
+                case "sin":
+                case "cos":
+                case "tan":
+                case "sinh":
+                case "cosh":
+                case "tanh":
+                case "asin":
+                case "acos":
+                case "atan":
+                case "logistic":
+                    return new Function(token, a);
+            }
+        }
+
+        if (args.length == 2) {
+            final CompiledExpression a = args[0];
+            final CompiledExpression b = args[1];
+
+            switch (token) {
+                case "-":
+                    return new CompiledExpression() {
+                        public double evaluate(double[] values, RandomGenerator random) {
+                            return a.evaluate(values, random) - b.evaluate(values, random);
+                        }
+                    };
+                case "/":
+                    return new CompiledExpression() {
+                        public double evaluate(double[] values, RandomGenerator random) {
+                            return a.evaluate(values, random) / b.evaluate(values, random);
+                        }
+                    };
+                case "^":
+                case "pow":
+                    return new CompiledExpression() {
+                        public double evaluate(double[] values, RandomGenerator random) {
+                            return Math.pow(a.evaluate(values, random), b.evaluate(values, random));
+                        }
+                    };
+                case "N":
+                case "Normal":
+                    return new CompiledExpression() {
+                        public double evaluate(double[] values, RandomGenerator random) {
+                            double mean = a.evaluate(values, random);
+                            double sd = b.evaluate(values, random);
+
+                            if (!(sd > 0)) {
+                                throw new IllegalArgumentException("Standard deviation must be positive: " + sd);
+                            }
+
+                            return sd * random.nextGaussian() + mean;
+                        }
+                    };
+                case "U":
+                case "Uniform":
+                    return new CompiledExpression() {
+                        public double evaluate(double[] values, RandomGenerator random) {
+                            double lower = a.evaluate(values, random);
+                            double upper = b.evaluate(values, random);
+
+                            if (!(lower < upper)) {
+                                throw new IllegalArgumentException("Lower bound must be less than upper: "
+                                        + lower + " >= " + upper);
+                            }
+
+                            double u = random.nextDouble();
+                            return u * upper + (1 - u) * lower;
+                        }
+                    };
+            }
+        }
+
+        if (args.length >= 1) {
+            switch (token) {
+                case "+":
+                    return new CompiledExpression() {
+                        public double evaluate(double[] values, RandomGenerator random) {
+                            double value = 0.0;
+                            for (CompiledExpression arg : args) value += arg.evaluate(values, random);
+                            return value;
+                        }
+                    };
+                case "*":
+                    return new CompiledExpression() {
+                        public double evaluate(double[] values, RandomGenerator random) {
+                            double value = 1.0;
+                            for (CompiledExpression arg : args) value *= arg.evaluate(values, random);
+                            return value;
+                        }
+                    };
+                case "max":
+                    return new CompiledExpression() {
+                        public double evaluate(double[] values, RandomGenerator random) {
+                            double max = args[0].evaluate(values, random);
+
+                            for (int i = 1; i < args.length; i++) {
+                                double d = args[i].evaluate(values, random);
+                                if (max < d) max = d;
+                            }
+
+                            return max;
+                        }
+                    };
+                case "min":
+                    return new CompiledExpression() {
+                        public double evaluate(double[] values, RandomGenerator random) {
+                            double min = args[0].evaluate(values, random);
+
+                            for (int i = 1; i < args.length; i++) {
+                                double d = args[i].evaluate(values, random);
+                                if (min > d) min = d;
+                            }
+
+                            return min;
+                        }
+                    };
+            }
+        }
+
+        CompiledExpression interpreted = new Interpreted(expression, slots, constants);
+        interpreted.interpreted = true;
+        return interpreted;
+    }
+
+    private static final class Constant extends CompiledExpression {
+        private final double value;
+
+        private Constant(double value) {
+            this.value = value;
+        }
+
+        public double evaluate(double[] values, RandomGenerator random) {
+            return value;
+        }
+    }
+
+    private static final class Slot extends CompiledExpression {
+        private final int slot;
+
+        private Slot(int slot) {
+            this.slot = slot;
+        }
+
+        public double evaluate(double[] values, RandomGenerator random) {
+            return values[slot];
+        }
+    }
+
+    private static final class Function extends CompiledExpression {
+        private final int function;
+        private final CompiledExpression arg;
+
+        private static final String[] FUNCTIONS = {"exp", "ln", "log10", "sqrt", "abs", "signum", "floor", "ceil",
+                "round", "sin", "cos", "tan", "sinh", "cosh", "tanh", "asin", "acos", "atan", "logistic"};
+
+        private Function(String token, CompiledExpression arg) {
+            this.function = Arrays.asList(FUNCTIONS).indexOf(token);
+            this.arg = arg;
+        }
+
+        public double evaluate(double[] values, RandomGenerator random) {
+            double x = arg.evaluate(values, random);
+
+            switch (function) {
+                case 0:
+                    return Math.exp(x);
+                case 1:
+                    return Math.log(x);
+                case 2:
+                    return Math.log10(x);
+                case 3:
+                    return Math.sqrt(x);
+                case 4:
+                    return Math.abs(x);
+                case 5:
+                    return Math.signum(x);
+                case 6:
+                    return Math.floor(x);
+                case 7:
+                    return Math.ceil(x);
+                case 8:
+                    return Math.round(x);
+                case 9:
+                    return Math.sin(x);
+                case 10:
+                    return Math.cos(x);
+                case 11:
+                    return Math.tan(x);
+                case 12:
+                    return Math.sinh(x);
+                case 13:
+                    return Math.cosh(x);
+                case 14:
+                    return Math.tanh(x);
+                case 15:
+                    return Math.asin(x);
+                case 16:
+                    return Math.acos(x);
+                case 17:
+                    return Math.atan(x);
+                default:
+                    return 1.0 / (1.0 + Math.exp(-x));
+            }
+        }
+    }
+
+    // An expression with no compiled form, evaluated by name.
+    private static final class Interpreted extends CompiledExpression {
+        private final Expression expression;
+        private final Map<String, Integer> slots;
+        private final Map<String, Double> constants;
+
+        private Interpreted(Expression expression, Map<String, Integer> slots, Map<String, Double> constants) {
+            this.expression = expression;
+            this.slots = slots;
+            this.constants = constants;
+        }
+
+        public double evaluate(final double[] values, RandomGenerator random) {
+            return expression.evaluate(new Context() {
+                public Double getValue(String term) {
+                    Double value = constants.get(term);
+                    if (value != null) return value;
+                    Integer slot = slots.get(term);
+                    if (slot != null) return values[slot];
+                    throw new IllegalArgumentException("No value recorded for '" + term + "'");
+                }
+            });
+        }
+    }
+}
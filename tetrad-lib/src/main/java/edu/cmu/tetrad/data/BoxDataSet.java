@@ -210,9 +210,12 @@ public final class BoxDataSet implements DataSet, TetradSerializable {
     /**
      * Sets the value at the given (row, column) to the given int value,
      * assuming the variable for the column is discrete.
+     * Setting a value outside the data grows the data.
      *
      * @param row    The index of the case.
      * @param column The index of the variable.
+     * @throws UnsupportedOperationException if the data box is read-only, as a
+     *                                       MappedDataBox is.
      */
     public final void setInt(int row, int column, int value) {
         Node variable = getVariable(column);
@@ -240,6 +243,8 @@ public final class BoxDataSet implements DataSet, TetradSerializable {
 
         try {
             setIntPrivate(row, column, value);
+        } catch (UnsupportedOperationException e) {
+            throw e;
         } catch (Exception e) {
             if (row < 0 || column < 0) {
                 throw new IllegalArgumentException(
@@ -256,13 +261,18 @@ public final class BoxDataSet implements DataSet, TetradSerializable {
     /**
      * Sets the value at the given (row, column) to the given double value,
      * assuming the variable for the column is continuous.
+     * Setting a value outside the data grows the data.
      *
      * @param row    The index of the case.
      * @param column The index of the variable.
+     * @throws UnsupportedOperationException if the data box is read-only, as a
+     *                                       MappedDataBox is.
      */
     public final void setDouble(int row, int column, double value) {
         try {
             dataBox.set(row, column, value);
+        } catch (UnsupportedOperationException e) {
+            throw e;
         } catch (Exception e) {
             if (row < 0 || column < 0) {
                 throw new IllegalArgumentException(
@@ -0,0 +1,271 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+
+package edu.cmu.tetrad.data;
+
+import edu.cmu.tetrad.graph.Node;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes data sets in a compact binary columnar format, so that large data sets can be opened
+ * without parsing text and without copying the data onto the heap. The file starts with a header giving
+ * the number of rows and columns and, for each column, the variable name, whether it is continuous or
+ * discrete (with its categories), how its values are stored (as doubles, floats, ints or bytes) and the
+ * file offset of its block of values. The column blocks follow, each aligned to 8 bytes, with values
+ * stored big-endian, row by row. Missing values are stored as NaN for continuous columns and -99 for
+ * discrete columns.
+ * <p>
+ * Files are opened with <code>open</code>, which memory maps them using a {@link MappedDataBox}.
+ *
+ * @author Joseph Ramsey
+ */
+public final class ColumnarDataFile {
+
+    /**
+     * Marks the start of a columnar data file.
+     */
+    public static final long MAGIC = 0x5445545241444342L;  // "TETRADCB"
+
+    /**
+     * The version of the format written.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Storage types of column blocks.
+     */
+    public static final byte DOUBLE = 0;
+    public static final byte FLOAT = 1;
+    public static final byte INT = 2;
+    public static final byte BYTE = 3;
+
+    static final byte CONTINUOUS = 0;
+    static final byte DISCRETE = 1;
+
+    private ColumnarDataFile() {
+    }
+
+    /**
+     * Writes the given data set to the given file, storing continuous columns as doubles.
+     *
+     * @param dataSet A data set with only continuous and discrete variables.
+     * @param file    The file to write.
+     */
+    public static void write(DataSet dataSet, File file) throws IOException {
+        write(dataSet, file, false);
+    }
+
+    /**
+     * Writes the given data set to the given file. Discrete columns are stored as bytes if they have at
+     * most 127 categories and as ints otherwise.
+     *
+     * @param dataSet A data set with only continuous and discrete variables.
+     * @param file    The file to write.
+     * @param floats  True if continuous columns should be stored as floats, halving their size at the
+     *                cost of precision.
+     */
+    public static void write(DataSet dataSet, File file, boolean floats) throws IOException {
+        List<Node> variables = dataSet.getVariables();
+        int numRows = dataSet.getNumRows();
+        int numCols = variables.size();
+
+        byte[] storage = new byte[numCols];
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+
+        header.writeLong(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(numRows);
+        header.writeInt(numCols);
+
+        for (int j = 0; j < numCols; j++) {
+            Node variable = variables.get(j);
+            header.writeUTF(variable.getName());
+
+            if (variable instanceof ContinuousVariable) {
+                storage[j] = floats ? FLOAT : DOUBLE;
+                header.writeByte(CONTINUOUS);
+                header.writeByte(storage[j]);
+            } else if (variable instanceof DiscreteVariable) {
+                List<String> categories = ((DiscreteVariable) variable).getCategories();
+                storage[j] = categories.size() <= Byte.MAX_VALUE ? BYTE : INT;
+                header.writeByte(DISCRETE);
+                header.writeByte(storage[j]);
+                header.writeInt(categories.size());
+
+                for (String category : categories) {
+                    header.writeUTF(category);
+                }
+            } else {
+                throw new IllegalArgumentException("Only continuous and discrete variables can be written: " +
+                        variable);
+            }
+        }
+
+        header.flush();
+
+        long[] offsets = new long[numCols];
+        long offset = align(headerBytes.size() + 8L * numCols);
+
+        for (int j = 0; j < numCols; j++) {
+            offsets[j] = offset;
+            offset = align(offset + (long) numRows * width(storage[j]));
+        }
+
+        for (int j = 0; j < numCols; j++) {
+            header.writeLong(offsets[j]);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            headerBytes.writeTo(out);
+            long position = headerBytes.size();
+
+            for (int j = 0; j < numCols; j++) {
+                position = pad(out, position, offsets[j]);
+
+                switch (storage[j]) {
+                    case DOUBLE:
+                        for (int i = 0; i < numRows; i++) out.writeDouble(dataSet.getDouble(i, j));
+                        break;
+                    case FLOAT:
+                        for (int i = 0; i < numRows; i++) out.writeFloat((float) dataSet.getDouble(i, j));
+                        break;
+                    case INT:
+                        for (int i = 0; i < numRows; i++) out.writeInt(dataSet.getInt(i, j));
+                        break;
+                    case BYTE:
+                        for (int i = 0; i < numRows; i++) out.writeByte(dataSet.getInt(i, j));
+                        break;
+                }
+
+                position += (long) numRows * width(storage[j]);
+            }
+
+            pad(out, position, offset);
+        }
+    }
+
+    /**
+     * Opens the given columnar data file as a data set backed by the file. The data are memory mapped,
+     * not read, so opening is fast for any size of file; the returned data set is read-only.
+     *
+     * @param file A file written by <code>write</code>.
+     */
+    public static BoxDataSet open(File file) throws IOException {
+        MappedDataBox box = new MappedDataBox(file);
+        return new BoxDataSet(box, box.getVariables());
+    }
+
+    /**
+     * @return the number of bytes used to store one value of the given storage type.
+     */
+    static int width(byte storage) {
+        switch (storage) {
+            case DOUBLE:
+                return 8;
+            case FLOAT:
+            case INT:
+                return 4;
+            case BYTE:
+                return 1;
+            default:
+                throw new IllegalArgumentException("Unrecognized storage type: " + storage);
+        }
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private static long pad(DataOutputStream out, long position, long target) throws IOException {
+        while (position < target) {
+            out.writeByte(0);
+            position++;
+        }
+
+        return position;
+    }
+
+    /**
+     * The header of a columnar data file.
+     */
+    static final class Header {
+        int numRows;
+        List<Node> variables;
+        byte[] storage;
+        long[] offsets;
+
+        static Header read(File file) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readLong() != MAGIC) {
+                    throw new IOException("Not a columnar data file: " + file);
+                }
+
+                int version = in.readInt();
+
+                if (version != VERSION) {
+                    throw new IOException("Unsupported columnar data file version " + version + ": " + file);
+                }
+
+                Header header = new Header();
+                header.numRows = in.readInt();
+                int numCols = in.readInt();
+
+                header.variables = new ArrayList<>(numCols);
+                header.storage = new byte[numCols];
+                header.offsets = new long[numCols];
+
+                for (int j = 0; j < numCols; j++) {
+                    String name = in.readUTF();
+                    byte kind = in.readByte();
+                    header.storage[j] = in.readByte();
+                    width(header.storage[j]);
+
+                    if (kind == CONTINUOUS) {
+                        header.variables.add(new ContinuousVariable(name));
+                    } else if (kind == DISCRETE) {
+                        int numCategories = in.readInt();
+                        List<String> categories = new ArrayList<>(numCategories);
+
+                        for (int k = 0; k < numCategories; k++) {
+                            categories.add(in.readUTF());
+                        }
+
+                        header.variables.add(new DiscreteVariable(name, categories));
+                    } else {
+                        throw new IOException("Unrecognized variable type " + kind + " for " + name + ": " + file);
+                    }
+                }
+
+                for (int j = 0; j < numCols; j++) {
+                    header.offsets[j] = in.readLong();
+                }
+
+                return header;
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.data;
+
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.graph.OrderedPair;
+
+import java.util.*;
+
+/**
+ * A frozen view of an IKnowledge for a fixed list of variables, for answering isForbidden and isRequired
+ * in inner loops. Variables are given int ids by their position in the list; temporal tiers are kept as an
+ * array of tier indices, and the other forbidden and required edges as a bitset of children for each
+ * variable that has any. Lookups by node go through the node's name, so nodes from different graphs with
+ * the same names may be used.
+ * </p>
+ * The view does not follow later changes to the knowledge; compile it again when the knowledge changes.
+ * It is immutable and may be queried from many threads.
+ *
+ * @author Joseph Ramsey
+ */
+public final class CompiledKnowledge {
+
+    // The variables, in the order of their ids.
+    private final List<Node> nodes;
+
+    // Variable name --> id.
+    private final Map<String, Integer> ids;
+
+    // The tier of each variable, or -1 if it is in no tier.
+    private final int[] tiers;
+
+    // True for the tiers within which edges are forbidden.
+    private final boolean[] forbiddenWithin;
+
+    // Forbidden and required children of each variable not accounted for by the tiers, or null if none.
+    private final BitSet[] forbidden;
+    private final BitSet[] required;
+
+    private final boolean empty;
+
+    private CompiledKnowledge(List<Node> nodes, int numTiers, boolean empty) {
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        this.ids = new HashMap<>();
+
+        for (int i = 0; i < nodes.size(); i++) {
+            ids.put(nodes.get(i).getName(), i);
+        }
+
+        this.tiers = new int[nodes.size()];
+        Arrays.fill(tiers, -1);
+        this.forbiddenWithin = new boolean[numTiers];
+        this.forbidden = new BitSet[nodes.size()];
+        this.required = new BitSet[nodes.size()];
+        this.empty = empty;
+    }
+
+    /**
+     * Compiles the given knowledge for the given variables. Rules about variables not in the list are
+     * dropped.
+     *
+     * @param knowledge The knowledge; it is not retained.
+     * @param nodes     The variables; the id of each is its index in this list.
+     */
+    public static CompiledKnowledge compile(IKnowledge knowledge, List<Node> nodes) {
+        if (knowledge == null) throw new NullPointerException("Knowledge was not provided.");
+
+        if (knowledge.isEmpty()) {
+            return new CompiledKnowledge(nodes, 0, true);
+        } else if (knowledge instanceof Knowledge2) {
+            return compileRules((Knowledge2) knowledge, nodes);
+        } else {
+            return compilePairs(knowledge, nodes);
+        }
+    }
+
+    /**
+     * @return The variables, in the order of their ids.
+     */
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return The id of the variable with the given node's name, or -1 if there is none.
+     */
+    public int getId(Node node) {
+        Integer id = ids.get(node.getName());
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return True if the knowledge had nothing recorded.
+     */
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * @return The number of temporal tiers.
+     */
+    public int getNumTiers() {
+        return forbiddenWithin.length;
+    }
+
+    /**
+     * @return The tier of the variable with the given id, or -1 if it is in no tier or the tiers could not be
+     * kept as an array because some variable is in more than one of them.
+     */
+    public int getTier(int x) {
+        return tiers[x];
+    }
+
+    /**
+     * Determines whether the edge x --> y is forbidden.
+     */
+    public boolean isForbidden(int x, int y) {
+        if (x == y) return false;
+
+        int tx = tiers[x];
+        int ty = tiers[y];
+
+        if (tx != -1 && ty != -1 && (tx > ty || (tx == ty && forbiddenWithin[tx]))) {
+            return true;
+        }
+
+        return forbidden[x] != null && forbidden[x].get(y);
+    }
+
+    /**
+     * Determines whether the edge x --> y is required.
+     */
+    public boolean isRequired(int x, int y) {
+        return x != y && required[x] != null && required[x].get(y);
+    }
+
+    /**
+     * @return true iff no edge between x and y is required.
+     */
+    public boolean noEdgeRequired(int x, int y) {
+        return !(isRequired(x, y) || isRequired(y, x));
+    }
+
+    /**
+     * Determines whether the edge x --> y is forbidden. False if either node is not among the variables.
+     */
+    public boolean isForbidden(Node x, Node y) {
+        int _x = getId(x);
+        int _y = getId(y);
+        return _x != -1 && _y != -1 && isForbidden(_x, _y);
+    }
+
+    /**
+     * Determines whether the edge x --> y is required. False if either node is not among the variables.
+     */
+    public boolean isRequired(Node x, Node y) {
+        int _x = getId(x);
+        int _y = getId(y);
+        return _x != -1 && _y != -1 && isRequired(_x, _y);
+    }
+
+    /**
+     * @return true iff no edge between x and y is required.
+     */
+    public boolean noEdgeRequired(Node x, Node y) {
+        return !(isRequired(x, y) || isRequired(y, x));
+    }
+
+    //=============================PRIVATE METHODS=========================//
+
+    // Reads the rules of Knowledge2 directly. The rules that Knowledge2 keeps for its tiers go into the tier
+    // array, unless some variable is in more than one tier, in which case they are expanded like the others.
+    private static CompiledKnowledge compileRules(Knowledge2 knowledge, List<Node> nodes) {
+        List<Set<Knowledge2.MyNode>> tierSpecs = knowledge.getTierSpecs();
+        Map<Set<Knowledge2.MyNode>, Integer> tierIndices = new IdentityHashMap<>();
+
+        for (int t = 0; t < tierSpecs.size(); t++) {
+            tierIndices.put(tierSpecs.get(t), t);
+        }
+
+        CompiledKnowledge view = new CompiledKnowledge(nodes, tierSpecs.size(), false);
+        boolean tiersAsArray = true;
+
+        TIERS:
+        for (int t = 0; t < tierSpecs.size(); t++) {
+            for (Knowledge2.MyNode myNode : tierSpecs.get(t)) {
+                int id = view.getId(myNode.getName());
+
+                if (id == -1) continue;
+
+                if (view.tiers[id] != -1) {
+                    tiersAsArray = false;
+                    Arrays.fill(view.tiers, -1);
+                    break TIERS;
+                }
+
+                view.tiers[id] = t;
+            }
+        }
+
+        for (OrderedPair<Set<Knowledge2.MyNode>> rule : knowledge.getForbiddenRulesSpecs()) {
+            Integer first = tierIndices.get(rule.getFirst());
+            Integer second = tierIndices.get(rule.getSecond());
+
+            if (tiersAsArray && first != null && second != null && first >= second) {
+                if (first.equals(second)) view.forbiddenWithin[first] = true;
+                continue;
+            }
+
+            view.expand(rule, view.forbidden);
+        }
+
+        for (OrderedPair<Set<Knowledge2.MyNode>> rule : knowledge.getRequiredRulesSpecs()) {
+            view.expand(rule, view.required);
+        }
+
+        return view;
+    }
+
+    // Asks the knowledge about each ordered pair of variables.
+    private static CompiledKnowledge compilePairs(IKnowledge knowledge, List<Node> nodes) {
+        CompiledKnowledge view = new CompiledKnowledge(nodes, 0, false);
+
+        for (int x = 0; x < nodes.size(); x++) {
+            String _x = nodes.get(x).getName();
+
+            for (int y = 0; y < nodes.size(); y++) {
+                if (x == y) continue;
+
+                String _y = nodes.get(y).getName();
+
+                if (knowledge.isForbidden(_x, _y)) view.set(view.forbidden, x, y);
+                if (knowledge.isRequired(_x, _y)) view.set(view.required, x, y);
+            }
+        }
+
+        return view;
+    }
+
+    private int getId(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    private void expand(OrderedPair<Set<Knowledge2.MyNode>> rule, BitSet[] children) {
+        int[] second = ids(rule.getSecond());
+
+        for (int x : ids(rule.getFirst())) {
+            for (int y : second) {
+                if (x != y) set(children, x, y);
+            }
+        }
+    }
+
+    private int[] ids(Set<Knowledge2.MyNode> myNodes) {
+        int[] ids = new int[myNodes.size()];
+        int n = 0;
+
+        for (Knowledge2.MyNode myNode : myNodes) {
+            int id = getId(myNode.getName());
+            if (id != -1) ids[n++] = id;
+        }
+
+        return Arrays.copyOf(ids, n);
+    }
+
+    private void set(BitSet[] children, int x, int y) {
+        if (children[x] == null) children[x] = new BitSet(nodes.size());
+        children[x].set(y);
+    }
+}
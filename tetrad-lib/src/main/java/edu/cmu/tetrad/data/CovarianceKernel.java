@@ -0,0 +1,281 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.data;
+
+import edu.cmu.tetrad.util.ExecutionContext;
+import edu.cmu.tetrad.util.TetradMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Computes the covariance matrix of continuous data directly from the arrays of
+ * its data box, in parallel, without copying or centering the data.
+ * <p>
+ * The variables are split into tiles of VARIABLE_BLOCK variables, and each pair
+ * of tiles is handled by one task. A task walks down the rows ROW_BLOCK rows at
+ * a time, copying the centered values of its two tiles for those rows into
+ * small column-major buffers that stay in cache while all of the dot products
+ * between the tiles are taken.
+ * <p>
+ * Missing values (NaN) are skipped pairwise, as in CovarianceMatrix, so that
+ * the covariance of two variables uses the rows in which both are present.
+ *
+ * @author Joseph Ramsey
+ */
+public final class CovarianceKernel {
+
+    /**
+     * The number of variables in a tile.
+     */
+    static final int VARIABLE_BLOCK = 64;
+
+    /**
+     * The number of rows of a tile copied into the buffers at a time.
+     */
+    static final int ROW_BLOCK = 256;
+
+    /**
+     * Receives the covariances as they are computed. Each (i, j) with i <= j is
+     * handed over exactly once, possibly from several threads at once.
+     */
+    public interface Sink {
+        void set(int i, int j, double covariance);
+    }
+
+    // Column-major data (columns[variable][row]), or null if rows is used.
+    private final double[][] columns;
+
+    // Row-major data (rows[row][variable]), or null if columns is used.
+    private final double[][] rows;
+
+    private final int numVars;
+    private final int sampleSize;
+    private final double[] means;
+
+    // Number of non-missing values of each variable.
+    private final int[] counts;
+
+    //=============================CONSTRUCTORS=========================//
+
+    private CovarianceKernel(double[][] columns, double[][] rows, int numVars, int sampleSize) {
+        this.columns = columns;
+        this.rows = rows;
+        this.numVars = numVars;
+        this.sampleSize = sampleSize;
+        this.means = new double[numVars];
+        this.counts = new int[numVars];
+
+        for (int v = 0; v < numVars; v++) {
+            double sum = 0.0;
+            int count = 0;
+
+            for (int r = 0; r < sampleSize; r++) {
+                double d = get(r, v);
+                if (Double.isNaN(d)) continue;
+                sum += d;
+                count++;
+            }
+
+            means[v] = sum / count;
+            counts[v] = count;
+        }
+    }
+
+    //============================PUBLIC METHODS=========================//
+
+    /**
+     * Computes the (unbiased) covariances of the variables of the given
+     * continuous data set, handing them to the sink. The data set is not
+     * modified.
+     */
+    public static void covariances(DataSet dataSet, Sink sink) {
+        if (!dataSet.isContinuous()) {
+            throw new IllegalArgumentException("Not a continuous data set.");
+        }
+
+        int numVars = dataSet.getNumColumns();
+        int sampleSize = dataSet.getNumRows();
+        CovarianceKernel kernel;
+
+        DataBox box = dataSet instanceof BoxDataSet ? ((BoxDataSet) dataSet).getDataBox() : null;
+
+        if (box instanceof VerticalDoubleDataBox) {
+            kernel = new CovarianceKernel(((VerticalDoubleDataBox) box).getVariableVectors(), null, numVars, sampleSize);
+        } else if (box instanceof DoubleDataBox) {
+            kernel = new CovarianceKernel(null, ((DoubleDataBox) box).getData(), numVars, sampleSize);
+        } else {
+            kernel = new CovarianceKernel(null, dataSet.getDoubleData().toArray(), numVars, sampleSize);
+        }
+
+        kernel.compute(sink);
+    }
+
+    /**
+     * @return the (unbiased) covariance matrix of the given continuous data
+     * set, as a full matrix.
+     */
+    public static TetradMatrix covarianceMatrix(DataSet dataSet) {
+        final TetradMatrix matrix = new TetradMatrix(dataSet.getNumColumns(), dataSet.getNumColumns());
+
+        covariances(dataSet, new Sink() {
+            public void set(int i, int j, double covariance) {
+                matrix.set(i, j, covariance);
+                matrix.set(j, i, covariance);
+            }
+        });
+
+        return matrix;
+    }
+
+    //========================PRIVATE METHODS============================//
+
+    private double get(int row, int var) {
+        return columns != null ? columns[var][row] : rows[row][var];
+    }
+
+    private void compute(final Sink sink) {
+        int numTiles = (numVars + VARIABLE_BLOCK - 1) / VARIABLE_BLOCK;
+        List<Callable<Void>> tasks = new ArrayList<>();
+
+        for (int t1 = 0; t1 < numTiles; t1++) {
+            for (int t2 = t1; t2 < numTiles; t2++) {
+                final int from1 = t1 * VARIABLE_BLOCK;
+                final int to1 = Math.min(from1 + VARIABLE_BLOCK, numVars);
+                final int from2 = t2 * VARIABLE_BLOCK;
+                final int to2 = Math.min(from2 + VARIABLE_BLOCK, numVars);
+
+                tasks.add(new Callable<Void>() {
+                    public Void call() {
+                        computeTile(from1, to1, from2, to2, sink);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        ExecutionContext.current().invokeAll(tasks);
+    }
+
+    /**
+     * Computes the covariances between variables from1..to1 - 1 and from2..to2 -
+     * 1, where either the ranges are the same or the first lies before the
+     * second.
+     */
+    private void computeTile(int from1, int to1, int from2, int to2, Sink sink) {
+        boolean diagonal = from1 == from2;
+        int n1 = to1 - from1;
+        int n2 = to2 - from2;
+
+        double[][] buffer1 = new double[n1][ROW_BLOCK];
+        double[][] buffer2 = diagonal ? buffer1 : new double[n2][ROW_BLOCK];
+        double[][] sums = new double[n1][n2];
+
+        for (int start = 0; start < sampleSize; start += ROW_BLOCK) {
+            int length = Math.min(ROW_BLOCK, sampleSize - start);
+
+            ExecutionContext.current().checkCancelled();
+
+            fill(buffer1, from1, start, length);
+            if (!diagonal) fill(buffer2, from2, start, length);
+
+            for (int a = 0; a < n1; a++) {
+                double[] x = buffer1[a];
+                double[] s = sums[a];
+
+                for (int b = diagonal ? a : 0; b < n2; b++) {
+                    s[b] += dot(x, buffer2[b], length);
+                }
+            }
+        }
+
+        for (int a = 0; a < n1; a++) {
+            int i = from1 + a;
+
+            for (int b = diagonal ? a : 0; b < n2; b++) {
+                int j = from2 + b;
+                int count = (counts[i] == sampleSize && counts[j] == sampleSize) ? sampleSize : pairCount(i, j);
+                sink.set(i, j, sums[a][b] / (count - 1));
+            }
+        }
+    }
+
+    /**
+     * Copies the centered values of the rows start..start + length - 1 of the
+     * variables from..from + buffer.length - 1 into the buffer. Missing values
+     * become zeros, so that they drop out of the sums.
+     */
+    private void fill(double[][] buffer, int from, int start, int length) {
+        if (columns != null) {
+            for (int a = 0; a < buffer.length; a++) {
+                double[] column = columns[from + a];
+                double[] b = buffer[a];
+                double mean = means[from + a];
+
+                for (int r = 0; r < length; r++) {
+                    double d = column[start + r];
+                    b[r] = Double.isNaN(d) ? 0.0 : d - mean;
+                }
+            }
+        } else {
+            for (int r = 0; r < length; r++) {
+                double[] row = rows[start + r];
+
+                for (int a = 0; a < buffer.length; a++) {
+                    double d = row[from + a];
+                    buffer[a][r] = Double.isNaN(d) ? 0.0 : d - means[from + a];
+                }
+            }
+        }
+    }
+
+    private static double dot(double[] x, double[] y, int length) {
+        double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+        int r = 0;
+
+        for (; r + 3 < length; r += 4) {
+            s0 += x[r] * y[r];
+            s1 += x[r + 1] * y[r + 1];
+            s2 += x[r + 2] * y[r + 2];
+            s3 += x[r + 3] * y[r + 3];
+        }
+
+        for (; r < length; r++) {
+            s0 += x[r] * y[r];
+        }
+
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private int pairCount(int i, int j) {
+        int count = 0;
+
+        for (int r = 0; r < sampleSize; r++) {
+            if (!Double.isNaN(get(r, i)) && !Double.isNaN(get(r, j))) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+}
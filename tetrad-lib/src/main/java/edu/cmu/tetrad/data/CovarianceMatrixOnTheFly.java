@@ -283,7 +283,7 @@ public class CovarianceMatrixOnTheFly implements ICovarianceMatrix {
         final int chunk = _chunk < minChunk ? minChunk : _chunk;
 
         VarianceTask task = new VarianceTask(chunk, 0, variables.size());
-        ForkJoinPoolInstance.getInstance().getPool().invoke(task);
+        ExecutionContext.current().invoke(task);
 
         if (verbose) {
             System.out.println("Done with variances.");
@@ -928,6 +928,23 @@ public final class Knowledge2 implements TetradSerializable, IKnowledge {
         return new ArrayList<>(names);
     }
 
+    //=====================================PACKAGE METHODS============================//
+
+    // For CompiledKnowledge; the returned lists must not be modified.
+    List<OrderedPair<Set<MyNode>>> getForbiddenRulesSpecs() {
+        return forbiddenRulesSpecs;
+    }
+
+    // For CompiledKnowledge; the returned lists must not be modified.
+    List<OrderedPair<Set<MyNode>>> getRequiredRulesSpecs() {
+        return requiredRulesSpecs;
+    }
+
+    // For CompiledKnowledge; the returned lists must not be modified.
+    List<Set<MyNode>> getTierSpecs() {
+        return tierSpecs;
+    }
+
     //=====================================PRIVATE METHODS============================//
 
     private OrderedPair<Set<MyNode>> getGroupRule(KnowledgeGroup group) {
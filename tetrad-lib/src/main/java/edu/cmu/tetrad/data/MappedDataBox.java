@@ -0,0 +1,312 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+
+package edu.cmu.tetrad.data;
+
+import edu.cmu.tetrad.graph.Node;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A read-only data box backed by a memory mapped columnar data file (see {@link ColumnarDataFile}).
+ * Values are read from the mapped file on demand, so the data take no heap space and are shared through
+ * the operating system's page cache. Files of any size can be mapped; the file is mapped in segments of
+ * 1 GB.
+ * <p>
+ * Since the box is read-only, <code>set</code> throws an UnsupportedOperationException, which the setters
+ * of a BoxDataSet wrapping this box pass on to the caller rather than copying the file onto the heap;
+ * <code>copy</code>, <code>like</code> and <code>viewSelection</code> return ordinary (heap) data boxes
+ * that can be modified, so a data set is made modifiable by copying it.
+ *
+ * @author Joseph Ramsey
+ */
+public class MappedDataBox implements DataBox {
+    static final long serialVersionUID = 23L;
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    /**
+     * The path of the mapped file.
+     */
+    private final String path;
+
+    /**
+     * The number of rows.
+     */
+    private final int numRows;
+
+    /**
+     * The variables stored in the file, in order.
+     */
+    private final List<Node> variables;
+
+    /**
+     * The storage type of each column; see ColumnarDataFile.
+     */
+    private final byte[] storage;
+
+    /**
+     * The file offset of each column's block of values.
+     */
+    private final long[] offsets;
+
+    /**
+     * The mapped file, in segments of 2^SEGMENT_SHIFT bytes.
+     */
+    private transient MappedByteBuffer[] segments;
+
+    /**
+     * Maps the given columnar data file.
+     */
+    public MappedDataBox(File file) throws IOException {
+        ColumnarDataFile.Header header = ColumnarDataFile.Header.read(file);
+
+        this.path = file.getAbsolutePath();
+        this.numRows = header.numRows;
+        this.variables = header.variables;
+        this.storage = header.storage;
+        this.offsets = header.offsets;
+
+        map();
+    }
+
+    /**
+     * Generates a simple exemplar of this class to test serialization.
+     */
+    public static BoxDataSet serializableInstance() {
+        return new BoxDataSet(new ShortDataBox(4, 4), null);
+    }
+
+    private void map() throws IOException {
+        try (FileChannel fc = new RandomAccessFile(path, "r").getChannel()) {
+            long size = fc.size();
+
+            for (int j = 0; j < offsets.length; j++) {
+                if (offsets[j] + (long) numRows * ColumnarDataFile.width(storage[j]) > size) {
+                    throw new IOException("Columnar data file is truncated: " + path);
+                }
+            }
+
+            int numSegments = (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+            MappedByteBuffer[] segments = new MappedByteBuffer[numSegments];
+
+            for (int s = 0; s < numSegments; s++) {
+                long start = (long) s << SEGMENT_SHIFT;
+                segments[s] = fc.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_MASK + 1, size - start));
+            }
+
+            this.segments = segments;
+        }
+    }
+
+    /**
+     * @return the variables stored in the file, in order.
+     */
+    public List<Node> getVariables() {
+        return new ArrayList<>(variables);
+    }
+
+    /**
+     * @return the path of the mapped file.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the number of rows in this data box.
+     */
+    public int numRows() {
+        return numRows;
+    }
+
+    /**
+     * @return the number of columns in this data box.
+     */
+    public int numCols() {
+        return storage.length;
+    }
+
+    /**
+     * Not supported; the box is read-only.
+     */
+    public void set(int row, int col, Number value) {
+        throw new UnsupportedOperationException("This data box is memory mapped from " + path +
+                " and is read-only; make a copy to modify it.");
+    }
+
+    /**
+     * @return the Number value at the given row and column, a Double for continuous columns and an Integer
+     * for discrete columns. If the value is missing (NaN or -99), null is returned.
+     */
+    public Number get(int row, int col) {
+        if (storage[col] == ColumnarDataFile.DOUBLE || storage[col] == ColumnarDataFile.FLOAT) {
+            double value = getDouble(row, col);
+            return Double.isNaN(value) ? null : value;
+        } else {
+            int value = getInt(row, col);
+            return value == -99 ? null : value;
+        }
+    }
+
+    /**
+     * @return the value at the given row and column as a double, without boxing; missing values are NaN
+     * for continuous columns and -99 for discrete columns.
+     */
+    public double getDouble(int row, int col) {
+        switch (storage[col]) {
+            case ColumnarDataFile.DOUBLE: {
+                long p = offsets[col] + ((long) row << 3);
+                return segments[(int) (p >>> SEGMENT_SHIFT)].getDouble((int) (p & SEGMENT_MASK));
+            }
+            case ColumnarDataFile.FLOAT: {
+                long p = offsets[col] + ((long) row << 2);
+                return segments[(int) (p >>> SEGMENT_SHIFT)].getFloat((int) (p & SEGMENT_MASK));
+            }
+            default:
+                return getInt(row, col);
+        }
+    }
+
+    /**
+     * @return the value at the given row and column as an int, without boxing; continuous values are
+     * truncated.
+     */
+    public int getInt(int row, int col) {
+        switch (storage[col]) {
+            case ColumnarDataFile.INT: {
+                long p = offsets[col] + ((long) row << 2);
+                return segments[(int) (p >>> SEGMENT_SHIFT)].getInt((int) (p & SEGMENT_MASK));
+            }
+            case ColumnarDataFile.BYTE: {
+                long p = offsets[col] + row;
+                return segments[(int) (p >>> SEGMENT_SHIFT)].get((int) (p & SEGMENT_MASK));
+            }
+            default:
+                return (int) getDouble(row, col);
+        }
+    }
+
+    /**
+     * @return a copy of this data box, on the heap.
+     */
+    public DataBox copy() {
+        return like();
+    }
+
+    /**
+     * @return a copy of this data box, on the heap.
+     */
+    public DataBox like() {
+        int[] rows = new int[numRows()];
+        int[] cols = new int[numCols()];
+
+        for (int i = 0; i < numRows(); i++) rows[i] = i;
+        for (int j = 0; j < numCols(); j++) cols[j] = j;
+
+        return viewSelection(rows, cols);
+    }
+
+    /**
+     * @return a heap data box with the given rows and columns of this one: a VerticalDoubleDataBox if the
+     * columns are all continuous, a VerticalIntDataBox if they are all discrete, and a MixedDataBox
+     * otherwise.
+     */
+    @Override
+    public DataBox viewSelection(int[] rows, int[] cols) {
+        boolean continuous = false;
+        boolean discrete = false;
+
+        for (int col : cols) {
+            if (variables.get(col) instanceof ContinuousVariable) {
+                continuous = true;
+            } else {
+                discrete = true;
+            }
+        }
+
+        if (continuous && !discrete) {
+            double[][] data = new double[cols.length][rows.length];
+
+            for (int j = 0; j < cols.length; j++) {
+                for (int i = 0; i < rows.length; i++) {
+                    data[j][i] = getDouble(rows[i], cols[j]);
+                }
+            }
+
+            return new VerticalDoubleDataBox(data);
+        } else if (discrete && !continuous) {
+            int[][] data = new int[cols.length][rows.length];
+
+            for (int j = 0; j < cols.length; j++) {
+                for (int i = 0; i < rows.length; i++) {
+                    data[j][i] = getInt(rows[i], cols[j]);
+                }
+            }
+
+            return new VerticalIntDataBox(data);
+        } else {
+            List<Node> newVars = new ArrayList<>();
+
+            for (int col : cols) {
+                newVars.add(variables.get(col));
+            }
+
+            DataBox box = new MixedDataBox(newVars, rows.length);
+
+            for (int j = 0; j < cols.length; j++) {
+                for (int i = 0; i < rows.length; i++) {
+                    Number value = get(rows[i], cols[j]);
+                    if (value != null) box.set(i, j, value);
+                }
+            }
+
+            return box;
+        }
+    }
+
+    /**
+     * Adds semantic checks to the default deserialization method and maps the file again.
+     *
+     * @param s The object input stream.
+     * @throws IOException            If any.
+     * @throws ClassNotFoundException If any.
+     */
+    private void readObject(ObjectInputStream s)
+            throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+
+        if (path == null) {
+            throw new NullPointerException();
+        }
+
+        map();
+    }
+}
@@ -0,0 +1,581 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.data;
+
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.util.NumberFormatUtil;
+import edu.cmu.tetrad.util.TetradMatrix;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.text.NumberFormat;
+import java.util.*;
+
+/**
+ * A covariance matrix that stores only its upper triangle, packed column by
+ * column into a single array, in either double or float precision. This takes
+ * half the memory of a CovarianceMatrix in double precision and a quarter in
+ * float precision, which matters for very many variables--for 30,000 variables
+ * a full matrix of doubles takes 7 GB. In float precision, the covariances are
+ * computed in double precision and rounded when stored.
+ * <p>
+ * getMatrix() builds a full matrix and so should be avoided for large
+ * matrices; algorithms like SemBicScore only call getValue() and
+ * getSelection().
+ *
+ * @author Joseph Ramsey
+ * @see CovarianceKernel
+ */
+public class PackedCovarianceMatrix implements ICovarianceMatrix {
+    static final long serialVersionUID = 23L;
+
+    /**
+     * The name of the covariance matrix.
+     *
+     * @serial May be null.
+     */
+    private String name;
+
+    /**
+     * The variables (in order) for this covariance matrix.
+     *
+     * @serial Cannot be null.
+     */
+    private List<Node> variables;
+
+    /**
+     * The size of the sample from which this covariance matrix was calculated.
+     *
+     * @serial Range > 0.
+     */
+    private int sampleSize;
+
+    /**
+     * The upper triangle in double precision; (i, j) with i <= j is at
+     * j * (j + 1) / 2 + i.
+     *
+     * @serial Null if the matrix is stored in float precision.
+     */
+    private double[] values;
+
+    /**
+     * The upper triangle in float precision, packed like values.
+     *
+     * @serial Null if the matrix is stored in double precision.
+     */
+    private float[] floatValues;
+
+    /**
+     * The list of selected variables.
+     *
+     * @serial Cannot be null.
+     */
+    private Set<Node> selectedVariables = new HashSet<>();
+
+    /**
+     * The knowledge for this data.
+     *
+     * @serial Cannot be null.
+     */
+    private IKnowledge knowledge = new Knowledge2();
+
+    //=============================CONSTRUCTORS=========================//
+
+    /**
+     * Constructs a new covariance matrix, in double precision, from the given
+     * data set. The data set is not modified.
+     *
+     * @throws IllegalArgumentException if this is not a continuous data set.
+     */
+    public PackedCovarianceMatrix(DataSet dataSet) {
+        this(dataSet, false);
+    }
+
+    /**
+     * Constructs a new covariance matrix from the given data set, stored in
+     * float precision if floatPrecision is true. The data set is not
+     * modified.
+     *
+     * @throws IllegalArgumentException if this is not a continuous data set.
+     */
+    public PackedCovarianceMatrix(DataSet dataSet, boolean floatPrecision) {
+        this(dataSet.getVariables(), dataSet.getNumRows(), floatPrecision);
+        CovarianceKernel.covariances(dataSet, new CovarianceKernel.Sink() {
+            public void set(int i, int j, double covariance) {
+                store(index(i, j), covariance);
+            }
+        });
+    }
+
+    /**
+     * Constructs a packed copy of the given covariance matrix, stored in float
+     * precision if floatPrecision is true.
+     */
+    public PackedCovarianceMatrix(ICovarianceMatrix covMatrix, boolean floatPrecision) {
+        this(covMatrix.getVariables(), covMatrix.getSampleSize(), floatPrecision);
+
+        for (int j = 0; j < variables.size(); j++) {
+            for (int i = 0; i <= j; i++) {
+                store(index(i, j), covMatrix.getValue(i, j));
+            }
+        }
+
+        checkMatrix();
+    }
+
+    private PackedCovarianceMatrix(List<Node> variables, int sampleSize, boolean floatPrecision) {
+        long size = (long) variables.size() * (variables.size() + 1) / 2;
+
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many variables for a packed covariance matrix: "
+                    + variables.size());
+        }
+
+        this.variables = Collections.unmodifiableList(new ArrayList<>(variables));
+        this.sampleSize = sampleSize;
+
+        if (floatPrecision) {
+            this.floatValues = new float[(int) size];
+        } else {
+            this.values = new double[(int) size];
+        }
+    }
+
+    /**
+     * Generates a simple exemplar of this class to test serialization.
+     */
+    public static PackedCovarianceMatrix serializableInstance() {
+        List<Node> variables = new ArrayList<>();
+        variables.add(new ContinuousVariable("X"));
+        PackedCovarianceMatrix cov = new PackedCovarianceMatrix(variables, 100, false);
+        cov.setValue(0, 0, 1.0);
+        return cov;
+    }
+
+    //============================PUBLIC METHODS=========================//
+
+    /**
+     * @return true if the values are stored in float precision.
+     */
+    public final boolean isFloatPrecision() {
+        return floatValues != null;
+    }
+
+    /**
+     * @return the list of variables (unmodifiable).
+     */
+    public final List<Node> getVariables() {
+        return this.variables;
+    }
+
+    /**
+     * @return the variable names, in order.
+     */
+    public final List<String> getVariableNames() {
+        List<String> names = new ArrayList<>();
+
+        for (Node variable : getVariables()) {
+            names.add(variable.getName());
+        }
+
+        return names;
+    }
+
+    /**
+     * @return the variable name at the given index.
+     */
+    public final String getVariableName(int index) {
+        if (index >= getVariables().size()) {
+            throw new IllegalArgumentException("Index out of range: " + index);
+        }
+
+        return getVariables().get(index).getName();
+    }
+
+    /**
+     * @return the dimension of the covariance matrix.
+     */
+    public final int getDimension() {
+        return variables.size();
+    }
+
+    /**
+     * The size of the sample used to calculated this covariance matrix.
+     *
+     * @return The sample size (> 0).
+     */
+    public final int getSampleSize() {
+        return this.sampleSize;
+    }
+
+    /**
+     * Gets the name of the covariance matrix.
+     */
+    public final String getName() {
+        return this.name;
+    }
+
+    /**
+     * Sets the name of the covariance matrix.
+     */
+    public final void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the knowledge associated with this data.
+     */
+    public final IKnowledge getKnowledge() {
+        return this.knowledge.copy();
+    }
+
+    /**
+     * Associates knowledge with this data.
+     */
+    public final void setKnowledge(IKnowledge knowledge) {
+        if (knowledge == null) {
+            throw new NullPointerException();
+        }
+
+        this.knowledge = knowledge.copy();
+    }
+
+    /**
+     * @return a submatrix of the covariance matrix with variables in the
+     * given order, in the same precision.
+     */
+    public final ICovarianceMatrix getSubmatrix(int[] indices) {
+        List<Node> submatrixVars = new ArrayList<>();
+
+        for (int index : indices) {
+            submatrixVars.add(variables.get(index));
+        }
+
+        PackedCovarianceMatrix cov = new PackedCovarianceMatrix(submatrixVars, sampleSize, isFloatPrecision());
+
+        for (int j = 0; j < indices.length; j++) {
+            for (int i = 0; i <= j; i++) {
+                if (isFloatPrecision()) {
+                    cov.floatValues[index(i, j)] = floatValues[symmetricIndex(indices[i], indices[j])];
+                } else {
+                    cov.values[index(i, j)] = values[symmetricIndex(indices[i], indices[j])];
+                }
+            }
+        }
+
+        return cov;
+    }
+
+    public final ICovarianceMatrix getSubmatrix(List<String> submatrixVarNames) {
+        return getSubmatrix(submatrixVarNames.toArray(new String[submatrixVarNames.size()]));
+    }
+
+    /**
+     * @return a submatrix of this matrix, with variables in the given
+     * order.
+     */
+    public final ICovarianceMatrix getSubmatrix(String[] submatrixVarNames) {
+        int[] indices = new int[submatrixVarNames.length];
+
+        for (int i = 0; i < submatrixVarNames.length; i++) {
+            Node variable = getVariable(submatrixVarNames[i]);
+
+            if (variable == null) {
+                throw new IllegalArgumentException(
+                        "The variables in the submatrix " +
+                                "must be in the original matrix: original==" +
+                                getVariables() + ", sub==" + Arrays.asList(submatrixVarNames));
+            }
+
+            indices[i] = variables.indexOf(variable);
+        }
+
+        return getSubmatrix(indices);
+    }
+
+    /**
+     * @return the value of element (i,j) in the matrix
+     */
+    public final double getValue(int i, int j) {
+        int index = symmetricIndex(i, j);
+        return floatValues != null ? floatValues[index] : values[index];
+    }
+
+    /**
+     * Replaces the values of this matrix with those of the given symmetric
+     * matrix; only the upper triangle is read.
+     */
+    public void setMatrix(TetradMatrix matrix) {
+        if (matrix.rows() != variables.size() || matrix.columns() != variables.size()) {
+            throw new IllegalArgumentException("# variables not equal to matrix dimension.");
+        }
+
+        for (int j = 0; j < variables.size(); j++) {
+            for (int i = 0; i <= j; i++) {
+                store(index(i, j), matrix.get(i, j));
+            }
+        }
+
+        checkMatrix();
+    }
+
+    public final void setSampleSize(int sampleSize) {
+        if (sampleSize <= 0) {
+            throw new IllegalArgumentException("Sample size must be > 0.");
+        }
+
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * @return the size of the square matrix.
+     */
+    public final int getSize() {
+        return variables.size();
+    }
+
+    /**
+     * @return the covariance matrix as a full matrix. This takes the memory
+     * that packing saves, so for large matrices use getValue or getSelection
+     * instead.
+     */
+    public final TetradMatrix getMatrix() {
+        int[] all = new int[variables.size()];
+        for (int i = 0; i < all.length; i++) all[i] = i;
+        return getSelection(all, all);
+    }
+
+    public final void select(Node variable) {
+        if (variables.contains(variable)) {
+            getSelectedVariables().add(variable);
+        }
+    }
+
+    public final void clearSelection() {
+        getSelectedVariables().clear();
+    }
+
+    public final boolean isSelected(Node variable) {
+        if (variable == null) {
+            throw new NullPointerException("Null variable. Try again.");
+        }
+
+        return getSelectedVariables().contains(variable);
+    }
+
+    public final List<String> getSelectedVariableNames() {
+        List<String> selectedVariableNames = new LinkedList<>();
+
+        for (Node variable : selectedVariables) {
+            selectedVariableNames.add(variable.getName());
+        }
+
+        return selectedVariableNames;
+    }
+
+    /**
+     * Prints out the matrix
+     */
+    public final String toString() {
+        NumberFormat nf = NumberFormatUtil.getInstance().getNumberFormat();
+
+        StringBuilder buf = new StringBuilder();
+
+        int numVars = getVariableNames().size();
+        buf.append(getSampleSize()).append("\n");
+
+        for (int i = 0; i < numVars; i++) {
+            String name = getVariableNames().get(i);
+            buf.append(name).append("\t");
+        }
+
+        buf.append("\n");
+
+        for (int j = 0; j < numVars; j++) {
+            for (int i = 0; i <= j; i++) {
+                buf.append(nf.format(getValue(i, j))).append("\t");
+            }
+            buf.append("\n");
+        }
+
+        return buf.toString();
+    }
+
+    @Override
+    public boolean isContinuous() {
+        return true;
+    }
+
+    @Override
+    public boolean isDiscrete() {
+        return false;
+    }
+
+    @Override
+    public boolean isMixed() {
+        return false;
+    }
+
+    public void setVariables(List<Node> variables) {
+        if (variables.size() != this.variables.size()) throw new IllegalArgumentException("Wrong # of variables.");
+
+        for (int i = 0; i < variables.size(); i++) {
+            if (!variables.get(i).getName().equals(this.variables.get(i).getName())) {
+                throw new IllegalArgumentException("Variable in index " + (i + 1) + " does not have the same name " +
+                        "as the variable being substituted for it.");
+            }
+        }
+
+        this.variables = Collections.unmodifiableList(new ArrayList<>(variables));
+    }
+
+    @Override
+    public TetradMatrix getSelection(int[] rows, int[] cols) {
+        TetradMatrix m = new TetradMatrix(rows.length, cols.length);
+
+        if (Arrays.equals(rows, cols)) {
+            for (int i = 0; i < rows.length; i++) {
+                for (int j = i; j < cols.length; j++) {
+                    double value = getValue(rows[i], cols[j]);
+                    m.set(i, j, value);
+                    m.set(j, i, value);
+                }
+            }
+        } else {
+            for (int i = 0; i < rows.length; i++) {
+                for (int j = 0; j < cols.length; j++) {
+                    m.set(i, j, getValue(rows[i], cols[j]));
+                }
+            }
+        }
+
+        return m;
+    }
+
+    public Node getVariable(String name) {
+        for (Node variable : getVariables()) {
+            if (name.equals(variable.getName())) {
+                return variable;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void setValue(int i, int j, double v) {
+        store(symmetricIndex(i, j), v);
+    }
+
+    @Override
+    public void removeVariables(List<String> remaining) {
+        PackedCovarianceMatrix cov = (PackedCovarianceMatrix) getSubmatrix(remaining);
+        this.values = cov.values;
+        this.floatValues = cov.floatValues;
+        this.variables = cov.variables;
+        clearSelection();
+    }
+
+    //========================PRIVATE METHODS============================//
+
+    private static int index(int i, int j) {
+        return (int) ((long) j * (j + 1) / 2) + i;
+    }
+
+    private static int symmetricIndex(int i, int j) {
+        return i <= j ? index(i, j) : index(j, i);
+    }
+
+    private void store(int index, double value) {
+        if (floatValues != null) {
+            floatValues[index] = (float) value;
+        } else {
+            values[index] = value;
+        }
+    }
+
+    private Set<Node> getSelectedVariables() {
+        return selectedVariables;
+    }
+
+    /**
+     * Checks the sample size, variable, and matrix information.
+     */
+    private void checkMatrix() {
+        for (Node variable : variables) {
+            if (variable == null) {
+                throw new NullPointerException();
+            }
+        }
+
+        if (sampleSize < 1) {
+            throw new IllegalArgumentException(
+                    "Sample size must be at least 1.");
+        }
+
+        for (int j = 0; j < variables.size(); j++) {
+            for (int i = 0; i <= j; i++) {
+                if (Double.isNaN(getValue(i, j))) {
+                    throw new IllegalArgumentException("Please remove or impute missing values.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds semantic checks to the default deserialization method. This method
+     * must have the standard signature for a readObject method, and the body of
+     * the method must begin with "s.defaultReadObject();". Other than that, any
+     * semantic checks can be specified and do not need to stay the same from
+     * version to version. A readObject method of this form may be added to any
+     * class, even if Tetrad sessions were previously saved out using a version
+     * of the class that didn't include it. (That's what the
+     * "s.defaultReadObject();" is for. See J. Bloch, Effective Java, for help.
+     *
+     * @throws java.io.IOException
+     * @throws ClassNotFoundException
+     */
+    private void readObject(ObjectInputStream s)
+            throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+
+        if (getVariables() == null) {
+            throw new NullPointerException();
+        }
+
+        if ((values == null) == (floatValues == null)) {
+            throw new IllegalStateException("Exactly one of the double and float values must be stored.");
+        }
+
+        if (knowledge == null) {
+            throw new NullPointerException();
+        }
+
+        if (sampleSize < -1) {
+            throw new IllegalStateException();
+        }
+
+        if (selectedVariables == null) {
+            selectedVariables = new HashSet<>();
+        }
+    }
+}
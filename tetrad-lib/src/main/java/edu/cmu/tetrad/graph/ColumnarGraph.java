@@ -0,0 +1,1835 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.graph;
+
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.*;
+
+import static edu.cmu.tetrad.graph.Edges.directedEdge;
+
+/**
+ * <p>Stores a graph as arrays indexed by int node ids. For each node there is an array of the ids of the nodes it
+ * shares edges with, one entry per edge in the order in which the edges were added, and a parallel array of bytes
+ * packing the endpoints of each edge at either end. Edge objects are not stored; the ones returned are made on
+ * demand, so changing their endpoints does not change the graph (use setEndpoint). As in EdgeListGraph, multiple
+ * edges may be added per node pair, except that equal edges are only added once, and an edge whose endpoint is
+ * reset moves to the end of the edge lists of its nodes.</p>
+ * <p>Constructing a ColumnarGraph from another ColumnarGraph takes a copy-on-write snapshot: the two graphs share the
+ * adjacency arrays of each node until one of them changes that node's edges, so copying costs time proportional to
+ * the number of nodes, not edges. Taking a snapshot marks the arrays of the source graph as shared, so it writes
+ * to the source as well as to the copy. Methods that only read the graph may be called from several threads at
+ * once, provided none changes it; snapshots of it may be taken at the same time, since they are synchronized on
+ * the source, but not while it is being changed.</p>
+ *
+ * @author Joseph Ramsey
+ * @see EdgeListGraph
+ */
+public class ColumnarGraph implements Graph {
+    static final long serialVersionUID = 23L;
+
+    // The endpoints that may be stored, by code. The code of the endpoint at the node whose array it is is in bits
+    // 0-1, that of the endpoint at the other node in bits 2-3; bit 4 is set if the node is node 1 of the edge.
+    private static final Endpoint[] ENDPOINTS = {Endpoint.TAIL, Endpoint.ARROW, Endpoint.CIRCLE, Endpoint.NULL};
+    private static final int TAIL = 0;
+    private static final int ARROW = 1;
+    private static final int CIRCLE = 2;
+    private static final int NODE1 = 16;
+
+    /**
+     * A list of the nodes in the graph, in the order in which they were added.
+     *
+     * @serial
+     */
+    private List<Node> nodes = new ArrayList<>();
+
+    /**
+     * The node with each id, or null if the node with that id has been removed.
+     *
+     * @serial
+     */
+    private Node[] idNodes = new Node[16];
+
+    /**
+     * @serial
+     */
+    private int numIds = 0;
+
+    /**
+     * Map from nodes to their ids.
+     *
+     * @serial
+     */
+    private Map<Node, Integer> ids = new HashMap<>();
+
+    /**
+     * For each node id, the ids of the nodes at the other ends of its edges, and the packed endpoints of those edges,
+     * in the first degrees[id] entries.
+     *
+     * @serial
+     */
+    private int[][] neighbors = new int[16][];
+
+    /**
+     * @serial
+     */
+    private byte[][] ends = new byte[16][];
+
+    /**
+     * @serial
+     */
+    private int[] degrees = new int[16];
+
+    /**
+     * True for the ids whose arrays are not shared with a snapshot and so may be changed in place.
+     */
+    private transient boolean[] owned = new boolean[16];
+
+    /**
+     * @serial
+     */
+    private int numEdges = 0;
+
+    /**
+     * Fires property change events.
+     */
+    private transient PropertyChangeSupport pcs;
+
+    /**
+     * @serial
+     */
+    private Set<Triple> ambiguousTriples = new HashSet<>();
+
+    /**
+     * @serial
+     */
+    private Set<Triple> underLineTriples = new HashSet<>();
+
+    /**
+     * @serial
+     */
+    private Set<Triple> dottedUnderLineTriples = new HashSet<>();
+
+    /**
+     * The set of highlighted edges.
+     */
+    private Set<Edge> highlightedEdges = new HashSet<>();
+
+    /**
+     * A hash from node names to nodes;
+     */
+    private Map<String, Node> namesHash = new HashMap<>();
+
+    //==============================CONSTUCTORS===========================//
+
+    /**
+     * Constructs a new (empty) ColumnarGraph.
+     */
+    public ColumnarGraph() {
+    }
+
+    /**
+     * Constructs a ColumnarGraph using the nodes and edges of the given graph. If the given graph is a ColumnarGraph,
+     * this is a copy-on-write snapshot of it, which marks the arrays of the given graph as shared.
+     *
+     * @param graph the graph from which nodes and edges are is to be extracted.
+     * @throws IllegalArgumentException if a duplicate edge is added.
+     */
+    public ColumnarGraph(Graph graph) throws IllegalArgumentException {
+        if (graph == null) {
+            throw new NullPointerException("Graph must not be null.");
+        }
+
+        this.ambiguousTriples = graph.getAmbiguousTriples();
+        this.underLineTriples = graph.getUnderLines();
+        this.dottedUnderLineTriples = graph.getDottedUnderlines();
+
+        if (graph instanceof ColumnarGraph) {
+            share((ColumnarGraph) graph);
+            this.highlightedEdges = new HashSet<>(((ColumnarGraph) graph).highlightedEdges);
+        } else {
+            transferNodesAndEdges(graph);
+
+            for (Edge edge : graph.getEdges()) {
+                if (graph.isHighlighted(edge)) {
+                    setHighlighted(edge, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructs a new graph, with no edges, using the the given variable names.
+     */
+    public ColumnarGraph(List<Node> nodes) {
+        if (nodes == null) {
+            throw new NullPointerException();
+        }
+
+        for (Node variable : nodes) {
+            if (!addNode(variable)) {
+                throw new IllegalArgumentException();
+            }
+        }
+    }
+
+    /**
+     * Generates a simple exemplar of this class to test serialization.
+     */
+    public static ColumnarGraph serializableInstance() {
+        return new ColumnarGraph();
+    }
+
+    //===============================PUBLIC METHODS========================//
+
+    /**
+     * @return a copy-on-write snapshot of this graph in which each node is replaced by the variable in
+     * <code>newVariables</code> with the same name, if there is one, as in GraphUtils.replaceNodes. Variables not
+     * already in the graph are added, and nodes not replaced are kept only if they have edges.
+     */
+    public ColumnarGraph replaceNodes(List<Node> newVariables) {
+        Map<String, Node> replacements = new HashMap<>();
+
+        for (Node variable : newVariables) {
+            replacements.put(variable.getName(), variable);
+        }
+
+        ColumnarGraph graph = new ColumnarGraph();
+        graph.share(this);
+        graph.nodes = new ArrayList<>();
+        graph.ids = new HashMap<>();
+        graph.namesHash = new HashMap<>();
+        List<Node> kept = new ArrayList<>();
+
+        for (Node node : nodes) {
+            int v = id(node);
+            Node replacement = replacements.get(node.getName());
+
+            if (replacement == null) {
+                if (degrees[v] == 0) {
+                    graph.idNodes[v] = null;
+                    continue;
+                }
+
+                kept.add(node);
+            } else {
+                graph.idNodes[v] = replacement;
+            }
+
+            graph.ids.put(graph.idNodes[v], v);
+            graph.namesHash.put(graph.idNodes[v].getName(), graph.idNodes[v]);
+        }
+
+        for (Node variable : newVariables) {
+            if (graph.ids.containsKey(variable)) {
+                graph.nodes.add(variable);
+            } else {
+                graph.addNode(variable);
+            }
+        }
+
+        graph.nodes.addAll(kept);
+        return graph;
+    }
+
+    /**
+     * Adds a directed edge to the graph from node A to node B.
+     *
+     * @param node1 the "from" node.
+     * @param node2 the "to" node.
+     */
+    public boolean addDirectedEdge(Node node1, Node node2) {
+        return addEdge(directedEdge(node1, node2));
+    }
+
+    /**
+     * Adds an undirected edge to the graph from node A to node B.
+     *
+     * @param node1 the "from" node.
+     * @param node2 the "to" node.
+     */
+    public boolean addUndirectedEdge(Node node1, Node node2) {
+        return addEdge(Edges.undirectedEdge(node1, node2));
+    }
+
+    /**
+     * Adds a nondirected edge to the graph from node A to node B.
+     *
+     * @param node1 the "from" node.
+     * @param node2 the "to" node.
+     */
+    public boolean addNondirectedEdge(Node node1, Node node2) {
+        return addEdge(Edges.nondirectedEdge(node1, node2));
+    }
+
+    /**
+     * Adds a partially oriented edge to the graph from node A to node B.
+     *
+     * @param node1 the "from" node.
+     * @param node2 the "to" node.
+     */
+    public boolean addPartiallyOrientedEdge(Node node1, Node node2) {
+        return addEdge(Edges.partiallyOrientedEdge(node1, node2));
+    }
+
+    /**
+     * Adds a bidirected edge to the graph from node A to node B.
+     *
+     * @param node1 the "from" node.
+     * @param node2 the "to" node.
+     */
+    public boolean addBidirectedEdge(Node node1, Node node2) {
+        return addEdge(Edges.bidirectedEdge(node1, node2));
+    }
+
+    /**
+     * @return true iff there is a directed cycle in the graph. The directed edges are peeled off from the nodes with
+     * no parents left until none remain; a cycle is left over just in case there is one.
+     */
+    public boolean existsDirectedCycle() {
+        int[] numParents = new int[numIds];
+        int[] queue = new int[numIds];
+        int tail = 0;
+        int numNodes = 0;
+
+        for (int v = 0; v < numIds; v++) {
+            if (idNodes[v] == null) continue;
+            numNodes++;
+
+            for (int i = 0; i < degrees[v]; i++) {
+                byte end = ends[v][i];
+
+                // A directed edge from a node to itself is stored once, as a child entry.
+                if (isParentEntry(end) || (neighbors[v][i] == v && isChildEntry(end))) numParents[v]++;
+            }
+
+            if (numParents[v] == 0) queue[tail++] = v;
+        }
+
+        for (int head = 0; head < tail; head++) {
+            int v = queue[head];
+
+            for (int i = 0; i < degrees[v]; i++) {
+                if (isChildEntry(ends[v][i])) {
+                    int w = neighbors[v][i];
+                    if (--numParents[w] == 0) queue[tail++] = w;
+                }
+            }
+        }
+
+        return tail < numNodes;
+    }
+
+    public boolean isDirectedFromTo(Node node1, Node node2) {
+        List<Edge> edges = getEdges(node1, node2);
+        if (edges.size() != 1) return false;
+        Edge edge = edges.get(0);
+        return edge.pointsTowards(node2);
+    }
+
+    public boolean isUndirectedFromTo(Node node1, Node node2) {
+        Edge edge = getEdge(node1, node2);
+        return edge != null && edge.getEndpoint1() == Endpoint.TAIL && edge.getEndpoint2() == Endpoint.TAIL;
+    }
+
+    /**
+     * @return true if the given edge is definitely visible (Jiji, pg 25)
+     * @throws IllegalArgumentException if the given edge is not a directed edge
+     *                                  in the graph
+     */
+    public boolean defVisible(Edge edge) {
+        if (containsEdge(edge)) {
+            Node A = Edges.getDirectedEdgeTail(edge);
+            Node B = Edges.getDirectedEdgeHead(edge);
+            List<Node> adjToA = getAdjacentNodes(A);
+
+            while (!adjToA.isEmpty()) {
+                Node Curr = adjToA.remove(0);
+                if (!((getAdjacentNodes(Curr)).contains(B)) &&
+                        ((getEdge(Curr, A)).getProximalEndpoint(A) == Endpoint
+                                .ARROW)) {
+                    return true;
+                }
+            }
+            return false;
+        } else {
+            throw new IllegalArgumentException(
+                    "Given edge is not in the graph.");
+        }
+    }
+
+    public boolean isDefNoncollider(Node node1, Node node2, Node node3) {
+        List<Edge> edges = getEdges(node2);
+        boolean circle12 = false;
+        boolean circle32 = false;
+
+        for (Edge edge : edges) {
+            boolean _node1 = edge.getDistalNode(node2) == node1;
+            boolean _node3 = edge.getDistalNode(node2) == node3;
+
+            if (_node1 && edge.pointsTowards(node1)) return true;
+            if (_node3 && edge.pointsTowards(node3)) return true;
+
+            if (_node1 && edge.getProximalEndpoint(node2) == Endpoint.CIRCLE) circle12 = true;
+            if (_node3 && edge.getProximalEndpoint(node2) == Endpoint.CIRCLE) circle32 = true;
+            if (circle12 && circle32 && !isAdjacentTo(node1, node2)) return true;
+        }
+
+        return false;
+    }
+
+    public boolean isDefCollider(Node node1, Node node2, Node node3) {
+        Edge edge1 = getEdge(node1, node2);
+        Edge edge2 = getEdge(node2, node3);
+
+        return !(edge1 == null || edge2 == null) && edge1.getProximalEndpoint(node2) == Endpoint.ARROW
+                && edge2.getProximalEndpoint(node2) == Endpoint.ARROW;
+    }
+
+    /**
+     * @return true iff there is a directed path from node1 to node2.
+     */
+    public boolean existsDirectedPathFromTo(Node node1, Node node2) {
+        int v = id(node1);
+        int w = id(node2);
+        return v != -1 && w != -1 && reaches(v, w, CHILDREN);
+    }
+
+    public boolean existsUndirectedPathFromTo(Node node1, Node node2) {
+        int v = id(node1);
+        int w = id(node2);
+        return v != -1 && w != -1 && reaches(v, w, ADJACENTS);
+    }
+
+    public boolean existsSemiDirectedPathFromTo(Node node1, Set<Node> nodes) {
+        int v = id(node1);
+        if (v == -1) return false;
+
+        boolean[] targets = new boolean[numIds];
+
+        for (Node node : nodes) {
+            int w = id(node);
+            if (w != -1) targets[w] = true;
+        }
+
+        boolean[] visited = new boolean[numIds];
+        int[] queue = new int[numIds];
+        int tail = 0;
+        queue[tail++] = v;
+        visited[v] = true;
+
+        for (int head = 0; head < tail; head++) {
+            int u = queue[head];
+
+            for (int i = 0; i < degrees[u]; i++) {
+                int proximal = ends[u][i] & 3;
+                if (proximal != TAIL && proximal != CIRCLE) continue;
+
+                int x = neighbors[u][i];
+                if (targets[x]) return true;
+
+                if (!visited[x]) {
+                    visited[x] = true;
+                    queue[tail++] = x;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Determines whether a trek exists between two nodes in the graph.  A trek
+     * exists if there is a directed path between the two nodes or else, for
+     * some third node in the graph, there is a path to each of the two nodes in
+     * question.
+     */
+    public boolean existsTrek(Node node1, Node node2) {
+        int v = id(node1);
+        int w = id(node2);
+        if (v == -1 || w == -1) return false;
+
+        boolean[] ancestors1 = closure(new int[]{v}, PARENTS);
+        boolean[] ancestors2 = closure(new int[]{w}, PARENTS);
+
+        for (int u = 0; u < numIds; u++) {
+            if (ancestors1[u] && ancestors2[u]) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the list of children for a node.
+     */
+    public List<Node> getChildren(Node node) {
+        List<Node> children = new ArrayList<>();
+        int v = id(node);
+        if (v == -1) return children;
+
+        for (int i = 0; i < degrees[v]; i++) {
+            if (isChildEntry(ends[v][i])) children.add(idNodes[neighbors[v][i]]);
+        }
+
+        return children;
+    }
+
+    public int getConnectivity() {
+        int connectivity = 0;
+
+        for (int v = 0; v < numIds; v++) {
+            if (idNodes[v] != null && degrees[v] > connectivity) {
+                connectivity = degrees[v];
+            }
+        }
+
+        return connectivity;
+    }
+
+    public List<Node> getDescendants(List<Node> nodes) {
+        return toNodes(closure(ids(nodes), CHILDREN));
+    }
+
+    /**
+     * @return the edge connecting node1 and node2, provided a unique such edge
+     * exists.
+     */
+    public Edge getEdge(Node node1, Node node2) {
+        int v = id(node1);
+        int w = id(node2);
+        if (v == -1 || w == -1) return null;
+
+        for (int i = 0; i < degrees[v]; i++) {
+            if (neighbors[v][i] == w) return edge(v, i);
+        }
+
+        return null;
+    }
+
+    public Edge getDirectedEdge(Node node1, Node node2) {
+        List<Edge> edges = getEdges(node1, node2);
+
+        for (Edge edge : edges) {
+            if (Edges.isDirectedEdge(edge) && edge.getProximalEndpoint(node2) == Endpoint.ARROW) {
+                return edge;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the list of parents for a node.
+     */
+    public List<Node> getParents(Node node) {
+        List<Node> parents = new ArrayList<>();
+        int v = id(node);
+        if (v == -1) return parents;
+
+        for (int i = 0; i < degrees[v]; i++) {
+            if (isParentEntry(ends[v][i])) parents.add(idNodes[neighbors[v][i]]);
+        }
+
+        return parents;
+    }
+
+    /**
+     * @return the number of edges into the given node.
+     */
+    public int getIndegree(Node node) {
+        return getParents(node).size();
+    }
+
+    @Override
+    public int getDegree(Node node) {
+        return getNumEdges(node);
+    }
+
+    /**
+     * @return the number of edges out of the given node.
+     */
+    public int getOutdegree(Node node) {
+        return getChildren(node).size();
+    }
+
+    /**
+     * Determines whether some edge or other exists between two nodes.
+     */
+    public boolean isAdjacentTo(Node node1, Node node2) {
+        int v = id(node1);
+        int w = id(node2);
+        if (v == -1 || w == -1) return false;
+
+        if (degrees[w] < degrees[v]) {
+            int t = v;
+            v = w;
+            w = t;
+        }
+
+        for (int i = 0; i < degrees[v]; i++) {
+            if (neighbors[v][i] == w) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Determines whether one node is an ancestor of another.
+     */
+    public boolean isAncestorOf(Node node1, Node node2) {
+        int v = id(node1);
+        int w = id(node2);
+        return v != -1 && w != -1 && (v == w || reaches(w, v, PARENTS));
+    }
+
+    public boolean possibleAncestor(Node node1, Node node2) {
+        return existsSemiDirectedPathFromTo(node1,
+                Collections.singleton(node2));
+    }
+
+    public List<Node> getAncestors(List<Node> nodes) {
+        return toNodes(closure(ids(nodes), PARENTS));
+    }
+
+    /**
+     * Determines whether one node is a child of another.
+     */
+    public boolean isChildOf(Node node1, Node node2) {
+        return isParentOf(node2, node1);
+    }
+
+    /**
+     * Determines whether one node is a descendent of another.
+     */
+    public boolean isDescendentOf(Node node1, Node node2) {
+        return isAncestorOf(node2, node1);
+    }
+
+    /**
+     * @return true iff node2 is a definite nondecendent of node1
+     */
+    public boolean defNonDescendent(Node node1, Node node2) {
+        return !(possibleAncestor(node1, node2));
+    }
+
+    public boolean isDConnectedTo(Node x, Node y, List<Node> z) {
+        return GraphUtils.isDConnectedTo(x, y, z, this);
+    }
+
+    public List<Node> getSepset(Node x, Node y) {
+        return GraphUtils.getSepset(x, y, this);
+    }
+
+    @Override
+    public void setNodes(List<Node> nodes) {
+        if (nodes.size() != this.nodes.size()) {
+            throw new IllegalArgumentException("Sorry, there is a mismatch in the number of variables " +
+                    "you are trying to set.");
+        }
+
+        for (Node node : nodes) {
+            Integer v = ids.remove(node);
+
+            if (v != null) {
+                namesHash.remove(idNodes[v].getName());
+                idNodes[v] = node;
+                ids.put(node, v);
+                namesHash.put(node.getName(), node);
+            }
+        }
+
+        this.nodes = new ArrayList<>(nodes);
+    }
+
+    /**
+     * Determines whether one n ode is d-separated from another. According to
+     * Spirtes, Richardson & Meek, two nodes are d- connected given some
+     * conditioning set Z if there is an acyclic undirected path U between them,
+     * such that every collider on U is an ancestor of some element in Z and
+     * every non-collider on U is not in Z.
+     *
+     * @param node1 the first node.
+     * @param node2 the second node.
+     * @param z     the conditioning set.
+     * @return true if node1 is d-separated from node2 given set t, false if
+     * not.
+     * @see #isDConnectedTo
+     */
+    public boolean isDSeparatedFrom(Node node1, Node node2, List<Node> z) {
+        return !isDConnectedTo(node1, node2, z);
+    }
+
+    public boolean possDConnectedTo(Node node1, Node node2,
+                                    List<Node> condNodes) {
+        LinkedList<Node> allNodes = new LinkedList<>(getNodes());
+        int sz = allNodes.size();
+        int[][] edgeStage = new int[sz][sz];
+        int stage = 1;
+
+        int n1x = allNodes.indexOf(node1);
+        int n2x = allNodes.indexOf(node2);
+
+        edgeStage[n1x][n1x] = 1;
+        edgeStage[n2x][n2x] = 1;
+
+        List<int[]> currEdges;
+        List<int[]> nextEdges = new LinkedList<>();
+
+        nextEdges.add(new int[]{n1x, n1x});
+        nextEdges.add(new int[]{n2x, n2x});
+
+        while (true) {
+            currEdges = nextEdges;
+            nextEdges = new LinkedList<>();
+
+            for (int[] edge : currEdges) {
+                Node center = allNodes.get(edge[1]);
+                List<Node> adj = new LinkedList<>(getAdjacentNodes(center));
+
+                for (Node anAdj : adj) {
+                    // check if we've hit this edge before
+                    int testIndex = allNodes.indexOf(anAdj);
+                    if (edgeStage[edge[1]][testIndex] != 0) {
+                        continue;
+                    }
+
+                    // if the edge pair violates possible d-connection,
+                    // then go to the next adjacent node.
+                    Node X = allNodes.get(edge[0]);
+                    Node Y = allNodes.get(edge[1]);
+                    Node Z = allNodes.get(testIndex);
+
+                    if (!((isDefNoncollider(X, Y, Z) &&
+                            !(condNodes.contains(Y))) || (
+                            isDefCollider(X, Y, Z) &&
+                                    possibleAncestorSet(Y, condNodes)))) {
+                        continue;
+                    }
+
+                    // if it gets here, then it's legal, so:
+                    // (i) if this is the one we want, we're done
+                    if (anAdj.equals(node2)) {
+                        return true;
+                    }
+
+                    // (ii) if we need to keep going,
+                    // add the edge to the nextEdges list
+                    nextEdges.add(new int[]{edge[1], testIndex});
+
+                    // (iii) set the edgeStage array
+                    edgeStage[edge[1]][testIndex] = stage;
+                    edgeStage[testIndex][edge[1]] = stage;
+                }
+            }
+
+            // find out if there's any reason to move to the next stage
+            if (nextEdges.size() == 0) {
+                break;
+            }
+
+            stage++;
+        }
+
+        return false;
+    }
+
+    /**
+     * Determines whether an inducing path exists between node1 and node2, given
+     * a set O of observed nodes and a set sem of conditioned nodes.
+     *
+     * @param node1 the first node.
+     * @param node2 the second node.
+     * @return true if an inducing path exists, false if not.
+     */
+    public boolean existsInducingPath(Node node1, Node node2) {
+        return node1 == node2 || existsDirectedPathFromTo(node2, node1);
+    }
+
+    /**
+     * Determines whether one node is a parent of another.
+     *
+     * @param node1 the first node.
+     * @param node2 the second node.
+     * @return true if node1 is a parent of node2, false if not.
+     * @see #isChildOf
+     * @see #getParents
+     * @see #getChildren
+     */
+    public boolean isParentOf(Node node1, Node node2) {
+        int v = id(node1);
+        int w = id(node2);
+        if (v == -1 || w == -1) return false;
+
+        for (int i = 0; i < degrees[v]; i++) {
+            if (neighbors[v][i] == w && isChildEntry(ends[v][i])) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Determines whether one node is a proper ancestor of another.
+     */
+    public boolean isProperAncestorOf(Node node1, Node node2) {
+        return node1 != node2 && isAncestorOf(node1, node2);
+    }
+
+    /**
+     * Determines whether one node is a proper decendent of another
+     */
+    public boolean isProperDescendentOf(Node node1, Node node2) {
+        return node1 != node2 && isDescendentOf(node1, node2);
+    }
+
+    /**
+     * Transfers nodes and edges from one graph to another.  One way this is
+     * used is to change graph types.  One constructs a new graph based on the
+     * old graph, and this method is called to transfer the nodes and edges of
+     * the old graph to the new graph.
+     *
+     * @param graph the graph from which nodes and edges are to be pilfered.
+     * @throws IllegalArgumentException This exception is thrown if adding some
+     *                                  node or edge violates one of the
+     *                                  basicConstraints of this graph.
+     */
+    public void transferNodesAndEdges(Graph graph)
+            throws IllegalArgumentException {
+        if (graph == null) {
+            throw new NullPointerException("No graph was provided.");
+        }
+
+        for (Node node : graph.getNodes()) {
+            if (!addNode(node)) {
+                throw new IllegalArgumentException();
+            }
+        }
+
+        for (Edge edge : graph.getEdges()) {
+            if (!addEdge(edge)) {
+                throw new IllegalArgumentException();
+            }
+        }
+    }
+
+    /**
+     * Determines whether a node in a graph is exogenous.
+     */
+    public boolean isExogenous(Node node) {
+        return getIndegree(node) == 0;
+    }
+
+    /**
+     * @return the set of nodes adjacent to the given node. If there are multiple edges between X and Y, Y will show
+     * up twice in the list of adjacencies for X.
+     */
+    public List<Node> getAdjacentNodes(Node node) {
+        int v = id(node);
+        if (v == -1) return new ArrayList<>();
+
+        List<Node> adj = new ArrayList<>(degrees[v]);
+
+        for (int i = 0; i < degrees[v]; i++) {
+            adj.add(idNodes[neighbors[v][i]]);
+        }
+
+        return adj;
+    }
+
+    /**
+     * Removes the edge connecting the two given nodes.
+     */
+    public boolean removeEdge(Node node1, Node node2) {
+        List<Edge> edges = getEdges(node1, node2);
+
+        if (edges.size() > 1) {
+            throw new IllegalStateException(
+                    "There is more than one edge between " + node1 + " and " +
+                            node2);
+        }
+
+        return removeEdges(edges);
+    }
+
+    /**
+     * @return the endpoint along the edge from node to node2 at the node2 end.
+     */
+    public Endpoint getEndpoint(Node node1, Node node2) {
+        int v = id(node1);
+        int w = id(node2);
+        if (v == -1 || w == -1) return null;
+
+        for (int i = 0; i < degrees[w]; i++) {
+            if (neighbors[w][i] == v) return ENDPOINTS[ends[w][i] & 3];
+        }
+
+        return null;
+    }
+
+    /**
+     * If there is currently an edge from node1 to node2, sets the endpoint at
+     * node2 to the given endpoint; if there is no such edge, adds an edge --#
+     * where # is the given endpoint. The edge is moved to the end of the edge
+     * lists of both nodes.
+     *
+     * @throws IllegalArgumentException if the edge with the revised endpoint
+     *                                  cannot be added to the graph.
+     */
+    public boolean setEndpoint(Node from, Node to, Endpoint endPoint)
+            throws IllegalArgumentException {
+        List<Edge> edges = getEdges(from, to);
+
+        if (endPoint == null) {
+            throw new NullPointerException();
+        } else if (edges.size() == 0) {
+            removeEdges(from, to);
+            addEdge(new Edge(from, to, Endpoint.TAIL, endPoint));
+            return true;
+        } else if (edges.size() == 1) {
+            Edge edge = edges.get(0);
+            Edge newEdge = new Edge(from, to, edge.getProximalEndpoint(from), endPoint);
+
+            try {
+                removeEdges(edge.getNode1(), edge.getNode2());
+                addEdge(newEdge);
+                return true;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        } else {
+            throw new NullPointerException(
+                    "An endpoint between node1 and node2 " +
+                            "may not be set in this graph if there is more than one " +
+                            "edge between node1 and node2.");
+        }
+    }
+
+    /**
+     * Nodes adjacent to the given node with the given proximal endpoint.
+     */
+    public List<Node> getNodesInTo(Node node, Endpoint endpoint) {
+        List<Node> nodes = new ArrayList<>(4);
+        int v = id(node);
+        int code = code(endpoint);
+        if (v == -1 || code == -1) return nodes;
+
+        for (int i = 0; i < degrees[v]; i++) {
+            if ((ends[v][i] & 3) == code) nodes.add(idNodes[neighbors[v][i]]);
+        }
+
+        return nodes;
+    }
+
+    /**
+     * Nodes adjacent to the given node with the given distal endpoint.
+     */
+    public List<Node> getNodesOutTo(Node node, Endpoint endpoint) {
+        List<Node> nodes = new ArrayList<>(4);
+        int v = id(node);
+        int code = code(endpoint);
+        if (v == -1 || code == -1) return nodes;
+
+        for (int i = 0; i < degrees[v]; i++) {
+            if (((ends[v][i] >> 2) & 3) == code) nodes.add(idNodes[neighbors[v][i]]);
+        }
+
+        return nodes;
+    }
+
+    /**
+     * @return a matrix of endpoints for the nodes in this graph, with nodes in
+     * the same order as getNodes().
+     */
+    public Endpoint[][] getEndpointMatrix() {
+        int size = nodes.size();
+        Endpoint[][] endpoints = new Endpoint[size][size];
+        int[] index = new int[numIds];
+
+        for (int i = 0; i < size; i++) {
+            index[id(nodes.get(i))] = i;
+        }
+
+        for (int i = 0; i < size; i++) {
+            int v = id(nodes.get(i));
+
+            // The first edge from each neighbor counts, as in getEndpoint.
+            for (int k = degrees[v] - 1; k >= 0; k--) {
+                int j = index[neighbors[v][k]];
+                if (i != j) endpoints[j][i] = ENDPOINTS[ends[v][k] & 3];
+            }
+        }
+
+        return endpoints;
+    }
+
+    /**
+     * Adds an edge to the graph.
+     *
+     * @param edge the edge to be added
+     * @return true if the edge was added, false if not.
+     */
+    public boolean addEdge(Edge edge) {
+        if (edge == null) throw new NullPointerException();
+
+        int v = id(edge.getNode1());
+        int w = id(edge.getNode2());
+
+        if (v == -1 || w == -1) {
+
+            // If the user changes the names of variables, their hash codes change; this is the mechanism for
+            // adjusting the map from nodes to ids to compensate.
+            rehash();
+            v = id(edge.getNode1());
+            w = id(edge.getNode2());
+        }
+
+        if (v == -1 || w == -1) {
+            throw new NullPointerException("Can't add an edge unless both " +
+                    "nodes are in the graph: " + edge);
+        }
+
+        int code1 = code(edge.getEndpoint1());
+        int code2 = code(edge.getEndpoint2());
+
+        if (code1 == -1 || code2 == -1) {
+            throw new IllegalArgumentException("Can't store an edge with those endpoints: " + edge);
+        }
+
+        if (indexOf(v, w, code1, code2) != -1 || (v == w && indexOf(v, w, code2, code1) != -1)) {
+            return true;
+        }
+
+        append(v, w, (byte) (code1 | (code2 << 2) | NODE1));
+
+        if (v != w) {
+            append(w, v, (byte) (code2 | (code1 << 2)));
+        }
+
+        numEdges++;
+
+        if (Edges.isDirectedEdge(edge)) {
+            Node node = Edges.getDirectedEdgeTail(edge);
+
+            if (node.getNodeType() == NodeType.ERROR) {
+                getPcs().firePropertyChange("nodeAdded", null, node);
+            }
+        }
+
+        getPcs().firePropertyChange("edgeAdded", null, edge);
+        return true;
+    }
+
+    /**
+     * Adds a PropertyChangeListener to the graph.
+     *
+     * @param l the property change listener.
+     */
+    public void addPropertyChangeListener(PropertyChangeListener l) {
+        getPcs().addPropertyChangeListener(l);
+    }
+
+    /**
+     * Adds a node to the graph. Precondition: The proposed name of the node
+     * cannot already be used by any other node in the same graph.
+     *
+     * @param node the node to be added.
+     * @return true if the the node was added, false if not.
+     */
+    public boolean addNode(Node node) {
+        if (node == null) {
+            throw new NullPointerException();
+        }
+
+        if (ids.containsKey(node)) return true;
+
+        if (numIds == idNodes.length) {
+            int length = 2 * numIds;
+            idNodes = Arrays.copyOf(idNodes, length);
+            neighbors = Arrays.copyOf(neighbors, length);
+            ends = Arrays.copyOf(ends, length);
+            degrees = Arrays.copyOf(degrees, length);
+            owned = Arrays.copyOf(owned, length);
+        }
+
+        int v = numIds++;
+        idNodes[v] = node;
+        neighbors[v] = new int[4];
+        ends[v] = new byte[4];
+        owned[v] = true;
+        ids.put(node, v);
+        nodes.add(node);
+        namesHash.put(node.getName(), node);
+
+        if (node.getNodeType() != NodeType.ERROR) {
+            getPcs().firePropertyChange("nodeAdded", null, node);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the set of edges in the graph.
+     */
+    public Set<Edge> getEdges() {
+        Set<Edge> edges = new HashSet<>();
+
+        for (int v = 0; v < numIds; v++) {
+            for (int i = 0; i < degrees[v]; i++) {
+                if ((ends[v][i] & NODE1) != 0) edges.add(edge(v, i));
+            }
+        }
+
+        return edges;
+    }
+
+    /**
+     * Determines if the graph contains a particular edge.
+     */
+    public boolean containsEdge(Edge edge) {
+        int v = id(edge.getNode1());
+        int w = id(edge.getNode2());
+        int code1 = code(edge.getEndpoint1());
+        int code2 = code(edge.getEndpoint2());
+
+        if (v == -1 || w == -1 || code1 == -1 || code2 == -1) {
+            return false;
+        }
+
+        return indexOf(v, w, code1, code2) != -1 || (v == w && indexOf(v, w, code2, code1) != -1);
+    }
+
+    /**
+     * Determines whether the graph contains a particular node.
+     */
+    public boolean containsNode(Node node) {
+        return ids.containsKey(node);
+    }
+
+    /**
+     * @return the list of edges connected to a particular node, in the order in which they were added.
+     */
+    public List<Edge> getEdges(Node node) {
+        int v = id(node);
+        if (v == -1) return new ArrayList<>();
+
+        List<Edge> edges = new ArrayList<>(degrees[v]);
+
+        for (int i = 0; i < degrees[v]; i++) {
+            edges.add(edge(v, i));
+        }
+
+        return edges;
+    }
+
+    public int hashCode() {
+        int hashCode = 0;
+        int sum = 0;
+
+        for (Node node : getNodes()) {
+            sum += node.hashCode();
+        }
+
+        hashCode += 23 * sum;
+        sum = 0;
+
+        for (Edge edge : getEdges()) {
+            sum += edge.hashCode();
+        }
+
+        hashCode += 41 * sum;
+
+        return hashCode;
+    }
+
+    /**
+     * @return true iff the given object is a graph that is equal to this graph,
+     * in the sense that it contains the same nodes and the edges are
+     * isomorphic.
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof Graph)) {
+            return false;
+        }
+
+        Graph graph = (Graph) o;
+        return new HashSet<>(graph.getNodeNames()).equals(new HashSet<>(getNodeNames())) &&
+                new HashSet<>(graph.getEdges()).equals(getEdges());
+    }
+
+    /**
+     * Resets the graph so that it is fully connects it using #-# edges, where #
+     * is the given endpoint.
+     */
+    public void fullyConnect(Endpoint endpoint) {
+        for (int v = 0; v < numIds; v++) {
+            if (idNodes[v] == null) continue;
+            neighbors[v] = new int[4];
+            ends[v] = new byte[4];
+            degrees[v] = 0;
+            owned[v] = true;
+        }
+
+        numEdges = 0;
+
+        for (int i = 0; i < nodes.size(); i++) {
+            for (int j = i + 1; j < nodes.size(); j++) {
+                addEdge(new Edge(nodes.get(i), nodes.get(j), endpoint, endpoint));
+            }
+        }
+    }
+
+    public void reorientAllWith(Endpoint endpoint) {
+        for (Edge edge : new ArrayList<>(getEdges())) {
+            Node a = edge.getNode1();
+            Node b = edge.getNode2();
+            setEndpoint(a, b, endpoint);
+            setEndpoint(b, a, endpoint);
+        }
+    }
+
+    /**
+     * @return the node with the given name, or null if no such node exists.
+     */
+    public Node getNode(String name) {
+        return namesHash.get(name);
+    }
+
+    /**
+     * @return the number of nodes in the graph.
+     */
+    public int getNumNodes() {
+        return nodes.size();
+    }
+
+    /**
+     * @return the number of edges in the (entire) graph.
+     */
+    public int getNumEdges() {
+        return numEdges;
+    }
+
+    /**
+     * @return the number of edges connected to a particular node in the graph.
+     */
+    public int getNumEdges(Node node) {
+        int v = id(node);
+        return v == -1 ? 0 : degrees[v];
+    }
+
+    public List<Node> getNodes() {
+        return new ArrayList<>(nodes);
+    }
+
+    /**
+     * Removes all nodes (and therefore all edges) from the graph.
+     */
+    public void clear() {
+        for (Edge edge : getEdges()) {
+            getPcs().firePropertyChange("edgeRemoved", edge, null);
+        }
+
+        for (Node node : nodes) {
+            getPcs().firePropertyChange("nodeRemoved", node, null);
+        }
+
+        nodes = new ArrayList<>();
+        idNodes = new Node[16];
+        numIds = 0;
+        ids = new HashMap<>();
+        neighbors = new int[16][];
+        ends = new byte[16][];
+        degrees = new int[16];
+        owned = new boolean[16];
+        numEdges = 0;
+        namesHash = new HashMap<>();
+    }
+
+    /**
+     * Removes an edge from the graph.
+     *
+     * @param edge the edge to remove.
+     * @return true if the edge was removed, false if not.
+     */
+    public boolean removeEdge(Edge edge) {
+        int v = id(edge.getNode1());
+        int w = id(edge.getNode2());
+        int code1 = code(edge.getEndpoint1());
+        int code2 = code(edge.getEndpoint2());
+
+        if (v == -1 || w == -1 || code1 == -1 || code2 == -1) {
+            return false;
+        }
+
+        int i = indexOf(v, w, code1, code2);
+
+        if (i == -1 && v == w) {
+            i = indexOf(v, w, code2, code1);
+        }
+
+        if (i == -1) {
+            return false;
+        }
+
+        remove(v, i);
+
+        if (v != w) {
+            remove(w, indexOf(w, v, code2, code1));
+        }
+
+        numEdges--;
+        highlightedEdges.remove(edge);
+
+        getPcs().firePropertyChange("edgeRemoved", edge, null);
+        return true;
+    }
+
+    /**
+     * Removes any relevant edge objects found in this collection.
+     *
+     * @param edges the collection of edges to remove.
+     * @return true if any edges in the collection were removed, false if not.
+     */
+    public boolean removeEdges(Collection<Edge> edges) {
+        boolean change = false;
+
+        for (Edge edge : edges) {
+            boolean _change = removeEdge(edge);
+            change = change || _change;
+        }
+
+        return change;
+    }
+
+    /**
+     * Removes all edges connecting node A to node B.
+     *
+     * @param node1 the first node.,
+     * @param node2 the second node.
+     * @return true if edges were removed between A and B, false if not.
+     */
+    public boolean removeEdges(Node node1, Node node2) {
+        return removeEdges(getEdges(node1, node2));
+    }
+
+    /**
+     * Removes a node from the graph.
+     */
+    public boolean removeNode(Node node) {
+        int v = id(node);
+
+        if (v == -1) {
+            return false;
+        }
+
+        boolean changed = false;
+
+        for (Edge edge : getEdges(node)) {
+            changed = removeEdge(edge) || changed;
+        }
+
+        idNodes[v] = null;
+        neighbors[v] = null;
+        ends[v] = null;
+        ids.remove(node);
+        nodes.remove(node);
+        namesHash.remove(node.getName());
+
+        getPcs().firePropertyChange("nodeRemoved", node, null);
+        return changed;
+    }
+
+    /**
+     * Removes any relevant node objects found in this collection.
+     *
+     * @param newNodes the collection of nodes to remove.
+     * @return true if nodes from the collection were removed, false if not.
+     */
+    public boolean removeNodes(List<Node> newNodes) {
+        boolean changed = false;
+
+        for (Node newNode : newNodes) {
+            boolean _changed = removeNode(newNode);
+            changed = changed || _changed;
+        }
+
+        return changed;
+    }
+
+    /**
+     * @return a string representation of the graph.
+     */
+    public String toString() {
+        return GraphUtils.graphToText(this).toString();
+    }
+
+    public Graph subgraph(List<Node> nodes) {
+        Graph graph = new ColumnarGraph(nodes);
+
+        for (Edge edge : getEdges()) {
+            if (nodes.contains(edge.getNode1()) &&
+                    nodes.contains(edge.getNode2())) {
+                graph.addEdge(edge);
+            }
+        }
+
+        return graph;
+    }
+
+    /**
+     * @return the edges connecting node1 and node2.
+     */
+    public List<Edge> getEdges(Node node1, Node node2) {
+        List<Edge> edges = new ArrayList<>();
+        int v = id(node1);
+        int w = id(node2);
+        if (v == -1 || w == -1) return edges;
+
+        for (int i = 0; i < degrees[v]; i++) {
+            if (neighbors[v][i] == w) edges.add(edge(v, i));
+        }
+
+        return edges;
+    }
+
+    public Set<Triple> getAmbiguousTriples() {
+        return new HashSet<>(ambiguousTriples);
+    }
+
+    public Set<Triple> getUnderLines() {
+        return new HashSet<>(underLineTriples);
+    }
+
+    public Set<Triple> getDottedUnderlines() {
+        return new HashSet<>(dottedUnderLineTriples);
+    }
+
+    /**
+     * States whether x-y-z is an ambiguous triple or not.
+     */
+    public boolean isAmbiguousTriple(Node x, Node y, Node z) {
+        return ambiguousTriples.contains(new Triple(x, y, z));
+    }
+
+    /**
+     * States whether x-y-z is an underline triple or not.
+     */
+    public boolean isUnderlineTriple(Node x, Node y, Node z) {
+        return underLineTriples.contains(new Triple(x, y, z));
+    }
+
+    /**
+     * States whether x-y-z is a dotted underline triple or not.
+     */
+    public boolean isDottedUnderlineTriple(Node x, Node y, Node z) {
+        return dottedUnderLineTriples.contains(new Triple(x, y, z));
+    }
+
+    public void addAmbiguousTriple(Node x, Node y, Node z) {
+        ambiguousTriples.add(new Triple(x, y, z));
+    }
+
+    public void addUnderlineTriple(Node x, Node y, Node z) {
+        Triple triple = new Triple(x, y, z);
+
+        if (!triple.alongPathIn(this)) {
+            throw new IllegalArgumentException("<" + x + ", " + y + ", " + z + "> must lie along a path in the graph.");
+        }
+
+        underLineTriples.add(triple);
+    }
+
+    public void addDottedUnderlineTriple(Node x, Node y, Node z) {
+        Triple triple = new Triple(x, y, z);
+
+        if (!triple.alongPathIn(this)) {
+            throw new IllegalArgumentException("<" + x + ", " + y + ", " + z + "> must lie along a path in the graph.");
+        }
+
+        dottedUnderLineTriples.add(triple);
+    }
+
+    public void removeAmbiguousTriple(Node x, Node y, Node z) {
+        ambiguousTriples.remove(new Triple(x, y, z));
+    }
+
+    public void removeUnderlineTriple(Node x, Node y, Node z) {
+        underLineTriples.remove(new Triple(x, y, z));
+    }
+
+    public void removeDottedUnderlineTriple(Node x, Node y, Node z) {
+        dottedUnderLineTriples.remove(new Triple(x, y, z));
+    }
+
+    public void setAmbiguousTriples(Set<Triple> triples) {
+        ambiguousTriples.clear();
+
+        for (Triple triple : triples) {
+            addAmbiguousTriple(triple.getX(), triple.getY(), triple.getZ());
+        }
+    }
+
+    public void setUnderLineTriples(Set<Triple> triples) {
+        underLineTriples.clear();
+
+        for (Triple triple : triples) {
+            addUnderlineTriple(triple.getX(), triple.getY(), triple.getZ());
+        }
+    }
+
+    public void setDottedUnderLineTriples(Set<Triple> triples) {
+        dottedUnderLineTriples.clear();
+
+        for (Triple triple : triples) {
+            addDottedUnderlineTriple(triple.getX(), triple.getY(), triple.getZ());
+        }
+    }
+
+    public List<String> getNodeNames() {
+        List<String> names = new ArrayList<>();
+
+        for (Node node : nodes) {
+            names.add(node.getName());
+        }
+
+        return names;
+    }
+
+    public void removeTriplesNotInGraph() {
+        for (Set<Triple> triples : Arrays.asList(ambiguousTriples, underLineTriples, dottedUnderLineTriples)) {
+            for (Triple triple : new HashSet<>(triples)) {
+                if (!containsNode(triple.getX()) || !containsNode(triple.getY()) || !containsNode(triple.getZ())) {
+                    triples.remove(triple);
+                    continue;
+                }
+
+                if (!isAdjacentTo(triple.getX(), triple.getY()) || !isAdjacentTo(triple.getY(), triple.getZ())) {
+                    triples.remove(triple);
+                }
+            }
+        }
+    }
+
+    public List<Node> getCausalOrdering() {
+        return GraphUtils.getCausalOrdering(this);
+    }
+
+    public void setHighlighted(Edge edge, boolean highlighted) {
+        highlightedEdges.add(edge);
+    }
+
+    public boolean isHighlighted(Edge edge) {
+        return highlightedEdges.contains(edge);
+    }
+
+    public boolean isParameterizable(Node node) {
+        return true;
+    }
+
+    public boolean isTimeLagModel() {
+        return false;
+    }
+
+    public TimeLagGraph getTimeLagGraph() {
+        return null;
+    }
+
+    /**
+     * @return the names of the triple classifications. Coordinates with <code>getTriplesList</code>
+     */
+    public List<String> getTriplesClassificationTypes() {
+        List<String> names = new ArrayList<>();
+        names.add("Underlines");
+        names.add("Dotted Underlines");
+        return names;
+    }
+
+    /**
+     * @return the list of triples corresponding to <code>getTripleClassificationNames</code> for the given
+     * node.
+     */
+    public List<List<Triple>> getTriplesLists(Node node) {
+        List<List<Triple>> triplesList = new ArrayList<>();
+        triplesList.add(GraphUtils.getUnderlinedTriplesFromGraph(node, this));
+        triplesList.add(GraphUtils.getDottedUnderlinedTriplesFromGraph(node, this));
+        return triplesList;
+    }
+
+    //===============================PRIVATE METHODS======================//
+
+    // The relations followed by reaches and closure.
+    private static final int PARENTS = 0;
+    private static final int CHILDREN = 1;
+    private static final int ADJACENTS = 2;
+
+    /**
+     * Makes this graph a copy-on-write snapshot of the given graph. From now on neither graph owns the arrays of any
+     * node, so each copies a node's arrays before changing them. This changes the given graph, by clearing its
+     * ownership flags; snapshots of one graph taken from several threads are serialized on it.
+     */
+    private void share(ColumnarGraph graph) {
+        synchronized (graph) {
+            nodes = new ArrayList<>(graph.nodes);
+            idNodes = graph.idNodes.clone();
+            numIds = graph.numIds;
+            ids = new HashMap<>(graph.ids);
+            neighbors = graph.neighbors.clone();
+            ends = graph.ends.clone();
+            degrees = graph.degrees.clone();
+            owned = new boolean[idNodes.length];
+            Arrays.fill(graph.owned, false);
+            numEdges = graph.numEdges;
+            namesHash = new HashMap<>(graph.namesHash);
+        }
+    }
+
+    private int id(Node node) {
+        Integer id = ids.get(node);
+        return id == null ? -1 : id;
+    }
+
+    private int[] ids(List<Node> nodes) {
+        int[] ids = new int[nodes.size()];
+        int n = 0;
+
+        for (Node node : nodes) {
+            int v = id(node);
+            if (v != -1) ids[n++] = v;
+        }
+
+        return Arrays.copyOf(ids, n);
+    }
+
+    private List<Node> toNodes(boolean[] set) {
+        List<Node> nodes = new ArrayList<>();
+
+        for (int v = 0; v < set.length; v++) {
+            if (set[v]) nodes.add(idNodes[v]);
+        }
+
+        return nodes;
+    }
+
+    private void rehash() {
+        ids = new HashMap<>();
+
+        for (int v = 0; v < numIds; v++) {
+            if (idNodes[v] != null) ids.put(idNodes[v], v);
+        }
+    }
+
+    private static int code(Endpoint endpoint) {
+        for (int i = 0; i < ENDPOINTS.length; i++) {
+            if (ENDPOINTS[i] == endpoint) return i;
+        }
+
+        return -1;
+    }
+
+    // v --> w, for an entry of v.
+    private static boolean isChildEntry(byte end) {
+        return (end & 3) == TAIL && ((end >> 2) & 3) == ARROW;
+    }
+
+    // w --> v, for an entry of v.
+    private static boolean isParentEntry(byte end) {
+        return (end & 3) == ARROW && ((end >> 2) & 3) == TAIL;
+    }
+
+    private boolean follows(byte end, int relation) {
+        return relation == ADJACENTS || (relation == CHILDREN ? isChildEntry(end) : isParentEntry(end));
+    }
+
+    /**
+     * @return true iff w can be reached from v in one or more steps along the given relation.
+     */
+    private boolean reaches(int v, int w, int relation) {
+        boolean[] visited = new boolean[numIds];
+        int[] queue = new int[numIds];
+        int tail = 0;
+        queue[tail++] = v;
+        visited[v] = true;
+
+        for (int head = 0; head < tail; head++) {
+            int u = queue[head];
+
+            for (int i = 0; i < degrees[u]; i++) {
+                if (!follows(ends[u][i], relation)) continue;
+
+                int x = neighbors[u][i];
+                if (x == w) return true;
+
+                if (!visited[x]) {
+                    visited[x] = true;
+                    queue[tail++] = x;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the set of nodes reachable from the given ones in zero or more steps along the given relation.
+     */
+    private boolean[] closure(int[] from, int relation) {
+        boolean[] visited = new boolean[numIds];
+        int[] queue = new int[numIds];
+        int tail = 0;
+
+        for (int v : from) {
+            if (!visited[v]) {
+                visited[v] = true;
+                queue[tail++] = v;
+            }
+        }
+
+        for (int head = 0; head < tail; head++) {
+            int u = queue[head];
+
+            for (int i = 0; i < degrees[u]; i++) {
+                if (!follows(ends[u][i], relation)) continue;
+
+                int x = neighbors[u][i];
+
+                if (!visited[x]) {
+                    visited[x] = true;
+                    queue[tail++] = x;
+                }
+            }
+        }
+
+        return visited;
+    }
+
+    /**
+     * @return true iff node1 is a possible ancestor of at least one member of
+     * nodes2
+     */
+    private boolean possibleAncestorSet(Node node1, List<Node> nodes2) {
+        for (Node node2 : nodes2) {
+            if (possibleAncestor(node1, node2)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the index of the first entry of v for an edge to w with the given endpoints at v and w, or -1.
+     */
+    private int indexOf(int v, int w, int codeV, int codeW) {
+        int end = codeV | (codeW << 2);
+
+        for (int i = 0; i < degrees[v]; i++) {
+            if (neighbors[v][i] == w && (ends[v][i] & 15) == end) return i;
+        }
+
+        return -1;
+    }
+
+    private Edge edge(int v, int i) {
+        Node node = idNodes[v];
+        Node other = idNodes[neighbors[v][i]];
+        byte end = ends[v][i];
+        Endpoint proximal = ENDPOINTS[end & 3];
+        Endpoint distal = ENDPOINTS[(end >> 2) & 3];
+
+        if ((end & NODE1) != 0) {
+            return new Edge(node, other, proximal, distal);
+        } else {
+            return new Edge(other, node, distal, proximal);
+        }
+    }
+
+    private void own(int v) {
+        if (!owned[v]) {
+            int length = Math.max(4, degrees[v]);
+            neighbors[v] = Arrays.copyOf(neighbors[v], length);
+            ends[v] = Arrays.copyOf(ends[v], length);
+            owned[v] = true;
+        }
+    }
+
+    private void append(int v, int w, byte end) {
+        own(v);
+
+        if (degrees[v] == neighbors[v].length) {
+            int length = 2 * degrees[v];
+            neighbors[v] = Arrays.copyOf(neighbors[v], length);
+            ends[v] = Arrays.copyOf(ends[v], length);
+        }
+
+        neighbors[v][degrees[v]] = w;
+        ends[v][degrees[v]] = end;
+        degrees[v]++;
+    }
+
+    private void remove(int v, int i) {
+        own(v);
+        int numMoved = degrees[v] - i - 1;
+        System.arraycopy(neighbors[v], i + 1, neighbors[v], i, numMoved);
+        System.arraycopy(ends[v], i + 1, ends[v], i, numMoved);
+        degrees[v]--;
+    }
+
+    /**
+     * @return this object.
+     */
+    private PropertyChangeSupport getPcs() {
+        if (pcs == null) {
+            pcs = new PropertyChangeSupport(this);
+        }
+        return pcs;
+    }
+
+    /**
+     * Adds semantic checks to the default deserialization method. This method
+     * must have the standard signature for a readObject method, and the body of
+     * the method must begin with "s.defaultReadObject();". Other than that, any
+     * semantic checks can be specified and do not need to stay the same from
+     * version to version. A readObject method of this form may be added to any
+     * class, even if Tetrad sessions were previously saved out using a version
+     * of the class that didn't include it. (That's what the
+     * "s.defaultReadObject();" is for. See J. Bloch, Effective Java, for help.
+     *
+     * @throws java.io.IOException
+     * @throws ClassNotFoundException
+     */
+    private void readObject(ObjectInputStream s)
+            throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+
+        if (nodes == null) {
+            throw new NullPointerException();
+        }
+
+        if (idNodes == null || neighbors == null || ends == null || degrees == null) {
+            throw new NullPointerException();
+        }
+
+        owned = new boolean[idNodes.length];
+        Arrays.fill(owned, true);
+        rehash();
+    }
+}
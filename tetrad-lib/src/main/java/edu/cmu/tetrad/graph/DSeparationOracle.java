@@ -0,0 +1,394 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.graph;
+
+import java.util.*;
+
+/**
+ * Answers d-separation queries for a fixed graph. The graph is compiled once into integer node
+ * ids: edges are kept as arrays of half-edges with their endpoints, and the ancestors of each node
+ * are kept as a bit set, so that a query needs only a scan over half-edges reachable from x given Z.
+ * The semantics are those of GraphUtils.isDConnectedTo, so the graph may be a DAG or a MAG (or
+ * anything else with definite colliders and directed edges).
+ * </p>
+ * The oracle is immutable and may be queried from any number of threads at once; each thread reuses
+ * its own scratch space, so queries do not allocate. Changes to the graph after the oracle is
+ * constructed are not seen. The ancestor bit sets take n * n / 8 bytes for n nodes.
+ *
+ * @author Joseph Ramsey
+ */
+public final class DSeparationOracle {
+
+    // The nodes of the graph, by id.
+    private final List<Node> nodes;
+
+    // Node --> id.
+    private final Map<Node, Integer> ids;
+
+    // The half-edges out of node i are offsets[i] to offsets[i + 1] - 1.
+    private final int[] offsets;
+
+    // For each half-edge, the node it leads to.
+    private final int[] targets;
+
+    // For each half-edge, the node it leaves.
+    private final int[] sources;
+
+    // For each half-edge, whether the edge has an arrow at the node it leaves.
+    private final boolean[] arrowAtSource;
+
+    // For each half-edge, whether the edge has an arrow at the node it leads to.
+    private final boolean[] arrowAtTarget;
+
+    // For each node, the words of the bit set of its ancestors, including itself.
+    private final long[][] ancestors;
+
+    // Underline triples (a, b, c), in both orders, or null if there are none.
+    private final Set<Long> underlines;
+
+    private final int numWords;
+
+    private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
+
+    /**
+     * Compiles the given graph.
+     */
+    public DSeparationOracle(Graph graph) {
+        if (graph == null) throw new NullPointerException("Graph must not be null.");
+
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(graph.getNodes()));
+        this.ids = new HashMap<>();
+
+        for (int i = 0; i < nodes.size(); i++) {
+            ids.put(nodes.get(i), i);
+        }
+
+        int n = nodes.size();
+        this.numWords = (n + 63) >>> 6;
+        this.offsets = new int[n + 1];
+
+        List<List<Edge>> edges = new ArrayList<>(n);
+
+        for (int i = 0; i < n; i++) {
+            List<Edge> _edges = graph.getEdges(nodes.get(i));
+            edges.add(_edges);
+            offsets[i + 1] = offsets[i] + _edges.size();
+        }
+
+        this.targets = new int[offsets[n]];
+        this.sources = new int[offsets[n]];
+        this.arrowAtSource = new boolean[offsets[n]];
+        this.arrowAtTarget = new boolean[offsets[n]];
+
+        int[][] parents = new int[n][];
+
+        for (int i = 0; i < n; i++) {
+            Node node = nodes.get(i);
+            int h = offsets[i];
+            int numParents = 0;
+            int[] _parents = new int[edges.get(i).size()];
+
+            for (Edge edge : edges.get(i)) {
+                int j = ids.get(edge.getDistalNode(node));
+                targets[h] = j;
+                sources[h] = i;
+                arrowAtSource[h] = edge.getProximalEndpoint(node) == Endpoint.ARROW;
+                arrowAtTarget[h] = edge.getDistalEndpoint(node) == Endpoint.ARROW;
+
+                if (edge.getProximalEndpoint(node) == Endpoint.ARROW
+                        && edge.getDistalEndpoint(node) == Endpoint.TAIL) {
+                    _parents[numParents++] = j;
+                }
+
+                h++;
+            }
+
+            parents[i] = Arrays.copyOf(_parents, numParents);
+        }
+
+        this.ancestors = ancestors(parents);
+
+        Set<Triple> triples = graph.getUnderLines();
+
+        if (triples.isEmpty()) {
+            this.underlines = null;
+        } else {
+            this.underlines = new HashSet<>();
+
+            for (Triple triple : triples) {
+                Integer a = ids.get(triple.getX());
+                Integer b = ids.get(triple.getY());
+                Integer c = ids.get(triple.getZ());
+                if (a == null || b == null || c == null) continue;
+                underlines.add(key(a, b, c));
+                underlines.add(key(c, b, a));
+            }
+        }
+    }
+
+    /**
+     * @return The nodes of the graph, in the order of their ids.
+     */
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return The id of the given node, or -1 if it is not in the graph.
+     */
+    public int getId(Node node) {
+        Integer id = ids.get(node);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return true iff x and y are d-separated given z.
+     */
+    public boolean isDSeparated(Node x, Node y, List<Node> z) {
+        Workspace w = workspaces.get();
+        if (w.z.length < z.size()) w.z = new int[z.size()];
+
+        for (int k = 0; k < z.size(); k++) {
+            w.z[k] = id(z.get(k));
+        }
+
+        return !isDConnected(id(x), id(y), w.z, z.size(), w);
+    }
+
+    /**
+     * @return true iff x and y are d-connected given z.
+     */
+    public boolean isDConnected(Node x, Node y, List<Node> z) {
+        return !isDSeparated(x, y, z);
+    }
+
+    /**
+     * @return true iff the nodes with ids x and y are d-separated given the nodes with ids z.
+     */
+    public boolean isDSeparated(int x, int y, int[] z) {
+        return !isDConnected(x, y, z, z.length, workspaces.get());
+    }
+
+    /**
+     * @return true iff the nodes with ids x and y are d-connected given the nodes with ids z.
+     */
+    public boolean isDConnected(int x, int y, int[] z) {
+        return isDConnected(x, y, z, z.length, workspaces.get());
+    }
+
+    /**
+     * @return true iff the node with id a is an ancestor of the node with id b (or is b).
+     */
+    public boolean isAncestorOf(int a, int b) {
+        return (ancestors[b][a >>> 6] & (1L << a)) != 0;
+    }
+
+    private boolean isDConnected(int x, int y, int[] z, int zSize, Workspace w) {
+        checkId(x);
+        checkId(y);
+        if (x == y) return true;
+
+        long[] inZ = w.inZ;
+        long[] zAncestors = w.zAncestors;
+
+        for (int k = 0; k < zSize; k++) {
+            checkId(z[k]);
+        }
+
+        for (int k = 0; k < zSize; k++) {
+            int v = z[k];
+            inZ[v >>> 6] |= 1L << v;
+            long[] _ancestors = ancestors[v];
+            for (int i = 0; i < numWords; i++) zAncestors[i] |= _ancestors[i];
+        }
+
+        try {
+            return scan(x, y, w);
+        } finally {
+            for (int k = 0; k < zSize; k++) inZ[z[k] >>> 6] = 0;
+            if (zSize > 0) Arrays.fill(zAncestors, 0);
+        }
+    }
+
+    // Breadth first over half-edges, each visited at most once.
+    private boolean scan(int x, int y, Workspace w) {
+        int[] queue = w.queue;
+        int[] visited = w.visited;
+        int stamp = w.nextStamp();
+        int head = 0, tail = 0;
+
+        for (int h = offsets[x]; h < offsets[x + 1]; h++) {
+            if (targets[h] == y) return true;
+            visited[h] = stamp;
+            queue[tail++] = h;
+        }
+
+        while (head < tail) {
+            int h1 = queue[head++];
+            int a = sources[h1];
+            int b = targets[h1];
+            boolean arrow1 = arrowAtTarget[h1];
+            boolean bInZ = (w.inZ[b >>> 6] & (1L << b)) != 0;
+            boolean bAncestorOfZ = (w.zAncestors[b >>> 6] & (1L << b)) != 0;
+
+            for (int h2 = offsets[b]; h2 < offsets[b + 1]; h2++) {
+                int c = targets[h2];
+                if (c == a) continue;
+
+                boolean collider = arrow1 && arrowAtSource[h2];
+                boolean reachable;
+
+                if ((!collider || (underlines != null && underlines.contains(key(a, b, c)))) && !bInZ) {
+                    reachable = true;
+                } else {
+                    reachable = collider && bAncestorOfZ;
+                }
+
+                if (!reachable) continue;
+                if (c == y) return true;
+
+                if (visited[h2] != stamp) {
+                    visited[h2] = stamp;
+                    queue[tail++] = h2;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= nodes.size()) throw new IllegalArgumentException("Not a node id: " + id);
+    }
+
+    private int id(Node node) {
+        Integer id = ids.get(node);
+        if (id == null) throw new IllegalArgumentException("Not a node in the graph: " + node);
+        return id;
+    }
+
+    private long key(int a, int b, int c) {
+        long n = nodes.size();
+        return (a * n + b) * n + c;
+    }
+
+    // Ancestor closures, in topological order if the graph is acyclic, otherwise by search from each node.
+    private long[][] ancestors(int[][] parents) {
+        int n = parents.length;
+        long[][] ancestors = new long[n][numWords];
+        int[] order = topologicalOrder(parents);
+
+        if (order != null) {
+            for (int i : order) {
+                ancestors[i][i >>> 6] |= 1L << i;
+
+                for (int p : parents[i]) {
+                    long[] _ancestors = ancestors[p];
+                    for (int k = 0; k < numWords; k++) ancestors[i][k] |= _ancestors[k];
+                }
+            }
+        } else {
+            int[] stack = new int[n];
+
+            for (int i = 0; i < n; i++) {
+                long[] bits = ancestors[i];
+                bits[i >>> 6] |= 1L << i;
+                int size = 0;
+                stack[size++] = i;
+
+                while (size > 0) {
+                    int t = stack[--size];
+
+                    for (int p : parents[t]) {
+                        if ((bits[p >>> 6] & (1L << p)) == 0) {
+                            bits[p >>> 6] |= 1L << p;
+                            stack[size++] = p;
+                        }
+                    }
+                }
+            }
+        }
+
+        return ancestors;
+    }
+
+    // Parents before children, or null if there is a directed cycle.
+    private static int[] topologicalOrder(int[][] parents) {
+        int n = parents.length;
+        int[] numChildren = new int[n];
+
+        for (int[] _parents : parents) {
+            for (int p : _parents) numChildren[p]++;
+        }
+
+        int[][] children = new int[n][];
+        for (int i = 0; i < n; i++) children[i] = new int[numChildren[i]];
+        int[] next = new int[n];
+        int[] inDegree = new int[n];
+
+        for (int i = 0; i < n; i++) {
+            for (int p : parents[i]) children[p][next[p]++] = i;
+            inDegree[i] = parents[i].length;
+        }
+
+        int[] order = new int[n];
+        int head = 0, tail = 0;
+
+        for (int i = 0; i < n; i++) {
+            if (inDegree[i] == 0) order[tail++] = i;
+        }
+
+        while (head < tail) {
+            int t = order[head++];
+
+            for (int c : children[t]) {
+                if (--inDegree[c] == 0) order[tail++] = c;
+            }
+        }
+
+        return tail == n ? order : null;
+    }
+
+    // Per-thread scratch space for queries.
+    private final class Workspace {
+        private final long[] inZ = new long[numWords];
+        private final long[] zAncestors = new long[numWords];
+        private final int[] queue = new int[targets.length];
+        private final int[] visited = new int[targets.length];
+        private int[] z = new int[8];
+        private int stamp = 0;
+
+        private int nextStamp() {
+            if (++stamp == Integer.MAX_VALUE) {
+                Arrays.fill(visited, 0);
+                stamp = 1;
+            }
+
+            return stamp;
+        }
+    }
+}
@@ -1826,6 +1826,10 @@ public final class GraphUtils {
      * @return A new, converted, graph.
      */
     public static Graph replaceNodes(Graph originalGraph, List<Node> newVariables) {
+        if (originalGraph instanceof ColumnarGraph) {
+            return ((ColumnarGraph) originalGraph).replaceNodes(newVariables);
+        }
+
         Graph reference = new EdgeListGraph(newVariables);
         Graph convertedGraph = new EdgeListGraph(newVariables);
 
@@ -22,7 +22,6 @@ import edu.cmu.tetrad.data.ContinuousVariable;
 import edu.cmu.tetrad.graph.Node;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.util.LinkedList;
@@ -72,7 +71,7 @@ public abstract class AbstractContinuousDataReader extends AbstractDataReader {
         List<Integer> excludedVarIndices = new LinkedList<>();
         List<Node> nodes = new LinkedList<>();
         try (FileChannel fc = new RandomAccessFile(dataFile.toFile(), "r").getChannel()) {
-            MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            MappedFileBuffer buffer = new MappedFileBuffer(fc, 0, fc.size());
 
             int index = 0;
             byte currentChar = -1;
@@ -147,6 +146,130 @@ public abstract class AbstractContinuousDataReader extends AbstractDataReader {
         variableAnalysis.setVariables(nodes);
     }
 
+    /**
+     * Read in one chunk of data, handing each row to the handler as soon as it
+     * has been parsed.
+     *
+     * @param buffer the chunk, starting at the beginning of a line
+     * @param startRow the data row the chunk starts with
+     * @param variableAnalysis
+     * @param maxNumOfCols number of columns in the file
+     * @param handler receives the rows of the chunk, in order
+     * @throws IOException
+     */
+    protected void extractContinuousData(MappedFileBuffer buffer, int startRow, ContinuousVariableAnalysis variableAnalysis, int maxNumOfCols, ContinuousDataHandler handler) throws IOException {
+        int numOfCols = variableAnalysis.getVariables().size();
+        double[] values = new double[numOfCols];
+
+        int[] excludedIndices = variableAnalysis.getExcludedIndices();
+        int excludedIndex = 0;
+        int excludedColumn = excludedIndices[excludedIndex];
+
+        int row = startRow;
+        int col = 0;
+        int colCount = 0;
+        byte currentChar = -1;
+        byte prevChar = NEW_LINE;
+        StringBuilder dataBuilder = new StringBuilder();
+        while (buffer.hasRemaining()) {
+            currentChar = buffer.get();
+            if (currentChar == CARRIAGE_RETURN) {
+                currentChar = NEW_LINE;
+            }
+
+            if (currentChar == delimiter || (currentChar == NEW_LINE && prevChar != NEW_LINE)) {
+                String value = dataBuilder.toString();
+                dataBuilder.delete(0, dataBuilder.length());
+                if (colCount == excludedColumn) {
+                    excludedIndex++;
+                    if (excludedIndex < excludedIndices.length) {
+                        excludedColumn = excludedIndices[excludedIndex];
+                    }
+                } else {
+                    values[col++] = parseValue(value, row, colCount, maxNumOfCols);
+                }
+
+                colCount++;
+                if (currentChar == NEW_LINE) {
+                    if (col < numOfCols) {
+                        String errMsg = String.format("Insufficient number of columns at line %d.  Expect %d column(s) but found %d.", row + 2, maxNumOfCols, colCount);
+                        LOGGER.error(errMsg);
+                        throw new IOException(errMsg);
+                    }
+                    handler.handle(row, values);
+
+                    colCount = 0;
+                    col = 0;
+                    row++;
+
+                    excludedIndex = 0;
+                    excludedColumn = excludedIndices[excludedIndex];
+                }
+            } else if (currentChar > SPACE && (currentChar != SINGLE_QUOTE && currentChar != DOUBLE_QUOTE)) {
+                dataBuilder.append((char) currentChar);
+            }
+
+            prevChar = currentChar;
+        }
+        if (currentChar > -1 && currentChar != NEW_LINE) {
+            if (currentChar == delimiter) {
+                String errMsg = String.format("Missing data at line %d column %d.", row + 2, col + 1);
+                LOGGER.error(errMsg);
+                throw new IOException(errMsg);
+            } else {
+                String value = dataBuilder.toString();
+                dataBuilder.delete(0, dataBuilder.length());
+                if (colCount != excludedColumn) {
+                    values[col++] = parseValue(value, row, colCount, maxNumOfCols);
+                }
+                colCount++;
+
+                if (col < numOfCols) {
+                    String errMsg = String.format("Insufficient number of columns at line %d.  Expect %d column(s) but found %d.", row + 2, maxNumOfCols, colCount);
+                    LOGGER.error(errMsg);
+                    throw new IOException(errMsg);
+                }
+                handler.handle(row, values);
+            }
+        }
+    }
+
+    private double parseValue(String value, int row, int colCount, int maxNumOfCols) throws IOException {
+        if (colCount >= maxNumOfCols) {
+            String errMsg = String.format("Number of columns exceeded at line %d.  Expect %d column(s) but found %d.", row + 2, maxNumOfCols, colCount + 1);
+            LOGGER.error(errMsg);
+            throw new IOException(errMsg);
+        }
+        if (value.length() == 0) {
+            String errMsg = String.format("Missing data at line %d column %d.", row + 2, colCount + 1);
+            LOGGER.error(errMsg);
+            throw new IOException(errMsg);
+        }
+
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException exception) {
+            throw new IOException(
+                    String.format("Unable to parse data at line %d column %d.", row + 2, colCount + 1),
+                    exception);
+        }
+    }
+
+    /**
+     * Receives the rows of continuous data as they are read in.
+     */
+    protected interface ContinuousDataHandler {
+
+        /**
+         * @param row the (zero-based) data row
+         * @param values the values of the row; the array is reused for the
+         * next row, so it must not be kept
+         * @throws IOException
+         */
+        public void handle(int row, double[] values) throws IOException;
+
+    }
+
     /**
      * This internal class is used to hold information about continuous
      * variables.
@@ -18,16 +18,28 @@
  */
 package edu.cmu.tetrad.io;
 
+import edu.cmu.tetrad.util.ForkJoinPoolInstance;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * This class contains all the basic functions that the data readers should
  * have.
  *
+ * Files are memory mapped a window at a time (see {@link MappedFileBuffer}),
+ * so there is no limit on the file size. The data part of the file (after the
+ * header) can be split into chunks at line boundaries so that the chunks can
+ * be parsed in parallel.
+ *
  * Feb 29, 2016 1:32:34 PM
  *
  * @author Kevin V. Bui (kvb2@pitt.edu)
@@ -44,9 +56,31 @@ public abstract class AbstractDataReader {
 
     protected static final byte SPACE = ' ';
 
+    /**
+     * Smallest chunk of data, in bytes, worth handing to a thread.
+     */
+    protected static final long MIN_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Largest chunk of data, in bytes, handed to a thread.
+     */
+    protected static final long MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
     protected int lineCount;
     protected int columnCount;
 
+    /**
+     * File positions of the chunks of data after the header; chunk i is from
+     * chunkBoundaries[i] (inclusive) to chunkBoundaries[i + 1] (exclusive).
+     */
+    protected long[] chunkBoundaries;
+
+    /**
+     * The (zero-based) data row each chunk starts with; the last entry is the
+     * number of data rows.
+     */
+    protected int[] chunkRows;
+
     protected final Path dataFile;
     protected final char delimiter;
 
@@ -67,7 +101,7 @@ public abstract class AbstractDataReader {
         if (columnCount == -1) {
             int count = 0;
             try (FileChannel fc = new RandomAccessFile(dataFile.toFile(), "r").getChannel()) {
-                MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+                MappedFileBuffer buffer = new MappedFileBuffer(fc, 0, fc.size());
                 byte currentChar = -1;
                 byte prevChar = NEW_LINE;
                 while (buffer.hasRemaining()) {
@@ -105,32 +139,186 @@ public abstract class AbstractDataReader {
      */
     public int countNumberOfLines() throws IOException {
         if (lineCount == -1) {
-            int count = 0;
             try (FileChannel fc = new RandomAccessFile(dataFile.toFile(), "r").getChannel()) {
-                MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
-                byte prevChar = NEW_LINE;
-                while (buffer.hasRemaining()) {
-                    byte currentChar = buffer.get();
-                    if (currentChar == CARRIAGE_RETURN) {
-                        currentChar = NEW_LINE;
+                long[] boundaries = splitIntoChunks(fc, 0);
+                long count = 0;
+                for (int n : countLines(fc, boundaries)) {
+                    count += n;
+                }
+
+                if (count > Integer.MAX_VALUE) {
+                    throw new IOException(String.format("Too many lines: %d.", count));
+                }
+                lineCount = (int) count;
+            }
+        }
+
+        return lineCount;
+    }
+
+    /**
+     * Split the data after the header into chunks at line boundaries and
+     * count the data rows in each chunk. The results are kept in
+     * chunkBoundaries and chunkRows.
+     *
+     * @throws IOException
+     */
+    protected void splitData() throws IOException {
+        if (chunkBoundaries == null) {
+            try (FileChannel fc = new RandomAccessFile(dataFile.toFile(), "r").getChannel()) {
+                MappedFileBuffer buffer = new MappedFileBuffer(fc, 0, fc.size());
+                skipToNextLine(buffer);  // skip header
+
+                long[] boundaries = splitIntoChunks(fc, buffer.position());
+                int[] counts = countLines(fc, boundaries);
+
+                int[] rows = new int[counts.length + 1];
+                long row = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    row += counts[i];
+                    if (row > Integer.MAX_VALUE) {
+                        throw new IOException(String.format("Too many lines: more than %d.", Integer.MAX_VALUE));
                     }
+                    rows[i + 1] = (int) row;
+                }
 
-                    if (currentChar == NEW_LINE && prevChar != NEW_LINE) {
+                chunkBoundaries = boundaries;
+                chunkRows = rows;
+            }
+        }
+    }
+
+    /**
+     * Split the file from the given position to the end into chunks that each
+     * start at the beginning of a line.
+     *
+     * @param fc
+     * @param start
+     * @return the chunk boundaries, from start to the file size
+     * @throws IOException
+     */
+    protected long[] splitIntoChunks(FileChannel fc, long start) throws IOException {
+        long size = fc.size();
+        long length = size - start;
+        // a few chunks per thread, so that threads finishing early can pick up more work
+        int parallelism = ForkJoinPoolInstance.getInstance().getPool().getParallelism();
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, length / (4 * parallelism)));
+
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(start);
+
+        long position = start + chunkSize;
+        while (position < size) {
+            // the chunk ends just after the first line break at or after position - 1
+            MappedFileBuffer buffer = new MappedFileBuffer(fc, position - 1, size);
+            long boundary = size;
+            while (buffer.hasRemaining()) {
+                byte currentChar = buffer.get();
+                if (currentChar == NEW_LINE || currentChar == CARRIAGE_RETURN) {
+                    boundary = buffer.position();
+                    break;
+                }
+            }
+
+            if (boundary >= size) {
+                break;
+            }
+
+            boundaries.add(boundary);
+            position = boundary + chunkSize;
+        }
+        boundaries.add(size);
+
+        long[] chunks = new long[boundaries.size()];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = boundaries.get(i);
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Count, in parallel, the number of non-blank lines in each chunk.
+     *
+     * @param fc
+     * @param boundaries
+     * @return
+     * @throws IOException
+     */
+    protected int[] countLines(final FileChannel fc, final long[] boundaries) throws IOException {
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < boundaries.length - 1; i++) {
+            final long start = boundaries[i];
+            final long end = boundaries[i + 1];
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    int count = 0;
+                    MappedFileBuffer buffer = new MappedFileBuffer(fc, start, end);
+                    byte prevChar = NEW_LINE;
+                    while (buffer.hasRemaining()) {
+                        byte currentChar = buffer.get();
+                        if (currentChar == CARRIAGE_RETURN) {
+                            currentChar = NEW_LINE;
+                        }
+
+                        if (currentChar == NEW_LINE && prevChar != NEW_LINE) {
+                            count++;
+                        }
+
+                        prevChar = currentChar;
+                    }
+
+                    // cases where file has no newline at the end of the file
+                    if (prevChar != NEW_LINE) {
                         count++;
                     }
 
-                    prevChar = currentChar;
+                    return count;
                 }
+            });
+        }
 
-                // cases where file has no newline at the end of the file
-                if (prevChar != NEW_LINE) {
-                    count++;
-                }
+        List<Integer> results = invokeAll(tasks);
+        int[] counts = new int[results.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = results.get(i);
+        }
+
+        return counts;
+    }
+
+    /**
+     * Run the tasks in parallel and return their results, in order. If any
+     * task fails, the exception of the first failed task is thrown.
+     *
+     * @param tasks
+     * @return
+     * @throws IOException
+     */
+    protected <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+        ForkJoinPool pool = ForkJoinPoolInstance.getInstance().getPool();
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading data.", exception);
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
             }
-            lineCount = count;
+            throw new IOException(cause);
         }
 
-        return lineCount;
+        return results;
     }
 
     /**
@@ -156,4 +344,28 @@ public abstract class AbstractDataReader {
         }
     }
 
+    /**
+     * Advance the current position of the buffer to the next line.
+     *
+     * @param buffer
+     * @throws IOException
+     */
+    protected void skipToNextLine(MappedFileBuffer buffer) throws IOException {
+        byte currentChar;
+        byte prevChar = NEW_LINE;
+        while (buffer.hasRemaining()) {
+            currentChar = buffer.get();
+            if (currentChar == CARRIAGE_RETURN) {
+                currentChar = NEW_LINE;
+            }
+
+            // we break when we come to the end of the line
+            if (currentChar == NEW_LINE && prevChar != NEW_LINE) {
+                break;
+            }
+
+            prevChar = currentChar;
+        }
+    }
+
 }
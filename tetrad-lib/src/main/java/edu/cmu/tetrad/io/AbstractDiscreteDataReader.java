@@ -22,14 +22,15 @@ import edu.cmu.tetrad.data.DiscreteVariable;
 import edu.cmu.tetrad.graph.Node;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -83,95 +84,138 @@ public abstract class AbstractDiscreteDataReader extends AbstractDataReader {
     }
 
     /**
-     * Collect the values for the variables.
+     * Collect the values for the variables. Chunks of the data are read in
+     * parallel.
      *
      * @param excludedVariables set of variables to disregard
      * @param variableAnalysis object to hold results
      * @throws IOException whenever unable to read file
      */
     protected void extractVariableValues(Set<String> excludedVariables, DiscreteVariableAnalysis variableAnalysis) throws IOException {
-        DiscreteVarInfo[] discreteVarInfos = variableAnalysis.getDiscreteVarInfos();
-        int numOfCols = variableAnalysis.numOfCols;
-        int maxNumOfVariables = discreteVarInfos.length;
-        try (FileChannel fc = new RandomAccessFile(dataFile.toFile(), "r").getChannel()) {
-            MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
-
-            skipToNextLine(buffer);  // skip header
-
-            int columnIndex = 0;
-            int rowCount = 2;  // data start on the second row
-            byte currentChar = -1;
-            byte prevChar = NEW_LINE;
-            StringBuilder dataBuilder = new StringBuilder();
-            while (buffer.hasRemaining()) {
-                currentChar = buffer.get();
-                if (currentChar == CARRIAGE_RETURN) {
-                    currentChar = NEW_LINE;
-                }
-
-                if (currentChar == delimiter || (currentChar == NEW_LINE && prevChar != NEW_LINE)) {
-                    String value = dataBuilder.toString().trim();
-                    dataBuilder.delete(0, dataBuilder.length());
-                    if (columnIndex < maxNumOfVariables) {
-                        DiscreteVarInfo variable = discreteVarInfos[columnIndex];
-                        if (variable != null) {
-                            if (value.length() > 0) {
-                                variable.setValue(value);
-                            } else {
-                                String errMsg = String.format("Missing data at line %d column %d.", rowCount, columnIndex + 1);
-                                LOGGER.error(errMsg);
-                                throw new IOException(errMsg);
-                            }
-                        }
-                    } else {
-                        String errMsg = String.format("Number of columns exceeded at line %d.  Expect %d column(s) but found %d.", rowCount, maxNumOfVariables, columnIndex + 1);
-                        LOGGER.error(errMsg);
-                        throw new IOException(errMsg);
+        final DiscreteVarInfo[] discreteVarInfos = variableAnalysis.getDiscreteVarInfos();
+        final int numOfCols = variableAnalysis.numOfCols;
+
+        splitData();
+
+        try (final FileChannel fc = new RandomAccessFile(dataFile.toFile(), "r").getChannel()) {
+            List<Callable<List<Set<String>>>> tasks = new ArrayList<>();
+            for (int i = 0; i < chunkBoundaries.length - 1; i++) {
+                final long start = chunkBoundaries[i];
+                final long end = chunkBoundaries[i + 1];
+                final int startRow = chunkRows[i];
+                tasks.add(new Callable<List<Set<String>>>() {
+                    @Override
+                    public List<Set<String>> call() throws Exception {
+                        return extractVariableValues(new MappedFileBuffer(fc, start, end), startRow, discreteVarInfos, numOfCols);
                     }
+                });
+            }
 
-                    columnIndex++;
-                    if (currentChar == NEW_LINE) {
-                        if (columnIndex < numOfCols) {
-                            String errMsg = String.format("Insufficient number of columns at line %d.  Expect %d column(s) but found %d.", rowCount, numOfCols, columnIndex);
-                            LOGGER.error(errMsg);
-                            throw new IOException(errMsg);
+            for (List<Set<String>> values : invokeAll(tasks)) {
+                for (int i = 0; i < discreteVarInfos.length; i++) {
+                    DiscreteVarInfo variable = discreteVarInfos[i];
+                    if (variable != null) {
+                        for (String value : values.get(i)) {
+                            variable.setValue(value);
                         }
-                        columnIndex = 0;
-                        rowCount++;
                     }
-                } else if (currentChar != SINGLE_QUOTE && currentChar != DOUBLE_QUOTE) {
-                    dataBuilder.append((char) currentChar);
                 }
+            }
+        }
+    }
 
-                prevChar = currentChar;
+    /**
+     * Collect the values for the variables from one chunk of the data.
+     *
+     * @param buffer the chunk, starting at the beginning of a line
+     * @param startRow the data row the chunk starts with
+     * @param discreteVarInfos the variables, null for excluded columns
+     * @param numOfCols number of columns not excluded
+     * @return the set of values found in each column
+     * @throws IOException whenever unable to read file
+     */
+    private List<Set<String>> extractVariableValues(MappedFileBuffer buffer, int startRow, DiscreteVarInfo[] discreteVarInfos, int numOfCols) throws IOException {
+        int maxNumOfVariables = discreteVarInfos.length;
+        List<Set<String>> values = new ArrayList<>(maxNumOfVariables);
+        for (int i = 0; i < maxNumOfVariables; i++) {
+            values.add(new HashSet<String>());
+        }
+
+        int columnIndex = 0;
+        int rowCount = startRow + 2;  // data start on the second row
+        byte currentChar = -1;
+        byte prevChar = NEW_LINE;
+        StringBuilder dataBuilder = new StringBuilder();
+        while (buffer.hasRemaining()) {
+            currentChar = buffer.get();
+            if (currentChar == CARRIAGE_RETURN) {
+                currentChar = NEW_LINE;
             }
-            if (currentChar > -1 && currentChar != NEW_LINE) {
+
+            if (currentChar == delimiter || (currentChar == NEW_LINE && prevChar != NEW_LINE)) {
+                String value = dataBuilder.toString().trim();
+                dataBuilder.delete(0, dataBuilder.length());
                 if (columnIndex < maxNumOfVariables) {
                     DiscreteVarInfo variable = discreteVarInfos[columnIndex];
                     if (variable != null) {
-                        if (currentChar == delimiter) {
+                        if (value.length() > 0) {
+                            values.get(columnIndex).add(value);
+                        } else {
                             String errMsg = String.format("Missing data at line %d column %d.", rowCount, columnIndex + 1);
                             LOGGER.error(errMsg);
                             throw new IOException(errMsg);
-                        } else {
-                            String value = dataBuilder.toString().trim();
-                            dataBuilder.delete(0, dataBuilder.length());
-                            if (value.length() > 0) {
-                                variable.setValue(value);
-                            } else {
-                                String errMsg = String.format("Missing data at line %d column %d.", rowCount, columnIndex + 1);
-                                LOGGER.error(errMsg);
-                                throw new IOException(errMsg);
-                            }
                         }
                     }
                 } else {
-                    String errMsg = String.format("Number of columns exceeded at line %d.  Expect %d column(s) but found %d.", rowCount, numOfCols, columnIndex + 1);
+                    String errMsg = String.format("Number of columns exceeded at line %d.  Expect %d column(s) but found %d.", rowCount, maxNumOfVariables, columnIndex + 1);
                     LOGGER.error(errMsg);
                     throw new IOException(errMsg);
                 }
+
+                columnIndex++;
+                if (currentChar == NEW_LINE) {
+                    if (columnIndex < numOfCols) {
+                        String errMsg = String.format("Insufficient number of columns at line %d.  Expect %d column(s) but found %d.", rowCount, numOfCols, columnIndex);
+                        LOGGER.error(errMsg);
+                        throw new IOException(errMsg);
+                    }
+                    columnIndex = 0;
+                    rowCount++;
+                }
+            } else if (currentChar != SINGLE_QUOTE && currentChar != DOUBLE_QUOTE) {
+                dataBuilder.append((char) currentChar);
             }
+
+            prevChar = currentChar;
         }
+        if (currentChar > -1 && currentChar != NEW_LINE) {
+            if (columnIndex < maxNumOfVariables) {
+                DiscreteVarInfo variable = discreteVarInfos[columnIndex];
+                if (variable != null) {
+                    if (currentChar == delimiter) {
+                        String errMsg = String.format("Missing data at line %d column %d.", rowCount, columnIndex + 1);
+                        LOGGER.error(errMsg);
+                        throw new IOException(errMsg);
+                    } else {
+                        String value = dataBuilder.toString().trim();
+                        dataBuilder.delete(0, dataBuilder.length());
+                        if (value.length() > 0) {
+                            values.get(columnIndex).add(value);
+                        } else {
+                            String errMsg = String.format("Missing data at line %d column %d.", rowCount, columnIndex + 1);
+                            LOGGER.error(errMsg);
+                            throw new IOException(errMsg);
+                        }
+                    }
+                }
+            } else {
+                String errMsg = String.format("Number of columns exceeded at line %d.  Expect %d column(s) but found %d.", rowCount, numOfCols, columnIndex + 1);
+                LOGGER.error(errMsg);
+                throw new IOException(errMsg);
+            }
+        }
+
+        return values;
     }
 
     /**
@@ -185,7 +229,7 @@ public abstract class AbstractDiscreteDataReader extends AbstractDataReader {
         int numOfCols = 0;
         DiscreteVarInfo[] discreteVarInfos = new DiscreteVarInfo[countNumberOfColumns()];
         try (FileChannel fc = new RandomAccessFile(dataFile.toFile(), "r").getChannel()) {
-            MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            MappedFileBuffer buffer = new MappedFileBuffer(fc, 0, fc.size());
 
             int index = 0;
             byte currentChar = -1;
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 University of Pittsburgh.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package edu.cmu.tetrad.io;
+
+import edu.cmu.tetrad.data.CovarianceMatrix;
+import edu.cmu.tetrad.data.ICovarianceMatrix;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.util.TetradMatrix;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The sufficient statistics of a continuous dataset: the sample size, the
+ * means and the covariance matrix of the variables. Also tells which variables
+ * have zero variance and which variables are exact copies of others, since
+ * both make the covariance matrix singular.
+ *
+ * Instances are made by {@link TabularContinuousCovarianceReader}.
+ *
+ * @author Kevin V. Bui (kvb2@pitt.edu)
+ */
+public class ContinuousSufficientStatistics {
+
+    private final List<Node> variables;
+    private final int sampleSize;
+    private final double[] means;
+
+    // lower triangle of the sums of products of deviations from the means
+    private final double[][] comoments;
+
+    // order independent hash of the values of each column
+    private final long[] columnHashes;
+
+    ContinuousSufficientStatistics(List<Node> variables, int sampleSize, double[] means, double[][] comoments, long[] columnHashes) {
+        this.variables = Collections.unmodifiableList(new ArrayList<>(variables));
+        this.sampleSize = sampleSize;
+        this.means = means;
+        this.comoments = comoments;
+        this.columnHashes = columnHashes;
+    }
+
+    public List<Node> getVariables() {
+        return variables;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * @return a copy of the means of the variables
+     */
+    public double[] getMeans() {
+        return means.clone();
+    }
+
+    /**
+     * @return the (unbiased) variances of the variables
+     */
+    public double[] getVariances() {
+        double[] variances = new double[means.length];
+        for (int i = 0; i < variances.length; i++) {
+            variances[i] = comoments[i][i] / (sampleSize - 1);
+        }
+
+        return variances;
+    }
+
+    /**
+     * @return the (unbiased) covariance matrix of the variables
+     */
+    public ICovarianceMatrix getCovarianceMatrix() {
+        int numOfVars = means.length;
+        TetradMatrix matrix = new TetradMatrix(numOfVars, numOfVars);
+        for (int i = 0; i < numOfVars; i++) {
+            for (int j = 0; j <= i; j++) {
+                double covariance = comoments[i][j] / (sampleSize - 1);
+                matrix.set(i, j, covariance);
+                matrix.set(j, i, covariance);
+            }
+        }
+
+        return new CovarianceMatrix(variables, matrix, sampleSize);
+    }
+
+    /**
+     * @return the variables whose values are all the same
+     */
+    public List<Node> getZeroVarianceVariables() {
+        List<Node> list = new ArrayList<>();
+        for (int i = 0; i < means.length; i++) {
+            if (comoments[i][i] == 0) {
+                list.add(variables.get(i));
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Find the variables whose column of values is the same as the column of
+     * an earlier variable. Columns are compared by their hashes, means,
+     * variances and covariance, so two different columns are only taken to be
+     * the same if they collide on a 64-bit hash and agree on all of these.
+     *
+     * @return a map from each duplicate variable to the first variable with
+     * the same values, in column order
+     */
+    public Map<Node, Node> getDuplicateVariables() {
+        Map<Node, Node> duplicates = new LinkedHashMap<>();
+        Map<Long, List<Integer>> columnsByHash = new HashMap<>();
+        for (int i = 0; i < means.length; i++) {
+            List<Integer> columns = columnsByHash.get(columnHashes[i]);
+            if (columns == null) {
+                columns = new ArrayList<>();
+                columnsByHash.put(columnHashes[i], columns);
+            }
+
+            for (int j : columns) {
+                if (means[j] == means[i] && comoments[j][j] == comoments[i][i] && comoments[i][j] == comoments[i][i]) {
+                    duplicates.put(variables.get(i), variables.get(j));
+                    break;
+                }
+            }
+            if (!duplicates.containsKey(variables.get(i))) {
+                columns.add(i);
+            }
+        }
+
+        return duplicates;
+    }
+
+}
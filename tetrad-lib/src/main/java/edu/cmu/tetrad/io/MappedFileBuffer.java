@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 University of Pittsburgh.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package edu.cmu.tetrad.io;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequential read-only access to a region of a file of any size. The region
+ * is memory mapped one window at a time, so that regions (and files) larger
+ * than 2 GB, which cannot be mapped with a single MappedByteBuffer, can be
+ * read.
+ *
+ * @author Kevin V. Bui (kvb2@pitt.edu)
+ */
+public class MappedFileBuffer {
+
+    /**
+     * The default number of bytes mapped at a time.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannel fileChannel;
+    private final long end;
+    private final int windowSize;
+
+    private MappedByteBuffer window;
+
+    // file position of the start of the current window
+    private long windowStart;
+
+    /**
+     * Read the file from position start (inclusive) to position end
+     * (exclusive).
+     *
+     * @param fileChannel
+     * @param start
+     * @param end
+     * @throws IOException
+     */
+    public MappedFileBuffer(FileChannel fileChannel, long start, long end) throws IOException {
+        this(fileChannel, start, end, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Read the file from position start (inclusive) to position end
+     * (exclusive), mapping at most windowSize bytes at a time.
+     *
+     * @param fileChannel
+     * @param start
+     * @param end
+     * @param windowSize
+     * @throws IOException
+     */
+    public MappedFileBuffer(FileChannel fileChannel, long start, long end, int windowSize) throws IOException {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException(String.format("Invalid region [%d, %d).", start, end));
+        }
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size must be positive.");
+        }
+
+        this.fileChannel = fileChannel;
+        this.end = end;
+        this.windowSize = windowSize;
+
+        map(start);
+    }
+
+    private void map(long position) throws IOException {
+        windowStart = position;
+        window = fileChannel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, end - position));
+    }
+
+    /**
+     * @return true if there are bytes left in the region
+     */
+    public boolean hasRemaining() {
+        return window.hasRemaining() || windowStart + window.limit() < end;
+    }
+
+    /**
+     * Read the next byte of the region.
+     *
+     * @return
+     * @throws IOException
+     */
+    public byte get() throws IOException {
+        if (!window.hasRemaining()) {
+            map(windowStart + window.limit());
+        }
+
+        return window.get();
+    }
+
+    /**
+     * @return the file position of the next byte to be read
+     */
+    public long position() {
+        return windowStart + window.position();
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2016 University of Pittsburgh.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package edu.cmu.tetrad.io;
+
+import edu.cmu.tetrad.util.ForkJoinPoolInstance;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * This reader reads in tabular continuous data in a single pass, keeping only
+ * the sufficient statistics (means and covariances) of the variables instead
+ * of the data. Use it when only a covariance matrix is needed (e.g. for a
+ * SEM BIC score) and the data would take up too much memory.
+ *
+ * The chunks of the file are parsed in parallel. Each thread accumulates the
+ * statistics of its chunks with Welford's updates, and the statistics of the
+ * threads are then combined, so the result is the same from run to run for a
+ * given number of threads.
+ *
+ * @author Kevin V. Bui (kvb2@pitt.edu)
+ */
+public class TabularContinuousCovarianceReader extends AbstractContinuousDataReader {
+
+    public TabularContinuousCovarianceReader(Path dataFile, char delimiter) {
+        super(dataFile, delimiter);
+    }
+
+    public ContinuousSufficientStatistics readInStatistics() throws IOException {
+        return readInStatistics(Collections.<String>emptySet());
+    }
+
+    /**
+     * Read in the sufficient statistics of the data. Excludes any variables
+     * from the given set.
+     *
+     * @param excludedVariables set of variables to exclude
+     * @return
+     * @throws IOException whenever unable to read file
+     */
+    public ContinuousSufficientStatistics readInStatistics(Set<String> excludedVariables) throws IOException {
+        if (excludedVariables == null) {
+            excludedVariables = Collections.<String>emptySet();
+        }
+
+        final ContinuousVariableAnalysis variableAnalysis = analyzeData(excludedVariables);
+        final int maxNumOfCols = countNumberOfColumns();
+        final int numOfCols = variableAnalysis.getVariables().size();
+
+        splitData();
+        int numOfRows = chunkRows[chunkRows.length - 1];
+        if (numOfRows < 2) {
+            throw new IOException("At least two rows of data are needed to compute covariances.");
+        }
+
+        final int numOfChunks = chunkBoundaries.length - 1;
+        final int numOfWorkers = Math.min(numOfChunks, ForkJoinPoolInstance.getInstance().getPool().getParallelism());
+
+        List<Accumulator> accumulators;
+        try (final FileChannel fc = new RandomAccessFile(dataFile.toFile(), "r").getChannel()) {
+            // chunks are assigned to the workers round robin rather than as
+            // they come free, so that the statistics do not depend on timing
+            List<Callable<Accumulator>> tasks = new ArrayList<>();
+            for (int w = 0; w < numOfWorkers; w++) {
+                final int worker = w;
+                tasks.add(new Callable<Accumulator>() {
+                    @Override
+                    public Accumulator call() throws Exception {
+                        Accumulator accumulator = new Accumulator(numOfCols);
+                        for (int i = worker; i < numOfChunks; i += numOfWorkers) {
+                            extractContinuousData(new MappedFileBuffer(fc, chunkBoundaries[i], chunkBoundaries[i + 1]), chunkRows[i], variableAnalysis, maxNumOfCols, accumulator);
+                        }
+
+                        return accumulator;
+                    }
+                });
+            }
+
+            accumulators = invokeAll(tasks);
+        }
+
+        Accumulator total = accumulators.get(0);
+        for (int i = 1; i < accumulators.size(); i++) {
+            total.add(accumulators.get(i));
+        }
+
+        return new ContinuousSufficientStatistics(variableAnalysis.getVariables(), (int) total.count, total.means, total.comoments, total.hashes);
+    }
+
+    /**
+     * Accumulates the count, means, lower triangle of the comoment matrix and
+     * column hashes of the rows handed to it.
+     */
+    private static class Accumulator implements ContinuousDataHandler {
+
+        private long count;
+        private final double[] means;
+        private final double[][] comoments;
+        private final long[] hashes;
+        private final double[] deltas;
+
+        public Accumulator(int numOfCols) {
+            this.means = new double[numOfCols];
+            this.comoments = new double[numOfCols][];
+            for (int i = 0; i < numOfCols; i++) {
+                comoments[i] = new double[i + 1];
+            }
+            this.hashes = new long[numOfCols];
+            this.deltas = new double[numOfCols];
+        }
+
+        @Override
+        public void handle(int row, double[] values) {
+            count++;
+            for (int i = 0; i < values.length; i++) {
+                deltas[i] = values[i] - means[i];
+                means[i] += deltas[i] / count;
+            }
+
+            for (int i = 0; i < values.length; i++) {
+                double delta = deltas[i];
+                double[] comoment = comoments[i];
+                for (int j = 0; j <= i; j++) {
+                    comoment[j] += delta * (values[j] - means[j]);
+                }
+            }
+
+            // summing the hashes makes the column hashes independent of the
+            // order the rows are read in; the row number keeps columns that
+            // are permutations of each other apart
+            long rowHash = mix(row);
+            for (int i = 0; i < values.length; i++) {
+                // + 0.0 turns -0.0 into 0.0
+                hashes[i] += mix(Double.doubleToLongBits(values[i] + 0.0) ^ rowHash);
+            }
+        }
+
+        /**
+         * Combine the statistics of another set of rows into these, using
+         * Chan et al.'s pairwise update.
+         */
+        public void add(Accumulator other) {
+            if (other.count == 0) {
+                return;
+            } else if (count == 0) {
+                count = other.count;
+                for (int i = 0; i < means.length; i++) {
+                    means[i] = other.means[i];
+                    hashes[i] = other.hashes[i];
+                    System.arraycopy(other.comoments[i], 0, comoments[i], 0, i + 1);
+                }
+
+                return;
+            }
+
+            double n = count + other.count;
+            double weight = count * (double) other.count / n;
+            for (int i = 0; i < means.length; i++) {
+                deltas[i] = other.means[i] - means[i];
+            }
+
+            for (int i = 0; i < means.length; i++) {
+                double[] comoment = comoments[i];
+                double[] otherComoment = other.comoments[i];
+                for (int j = 0; j <= i; j++) {
+                    comoment[j] += otherComoment[j] + deltas[i] * deltas[j] * weight;
+                }
+            }
+
+            for (int i = 0; i < means.length; i++) {
+                means[i] += deltas[i] * other.count / n;
+                hashes[i] += other.hashes[i];
+            }
+            count += other.count;
+        }
+
+        // the finalizer of the 64-bit MurmurHash3
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb93e1a34e94dL;
+            h ^= h >>> 33;
+            return h;
+        }
+
+    }
+
+}
@@ -24,12 +24,13 @@ import edu.cmu.tetrad.data.VerticalIntDataBox;
 import edu.cmu.tetrad.graph.Node;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -69,86 +70,80 @@ public class VerticalTabularDiscreteDataReader extends AbstractDiscreteDataReade
         return new BoxDataSet(new VerticalIntDataBox(data), nodes);
     }
 
+    /**
+     * Encode the data. Chunks of the data are parsed in parallel.
+     *
+     * @param variableAnalysis
+     * @return the encoded data, column-major (data[col][row])
+     * @throws IOException
+     */
     protected int[][] encodeDiscreteData(DiscreteVariableAnalysis variableAnalysis) throws IOException {
-        DiscreteVarInfo[] variables = variableAnalysis.getDiscreteVarInfos();
+        final DiscreteVarInfo[] variables = variableAnalysis.getDiscreteVarInfos();
 
-        int maxNumOfCols = variables.length;
         int numOfCols = variableAnalysis.getNumOfCols();
-        int numOfRows = countNumberOfLines() - 1;  // minus the header
-
-        int[][] data = new int[numOfCols][numOfRows];
-        try (FileChannel fc = new RandomAccessFile(dataFile.toFile(), "r").getChannel()) {
-            MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
-
-            skipToNextLine(buffer);  // skip the header
-
-            int colCount = 0;
-            int col = 0;
-            int row = 0;  // data start on the second row
-            byte currentChar = -1;
-            byte prevChar = NEW_LINE;
-            StringBuilder dataBuilder = new StringBuilder();
-            while (buffer.hasRemaining()) {
-                currentChar = buffer.get();
-                if (currentChar == CARRIAGE_RETURN) {
-                    currentChar = NEW_LINE;
-                }
 
-                if (currentChar == delimiter || (currentChar == NEW_LINE && prevChar != NEW_LINE)) {
-                    String value = dataBuilder.toString().trim();
-                    dataBuilder.delete(0, dataBuilder.length());
-                    if (colCount < maxNumOfCols) {
-                        DiscreteVarInfo variable = variables[colCount];
-                        if (variable != null) {
-                            if (value.length() > 0) {
-                                data[col++][row] = variable.getEncodeValue(value);
-                            } else {
-                                String errMsg = String.format("Missing data at line %d column %d.", row + 2, col + 1);
-                                LOGGER.error(errMsg);
-                                throw new IOException(errMsg);
-                            }
-                        }
-                    } else {
-                        String errMsg = String.format("Number of columns exceeded at line %d.  Expect %d column(s) but found %d.", row + 2, maxNumOfCols, colCount + 1);
-                        LOGGER.error(errMsg);
-                        throw new IOException(errMsg);
+        splitData();
+        int numOfRows = chunkRows[chunkRows.length - 1];
+
+        final int[][] data = new int[numOfCols][numOfRows];
+        try (final FileChannel fc = new RandomAccessFile(dataFile.toFile(), "r").getChannel()) {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < chunkBoundaries.length - 1; i++) {
+                final long start = chunkBoundaries[i];
+                final long end = chunkBoundaries[i + 1];
+                final int startRow = chunkRows[i];
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        encodeDiscreteData(new MappedFileBuffer(fc, start, end), startRow, variables, data);
+                        return null;
                     }
+                });
+            }
 
-                    colCount++;
-                    if (currentChar == NEW_LINE) {
-                        if (col < numOfCols) {
-                            String errMsg = String.format("Insufficient number of columns at line %d.  Expect %d column(s) but found %d.", row + 2, numOfCols, col);
-                            LOGGER.error(errMsg);
-                            throw new IOException(errMsg);
-                        }
-                        colCount = 0;
-                        col = 0;
-                        row++;
-                    }
-                } else if (currentChar != SINGLE_QUOTE && currentChar != DOUBLE_QUOTE) {
-                    dataBuilder.append((char) currentChar);
-                }
+            invokeAll(tasks);
+        }
+
+        return data;
+    }
 
-                prevChar = currentChar;
+    /**
+     * Encode one chunk of the data.
+     *
+     * @param buffer the chunk, starting at the beginning of a line
+     * @param startRow the data row the chunk starts with
+     * @param variables the variables, null for excluded columns
+     * @param data column-major data to fill in
+     * @throws IOException
+     */
+    private void encodeDiscreteData(MappedFileBuffer buffer, int startRow, DiscreteVarInfo[] variables, int[][] data) throws IOException {
+        int maxNumOfCols = variables.length;
+        int numOfCols = data.length;
+
+        int colCount = 0;
+        int col = 0;
+        int row = startRow;
+        byte currentChar = -1;
+        byte prevChar = NEW_LINE;
+        StringBuilder dataBuilder = new StringBuilder();
+        while (buffer.hasRemaining()) {
+            currentChar = buffer.get();
+            if (currentChar == CARRIAGE_RETURN) {
+                currentChar = NEW_LINE;
             }
-            if (currentChar > -1 && currentChar != NEW_LINE) {
+
+            if (currentChar == delimiter || (currentChar == NEW_LINE && prevChar != NEW_LINE)) {
+                String value = dataBuilder.toString().trim();
+                dataBuilder.delete(0, dataBuilder.length());
                 if (colCount < maxNumOfCols) {
                     DiscreteVarInfo variable = variables[colCount];
                     if (variable != null) {
-                        if (currentChar == delimiter) {
-                            String errMsg = String.format("Missing data at line %d column %d.", row + 2, colCount + 1);
+                        if (value.length() > 0) {
+                            data[col++][row] = variable.getEncodeValue(value);
+                        } else {
+                            String errMsg = String.format("Missing data at line %d column %d.", row + 2, col + 1);
                             LOGGER.error(errMsg);
                             throw new IOException(errMsg);
-                        } else {
-                            String value = dataBuilder.toString().trim();
-                            dataBuilder.delete(0, dataBuilder.length());
-                            if (value.length() > 0) {
-                                data[col++][row] = variable.getEncodeValue(value);
-                            } else {
-                                String errMsg = String.format("Missing data at line %d column %d.", row + 2, colCount + 1);
-                                LOGGER.error(errMsg);
-                                throw new IOException(errMsg);
-                            }
                         }
                     }
                 } else {
@@ -156,10 +151,50 @@ public class VerticalTabularDiscreteDataReader extends AbstractDiscreteDataReade
                     LOGGER.error(errMsg);
                     throw new IOException(errMsg);
                 }
+
+                colCount++;
+                if (currentChar == NEW_LINE) {
+                    if (col < numOfCols) {
+                        String errMsg = String.format("Insufficient number of columns at line %d.  Expect %d column(s) but found %d.", row + 2, numOfCols, col);
+                        LOGGER.error(errMsg);
+                        throw new IOException(errMsg);
+                    }
+                    colCount = 0;
+                    col = 0;
+                    row++;
+                }
+            } else if (currentChar != SINGLE_QUOTE && currentChar != DOUBLE_QUOTE) {
+                dataBuilder.append((char) currentChar);
             }
-        }
 
-        return data;
+            prevChar = currentChar;
+        }
+        if (currentChar > -1 && currentChar != NEW_LINE) {
+            if (colCount < maxNumOfCols) {
+                DiscreteVarInfo variable = variables[colCount];
+                if (variable != null) {
+                    if (currentChar == delimiter) {
+                        String errMsg = String.format("Missing data at line %d column %d.", row + 2, colCount + 1);
+                        LOGGER.error(errMsg);
+                        throw new IOException(errMsg);
+                    } else {
+                        String value = dataBuilder.toString().trim();
+                        dataBuilder.delete(0, dataBuilder.length());
+                        if (value.length() > 0) {
+                            data[col++][row] = variable.getEncodeValue(value);
+                        } else {
+                            String errMsg = String.format("Missing data at line %d column %d.", row + 2, colCount + 1);
+                            LOGGER.error(errMsg);
+                            throw new IOException(errMsg);
+                        }
+                    }
+                }
+            } else {
+                String errMsg = String.format("Number of columns exceeded at line %d.  Expect %d column(s) but found %d.", row + 2, maxNumOfCols, colCount + 1);
+                LOGGER.error(errMsg);
+                throw new IOException(errMsg);
+            }
+        }
     }
 
 }
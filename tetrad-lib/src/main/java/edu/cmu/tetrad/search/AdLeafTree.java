@@ -3,8 +3,6 @@ package edu.cmu.tetrad.search;
 import edu.cmu.tetrad.data.DataSet;
 import edu.cmu.tetrad.data.DiscreteVariable;
 import edu.cmu.tetrad.graph.Node;
-import org.apache.commons.collections4.iterators.CollatingIterator;
-import org.apache.commons.collections4.map.HashedMap;
 
 import java.util.*;
 
@@ -13,17 +11,28 @@ import java.util.*;
  * algorithm it's used for much, but it should speed up subsequent algorithm
  * on the same data.
  * </p>
+ * The tree is sparse in the manner of Moore and Lee's AD trees. Row indices are kept in int arrays,
+ * children of a node are kept in arrays indexed by column and category, and the child for the most
+ * common value of each varied variable is not stored but recovered when needed by scanning the rows
+ * of its parent, since it would take the most memory. Once the tree holds the given maximum number of
+ * row indices it stops growing, and further cells are calculated without being stored.
+ * </p>
  * Continuous variables in the data set are ignored.
  *
  * @author Joseph Ramsey
  */
 public class AdLeafTree {
 
+    /**
+     * The default maximum number of row indices to store in the tree.
+     */
+    public static final long DEFAULT_MAX_CACHED_ROWS = 1L << 26;
+
     // The data set the tree is for.
     private DataSet dataSet;
 
     // Contains the root of the tree.
-    private List<Vary> baseCase;
+    private Cell root;
 
     // Indices of variables.
     private Map<Node, Integer> nodesHash;
@@ -34,8 +43,22 @@ public class AdLeafTree {
     // Dimensions of the discrete variables (otherwise 0).
     private int[] dims;
 
+    // The maximum number of row indices to store.
+    private final long maxCachedRows;
+
+    // The number of row indices stored.
+    private long cachedRows = 0;
+
     public AdLeafTree(DataSet dataSet) {
+        this(dataSet, DEFAULT_MAX_CACHED_ROWS);
+    }
+
+    /**
+     * @param maxCachedRows The maximum number of row indices to store in the tree.
+     */
+    public AdLeafTree(DataSet dataSet, long maxCachedRows) {
         this.dataSet = dataSet;
+        this.maxCachedRows = maxCachedRows;
 
         discreteData = new int[dataSet.getNumColumns()][];
         dims = new int[dataSet.getNumColumns()];
@@ -73,102 +96,180 @@ public class AdLeafTree {
      * and so on, to the last variable.
      */
     public List<List<Integer>> getCellLeaves(List<DiscreteVariable> A) {
-        Collections.sort(A, new Comparator<DiscreteVariable>() {
-
-            @Override
-            public int compare(DiscreteVariable o1, DiscreteVariable o2) {
-                return Integer.compare(nodesHash.get(o1), nodesHash.get(o2));
-            }
-        });
+        int[][] cells = getCellRows(A);
+        List<List<Integer>> rows = new ArrayList<>(cells.length);
+
+        for (final int[] cell : cells) {
+            rows.add(new AbstractList<Integer>() {
+                @Override
+                public Integer get(int index) {
+                    return cell[index];
+                }
 
-        if (baseCase == null) {
-            Vary vary = new Vary();
-            this.baseCase = new ArrayList<>();
-            baseCase.add(vary);
+                @Override
+                public int size() {
+                    return cell.length;
+                }
+            });
         }
 
-        List<Vary> varies = baseCase;
+        return rows;
+    }
+
+    /**
+     * Finds the row indices of each cell of the given variables, in the same order as
+     * <code>getCellLeaves</code>. The variables are sorted by column; the last variable
+     * varies fastest. The returned arrays must not be modified.
+     *
+     * @param A A list of discrete variables.
+     * @return The row indices of the data in each cell, in increasing order.
+     */
+    public synchronized int[][] getCellRows(List<DiscreteVariable> A) {
+        int[] cols = new int[A.size()];
 
-        for (DiscreteVariable v : A) {
-            varies = getVaries(varies, nodesHash.get(v));
+        for (int k = 0; k < A.size(); k++) {
+            cols[k] = nodesHash.get(A.get(k));
         }
 
-        List<List<Integer>> rows = new ArrayList<>();
+        Arrays.sort(cols);
 
-        for (Vary vary : varies) {
-            rows.addAll(vary.getRows());
+        if (root == null) {
+            int[] rows = new int[dataSet.getNumRows()];
+            for (int i = 0; i < rows.length; i++) rows[i] = i;
+            this.root = new Cell(rows, true);
+            cachedRows += rows.length;
         }
 
-        return rows;
-    }
+        List<Cell> cells = Collections.singletonList(root);
 
-    private List<Vary> getVaries(List<Vary> varies, int v) {
-        List<Vary> _varies = new ArrayList<>();
+        for (int col : cols) {
+            List<Cell> _cells = new ArrayList<>(cells.size() * dims[col]);
 
-        for (Vary vary : varies) {
-            for (int i = 0; i < vary.getNumCategories(); i++) {
-                _varies.add(vary.getSubvary(v, i));
+            for (Cell cell : cells) {
+                Vary vary = cell.getVary(col);
+
+                for (int i = 0; i < dims[col]; i++) {
+                    _cells.add(vary.getCell(i));
+                }
             }
+
+            cells = _cells;
         }
 
-        return _varies;
+        int[][] rows = new int[cells.size()][];
+
+        for (int k = 0; k < rows.length; k++) {
+            rows[k] = cells.get(k).rows;
+        }
+
+        return rows;
+    }
+
+    /**
+     * @return The number of row indices currently stored in the tree.
+     */
+    public synchronized long getNumCachedRows() {
+        return cachedRows;
     }
 
-    private class Vary {
-        int col;
-        int numCategories;
-        List<List<Integer>> rows = new ArrayList<>();
-        List<Map<Integer, Vary>> subVaries = new ArrayList<>();
-
-        // Base case.
-        public Vary() {
-            List<Integer> _rows = new ArrayList<>();
-            for (int i = 0; i < dataSet.getNumRows(); i++) {
-                _rows.add(i);
-            }
+    // A conjunction of values of variables, with the rows of the data that have those values.
+    private class Cell {
+        private final int[] rows;
+
+        // True if the cell is part of the stored tree, so that its varies may be stored.
+        private final boolean stored;
+
+        // Varies of this cell by column, or null if none has been stored.
+        private Vary[] varies;
 
-            subVaries.add(new HashMap<Integer, Vary>());
-            numCategories = 1;
-            rows.add(_rows);
-            subVaries = new ArrayList<>();
-            subVaries.add(new HashMap<Integer, Vary>());
+        private Cell(int[] rows, boolean stored) {
+            this.rows = rows;
+            this.stored = stored;
         }
 
-        public Vary(int col, int numCategories, List<Integer> supRows, int[][] discreteData) {
-            this.col = col;
-            this.numCategories = numCategories;
+        // The cell split by the values of the given column.
+        private Vary getVary(int col) {
+            if (varies != null && varies[col] != null) {
+                return varies[col];
+            }
 
-            for (int i = 0; i < numCategories; i++) {
-                rows.add(new ArrayList<Integer>());
+            int[] column = discreteData[col];
+            int[] counts = new int[dims[col]];
+
+            for (int row : rows) {
+                counts[column[row]]++;
             }
 
-            for (int i = 0; i < numCategories; i++) {
-                subVaries.add(new HashedMap<Integer, Vary>());
+            int mcv = 0;
+
+            for (int i = 1; i < counts.length; i++) {
+                if (counts[i] > counts[mcv]) mcv = i;
             }
 
-            for (int i : supRows) {
-                int index = discreteData[col][i];
-                rows.get(index).add(i);
+            int stored = rows.length - counts[mcv];
+            boolean cache = this.stored && cachedRows + stored <= maxCachedRows;
+
+            Cell[] cells = new Cell[dims[col]];
+            int[][] _rows = new int[dims[col]][];
+
+            for (int i = 0; i < cells.length; i++) {
+                if (i != mcv) _rows[i] = new int[counts[i]];
             }
-        }
 
-        public List<List<Integer>> getRows() {
-            return rows;
-        }
+            int[] next = new int[dims[col]];
+
+            for (int row : rows) {
+                int i = column[row];
+                if (i != mcv) _rows[i][next[i]++] = row;
+            }
+
+            for (int i = 0; i < cells.length; i++) {
+                if (i != mcv) cells[i] = new Cell(_rows[i], cache);
+            }
 
-        public Vary getSubvary(int w, int cat) {
-            Vary vary = subVaries.get(cat).get(w);
+            Vary vary = new Vary(this, col, mcv, counts[mcv], cells);
 
-            if (vary == null) {
-                vary = new Vary(w, dims[w], rows.get(cat), discreteData);
-                subVaries.get(cat).put(w, vary);
+            if (cache) {
+                if (varies == null) varies = new Vary[discreteData.length];
+                varies[col] = vary;
+                cachedRows += stored;
             }
 
             return vary;
         }
+    }
+
+    // The children of a cell for each value of a column. The child for the most common value is
+    // not stored.
+    private class Vary {
+        private final Cell parent;
+        private final int col;
+        private final int mcv;
+        private final int mcvCount;
+        private final Cell[] cells;
+
+        private Vary(Cell parent, int col, int mcv, int mcvCount, Cell[] cells) {
+            this.parent = parent;
+            this.col = col;
+            this.mcv = mcv;
+            this.mcvCount = mcvCount;
+            this.cells = cells;
+        }
+
+        private Cell getCell(int category) {
+            if (category != mcv) {
+                return cells[category];
+            }
+
+            int[] column = discreteData[col];
+            int[] rows = new int[mcvCount];
+            int n = 0;
+
+            for (int row : parent.rows) {
+                if (column[row] == mcv) rows[n++] = row;
+            }
 
-        public int getNumCategories() {
-            return numCategories;
+            return new Cell(rows, false);
         }
     }
 }
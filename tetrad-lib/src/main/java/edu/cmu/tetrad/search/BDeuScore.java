@@ -40,6 +40,9 @@ public class BDeuScore implements LocalDiscreteScore, IBDeuScore, Score {
 
     private int[] numCategories;
 
+    // Contingency counts of recently scored families.
+    private ContingencyCountsCache countsCache;
+
     public BDeuScore(DataSet dataSet) {
         if (dataSet == null) {
             throw new NullPointerException("Data was not provided.");
@@ -78,6 +81,8 @@ public class BDeuScore implements LocalDiscreteScore, IBDeuScore, Score {
         for (int i = 0; i < variables.size(); i++) {
             numCategories[i] = (getVariable(i)).getNumCategories();
         }
+
+        this.countsCache = new ContingencyCountsCache(data, numCategories);
     }
 
     private DiscreteVariable getVariable(int i) {
@@ -105,36 +110,9 @@ public class BDeuScore implements LocalDiscreteScore, IBDeuScore, Score {
         }
 
         // Conditional cell coefs of data for node given parents(node).
-        int n_jk[][] = new int[r][c];
-        int n_j[] = new int[r];
-
-        int[] parentValues = new int[parents.length];
-
-        int[][] myParents = new int[parents.length][];
-        for (int i = 0; i < parents.length; i++) {
-            myParents[i] = data[parents[i]];
-        }
-
-        int[] myChild = data[node];
-
-
-        for (int i = 0; i < sampleSize; i++) {
-            for (int p = 0; p < parents.length; p++) {
-                parentValues[p] = myParents[p][i];
-            }
-
-            int childValue = myChild[i];
-
-            if (childValue == -99) {
-                throw new IllegalStateException("Please remove or impute missing " +
-                        "values (record " + i + " column " + i + ")");
-            }
-
-            int rowIndex = getRowIndex(dims, parentValues);
-
-            n_jk[rowIndex][childValue]++;
-            n_j[rowIndex]++;
-        }
+        ContingencyCountsCache.Counts counts = countsCache.getCounts(node, parents);
+        int n_jk[][] = counts.getCellCounts();
+        int n_j[] = counts.getRowCounts();
 
         //Finally, compute the score
         double score = 0.0;
@@ -222,13 +200,19 @@ public class BDeuScore implements LocalDiscreteScore, IBDeuScore, Score {
         throw new UnsupportedOperationException();
     }
 
-    private static int getRowIndex(int[] dim, int[] values) {
-        int rowIndex = 0;
-        for (int i = 0; i < dim.length; i++) {
-            rowIndex *= dim[i];
-            rowIndex += values[i];
-        }
-        return rowIndex;
+    /**
+     * @return The cache of contingency counts used by this score, for hit and miss statistics.
+     */
+    public ContingencyCountsCache getCountsCache() {
+        return countsCache;
+    }
+
+    /**
+     * Sets the maximum number of contingency count tables kept between scoring calls. Cached tables are
+     * discarded.
+     */
+    public void setMaxCachedTables(int maxCachedTables) {
+        this.countsCache = new ContingencyCountsCache(data, numCategories, maxCachedTables);
     }
 
     @Override
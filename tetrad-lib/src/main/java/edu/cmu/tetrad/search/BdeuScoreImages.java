@@ -43,6 +43,9 @@ public class BdeuScoreImages implements IBDeuScore {
     // The covariance matrix.
     private List<BDeuScore> scores;
 
+    // Scores families in all of the data sets at once.
+    private ImagesScoring scoring;
+
     // The variables of the covariance matrix.
     private List<Node> variables;
 
@@ -90,18 +93,13 @@ public class BdeuScoreImages implements IBDeuScore {
         }
 
         this.scores = scores;
+        this.scoring = new ImagesScoring(scores);
         this.variables = variables;
     }
 
 
     public double localScoreDiff(int x, int y, int[] z) {
-        double sum = 0.0;
-
-        for (BDeuScore score : scores) {
-            sum += score.localScoreDiff(x, y, z);
-        }
-
-        return sum / scores.size();
+        return ImagesScoring.average(scoring.localScoreDiffs(x, y, z));
     }
 
     @Override
@@ -113,13 +111,7 @@ public class BdeuScoreImages implements IBDeuScore {
      * Calculates the sample likelihood and BIC score for i given its parents in a simple SEM model
      */
     public double localScore(int i, int[] parents) {
-        double sum = 0.0;
-
-        for (BDeuScore score : scores) {
-            sum += score.localScore(i, parents);
-        }
-
-        return sum / scores.size();
+        return ImagesScoring.average(scoring.localScores(i, parents));
     }
 
     public double localScore(int i, int[] parents, int index) {
@@ -142,26 +134,14 @@ public class BdeuScoreImages implements IBDeuScore {
      * Specialized scoring method for a single parent. Used to speed up the effect edges search.
      */
     public double localScore(int i, int parent) {
-        double sum = 0.0;
-
-        for (BDeuScore score : scores) {
-            sum += score.localScore(i, parent);
-        }
-
-        return sum / scores.size();
+        return ImagesScoring.average(scoring.localScores(i, parent));
     }
 
     /**
      * Specialized scoring method for no parents. Used to speed up the effect edges search.
      */
     public double localScore(int i) {
-        double sum = 0.0;
-
-        for (BDeuScore score : scores) {
-            sum += score.localScore(i);
-        }
-
-        return sum / scores.size();
+        return ImagesScoring.average(scoring.localScores(i));
     }
 
     public void setOut(PrintStream out) {
@@ -177,6 +157,20 @@ public class BdeuScoreImages implements IBDeuScore {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * @return True if the data sets are scored in parallel, in the current execution context.
+     */
+    public boolean isParallel() {
+        return scoring.isParallel();
+    }
+
+    /**
+     * Sets whether the data sets are scored in parallel. The scores are the same either way.
+     */
+    public void setParallel(boolean parallel) {
+        scoring.setParallel(parallel);
+    }
+
     public boolean isVerbose() {
         return verbose;
     }
@@ -26,17 +26,39 @@ import edu.cmu.tetrad.data.DataSet;
 import edu.cmu.tetrad.data.DiscreteVariable;
 import edu.cmu.tetrad.graph.Node;
 import edu.cmu.tetrad.util.TetradMatrix;
-import org.apache.commons.math3.stat.correlation.Covariance;
 
 import java.util.*;
 
 /**
  * Implements a conditional Gaussian BIC score for FGS.
+ * <p>
+ * For each set of discrete variables asked about, the rows of each cell (each combination of values of
+ * the discrete variables) are looked up once, and the means and cross-products of continuous variables in
+ * each cell are calculated as they are needed and kept, so that the covariance matrix of any set of
+ * continuous variables in a cell is assembled from cached statistics rather than from the data. The most
+ * recently used sets of discrete variables are kept. Cross-products are kept only up to a fixed number of
+ * doubles over all cells; past that they are calculated from the data each time.
  *
  * @author Joseph Ramsey
  */
 public class ConditionalGaussianLikelihood {
 
+    /**
+     * The maximum number of row indices (summed over cached sets of discrete variables) to keep.
+     */
+    private static final int MAX_CACHED_ROWS = 1 << 24;
+
+    /**
+     * The default maximum number of cross-product doubles (summed over cached cells) to keep.
+     */
+    private static final long MAX_CACHED_CROSS_PRODUCTS = 1 << 24;
+
+    // The maximum number of cross-product doubles to keep.
+    private long maxCachedCrossProducts = MAX_CACHED_CROSS_PRODUCTS;
+
+    // The number of cross-product doubles currently kept, over all cached cells.
+    private long cachedCrossProducts = 0;
+
     private DataSet dataSet;
 
     // The variables of the continuousData set.
@@ -95,6 +117,20 @@ public class ConditionalGaussianLikelihood {
         }
 
         this.adTree = AdTrees.getAdLeafTree(dataSet);//   new AdLeafTree(dataSet);
+
+        final int maxCachedSets = Math.max(2, MAX_CACHED_ROWS / Math.max(1, dataSet.getNumRows()));
+
+        this.cellsCache = new LinkedHashMap<List<Integer>, Cell[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Integer>, Cell[]> eldest) {
+                if (size() > maxCachedSets) {
+                    for (Cell cell : eldest.getValue()) releaseCrossProducts(cell);
+                    return true;
+                }
+
+                return false;
+            }
+        };
     }
 
     private int getDof2(int i, int[] parents) {
@@ -166,16 +202,15 @@ public class ConditionalGaussianLikelihood {
     private Ret getJointLikelihood(List<ContinuousVariable> X, List<DiscreteVariable> A) {
         int p = X.size();
 
-//        List<List<Integer>> cells = getCellsOriginal(A);
-        List<List<Integer>> cells = adTree.getCellLeaves(A);
+        Cell[] cells = getCells(A);
 
         int[] continuousCols = new int[p];
         for (int j = 0; j < p; j++) continuousCols[j] = nodesHash.get(X.get(j));
         int N = dataSet.getNumRows();
         double lik = 0;
 
-        for (List<Integer> cell : cells) {
-            int r = cell.size();
+        for (Cell cell : cells) {
+            int r = cell.rows.length;
 
             if (A.size() > 0) {
                 if (r > 0) {
@@ -186,16 +221,7 @@ public class ConditionalGaussianLikelihood {
 
             if (X.size() > 0) {
                 if (r > 3 * p) {
-                    TetradMatrix subset = new TetradMatrix(r, p);
-
-                    for (int i = 0; i < r; i++) {
-                        for (int j = 0; j < p; j++) {
-                            subset.set(i, j, continuousData[continuousCols[j]][cell.get(i)]);
-                        }
-                    }
-
-                    TetradMatrix Sigma = new TetradMatrix(new Covariance(subset.getRealMatrix(),
-                            false).getCovarianceMatrix());
+                    TetradMatrix Sigma = cell.covariance(continuousCols);
                     double det = Sigma.det();
                     lik -= 0.5 * r * Math.log(det);
                 }
@@ -209,6 +235,66 @@ public class ConditionalGaussianLikelihood {
         return new Ret(lik, dof);
     }
 
+    // The cells for the given discrete variables, from the cache if possible.
+    private Cell[] getCells(List<DiscreteVariable> A) {
+        List<Integer> key = new ArrayList<>();
+        for (DiscreteVariable a : A) key.add(nodesHash.get(a));
+        Collections.sort(key);
+
+        Cell[] cells;
+
+        synchronized (cellsCache) {
+            cells = cellsCache.get(key);
+        }
+
+        if (cells != null) return cells;
+
+        int[][] rows = adTree.getCellRows(A);
+        cells = new Cell[rows.length];
+
+        for (int k = 0; k < cells.length; k++) {
+            cells[k] = new Cell(rows[k]);
+        }
+
+        synchronized (cellsCache) {
+            cellsCache.put(key, cells);
+        }
+
+        return cells;
+    }
+
+    /**
+     * Sets the maximum number of cross-product doubles, summed over cached cells, to keep. Cross-products
+     * past this limit are calculated from the data as they are needed. The default is 2^24.
+     */
+    public void setMaxCachedCrossProducts(long maxCachedCrossProducts) {
+        if (maxCachedCrossProducts < 0) {
+            throw new IllegalArgumentException("Max cached cross-products must be >= 0: " + maxCachedCrossProducts);
+        }
+
+        synchronized (cellsCache) {
+            this.maxCachedCrossProducts = maxCachedCrossProducts;
+        }
+    }
+
+    // Reserves room for the given number of cross-product doubles for the given cell, if the limit allows
+    // and the cell is still cached.
+    private boolean reserveCrossProducts(Cell cell, int size) {
+        synchronized (cellsCache) {
+            if (cell.released || cachedCrossProducts + size > maxCachedCrossProducts) return false;
+            cachedCrossProducts += size;
+            cell.reserved += size;
+            return true;
+        }
+    }
+
+    // Gives back the room reserved by the given cell; called with the cache locked when the cell is dropped.
+    private void releaseCrossProducts(Cell cell) {
+        cachedCrossProducts -= cell.reserved;
+        cell.reserved = 0;
+        cell.released = true;
+    }
+
     private List<List<Integer>> getCellsOriginal(List<DiscreteVariable> A) {
         int d = A.size();
 
@@ -241,6 +327,101 @@ public class ConditionalGaussianLikelihood {
 
     private AdLeafTree adTree;
 
+    // Sorted indices of discrete variables --> cells for those variables.
+    private final Map<List<Integer>, Cell[]> cellsCache;
+
+    /**
+     * The rows of a cell, with the means and centered cross-products of continuous columns over those rows,
+     * calculated as needed. A row of cross-products is kept only if room for it can be reserved; the room
+     * is given back when the cell's set of discrete variables is dropped from the cache.
+     */
+    private class Cell {
+        private final int[] rows;
+        private double[] means;
+        private boolean[] haveMean;
+        private double[][] crossProducts;
+        private boolean[][] haveCrossProduct;
+
+        // The number of cross-product doubles reserved by this cell. Guarded by the cells cache.
+        private long reserved = 0;
+
+        // True once the cell has been dropped from the cache; it reserves no more room after that. Guarded
+        // by the cells cache.
+        private boolean released = false;
+
+        private Cell(int[] rows) {
+            this.rows = rows;
+        }
+
+        // The maximum likelihood covariance matrix of the given continuous columns over the rows of the cell.
+        private synchronized TetradMatrix covariance(int[] cols) {
+            if (means == null) {
+                int n = continuousData.length;
+                means = new double[n];
+                haveMean = new boolean[n];
+                crossProducts = new double[n][];
+                haveCrossProduct = new boolean[n][];
+            }
+
+            for (int col : cols) {
+                if (!haveMean[col]) {
+                    double[] data = continuousData[col];
+                    double sum = 0;
+                    for (int row : rows) sum += data[row];
+                    means[col] = sum / rows.length;
+                    haveMean[col] = true;
+                }
+            }
+
+            int p = cols.length;
+            TetradMatrix Sigma = new TetradMatrix(p, p);
+
+            for (int a = 0; a < p; a++) {
+                for (int b = a; b < p; b++) {
+                    double c = crossProduct(cols[a], cols[b]) / rows.length;
+                    Sigma.set(a, b, c);
+                    Sigma.set(b, a, c);
+                }
+            }
+
+            return Sigma;
+        }
+
+        private double crossProduct(int col1, int col2) {
+            if (crossProducts[col1] != null && haveCrossProduct[col1][col2]) {
+                return crossProducts[col1][col2];
+            }
+
+            double[] data1 = continuousData[col1];
+            double[] data2 = continuousData[col2];
+            double mean1 = means[col1];
+            double mean2 = means[col2];
+            double sum = 0;
+
+            for (int row : rows) {
+                sum += (data1[row] - mean1) * (data2[row] - mean2);
+            }
+
+            keep(col1, col2, sum);
+            keep(col2, col1, sum);
+
+            return sum;
+        }
+
+        // Keeps the cross-product of col1 and col2, if there is room for its row.
+        private void keep(int col1, int col2, double sum) {
+            if (crossProducts[col1] == null) {
+                int n = continuousData.length;
+                if (!reserveCrossProducts(this, n)) return;
+                crossProducts[col1] = new double[n];
+                haveCrossProduct[col1] = new boolean[n];
+            }
+
+            crossProducts[col1][col2] = sum;
+            haveCrossProduct[col1][col2] = true;
+        }
+    }
+
     public class Ret {
         private double lik;
         private int dof;
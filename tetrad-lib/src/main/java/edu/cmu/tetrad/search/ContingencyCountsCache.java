@@ -0,0 +1,381 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.search;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe cache of contingency counts for discrete local scores. Counts for a child given
+ * a set of parents are keyed by the child together with the sorted parent set, so that the same family
+ * asked for in a different parent order is found in the cache. Least recently used tables are evicted
+ * once the cache is full.
+ * <p>
+ * In addition to the count tables, the cache keeps the per-record parent configuration indices for
+ * recently used parent sets. These do not depend on the child, and the configuration vector for a set of
+ * parents can be extended by one column from the vector of any of its cached subsets of size one less,
+ * which is how the forward and backward passes of FGS typically ask for families.
+ * <p>
+ * Parent configurations are numbered consistently for a given parent set but not necessarily in the
+ * canonical mixed-radix order; scores that only sum over parent configurations, such as BDeu, are not
+ * affected by this.
+ *
+ * @author Joseph Ramsey
+ */
+public class ContingencyCountsCache {
+
+    /**
+     * The default maximum number of count tables kept.
+     */
+    public static final int DEFAULT_MAX_TABLES = 10000;
+
+    /**
+     * The default maximum number of integers kept in cached parent configuration vectors.
+     */
+    public static final long DEFAULT_MAX_INDEX_CELLS = 1L << 25;
+
+    // The data, column-major.
+    private final int[][] data;
+
+    // The number of categories for each column.
+    private final int[] numCategories;
+
+    // The number of records.
+    private final int sampleSize;
+
+    // Maximum number of count tables.
+    private final int maxTables;
+
+    // Maximum number of parent configuration vectors.
+    private final int maxIndices;
+
+    // (child, sorted parents) --> counts.
+    private final Map<Key, Counts> tables;
+
+    // sorted parents --> configuration index for each record.
+    private final Map<Key, int[]> indices;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong indexHits = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructs a cache with default bounds over the given column-major data.
+     *
+     * @param data          The data, data[j][i] being the category of record i for variable j.
+     * @param numCategories The number of categories of each variable.
+     */
+    public ContingencyCountsCache(int[][] data, int[] numCategories) {
+        this(data, numCategories, DEFAULT_MAX_TABLES);
+    }
+
+    /**
+     * Constructs a cache over the given column-major data.
+     *
+     * @param data          The data, data[j][i] being the category of record i for variable j.
+     * @param numCategories The number of categories of each variable.
+     * @param maxTables     The maximum number of count tables to keep; must be at least 1.
+     */
+    public ContingencyCountsCache(int[][] data, int[] numCategories, int maxTables) {
+        if (data == null) throw new NullPointerException("Data was not provided.");
+        if (numCategories == null || numCategories.length != data.length) {
+            throw new IllegalArgumentException("Expecting one number of categories per column.");
+        }
+        if (maxTables < 1) throw new IllegalArgumentException("Max tables must be at least 1: " + maxTables);
+
+        this.data = data;
+        this.numCategories = numCategories;
+        this.sampleSize = data.length == 0 ? 0 : data[0].length;
+        this.maxTables = maxTables;
+        this.maxIndices = (int) Math.max(2, Math.min(maxTables,
+                DEFAULT_MAX_INDEX_CELLS / Math.max(1, sampleSize)));
+
+        this.tables = new LinkedHashMap<Key, Counts>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Counts> eldest) {
+                if (size() > ContingencyCountsCache.this.maxTables) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+
+                return false;
+            }
+        };
+
+        this.indices = new LinkedHashMap<Key, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, int[]> eldest) {
+                return size() > ContingencyCountsCache.this.maxIndices;
+            }
+        };
+    }
+
+    /**
+     * Returns the contingency counts of the given child against the given parents. The parents may be
+     * given in any order. The returned counts must not be modified.
+     */
+    public Counts getCounts(int child, int[] parents) {
+        int[] sorted = Arrays.copyOf(parents, parents.length);
+        Arrays.sort(sorted);
+        Key key = new Key(child, sorted);
+
+        Counts counts;
+
+        synchronized (tables) {
+            counts = tables.get(key);
+        }
+
+        if (counts != null) {
+            hits.incrementAndGet();
+            return counts;
+        }
+
+        misses.incrementAndGet();
+        counts = count(child, sorted);
+
+        synchronized (tables) {
+            tables.put(key, counts);
+        }
+
+        return counts;
+    }
+
+    private Counts count(int child, int[] sorted) {
+        int c = numCategories[child];
+        int[] config = getConfigurations(sorted);
+
+        int r = 1;
+
+        for (int p : sorted) {
+            r *= numCategories[p];
+        }
+
+        int[][] n_jk = new int[r][c];
+        int[] n_j = new int[r];
+
+        int[] myChild = data[child];
+
+        for (int i = 0; i < sampleSize; i++) {
+            int childValue = myChild[i];
+
+            if (childValue == -99) {
+                throw new IllegalStateException("Please remove or impute missing " +
+                        "values (record " + i + " column " + child + ")");
+            }
+
+            int rowIndex = config == null ? 0 : config[i];
+
+            n_jk[rowIndex][childValue]++;
+            n_j[rowIndex]++;
+        }
+
+        return new Counts(n_jk, n_j);
+    }
+
+    /**
+     * Returns the parent configuration index of each record for the given sorted parents, or null if
+     * there are no parents.
+     */
+    private int[] getConfigurations(int[] sorted) {
+        if (sorted.length == 0) return null;
+
+        Key key = new Key(-1, sorted);
+
+        int[] config;
+
+        synchronized (indices) {
+            config = indices.get(key);
+        }
+
+        if (config != null) {
+            indexHits.incrementAndGet();
+            return config;
+        }
+
+        int[] base = null;
+        int extra = -1;
+
+        if (sorted.length > 1) {
+            synchronized (indices) {
+                for (int i = sorted.length - 1; i >= 0; i--) {
+                    base = indices.get(new Key(-1, remove(sorted, i)));
+
+                    if (base != null) {
+                        extra = sorted[i];
+                        break;
+                    }
+                }
+            }
+        }
+
+        config = new int[sampleSize];
+
+        if (base != null) {
+            indexHits.incrementAndGet();
+            int dim = numCategories[extra];
+            int[] column = data[extra];
+
+            for (int i = 0; i < sampleSize; i++) {
+                config[i] = base[i] * dim + column[i];
+            }
+        } else {
+            for (int p : sorted) {
+                int dim = numCategories[p];
+                int[] column = data[p];
+
+                for (int i = 0; i < sampleSize; i++) {
+                    config[i] = config[i] * dim + column[i];
+                }
+            }
+        }
+
+        synchronized (indices) {
+            indices.put(key, config);
+        }
+
+        return config;
+    }
+
+    private static int[] remove(int[] array, int index) {
+        int[] removed = new int[array.length - 1];
+        System.arraycopy(array, 0, removed, 0, index);
+        System.arraycopy(array, index + 1, removed, index, array.length - index - 1);
+        return removed;
+    }
+
+    /**
+     * Removes all cached tables and configuration vectors. The counters are not reset.
+     */
+    public void clear() {
+        synchronized (tables) {
+            tables.clear();
+        }
+
+        synchronized (indices) {
+            indices.clear();
+        }
+    }
+
+    /**
+     * @return The number of count requests answered from the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of count requests that required a pass over the data.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of times a configuration vector was found in the cache or built from a cached
+     * subset, avoiding a pass over all parent columns.
+     */
+    public long getIndexHits() {
+        return indexHits.get();
+    }
+
+    /**
+     * @return The number of count tables evicted so far.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return The fraction of count requests answered from the cache, or NaN if there have been none.
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? Double.NaN : h / (double) total;
+    }
+
+    /**
+     * @return The number of count tables currently cached.
+     */
+    public int size() {
+        synchronized (tables) {
+            return tables.size();
+        }
+    }
+
+    /**
+     * @return The maximum number of count tables kept.
+     */
+    public int getMaxTables() {
+        return maxTables;
+    }
+
+    /**
+     * Contingency counts for a child given its parents; n_jk[j][k] is the number of records with parent
+     * configuration j and child value k, and n_j[j] is the number of records with parent configuration j.
+     */
+    public static final class Counts {
+        private final int[][] n_jk;
+        private final int[] n_j;
+
+        private Counts(int[][] n_jk, int[] n_j) {
+            this.n_jk = n_jk;
+            this.n_j = n_j;
+        }
+
+        public int[][] getCellCounts() {
+            return n_jk;
+        }
+
+        public int[] getRowCounts() {
+            return n_j;
+        }
+    }
+
+    private static final class Key {
+        private final int child;
+        private final int[] parents;
+        private final int hashCode;
+
+        private Key(int child, int[] parents) {
+            this.child = child;
+            this.parents = parents;
+            this.hashCode = 31 * child + Arrays.hashCode(parents);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return child == key.child && Arrays.equals(parents, key.parents);
+        }
+    }
+}
@@ -27,6 +27,7 @@ import edu.cmu.tetrad.util.TetradMatrix;
 import org.apache.commons.math3.distribution.ChiSquaredDistribution;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Implements a test for simultaneously zero tetrads in Bollen, K. (1990). "Outlier screening and distribution-free test
@@ -47,7 +48,13 @@ public class DeltaTetradTest {
 //    private double[] means;
     private List<Node> variables;
     private Map<Node, Integer> variablesHash;
-//    private boolean cacheFourthMoments = false;
+
+    // Fourth moments by their sorted variable indices, packed into a long; null if there are too many variables for
+    // the indices to be packed.
+    private Map<Long, Double> fourthMoments;
+
+    // The most fourth moments that will be cached.
+    private static final int MAX_CACHED_MOMENTS = 1 << 21;
 
 
     // As input we require a data set and a list of non-redundant Tetrads.
@@ -89,6 +96,10 @@ public class DeltaTetradTest {
             variablesHash.put(variables.get(i), i);
         }
 
+        if (variables.size() <= 0xFFFF) {
+            this.fourthMoments = new ConcurrentHashMap<>();
+        }
+
 //        this.means = new double[numVars];
 //
 //        for (int i = 0; i < numVars; i++) {
@@ -244,9 +255,14 @@ public class DeltaTetradTest {
         return 1.0 - cdf;
     }
 
+    /**
+     * @return the p value for the given tetrads. Unlike calcChiSquare followed by getPValue(), this may be called from
+     * several threads at once.
+     */
     public double getPValue(Tetrad... tetrads) {
-        calcChiSquare(tetrads);
-        return getPValue();
+        double chisq = calcChiSquare(tetrads);
+        double cdf = new ChiSquaredDistribution(tetrads.length).cumulativeProbability(chisq);
+        return 1.0 - cdf;
     }
 
     private double sxyzw(Node e, Node f, Node g, Node h) {
@@ -292,23 +308,28 @@ public class DeltaTetradTest {
 //        fourthMoment[w][z][y][x] = sxyzw;
 //    }
 
+    // Fourth moments are symmetric in their arguments, so they are cached by the sorted indices, and computed in that
+    // order so that the value doesn't depend on which permutation was asked for first.
     private double getForthMoment(int x, int y, int z, int w) {
-//        if (cacheFourthMoments) {
-//            if (fourthMoment == null) {
-//                initializeForthMomentMatrix(dataSet.getVariables());
-//            }
-//
-//            double sxyzw = fourthMoment[x][y][z][w];
-//
-//            if (sxyzw == 0.0) {
-//                sxyzw = sxyzw(x, y, z, w);
-////                setForthMoment(x, y, z, w, sxyzw);
-//            }
-//
-//            return sxyzw;
-//        } else {
-        return sxyzw(x, y, z, w);
-//        }
+        int[] v = {x, y, z, w};
+        Arrays.sort(v);
+
+        if (fourthMoments == null) {
+            return sxyzw(v[0], v[1], v[2], v[3]);
+        }
+
+        long key = ((long) v[0] << 48) | ((long) v[1] << 32) | ((long) v[2] << 16) | v[3];
+        Double sxyzw = fourthMoments.get(key);
+
+        if (sxyzw == null) {
+            sxyzw = sxyzw(v[0], v[1], v[2], v[3]);
+
+            if (fourthMoments.size() < MAX_CACHED_MOMENTS) {
+                fourthMoments.put(key, sxyzw);
+            }
+        }
+
+        return sxyzw;
     }
 
     /**
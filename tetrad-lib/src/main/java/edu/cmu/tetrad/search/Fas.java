@@ -21,12 +21,14 @@
 
 package edu.cmu.tetrad.search;
 
+import edu.cmu.tetrad.data.CompiledKnowledge;
 import edu.cmu.tetrad.data.IKnowledge;
 import edu.cmu.tetrad.data.Knowledge2;
 import edu.cmu.tetrad.graph.*;
 import edu.cmu.tetrad.util.ChoiceGenerator;
 import edu.cmu.tetrad.util.TetradLogger;
 
+import java.io.File;
 import java.io.PrintStream;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
@@ -66,6 +68,11 @@ public class Fas implements IFas {
      */
     private IKnowledge knowledge = new Knowledge2();
 
+    /**
+     * The knowledge compiled for the nodes, rebuilt at the start of each search.
+     */
+    private CompiledKnowledge compiledKnowledge;
+
     /**
      * The maximum number of variables conditioned on in any conditional independence test. If the depth is -1, it will
      * be taken to be the maximum value, which is 1000. Otherwise, it should be set to a non-negative integer.
@@ -125,6 +132,11 @@ public class Fas implements IFas {
     private PrintStream out = System.out;
     private boolean sepsetsReturnEmptyIfNotFixed;
 
+    /**
+     * If not null, the directory in which the sepsets are spilled to disk.
+     */
+    private File sepsetSpillDirectory = null;
+
     //==========================CONSTRUCTORS=============================//
 
     /**
@@ -158,8 +170,9 @@ public class Fas implements IFas {
     public Graph search() {
         this.logger.log("info", "Starting Fast Adjacency Search.");
 
-        sepset = new SepsetMap();
+        sepset = newSepsetMap();
         sepset.setReturnEmptyIfNotSet(sepsetsReturnEmptyIfNotFixed);
+        compiledKnowledge = CompiledKnowledge.compile(knowledge, nodes);
 
         int _depth = depth;
 
@@ -209,7 +222,7 @@ public class Fas implements IFas {
         this.logger.log("info", "Starting Fast Adjacency Search.");
         graph.removeEdges(graph.getEdges());
 
-        sepset = new SepsetMap();
+        sepset = newSepsetMap();
 
         int _depth = depth;
 
@@ -219,6 +232,7 @@ public class Fas implements IFas {
 
         Map<Node, Set<Node>> adjacencies = new HashMap<>();
         List<Node> nodes = graph.getNodes();
+        compiledKnowledge = CompiledKnowledge.compile(knowledge, nodes);
 
         for (Node node : nodes) {
             adjacencies.put(node, new TreeSet<Node>());
@@ -267,6 +281,10 @@ public class Fas implements IFas {
 
     //==============================PRIVATE METHODS======================/
 
+    private SepsetMap newSepsetMap() {
+        return sepsetSpillDirectory == null ? new SepsetMap() : new SepsetMap(sepsetSpillDirectory);
+    }
+
     private boolean searchAtDepth0(List<Node> nodes, IndependenceTest test, Map<Node, Set<Node>> adjacencies) {
         List<Node> empty = Collections.emptyList();
         for (int i = 0; i < nodes.size(); i++) {
@@ -306,7 +324,7 @@ public class Fas implements IFas {
                 }
 
                 boolean noEdgeRequired =
-                        knowledge.noEdgeRequired(x.getName(), y.getName());
+                        compiledKnowledge.noEdgeRequired(x, y);
 
 
                 if (independent && noEdgeRequired) {
@@ -357,11 +375,8 @@ public class Fas implements IFas {
     }
 
     private boolean forbiddenEdge(Node x, Node y) {
-        String name1 = x.getName();
-        String name2 = y.getName();
-
-        if (knowledge.isForbidden(name1, name2) &&
-                knowledge.isForbidden(name2, name1)) {
+        if (compiledKnowledge.isForbidden(x, y) &&
+                compiledKnowledge.isForbidden(y, x)) {
             this.logger.log("edgeRemoved", "Removed " + Edges.undirectedEdge(x, y) + " because it was " +
                     "forbidden by background knowledge.");
 
@@ -385,7 +400,7 @@ public class Fas implements IFas {
             for (Node y : adjx) {
                 List<Node> _adjx = new ArrayList<>(adjacencies.get(x));
                 _adjx.remove(y);
-                List<Node> ppx = possibleParents(x, _adjx, knowledge);
+                List<Node> ppx = possibleParents(x, _adjx);
 
                 if (ppx.size() >= depth) {
                     ChoiceGenerator cg = new ChoiceGenerator(ppx.size(), depth);
@@ -410,7 +425,7 @@ public class Fas implements IFas {
                         }
 
                         boolean noEdgeRequired =
-                                knowledge.noEdgeRequired(x.getName(), y.getName());
+                                compiledKnowledge.noEdgeRequired(x, y);
 
                         if (independent && noEdgeRequired) {
                             adjacencies.get(x).remove(y);
@@ -434,15 +449,11 @@ public class Fas implements IFas {
         return freeDegree(nodes, adjacencies) > depth;
     }
 
-    private List<Node> possibleParents(Node x, List<Node> adjx,
-                                       IKnowledge knowledge) {
+    private List<Node> possibleParents(Node x, List<Node> adjx) {
         List<Node> possibleParents = new LinkedList<>();
-        String _x = x.getName();
 
         for (Node z : adjx) {
-            String _z = z.getName();
-
-            if (possibleParentOf(_z, _x, knowledge)) {
+            if (possibleParentOf(z, x)) {
                 possibleParents.add(z);
             }
         }
@@ -450,8 +461,8 @@ public class Fas implements IFas {
         return possibleParents;
     }
 
-    private boolean possibleParentOf(String z, String x, IKnowledge knowledge) {
-        return !knowledge.isForbidden(z, x) && !knowledge.isRequired(x, z);
+    private boolean possibleParentOf(Node z, Node x) {
+        return !compiledKnowledge.isForbidden(z, x) && !compiledKnowledge.isRequired(x, z);
     }
 
     public int getNumIndependenceTests() {
@@ -533,5 +544,18 @@ public class Fas implements IFas {
     public void setSepsetsReturnEmptyIfNotFixed(boolean sepsetsReturnEmptyIfNotFixed) {
         this.sepsetsReturnEmptyIfNotFixed = sepsetsReturnEmptyIfNotFixed;
     }
+
+    public File getSepsetSpillDirectory() {
+        return sepsetSpillDirectory;
+    }
+
+    /**
+     * Sets a directory in which the sepsets found by the search are kept on disk rather than in memory, or null
+     * (the default) to keep them in memory. The file stays until the map returned by getSepsets() is closed or
+     * garbage collected. See SepsetMap.
+     */
+    public void setSepsetSpillDirectory(File sepsetSpillDirectory) {
+        this.sepsetSpillDirectory = sepsetSpillDirectory;
+    }
 }
 
@@ -31,7 +31,6 @@ import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RecursiveTask;
 
 /**
@@ -92,8 +91,8 @@ public class FasStableConcurrent implements IFas {
      */
     private boolean verbose = false;
 
-    // The concurrency pool.
-    private ForkJoinPool pool = ForkJoinPoolInstance.getInstance().getPool();
+    // The context in which parallel work is done.
+    private ExecutionContext context = ExecutionContext.current();
 
     /**
      * Where verbose output is sent.
@@ -349,7 +348,7 @@ public class FasStableConcurrent implements IFas {
             }
         }
 
-        pool.invoke(new Depth0Task(chunk, 0, nodes.size()));
+        context.invoke(new Depth0Task(chunk, 0, nodes.size()));
 
         return freeDegree(nodes, adjacencies) > 0;
     }
@@ -504,7 +503,7 @@ public class FasStableConcurrent implements IFas {
             }
         }
 
-        pool.invoke(new DepthTask(chunk, 0, nodes.size()));
+        context.invoke(new DepthTask(chunk, 0, nodes.size()));
 
         if (verbose) {
             System.out.println("Done with depth");
@@ -29,9 +29,12 @@ import edu.cmu.tetrad.graph.Edge;
 import edu.cmu.tetrad.graph.Endpoint;
 import edu.cmu.tetrad.graph.Graph;
 import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.util.ExecutionContext;
 import edu.cmu.tetrad.util.TetradLogger;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -116,6 +119,11 @@ public final class Fci implements GraphSearch {
     private Graph initialGraph;
     private int possibleDsepDepth = -1;
 
+    /**
+     * If not null, the directory in which the adjacency search spills its sepsets to disk.
+     */
+    private File sepsetSpillDirectory = null;
+
 
     //============================CONSTRUCTORS============================//
 
@@ -179,7 +187,9 @@ public final class Fci implements GraphSearch {
     }
 
     public Graph search() {
-        return search(new Fas(initialGraph, getIndependenceTest()));
+        Fas fas = new Fas(initialGraph, getIndependenceTest());
+        fas.setSepsetSpillDirectory(sepsetSpillDirectory);
+        return search(fas);
     }
 
     public void setInitialGraph(Graph initialGraph) {
@@ -198,7 +208,7 @@ public final class Fci implements GraphSearch {
 
         graph.reorientAllWith(Endpoint.CIRCLE);
 
-        SepsetProducer sp = new SepsetsPossibleDsep(graph, independenceTest, knowledge, depth, maxPathLength);
+        final SepsetProducer sp = new SepsetsPossibleDsep(graph, independenceTest, knowledge, depth, maxPathLength);
         sp.setVerbose(verbose);
 
         // The original FCI, with or without JiJi Zhang's orientation rules
@@ -207,11 +217,38 @@ public final class Fci implements GraphSearch {
 //            long time1 = System.currentTimeMillis();
             new FciOrient(new SepsetsSet(this.sepsets, independenceTest)).ruleR0(graph);
 
-            for (Edge edge : new ArrayList<>(graph.getEdges())) {
-                Node x = edge.getNode1();
-                Node y = edge.getNode2();
+            // The possible-D-sep sets are all taken from the graph as it is after R0, so the searches for the
+            // different edges are independent; the edges are removed afterward. The searches share the
+            // independence test, so they are done in parallel only if the test is thread-safe.
+            final List<Edge> edges = new ArrayList<>(graph.getEdges());
+            List<List<Node>> found;
+
+            if (independenceTest instanceof ThreadSafeIndependenceTest) {
+                List<Callable<List<Node>>> tasks = new ArrayList<>();
+
+                for (final Edge edge : edges) {
+                    tasks.add(new Callable<List<Node>>() {
+                        public List<Node> call() {
+                            ExecutionContext.current().checkCancelled();
+                            return sp.getSepset(edge.getNode1(), edge.getNode2());
+                        }
+                    });
+                }
+
+                found = ExecutionContext.current().invokeAll(tasks);
+            } else {
+                found = new ArrayList<>();
+
+                for (Edge edge : edges) {
+                    ExecutionContext.current().checkCancelled();
+                    found.add(sp.getSepset(edge.getNode1(), edge.getNode2()));
+                }
+            }
 
-                List<Node> sepset = sp.getSepset(x, y);
+            for (int i = 0; i < edges.size(); i++) {
+                Node x = edges.get(i).getNode1();
+                Node y = edges.get(i).getNode2();
+                List<Node> sepset = found.get(i);
 
                 if (sepset != null) {
                     graph.removeEdge(x, y);
@@ -332,6 +369,19 @@ public final class Fci implements GraphSearch {
         this.verbose = verbose;
     }
 
+    public File getSepsetSpillDirectory() {
+        return sepsetSpillDirectory;
+    }
+
+    /**
+     * Sets a directory in which the adjacency search keeps its sepsets on disk rather than in memory, for very large
+     * graphs, or null (the default) to keep them in memory. The sepsets are read from the file as the orientation
+     * rules need them, and the file stays until the map returned by getSepsets() is closed or garbage collected.
+     */
+    public void setSepsetSpillDirectory(File sepsetSpillDirectory) {
+        this.sepsetSpillDirectory = sepsetSpillDirectory;
+    }
+
     /**
      * The independence test.
      */
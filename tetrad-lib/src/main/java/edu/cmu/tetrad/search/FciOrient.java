@@ -23,6 +23,7 @@ package edu.cmu.tetrad.search;
 import edu.cmu.tetrad.data.IKnowledge;
 import edu.cmu.tetrad.data.Knowledge2;
 import edu.cmu.tetrad.data.KnowledgeEdge;
+import edu.cmu.tetrad.graph.Edge;
 import edu.cmu.tetrad.graph.Endpoint;
 import edu.cmu.tetrad.graph.Graph;
 import edu.cmu.tetrad.graph.Node;
@@ -682,6 +683,7 @@ public final class FciOrient {
         }
 
         List<Node> nodes = graph.getNodes();
+        DdpIndex index = new DdpIndex(graph);
 
         for (Node b : nodes) {
 
@@ -700,7 +702,7 @@ public final class FciOrient {
                         continue;
                     }
 
-                    ddpOrient(a, b, c, graph);
+                    ddpOrient(a, b, c, graph, index);
                 }
             }
         }
@@ -713,25 +715,30 @@ public final class FciOrient {
      * The body of a DDP consists of colliders that are parents of c.
      */
     public void ddpOrient(Node a, Node b, Node c, Graph graph) {
-        Queue<Node> Q = new ArrayDeque<Node>();
-        Set<Node> V = new HashSet<Node>();
+        ddpOrient(a, b, c, graph, new DdpIndex(graph));
+    }
 
-        Node e = null;
-        int distance = 0;
+    private void ddpOrient(Node a, Node b, Node c, Graph graph, DdpIndex index) {
+        int _a = index.id(a);
+        int _b = index.id(b);
+        int _c = index.id(c);
 
-        Map<Node, Node> previous = new HashMap<Node, Node>();
+        int[] cParents = index.parents(_c);
+        int[] cAdjacents = index.adjacents(_c);
 
-        List<Node> cParents = graph.getParents(c);
+        index.startSearch();
+        index.offer(_a);
+        index.visit(_a);
+        index.visit(_b);
+        index.setPrevious(_a, _b);
 
-        Q.offer(a);
-        V.add(a);
-        V.add(b);
-        previous.put(a, b);
+        int e = -1;
+        int distance = 0;
 
-        while (!Q.isEmpty()) {
-            Node t = Q.poll();
+        while (!index.isQueueEmpty()) {
+            int t = index.poll();
 
-            if (e == null || e == t) {
+            if (e == -1 || e == t) {
                 e = t;
                 distance++;
                 if (distance > 0 && distance > (maxPathLength == -1 ? 1000 : maxPathLength)) {
@@ -739,31 +746,32 @@ public final class FciOrient {
                 }
             }
 
-            final List<Node> nodesInTo = graph.getNodesInTo(t, Endpoint.ARROW);
+            int p = index.getPrevious(t);
 
-            for (Node d : nodesInTo) {
-                if (V.contains(d)) {
+            for (int d : index.into(t)) {
+                if (index.isVisited(d)) {
                     continue;
                 }
 
-                previous.put(d, t);
-                Node p = previous.get(t);
+                index.setPrevious(d, t);
 
-                if (!graph.isDefCollider(d, t, p)) {
+                // d *-> t is given; t is a definite collider if also p *-> t.
+                if (!index.isArrowAt(p, t)) {
                     continue;
                 }
 
-                previous.put(d, t);
-
-                if (!graph.isAdjacentTo(d, c)) {
-                    if (doDdpOrientation(d, a, b, c, previous, graph)) {
+                if (Arrays.binarySearch(cAdjacents, d) < 0) {
+                    if (doDdpOrientation(index.node(d), a, b, c, index.path(d), graph)) {
+                        index.reload(_a);
+                        index.reload(_b);
+                        index.reload(_c);
                         return;
                     }
                 }
 
-                if (cParents.contains(d)) {
-                    Q.offer(d);
-                    V.add(d);
+                if (Arrays.binarySearch(cParents, d) >= 0) {
+                    index.offer(d);
+                    index.visit(d);
                 }
             }
         }
@@ -773,7 +781,7 @@ public final class FciOrient {
      * Orients the edges inside the definte discriminating path triangle. Takes
      * the left endpoint, and a,b,c as arguments.
      */
-    private boolean doDdpOrientation(Node d, Node a, Node b, Node c, Map<Node, Node> previous, Graph graph) {
+    private boolean doDdpOrientation(Node d, Node a, Node b, Node c, List<Node> path, Graph graph) {
         if (dag != null) {
             if (dag.isAncestorOf(b, c)) {
                 graph.setEndpoint(c, b, Endpoint.TAIL);
@@ -799,8 +807,6 @@ public final class FciOrient {
             throw new IllegalArgumentException();
         }
 
-        List<Node> path = getPath(d, previous);
-
         boolean ind = getSepsets().isIndependent(d, c, path);
 
         List<Node> path2 = new ArrayList<Node>(path);
@@ -873,22 +879,6 @@ public final class FciOrient {
         }
     }
 
-    private List<Node> getPath(Node c, Map<Node, Node> previous) {
-        List<Node> l = new ArrayList<Node>();
-
-        Node p = c;
-
-        do {
-            p = previous.get(p);
-
-            if (p != null) {
-                l.add(p);
-            }
-        } while (p != null);
-
-        return l;
-    }
-
     /**
      * Implements Zhang's rule R5, orient circle undirectedPaths: for any Ao-oB,
      * if there is an uncovered circle path u =
@@ -1463,4 +1453,174 @@ public final class FciOrient {
         this.out = out;
     }
 
+
+    /**
+     * An int-indexed view of the arrowheads, parents and adjacents of the nodes of a graph for the discriminating path
+     * search of rule R4, with scratch space that is reused from one search to the next. Nodes are loaded from the
+     * graph the first time they are reached and reloaded after their edges are reoriented, so the graph may change
+     * between searches only through the orientations the search itself makes.
+     */
+    private static final class DdpIndex {
+        private final Graph graph;
+        private final Map<Node, Integer> ids = new HashMap<>();
+        private final List<Node> nodes = new ArrayList<>();
+
+        // For each node t, the nodes d with d *-> t in the order of graph.getNodesInTo(t, Endpoint.ARROW), and the
+        // same sorted; the parents of t, sorted; and the adjacents of t, sorted. Null until loaded.
+        private int[][] into = new int[16][];
+        private int[][] sortedInto = new int[16][];
+        private int[][] parents = new int[16][];
+        private int[][] adjacents = new int[16][];
+
+        // Search state, valid where the stamp matches the current search.
+        private int[] previous = new int[16];
+        private int[] previousStamp = new int[16];
+        private int[] visitedStamp = new int[16];
+        private int[] queue = new int[16];
+        private int head;
+        private int tail;
+        private int stamp = 0;
+
+        DdpIndex(Graph graph) {
+            this.graph = graph;
+        }
+
+        int id(Node node) {
+            Integer id = ids.get(node);
+
+            if (id == null) {
+                id = nodes.size();
+                ids.put(node, id);
+                nodes.add(node);
+
+                if (id == into.length) {
+                    int length = 2 * into.length;
+                    into = Arrays.copyOf(into, length);
+                    sortedInto = Arrays.copyOf(sortedInto, length);
+                    parents = Arrays.copyOf(parents, length);
+                    adjacents = Arrays.copyOf(adjacents, length);
+                    previous = Arrays.copyOf(previous, length);
+                    previousStamp = Arrays.copyOf(previousStamp, length);
+                    visitedStamp = Arrays.copyOf(visitedStamp, length);
+                    queue = Arrays.copyOf(queue, length);
+                }
+            }
+
+            return id;
+        }
+
+        Node node(int id) {
+            return nodes.get(id);
+        }
+
+        int[] into(int t) {
+            load(t);
+            return into[t];
+        }
+
+        int[] parents(int t) {
+            load(t);
+            return parents[t];
+        }
+
+        int[] adjacents(int t) {
+            load(t);
+            return adjacents[t];
+        }
+
+        boolean isArrowAt(int p, int t) {
+            load(t);
+            return Arrays.binarySearch(sortedInto[t], p) >= 0;
+        }
+
+        void reload(int t) {
+            into[t] = null;
+        }
+
+        void startSearch() {
+            stamp++;
+            head = 0;
+            tail = 0;
+        }
+
+        void offer(int v) {
+            queue[tail++] = v;
+        }
+
+        int poll() {
+            return queue[head++];
+        }
+
+        boolean isQueueEmpty() {
+            return head == tail;
+        }
+
+        void visit(int v) {
+            visitedStamp[v] = stamp;
+        }
+
+        boolean isVisited(int v) {
+            return visitedStamp[v] == stamp;
+        }
+
+        void setPrevious(int v, int p) {
+            previous[v] = p;
+            previousStamp[v] = stamp;
+        }
+
+        int getPrevious(int v) {
+            return previousStamp[v] == stamp ? previous[v] : -1;
+        }
+
+        /**
+         * The nodes from the predecessor of d back to the start of the search.
+         */
+        List<Node> path(int d) {
+            List<Node> path = new ArrayList<>();
+
+            for (int p = getPrevious(d); p != -1; p = getPrevious(p)) {
+                path.add(nodes.get(p));
+            }
+
+            return path;
+        }
+
+        private void load(int t) {
+            if (into[t] != null) {
+                return;
+            }
+
+            Node node = nodes.get(t);
+            List<Edge> edges = graph.getEdges(node);
+
+            int[] _into = new int[edges.size()];
+            int[] _parents = new int[edges.size()];
+            int[] _adjacents = new int[edges.size()];
+            int numInto = 0;
+            int numParents = 0;
+
+            for (int i = 0; i < edges.size(); i++) {
+                Edge edge = edges.get(i);
+                int other = id(edge.getDistalNode(node));
+
+                if (edge.getProximalEndpoint(node) == Endpoint.ARROW) {
+                    _into[numInto++] = other;
+
+                    if (edge.getDistalEndpoint(node) == Endpoint.TAIL) {
+                        _parents[numParents++] = other;
+                    }
+                }
+
+                _adjacents[i] = other;
+            }
+
+            into[t] = Arrays.copyOf(_into, numInto);
+            sortedInto[t] = Arrays.copyOf(_into, numInto);
+            Arrays.sort(sortedInto[t]);
+            parents[t] = Arrays.copyOf(_parents, numParents);
+            Arrays.sort(parents[t]);
+            Arrays.sort(_adjacents);
+            adjacents[t] = _adjacents;
+        }
+    }
 }
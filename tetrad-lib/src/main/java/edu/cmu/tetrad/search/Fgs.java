@@ -24,7 +24,7 @@ package edu.cmu.tetrad.search;
 import edu.cmu.tetrad.data.*;
 import edu.cmu.tetrad.graph.*;
 import edu.cmu.tetrad.util.ChoiceGenerator;
-import edu.cmu.tetrad.util.ForkJoinPoolInstance;
+import edu.cmu.tetrad.util.ExecutionContext;
 import edu.cmu.tetrad.util.TaskManager;
 import edu.cmu.tetrad.util.TetradLogger;
 
@@ -48,6 +48,9 @@ import java.util.concurrent.*;
  * heuristicSpeedup assumption needs to be explicitly turned on using setHeuristicSpeedup(true).
  * <p>
  * A number of other optimizations were added 5/2015. See code for details.
+ * <p>
+ * For very large numbers of variables the search can be set to be indexed, in which case the arrows and the
+ * neighborhoods they depend on are kept by variable index (see IndexedFgsSearch). The pattern found is the same.
  *
  * @author Ricardo Silva, Summer 2003
  * @author Joseph Ramsey, Revisions 5/2015
@@ -58,7 +61,7 @@ public final class Fgs implements GraphSearch, GraphScorer {
     /**
      * Internal.
      */
-    private enum Mode {
+    enum Mode {
         allowUnfaithfulness, heuristicSpeedup, coverNoncolliders
     }
 
@@ -67,6 +70,11 @@ public final class Fgs implements GraphSearch, GraphScorer {
      */
     private IKnowledge knowledge = new Knowledge2();
 
+    /**
+     * The knowledge compiled for the variables, rebuilt at the start of each search.
+     */
+    private CompiledKnowledge compiledKnowledge;
+
     /**
      * List of variables in the data set, in order.
      */
@@ -135,8 +143,8 @@ public final class Fgs implements GraphSearch, GraphScorer {
     // Map from variables to their column indices in the data set.
     private ConcurrentMap<Node, Integer> hashIndices;
 
-    // The static ForkJoinPool instance.
-    private ForkJoinPool pool = ForkJoinPoolInstance.getInstance().getPool();
+    // The context in which parallel work is done.
+    private ExecutionContext context = ExecutionContext.current();
 
     // A running tally of the total BIC totalScore.
     private double totalScore;
@@ -174,7 +182,13 @@ public final class Fgs implements GraphSearch, GraphScorer {
     // Bounds the degree of the graph.
     private int maxDegree = -1;
 
-    final int maxThreads = ForkJoinPoolInstance.getInstance().getPool().getParallelism();
+    private int maxThreads = context.getParallelism();
+
+    // True if the arrows should be kept by variable index; see IndexedFgsSearch.
+    private boolean indexed = false;
+
+    // The indexed bookkeeping of the current search, if indexed.
+    private IndexedFgsSearch index = null;
 
     //===========================CONSTRUCTORS=============================//
 
@@ -213,7 +227,10 @@ public final class Fgs implements GraphSearch, GraphScorer {
      * @return the resulting Pattern.
      */
     public Graph search() {
+        long start = System.currentTimeMillis();
+        totalScore = 0.0;
         topGraphs.clear();
+        removedEdges.clear();
 
         lookupArrows = new ConcurrentHashMap<>();
         final List<Node> nodes = new ArrayList<>(variables);
@@ -228,8 +245,13 @@ public final class Fgs implements GraphSearch, GraphScorer {
             graph = GraphUtils.replaceNodes(graph, nodes);
         }
 
+        compiledKnowledge = CompiledKnowledge.compile(knowledge, nodes);
         addRequiredEdges(graph);
 
+        if (indexed) {
+            index = new IndexedFgsSearch(this, score, getVariables(), graph, compiledKnowledge, boundGraph);
+        }
+
         if (faithfulnessAssumed) {
             initializeForwardEdgesFromEmptyGraph(getVariables());
 
@@ -256,8 +278,7 @@ public final class Fgs implements GraphSearch, GraphScorer {
             bes();
         }
 
-        long start = System.currentTimeMillis();
-        totalScore = 0.0;
+        index = null;
 
         long endTime = System.currentTimeMillis();
         this.elapsedTime = endTime - start;
@@ -417,10 +438,24 @@ public final class Fgs implements GraphSearch, GraphScorer {
     }
 
     /**
-     * Creates a new processors pool with the specified number of threads.
+     * Does parallel work in a shared context with the specified number of threads.
      */
     public void setParallelism(int numProcessors) {
-        this.pool = new ForkJoinPool(numProcessors);
+        setExecutionContext(ExecutionContext.withParallelism(numProcessors));
+    }
+
+    /**
+     * Sets the context in which parallel work is done. By default this is the context current when the
+     * search was constructed.
+     */
+    public void setExecutionContext(ExecutionContext context) {
+        if (context == null) throw new NullPointerException("Context must not be null.");
+        this.context = context;
+        this.maxThreads = context.getParallelism();
+    }
+
+    public ExecutionContext getExecutionContext() {
+        return context;
     }
 
     /**
@@ -472,6 +507,22 @@ public final class Fgs implements GraphSearch, GraphScorer {
         }
     }
 
+    /**
+     * @return true if the arrows are kept by variable index.
+     */
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * True if the arrows, and the neighborhoods they depend on, should be kept by variable index instead of by node,
+     * which for very large numbers of variables spends much less time hashing and collecting garbage. The pattern
+     * found is the same. False by default.
+     */
+    public void setIndexed(boolean indexed) {
+        this.indexed = indexed;
+    }
+
     /**
      * The maximum of parents any nodes can have in output pattern.
      * @return -1 for unlimited.
@@ -542,7 +593,7 @@ public final class Fgs implements GraphSearch, GraphScorer {
                     Node x = nodes.get(j);
 
                     if (existsKnowledge()) {
-                        if (getKnowledge().isForbidden(x.getName(), y.getName()) && getKnowledge().isForbidden(y.getName(), x.getName())) {
+                        if (compiledKnowledge.isForbidden(x, y) && compiledKnowledge.isForbidden(y, x)) {
                             continue;
                         }
 
@@ -578,6 +629,11 @@ public final class Fgs implements GraphSearch, GraphScorer {
     }
 
     private void initializeForwardEdgesFromEmptyGraph(final List<Node> nodes) {
+        if (index != null) {
+            index.initializeForwardEdgesFromEmptyGraph();
+            return;
+        }
+
 //        if (verbose) {
 //            System.out.println("heuristicSpeedup = true");
 //        }
@@ -628,7 +684,7 @@ public final class Fgs implements GraphSearch, GraphScorer {
             }
         }
 
-        pool.invoke(new InitializeFromEmptyGraphTask());
+        context.invoke(new InitializeFromEmptyGraphTask());
 
         long stop = System.currentTimeMillis();
 
@@ -638,6 +694,11 @@ public final class Fgs implements GraphSearch, GraphScorer {
     }
 
     private void initializeTwoStepEdges(final List<Node> nodes) {
+        if (index != null) {
+            index.initializeTwoStepEdges();
+            return;
+        }
+
 //        if (verbose) {
 //            System.out.println("heuristicSpeedup = false");
 //        }
@@ -708,7 +769,7 @@ public final class Fgs implements GraphSearch, GraphScorer {
                             if (x == y) throw new IllegalArgumentException();
 
                             if (existsKnowledge()) {
-                                if (getKnowledge().isForbidden(x.getName(), y.getName()) && getKnowledge().isForbidden(y.getName(), x.getName())) {
+                                if (compiledKnowledge.isForbidden(x, y) && compiledKnowledge.isForbidden(y, x)) {
                                     continue;
                                 }
 
@@ -745,10 +806,15 @@ public final class Fgs implements GraphSearch, GraphScorer {
             }
         }
 
-        pool.invoke(new InitializeFromExistingGraphTask(getMinChunk(nodes.size()), 0, nodes.size()));
+        context.invoke(new InitializeFromExistingGraphTask(getMinChunk(nodes.size()), 0, nodes.size()));
     }
 
     private void initializeForwardEdgesFromExistingGraph(final List<Node> nodes) {
+        if (index != null) {
+            index.initializeForwardEdgesFromExistingGraph();
+            return;
+        }
+
 //        if (verbose) {
 //            System.out.println("heuristicSpeedup = false");
 //        }
@@ -804,7 +870,7 @@ public final class Fgs implements GraphSearch, GraphScorer {
 
                         for (Node x : D) {
                             if (existsKnowledge()) {
-                                if (getKnowledge().isForbidden(x.getName(), y.getName()) && getKnowledge().isForbidden(y.getName(), x.getName())) {
+                                if (compiledKnowledge.isForbidden(x, y) && compiledKnowledge.isForbidden(y, x)) {
                                     continue;
                                 }
 
@@ -837,15 +903,21 @@ public final class Fgs implements GraphSearch, GraphScorer {
             }
         }
 
-        pool.invoke(new InitializeFromExistingGraphTask(getMinChunk(nodes.size()), 0, nodes.size()));
+        context.invoke(new InitializeFromExistingGraphTask(getMinChunk(nodes.size()), 0, nodes.size()));
     }
 
     private void fes() {
+        if (index != null) {
+            index.fes();
+            return;
+        }
+
         TetradLogger.getInstance().log("info", "** FORWARD EQUIVALENCE SEARCH");
 
         int maxDegree = this.maxDegree == -1 ? 1000 : this.maxDegree;
 
         while (!sortedArrows.isEmpty()) {
+            context.checkCancelled();
             Arrow arrow = sortedArrows.first();
             sortedArrows.remove(arrow);
 
@@ -877,8 +949,6 @@ public final class Fgs implements GraphSearch, GraphScorer {
             boolean inserted = insert(x, y, T, bump);
             if (!inserted) continue;
 
-            totalScore += bump;
-
             Set<Node> visited = reapplyOrientation(x, y, null);
             Set<Node> toProcess = new HashSet<>();
 
@@ -900,6 +970,11 @@ public final class Fgs implements GraphSearch, GraphScorer {
     }
 
     private void bes() {
+        if (index != null) {
+            index.bes();
+            return;
+        }
+
         TetradLogger.getInstance().log("info", "** BACKWARD EQUIVALENCE SEARCH");
 
         sortedArrows = new ConcurrentSkipListSet<>();
@@ -909,6 +984,7 @@ public final class Fgs implements GraphSearch, GraphScorer {
         initializeArrowsBackward();
 
         while (!sortedArrows.isEmpty()) {
+            context.checkCancelled();
             Arrow arrow = sortedArrows.first();
             sortedArrows.remove(arrow);
 
@@ -935,8 +1011,6 @@ public final class Fgs implements GraphSearch, GraphScorer {
             boolean deleted = delete(x, y, H, bump, arrow.getNaYX());
             if (!deleted) continue;
 
-            totalScore += bump;
-
             clearArrow(x, y);
 
             Set<Node> visited = reapplyOrientation(x, y, H);
@@ -994,7 +1068,7 @@ public final class Fgs implements GraphSearch, GraphScorer {
             Node y = edge.getNode2();
 
             if (existsKnowledge()) {
-                if (!getKnowledge().noEdgeRequired(x.getName(), y.getName())) {
+                if (!compiledKnowledge.noEdgeRequired(x, y)) {
                     continue;
                 }
             }
@@ -1099,7 +1173,7 @@ public final class Fgs implements GraphSearch, GraphScorer {
         }
 
         final AdjTask task = new AdjTask(getMinChunk(nodes.size()), new ArrayList<>(nodes), 0, nodes.size());
-        pool.invoke(task);
+        context.invoke(task);
     }
 
     // Calculates the new arrows for an a->b edge.
@@ -1111,7 +1185,7 @@ public final class Fgs implements GraphSearch, GraphScorer {
         if (a == b) throw new IllegalArgumentException();
 
         if (existsKnowledge()) {
-            if (getKnowledge().isForbidden(a.getName(), b.getName())) {
+            if (compiledKnowledge.isForbidden(a, b)) {
                 return;
             }
         }
@@ -1237,7 +1311,7 @@ public final class Fgs implements GraphSearch, GraphScorer {
         for (Node r : toProcess) {
             this.neighbors.put(r, getNeighbors(r));
             List<Node> adjacentNodes = graph.getAdjacentNodes(r);
-            pool.invoke(new BackwardTask(r, adjacentNodes, getMinChunk(adjacentNodes.size()), 0,
+            context.invoke(new BackwardTask(r, adjacentNodes, getMinChunk(adjacentNodes.size()), 0,
                     adjacentNodes.size(), hashIndices));
         }
     }
@@ -1245,7 +1319,7 @@ public final class Fgs implements GraphSearch, GraphScorer {
     // Calculates the arrows for the removal in the backward direction.
     private void calculateArrowsBackward(Node a, Node b) {
         if (existsKnowledge()) {
-            if (!getKnowledge().noEdgeRequired(a.getName(), b.getName())) {
+            if (!compiledKnowledge.noEdgeRequired(a, b)) {
                 return;
             }
         }
@@ -1285,6 +1359,10 @@ public final class Fgs implements GraphSearch, GraphScorer {
         return modelScore;
     }
 
+    Mode getMode() {
+        return mode;
+    }
+
     // Basic data structure for an arrow a->b considered for additiom or removal from the graph, together with
     // associated sets needed to make this determination. For both forward and backward direction, NaYX is needed.
     // For the forward direction, T neighbors are needed; for the backward direction, H neighbors are needed.
@@ -1413,8 +1491,8 @@ public final class Fgs implements GraphSearch, GraphScorer {
         return -scoreGraphChange(y, set, x, hashIndices);
     }
 
-    // Do an actual insertion. (Definition 12 from Chickering, 2002).
-    private boolean insert(Node x, Node y, Set<Node> T, double bump) {
+    // Do an actual insertion, adding its bump to the total score. (Definition 12 from Chickering, 2002).
+    boolean insert(Node x, Node y, Collection<Node> T, double bump) {
         if (graph.isAdjacentTo(x, y)) {
             return false; // The initial graph may already have put this edge in the graph.
         }
@@ -1464,13 +1542,14 @@ public final class Fgs implements GraphSearch, GraphScorer {
             }
         }
 
+        totalScore += bump;
         return true;
     }
 
     Set<Edge> removedEdges = new HashSet<>();
 
-    // Do an actual deletion (Definition 13 from Chickering, 2002).
-    private boolean delete(Node x, Node y, Set<Node> H, double bump, Set<Node> naYX) {
+    // Do an actual deletion, adding its bump to the total score. (Definition 13 from Chickering, 2002).
+    boolean delete(Node x, Node y, Collection<Node> H, double bump, Collection<Node> naYX) {
         Edge trueEdge = null;
 
         if (trueGraph != null) {
@@ -1530,6 +1609,7 @@ public final class Fgs implements GraphSearch, GraphScorer {
             }
         }
 
+        totalScore += bump;
         return true;
     }
 
@@ -1539,12 +1619,12 @@ public final class Fgs implements GraphSearch, GraphScorer {
         boolean violatesKnowledge = false;
 
         if (existsKnowledge()) {
-            if (knowledge.isForbidden(x.getName(), y.getName())) {
+            if (compiledKnowledge.isForbidden(x, y)) {
                 violatesKnowledge = true;
             }
 
             for (Node t : T) {
-                if (knowledge.isForbidden(t.getName(), y.getName())) {
+                if (compiledKnowledge.isForbidden(t, y)) {
                     violatesKnowledge = true;
                 }
             }
@@ -1562,11 +1642,11 @@ public final class Fgs implements GraphSearch, GraphScorer {
 
         if (existsKnowledge()) {
             for (Node h : H) {
-                if (knowledge.isForbidden(x.getName(), h.getName())) {
+                if (compiledKnowledge.isForbidden(x, h)) {
                     violatesKnowledge = true;
                 }
 
-                if (knowledge.isForbidden(y.getName(), h.getName())) {
+                if (compiledKnowledge.isForbidden(y, h)) {
                     violatesKnowledge = true;
                 }
             }
@@ -1594,10 +1674,7 @@ public final class Fgs implements GraphSearch, GraphScorer {
             }
         }
         for (Edge edge : graph.getEdges()) {
-            final String A = edge.getNode1().getName();
-            final String B = edge.getNode2().getName();
-
-            if (knowledge.isForbidden(A, B)) {
+            if (compiledKnowledge.isForbidden(edge.getNode1(), edge.getNode2())) {
                 Node nodeA = edge.getNode1();
                 Node nodeB = edge.getNode2();
                 if (nodeA == null || nodeB == null) throw new NullPointerException();
@@ -1610,14 +1687,14 @@ public final class Fgs implements GraphSearch, GraphScorer {
                     }
                 }
 
-                if (!graph.isChildOf(nodeA, nodeB) && getKnowledge().isForbidden(nodeA.getName(), nodeB.getName())) {
+                if (!graph.isChildOf(nodeA, nodeB) && compiledKnowledge.isForbidden(nodeA, nodeB)) {
                     if (!graph.isAncestorOf(nodeA, nodeB)) {
                         graph.removeEdges(nodeA, nodeB);
                         graph.addDirectedEdge(nodeB, nodeA);
                         TetradLogger.getInstance().log("insertedEdges", "Adding edge by knowledge: " + graph.getEdge(nodeB, nodeA));
                     }
                 }
-            } else if (knowledge.isForbidden(B, A)) {
+            } else if (compiledKnowledge.isForbidden(edge.getNode2(), edge.getNode1())) {
                 Node nodeA = edge.getNode2();
                 Node nodeB = edge.getNode1();
                 if (nodeA == null || nodeB == null) throw new NullPointerException();
@@ -1629,7 +1706,7 @@ public final class Fgs implements GraphSearch, GraphScorer {
                         TetradLogger.getInstance().log("insertedEdges", "Adding edge by knowledge: " + graph.getEdge(nodeB, nodeA));
                     }
                 }
-                if (!graph.isChildOf(nodeA, nodeB) && getKnowledge().isForbidden(nodeA.getName(), nodeB.getName())) {
+                if (!graph.isChildOf(nodeA, nodeB) && compiledKnowledge.isForbidden(nodeA, nodeB)) {
                     if (!graph.isAncestorOf(nodeA, nodeB)) {
                         graph.removeEdges(nodeA, nodeB);
                         graph.addDirectedEdge(nodeB, nodeA);
@@ -1645,7 +1722,7 @@ public final class Fgs implements GraphSearch, GraphScorer {
     // forbidden.
     private boolean validSetByKnowledge(Node y, Set<Node> subset) {
         for (Node node : subset) {
-            if (getKnowledge().isForbidden(node.getName(), y.getName())) {
+            if (compiledKnowledge.isForbidden(node, y)) {
                 return false;
             }
         }
@@ -1752,9 +1829,10 @@ public final class Fgs implements GraphSearch, GraphScorer {
     }
 
     // Runs Meek rules on just the changed adj.
-    private Set<Node> meekOrientRestricted(List<Node> nodes, IKnowledge knowledge) {
+    Set<Node> meekOrientRestricted(List<Node> nodes, IKnowledge knowledge) {
         MeekRules rules = new MeekRules();
         rules.setKnowledge(knowledge);
+        rules.setCompiledKnowledge(compiledKnowledge);
         rules.setUndirectUnforcedEdges(true);
         rules.orientImplied(graph, nodes);
         return rules.getVisited();
@@ -1847,7 +1925,7 @@ public final class Fgs implements GraphSearch, GraphScorer {
     }
 
     // Stores the graph, if its totalScore knocks out one of the top ones.
-    private void storeGraph() {
+    void storeGraph() {
         if (getNumPatternsToStore() > 0) {
             Graph graphCopy = new EdgeListGraphSingleConnections(graph);
             topGraphs.addLast(new ScoredGraph(graphCopy, totalScore));
@@ -26,6 +26,7 @@ import edu.cmu.tetrad.data.Knowledge2;
 import edu.cmu.tetrad.data.KnowledgeEdge;
 import edu.cmu.tetrad.graph.*;
 import edu.cmu.tetrad.util.ChoiceGenerator;
+import edu.cmu.tetrad.util.ExecutionContext;
 import edu.cmu.tetrad.util.ForkJoinPoolInstance;
 import edu.cmu.tetrad.util.TaskManager;
 import edu.cmu.tetrad.util.TetradLogger;
@@ -631,10 +632,10 @@ public final class FgsMb2 {
     }
 
     /**
-     * Creates a new processors pool with the specified number of threads.
+     * Uses a shared pool with the specified number of threads.
      */
     public void setParallelism(int numProcessors) {
-        this.pool = new ForkJoinPool(numProcessors);
+        this.pool = ExecutionContext.withParallelism(numProcessors).getPool();
     }
 
     /**
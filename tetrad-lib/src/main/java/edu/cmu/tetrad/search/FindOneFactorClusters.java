@@ -27,6 +27,8 @@ import edu.cmu.tetrad.sem.*;
 import edu.cmu.tetrad.util.*;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.lang.Math.abs;
 import static java.lang.Math.sqrt;
@@ -75,6 +77,12 @@ public class FindOneFactorClusters {
     private boolean significanceCalculated = false;
     private Algorithm algorithm = Algorithm.GAP;
 
+    // Tetrad p values by pairing of variables; see tetradPValue.
+    private final Map<Long, Double> pValues = new ConcurrentHashMap<>();
+
+    // The most p values that will be memoized.
+    private static final int MAX_CACHED_P_VALUES = 1 << 22;
+
     //========================================PUBLIC METHODS====================================//
 
     public FindOneFactorClusters(ICovarianceMatrix cov, TestType testType, Algorithm algorithm, double alpha) {
@@ -263,51 +271,71 @@ public class FindOneFactorClusters {
 
     }
 
-    private Set<Set<Integer>> findPuretriples(List<Integer> allVariables) {
+    // The triples are enumerated in parallel, one task for each first variable, and the pure triples found are added
+    // in the order of the serial enumeration, so that the result doesn't depend on the number of threads.
+    private Set<Set<Integer>> findPuretriples(final List<Integer> allVariables) {
         if (allVariables.size() < 4) {
             return new HashSet<>();
         }
 
         log("Finding pure triples.", true);
 
-        ChoiceGenerator gen = new ChoiceGenerator(allVariables.size(), 3);
-        int[] choice;
-        Set<Set<Integer>> puretriples = new HashSet<>();
-        CHOICE:
-        while ((choice = gen.next()) != null) {
-            int n1 = allVariables.get(choice[0]);
-            int n2 = allVariables.get(choice[1]);
-            int n3 = allVariables.get(choice[2]);
-
-            List<Integer> triple = triple(n1, n2, n3);
+        List<Callable<List<List<Integer>>>> tasks = new ArrayList<>();
 
-            if (zeroCorr(triple)) continue;
+        for (int i = 0; i < allVariables.size() - 2; i++) {
+            final int c0 = i;
 
-            for (int o : allVariables) {
-                if (triple.contains(o)) {
-                    continue;
+            tasks.add(new Callable<List<List<Integer>>>() {
+                public List<List<Integer>> call() {
+                    return findPuretriples(allVariables, c0);
                 }
+            });
+        }
 
-                List<Integer> quartet = quartet(n1, n2, n3, o);
-
-                boolean vanishes = vanishes(quartet);
+        Set<Set<Integer>> puretriples = new HashSet<>();
 
-                if (!vanishes) {
-                    continue CHOICE;
+        for (List<List<Integer>> found : ExecutionContext.current().invokeAll(tasks)) {
+            for (List<Integer> triple : found) {
+                if (verbose) {
+                    log("++" + variablesForIndices(triple), false);
                 }
 
-//                if (!(avgSumLnP(quartet) > -20)) {
-//                    continue CHOICE;
-//                }
+                puretriples.add(new HashSet<>(triple));
             }
+        }
 
-            HashSet<Integer> _cluster = new HashSet<>(triple);
+        return puretriples;
+    }
 
-            if (verbose) {
-                log("++" + variablesForIndices(triple), false);
-            }
+    // The pure triples whose first variable is allVariables.get(c0), in order.
+    private List<List<Integer>> findPuretriples(List<Integer> allVariables, int c0) {
+        List<List<Integer>> puretriples = new ArrayList<>();
+        int n1 = allVariables.get(c0);
+
+        for (int c1 = c0 + 1; c1 < allVariables.size(); c1++) {
+            ExecutionContext.current().checkCancelled();
 
-            puretriples.add(_cluster);
+            CHOICE:
+            for (int c2 = c1 + 1; c2 < allVariables.size(); c2++) {
+                int n2 = allVariables.get(c1);
+                int n3 = allVariables.get(c2);
+
+                List<Integer> triple = triple(n1, n2, n3);
+
+                if (zeroCorr(triple)) continue;
+
+                for (int o : allVariables) {
+                    if (triple.contains(o)) {
+                        continue;
+                    }
+
+                    if (!vanishes(n1, n2, n3, o)) {
+                        continue CHOICE;
+                    }
+                }
+
+                puretriples.add(triple);
+            }
         }
 
         return puretriples;
@@ -1089,13 +1117,54 @@ public class FindOneFactorClusters {
     }
 
     private boolean vanishes(int x, int y, int z, int w) {
+        return tetradPValue(x, y, z, w) > alpha;
+    }
+
+    // The p value of the tetrads of the pairing {x, y}, {z, w}. The same pairings come up again and again, so the p
+    // values are memoized by the pairing, and each is computed with the variables in a canonical order.
+    private double tetradPValue(int x, int y, int z, int w) {
+        int a = Math.min(x, y), b = Math.max(x, y);
+        int c = Math.min(z, w), d = Math.max(z, w);
+
+        if (a > c) {
+            int t = a;
+            a = c;
+            c = t;
+            t = b;
+            b = d;
+            d = t;
+        }
+
+        if (variables.size() > 0xFFFF) {
+            return computeTetradPValue(a, b, c, d);
+        }
+
+        long key = ((long) a << 48) | ((long) b << 32) | ((long) c << 16) | d;
+        Double p = pValues.get(key);
+
+        if (p == null) {
+            p = computeTetradPValue(a, b, c, d);
+
+            if (pValues.size() < MAX_CACHED_P_VALUES) {
+                pValues.put(key, p);
+            }
+        }
+
+        return p;
+    }
+
+    private double computeTetradPValue(int x, int y, int z, int w) {
         if (testType == TestType.TETRAD_DELTA) {
             Tetrad t1 = new Tetrad(variables.get(x), variables.get(y), variables.get(z), variables.get(w));
             Tetrad t2 = new Tetrad(variables.get(x), variables.get(y), variables.get(w), variables.get(z));
 
-            return test.getPValue(t1, t2) > alpha;
+            return test.getPValue(t1, t2);
         } else if (testType == TestType.TETRAD_WISHART) {
-            return test2.tetradPValue(x, y, z, w) > alpha && test2.tetradPValue(x, y, w, z) > alpha;
+
+            // The Wishart test keeps the results of the last test in fields.
+            synchronized (test2) {
+                return Math.min(test2.tetradPValue(x, y, z, w), test2.tetradPValue(x, y, w, z));
+            }
         }
 
         throw new IllegalArgumentException("Only the delta and wishart tests are being used: " + testType);
@@ -0,0 +1,166 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.search;
+
+import edu.cmu.tetrad.util.ExecutionContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Scores a family in each of the data sets of an IMaGES score, in parallel. The data sets are split
+ * into contiguous runs, one task per run, and the scores are written into an array in data set order,
+ * so that the averages taken from them are the same whether or not the scoring was done in parallel.
+ *
+ * @author Joseph Ramsey
+ */
+final class ImagesScoring {
+
+    // The smallest number of data sets given to a task; with fewer than twice this many data sets,
+    // scoring is done in the calling thread.
+    static final int MIN_DATA_SETS_PER_TASK = 4;
+
+    // The scores of the individual data sets.
+    private final List<? extends Score> scores;
+
+    // True if the data sets should be scored in parallel.
+    private boolean parallel = true;
+
+    ImagesScoring(List<? extends Score> scores) {
+        this.scores = scores;
+    }
+
+    double[] localScores(final int i, final int[] parents) {
+        return scores(new Family() {
+            public double score(Score score) {
+                return score.localScore(i, parents);
+            }
+        });
+    }
+
+    double[] localScores(final int i, final int parent) {
+        return scores(new Family() {
+            public double score(Score score) {
+                return score.localScore(i, parent);
+            }
+        });
+    }
+
+    double[] localScores(final int i) {
+        return scores(new Family() {
+            public double score(Score score) {
+                return score.localScore(i);
+            }
+        });
+    }
+
+    double[] localScoreDiffs(final int x, final int y, final int[] z) {
+        return scores(new Family() {
+            public double score(Score score) {
+                return score.localScoreDiff(x, y, z);
+            }
+        });
+    }
+
+    boolean isParallel() {
+        return parallel;
+    }
+
+    void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * @return The average of the scores that are not NaN.
+     */
+    static double averageOfDefined(double[] scores) {
+        double sum = 0.0;
+        int count = 0;
+
+        for (double score : scores) {
+            if (!Double.isNaN(score)) {
+                sum += score;
+                count++;
+            }
+        }
+
+        return sum / count;
+    }
+
+    /**
+     * @return The average of all of the scores.
+     */
+    static double average(double[] scores) {
+        double sum = 0.0;
+
+        for (double score : scores) {
+            sum += score;
+        }
+
+        return sum / scores.length;
+    }
+
+    //========================PRIVATE METHODS============================//
+
+    private interface Family {
+        double score(Score score);
+    }
+
+    private double[] scores(final Family family) {
+        final double[] result = new double[scores.size()];
+        int numTasks = 1;
+
+        if (parallel) {
+            ExecutionContext context = ExecutionContext.current();
+            numTasks = Math.min(context.getParallelism(), result.length / MIN_DATA_SETS_PER_TASK);
+        }
+
+        if (numTasks <= 1) {
+            for (int k = 0; k < result.length; k++) {
+                result[k] = family.score(scores.get(k));
+            }
+
+            return result;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+
+        for (int t = 0; t < numTasks; t++) {
+            final int from = (int) ((long) t * result.length / numTasks);
+            final int to = (int) ((long) (t + 1) * result.length / numTasks);
+
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    for (int k = from; k < to; k++) {
+                        result[k] = family.score(scores.get(k));
+                    }
+
+                    return null;
+                }
+            });
+        }
+
+        ExecutionContext.current().invokeAll(tasks);
+        return result;
+    }
+}
@@ -401,6 +401,11 @@ public final class IndTestChiSquare implements IndependenceTest {
         return -(getPValue() - getAlpha());
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     public void startRecordingFacts() {
         this.facts = new HashSet<>();
 
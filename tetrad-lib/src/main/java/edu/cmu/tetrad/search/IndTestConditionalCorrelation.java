@@ -271,6 +271,11 @@ public final class IndTestConditionalCorrelation implements IndependenceTest {
         return cci.getScore();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     /**
      * @return a string representation of this test.
      */
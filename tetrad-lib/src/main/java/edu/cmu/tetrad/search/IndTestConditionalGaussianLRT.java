@@ -212,6 +212,11 @@ public class IndTestConditionalGaussianLRT implements IndependenceTest {
         return getPValue();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     /**
      * @return a string representation of this test.
      */
@@ -403,6 +403,11 @@ public final class IndTestCorrelationT implements IndependenceTest {
         return -(getPValue() - getAlpha());
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     public TDistribution gettDistribution() {
         return tDistribution;
     }
@@ -387,6 +387,11 @@ public final class IndTestCramerT implements IndependenceTest {
         return -(getPValue() - getAlpha());
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     /**
      * @return the list of variable names
      */
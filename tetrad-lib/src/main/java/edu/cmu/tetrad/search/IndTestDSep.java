@@ -23,6 +23,7 @@ package edu.cmu.tetrad.search;
 
 import edu.cmu.tetrad.data.DataSet;
 import edu.cmu.tetrad.data.ICovarianceMatrix;
+import edu.cmu.tetrad.graph.DSeparationOracle;
 import edu.cmu.tetrad.graph.Graph;
 import edu.cmu.tetrad.graph.IndependenceFact;
 import edu.cmu.tetrad.graph.Node;
@@ -45,6 +46,11 @@ public class IndTestDSep implements IndependenceTest {
      */
     private Graph graph;
 
+    /**
+     * Answers the d-separation queries; compiled from the graph on first use.
+     */
+    private volatile DSeparationOracle oracle;
+
     /**
      * The list of observed variables (i.e. variables for observed nodes).
      */
@@ -153,7 +159,7 @@ public class IndTestDSep implements IndependenceTest {
             }
         }
 
-        boolean dSeparated = !getGraph().isDConnectedTo(x, y, z);
+        boolean dSeparated = getOracle().isDSeparated(x, y, z);
 
         if (verbose) {
             if (dSeparated) {
@@ -208,7 +214,7 @@ public class IndTestDSep implements IndependenceTest {
             }
         }
 
-        return getGraph().isDSeparatedFrom(x, y, z);
+        return getOracle().isDSeparated(x, y, z);
     }
 
     /**
@@ -267,6 +273,26 @@ public class IndTestDSep implements IndependenceTest {
         return this.graph;
     }
 
+    /**
+     * @return the d-separation oracle for the graph. The graph should not be changed once queries
+     * have been made.
+     */
+    public DSeparationOracle getOracle() {
+        DSeparationOracle oracle = this.oracle;
+
+        if (oracle == null) {
+            synchronized (this) {
+                if (this.oracle == null) {
+                    this.oracle = new DSeparationOracle(graph);
+                }
+
+                oracle = this.oracle;
+            }
+        }
+
+        return oracle;
+    }
+
     public String toString() {
         return "D-separation";
     }
@@ -300,6 +326,11 @@ public class IndTestDSep implements IndependenceTest {
         return getPValue() == 1 ? -1 : 1;
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     public void startRecordingFacts() {
         this.facts = new HashSet<>();
     }
@@ -421,6 +421,11 @@ public class IndTestDSepDiminishingPathStrengths implements IndependenceTest {
         return -(getPValue() - getAlpha());
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     public void startRecordingFacts() {
         this.facts = new HashSet<>();
     }
@@ -303,6 +303,11 @@ public final class IndTestDirichletScore implements IndependenceTest {
         return this.bump;
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     public double getSamplePrior() {
         return samplePrior;
     }
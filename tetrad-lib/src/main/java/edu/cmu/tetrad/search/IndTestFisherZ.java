@@ -40,7 +40,7 @@ import static java.lang.Math.abs;
  * @author Joseph Ramsey
  * @author Frank Wimberly adapted IndTestCramerT for Fisher's Z
  */
-public final class IndTestFisherZ implements IndependenceTest {
+public final class IndTestFisherZ implements ThreadSafeIndependenceTest {
 
     /**
      * The covariance matrix.
@@ -84,6 +84,11 @@ public final class IndTestFisherZ implements IndependenceTest {
     private double fisherZ = Double.NaN;
     private double cutoff = Double.NaN;
 
+    /**
+     * Partial correlations already calculated, or null if results are not being cached.
+     */
+    private PartialCorrelationCache cache = null;
+
     //==========================CONSTRUCTORS=============================//
 
     /**
@@ -225,16 +230,39 @@ public final class IndTestFisherZ implements IndependenceTest {
     }
 
     private double partialCorrelation(Node x, Node y, List<Node> z) {
-        if (z.isEmpty()) {
-            double a = covMatrix.getValue(indexMap.get(x), indexMap.get(y));
-            double b = covMatrix.getValue(indexMap.get(x), indexMap.get(x));
-            double c = covMatrix.getValue(indexMap.get(y), indexMap.get(y));
+        int _x = indexMap.get(x);
+        int _y = indexMap.get(y);
+
+        int[] _z = new int[z.size()];
+        for (int i = 0; i < z.size(); i++) _z[i] = indexMap.get(z.get(i));
+
+        PartialCorrelationCache cache = this.cache;
+
+        if (cache != null) {
+            double r = cache.get(_x, _y, _z);
+            if (!Double.isNaN(r)) return r;
+        }
+
+        double r = partialCorrelation(_x, _y, _z);
+
+        if (cache != null && !Double.isNaN(r)) {
+            cache.put(_x, _y, _z, r);
+        }
+
+        return r;
+    }
+
+    private double partialCorrelation(int x, int y, int[] z) {
+        if (z.length == 0) {
+            double a = covMatrix.getValue(x, y);
+            double b = covMatrix.getValue(x, x);
+            double c = covMatrix.getValue(y, y);
             return -a / Math.sqrt(b * c);
         } else {
-            int[] indices = new int[z.size() + 2];
-            indices[0] = indexMap.get(x);
-            indices[1] = indexMap.get(y);
-            for (int i = 0; i < z.size(); i++) indices[i + 2] = indexMap.get(z.get(i));
+            int[] indices = new int[z.length + 2];
+            indices[0] = x;
+            indices[1] = y;
+            System.arraycopy(z, 0, indices, 2, z.length);
             TetradMatrix submatrix = covMatrix.getSubmatrix(indices).getMatrix();
             return StatUtils.partialCorrelation(submatrix);
         }
@@ -363,6 +391,34 @@ public final class IndTestFisherZ implements IndependenceTest {
         return "Fisher Z, alpha = " + new DecimalFormat("0.0E0").format(getAlpha());
     }
 
+    /**
+     * Turns on caching of partial correlations, so that repeated questions about the same pair of variables
+     * and conditioning set (in any order) are answered without another matrix inversion. Least recently used
+     * results are dropped once the cache uses about the given number of bytes. A budget of zero turns caching
+     * off. Any previously cached results are discarded.
+     *
+     * @param maxBytes The approximate maximum number of bytes to use for cached results.
+     */
+    public void setCacheBudget(long maxBytes) {
+        if (maxBytes < 0) throw new IllegalArgumentException("Byte budget must be non-negative: " + maxBytes);
+        this.cache = maxBytes == 0 ? null : new PartialCorrelationCache(maxBytes);
+    }
+
+    /**
+     * @return the cache of partial correlations, or null if results are not being cached.
+     */
+    public PartialCorrelationCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return the fraction of partial correlations taken from the cache, or NaN if results are not being
+     * cached or no tests have been done.
+     */
+    public double getCacheHitRate() {
+        return cache == null ? Double.NaN : cache.getHitRate();
+    }
+
     public void setPValueLogger(PrintStream pValueLogger) {
         this.pValueLogger = pValueLogger;
     }
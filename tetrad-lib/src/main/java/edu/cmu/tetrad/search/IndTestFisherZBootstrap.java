@@ -209,6 +209,11 @@ public class IndTestFisherZBootstrap implements IndependenceTest {
         return -(getPValue() - getAlpha());
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     public boolean isVerbose() {
         return verbose;
     }
@@ -350,6 +350,11 @@ public final class IndTestFisherZConcatenateResiduals implements IndependenceTes
         return -(getPValue() - getAlpha());
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
 
     /**
      * @return a string representation of this test.
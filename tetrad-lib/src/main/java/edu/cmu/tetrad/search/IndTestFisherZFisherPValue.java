@@ -298,6 +298,11 @@ public final class IndTestFisherZFisherPValue implements IndependenceTest {
         return getPValue();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     /**
      * @return a string representation of this test.
      */
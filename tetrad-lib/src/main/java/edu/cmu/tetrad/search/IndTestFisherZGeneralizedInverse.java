@@ -479,6 +479,11 @@ public final class IndTestFisherZGeneralizedInverse implements IndependenceTest
         return getPValue();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     public boolean isVerbose() {
         return verbose;
     }
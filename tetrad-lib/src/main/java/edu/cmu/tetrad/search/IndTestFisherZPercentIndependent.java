@@ -272,6 +272,11 @@ public final class IndTestFisherZPercentIndependent implements IndependenceTest
         return getPValue();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     /**
      * @return a string representation of this test.
      */
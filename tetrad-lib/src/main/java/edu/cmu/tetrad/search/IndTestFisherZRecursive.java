@@ -454,6 +454,11 @@ public final class IndTestFisherZRecursive implements IndependenceTest {
         return getPValue();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     public boolean isVerbose() {
         return verbose;
     }
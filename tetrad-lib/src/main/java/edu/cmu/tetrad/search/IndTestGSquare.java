@@ -397,6 +397,11 @@ public final class IndTestGSquare implements IndependenceTest {
         return getPValue();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
 }
 
 
@@ -29,15 +29,20 @@ import edu.cmu.tetrad.graph.Node;
 import edu.cmu.tetrad.search.kernel.Kernel;
 import edu.cmu.tetrad.search.kernel.KernelGaussian;
 import edu.cmu.tetrad.search.kernel.KernelUtils;
+import edu.cmu.tetrad.util.ExecutionContext;
 import edu.cmu.tetrad.util.NumberFormatUtil;
+import edu.cmu.tetrad.util.RandomUtil;
 import edu.cmu.tetrad.util.TetradLogger;
 import edu.cmu.tetrad.util.TetradMatrix;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well44497b;
 
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * Checks the conditional independence X _||_ Y | S, where S is a set of continuous variable, and X and Y are discrete
@@ -69,6 +74,11 @@ public final class IndTestHsic implements IndependenceTest {
      */
     private double hsic;
 
+    /**
+     * The number of permutations done between checks of whether the decision is settled.
+     */
+    private static final int PERMUTATION_BATCH = 20;
+
     /**
      * Formats as 0.0000.
      */
@@ -185,135 +195,48 @@ public final class IndTestHsic implements IndependenceTest {
         }
 
         // consruct Gram matricces
-        TetradMatrix Ky = null;
-        TetradMatrix Kx = null;
-        TetradMatrix Kz = null;
+        HsicStatistic statistic;
         // use incomplete Cholesky to approximate
         if (useIncompleteCholesky > 0) {
-            Ky = KernelUtils.incompleteCholeskyGramMatrix(Arrays.asList(yKernel), this.dataSet, Arrays.asList(y), useIncompleteCholesky);
-            Kx = KernelUtils.incompleteCholeskyGramMatrix(Arrays.asList(xKernel), this.dataSet, Arrays.asList(x), useIncompleteCholesky);
+            TetradMatrix Gy = KernelUtils.incompleteCholeskyGramMatrix(Arrays.asList(yKernel), this.dataSet, Arrays.asList(y), useIncompleteCholesky);
+            TetradMatrix Gx = KernelUtils.incompleteCholeskyGramMatrix(Arrays.asList(xKernel), this.dataSet, Arrays.asList(x), useIncompleteCholesky);
+            TetradMatrix Gz = null;
             if (!z.isEmpty()) {
-                Kz = KernelUtils.incompleteCholeskyGramMatrix(zKernel, this.dataSet, z, useIncompleteCholesky);
+                Gz = KernelUtils.incompleteCholeskyGramMatrix(zKernel, this.dataSet, z, useIncompleteCholesky);
             }
+            statistic = new CholeskyStatistic(Gy, Gx, Gz);
         }
         // otherwise compute directly
         else {
-            Ky = KernelUtils.constructCentralizedGramMatrix(Arrays.asList(yKernel), this.dataSet, Arrays.asList(y));
-            Kx = KernelUtils.constructCentralizedGramMatrix(Arrays.asList(xKernel), this.dataSet, Arrays.asList(x));
+            TetradMatrix Ky = KernelUtils.constructCentralizedGramMatrix(Arrays.asList(yKernel), this.dataSet, Arrays.asList(y));
+            TetradMatrix Kx = KernelUtils.constructCentralizedGramMatrix(Arrays.asList(xKernel), this.dataSet, Arrays.asList(x));
+            TetradMatrix Kz = null;
             if (!z.isEmpty()) {
                 Kz = KernelUtils.constructCentralizedGramMatrix(zKernel, this.dataSet, z);
             }
+            statistic = new GramStatistic(Ky, Kx, Kz);
         }
 
         // get Hilbert-Schmidt dependence measure
-        if (z.isEmpty()) {
-            if (useIncompleteCholesky > 0) {
-                this.hsic = empiricalHSICincompleteCholesky(Ky, Kx, m);
-            } else {
-                this.hsic = empiricalHSIC(Ky, Kx, m);
-            }
-        } else {
-            if (useIncompleteCholesky > 0) {
-                this.hsic = empiricalHSICincompleteCholesky(Ky, Kx, Kz, m);
-            } else {
-                this.hsic = empiricalHSIC(Ky, Kx, Kz, m);
-            }
-        }
+        this.hsic = statistic.value(identity(m));
 
-        // shuffle data for approximate the null distribution
-        double[] nullapprox = new double[this.perms];
-        int[] zind = null;
-        int ycol = this.dataSet.getColumn(y);
-        List<List<Integer>> clusterAssign = null;
+        // the null distribution permutes y, within clusters of z if there is a z
+        int[][] clusters = null;
         if (!z.isEmpty()) {
-            // get clusters for z
             KMeans kmeans = KMeans.randomClusters((m / 3));
-            zind = new int[z.size()];
-            for (int j = 0; j < z.size(); j++) {
-                zind[j] = dataSet.getColumn(z.get(j));
-            }
             kmeans.cluster(dataSet.subsetColumns(z).getDoubleData());
-            clusterAssign = kmeans.getClusters();
-        }
-        for (int i = 0; i < this.perms; i++) {
-            DataSet shuffleData = new ColtDataSet((ColtDataSet) dataSet);
-            // shuffle data
-            if (z.isEmpty()) {
-                List<Integer> indicesList = new ArrayList<>();
-                for (int j = 0; j < m; j++) {
-                    indicesList.add(j);
-                }
-                Collections.shuffle(indicesList);
-                for (int j = 0; j < m; j++) {
-                    double shuffleVal = dataSet.getDouble(indicesList.get(j), ycol);
-                    shuffleData.setDouble(j, ycol, shuffleVal);
-                }
-            } else {
-                // shuffle data within clusters
-                for (int j = 0; j < clusterAssign.size(); j++) {
-                    List<Integer> shuffleCluster = new ArrayList<>(clusterAssign.get(j));
-
-                    Collections.shuffle(shuffleCluster);
-
-                    for (int k = 0; k < shuffleCluster.size(); k++) {
-                        // first swap y;
-                        double swapVal = dataSet.getDouble(clusterAssign.get(j).get(k), ycol);
-                        shuffleData.setDouble(shuffleCluster.get(k), ycol, swapVal);
-                        // now swap z
-                        for (int zi = 0; zi < z.size(); zi++) {
-                            swapVal = dataSet.getDouble(clusterAssign.get(j).get(k), zind[zi]);
-                            shuffleData.setDouble(shuffleCluster.get(k), zind[zi], swapVal);
-                        }
-                    }
-                }
-            }
-            // reset bandwidths
-            yKernel.setDefaultBw(shuffleData, y);
-            for (int j = 0; j < z.size(); j++) {
-                zKernel.get(j).setDefaultBw(shuffleData, z.get(j));
-            }
-            // Gram matrices
-            TetradMatrix Kyn = null;
-            if (useIncompleteCholesky > 0) {
-                Kyn = KernelUtils.incompleteCholeskyGramMatrix(Arrays.asList(yKernel), shuffleData, Arrays.asList(y), useIncompleteCholesky);
-            } else {
-                Kyn = KernelUtils.constructCentralizedGramMatrix(Arrays.asList(yKernel), shuffleData, Arrays.asList(y));
-
-            }
-            TetradMatrix Kzn = null;
-            if (!z.isEmpty()) {
-                if (useIncompleteCholesky > 0) {
-                    Kzn = KernelUtils.incompleteCholeskyGramMatrix(zKernel, shuffleData, z, useIncompleteCholesky);
-                } else {
-                    Kzn = KernelUtils.constructCentralizedGramMatrix(zKernel, shuffleData, z);
-                }
-            }
-            // HSIC
-            if (z.isEmpty()) {
-                if (useIncompleteCholesky > 0) {
-                    nullapprox[i] = empiricalHSICincompleteCholesky(Kyn, Kx, m);
-                } else {
-                    nullapprox[i] = empiricalHSIC(Kyn, Kx, m);
-                }
-            } else {
-                if (useIncompleteCholesky > 0) {
-                    nullapprox[i] = empiricalHSICincompleteCholesky(Kyn, Kx, Kz, m);
-                } else {
-                    nullapprox[i] = empiricalHSIC(Kyn, Kx, Kz, m);
+            List<List<Integer>> clusterAssign = kmeans.getClusters();
+            clusters = new int[clusterAssign.size()][];
+            for (int j = 0; j < clusters.length; j++) {
+                clusters[j] = new int[clusterAssign.get(j).size()];
+                for (int k = 0; k < clusters[j].length; k++) {
+                    clusters[j][k] = clusterAssign.get(j).get(k);
                 }
             }
         }
 
         // permutation test to get p-value
-        double evalCdf = 0.0;
-        for (int i = 0; i < this.perms; i++) {
-            if (nullapprox[i] <= this.hsic) {
-                evalCdf += 1.0;
-            }
-        }
-
-        evalCdf /= (double) this.perms;
-        this.pValue = 1.0 - evalCdf;
+        this.pValue = permutationPValue(statistic, m, clusters);
 
         // reject if pvalue <= alpha
         if (this.pValue <= this.alpha) {
@@ -354,24 +277,7 @@ public final class IndTestHsic implements IndependenceTest {
      * @param m  sample size
      */
     public double empiricalHSICincompleteCholesky(TetradMatrix Gy, TetradMatrix Gx, int m) {
-        // centralized Choleksy
-        int ky = Gy.columns();
-        int kx = Gx.columns();
-        TetradMatrix H = KernelUtils.constructH(m);
-        TetradMatrix Gcy = H.times(Gy);
-        TetradMatrix Gcx = H.times(Gx);
-
-        // multiply gram matrices
-        TetradMatrix Gcyt = Gcy.transpose();
-        TetradMatrix A = Gcyt.times(Gcx);
-        TetradMatrix B = Gcy.times(A);
-        TetradMatrix Gcxt = Gcx.transpose();
-        double empHSIC = 0.0;
-        for (int i = 0; i < m; i++) {
-            empHSIC += matrixProductEntry(B, Gcxt, i, i);
-        }
-        empHSIC /= Math.pow(m - 1, 2);
-        return empHSIC;
+        return new CholeskyStatistic(Gy, Gx, null).value(identity(m));
     }
 
     /**
@@ -430,85 +336,7 @@ public final class IndTestHsic implements IndependenceTest {
      * @param m  sample size
      */
     public double empiricalHSICincompleteCholesky(TetradMatrix Gy, TetradMatrix Gx, TetradMatrix Gz, int m) {
-        // centralize Choleksy
-        int ky = Gy.columns();
-        int kx = Gx.columns();
-        int kz = Gz.columns();
-
-        TetradMatrix H = KernelUtils.constructH(m);
-        TetradMatrix Gcy = H.times(Gy);
-        TetradMatrix Gcx = H.times(Gx);
-        TetradMatrix Gcz = H.times(Gz);
-
-        // multiply gram matrices (first block)
-        TetradMatrix A = new TetradMatrix(ky, kx);
-        TetradMatrix Gcyt = Gcy.transpose();
-        A = Gcyt.times(Gcx);
-        TetradMatrix B = Gcy.times(A);
-        TetradMatrix Kyx = new TetradMatrix(m, m);
-        TetradMatrix Gcxt = new TetradMatrix(kx, m);
-        Gcxt = Gcx.transpose();
-        Kyx = B.times(Gcxt);
-        double empHSIC = 0.0;
-        double xy = 0.0;
-        for (int i = 0; i < m; i++) {
-            empHSIC += matrixProductEntry(B, Gcxt, i, i);
-        }
-
-        // second block
-        TetradMatrix Gytz = Gcyt.times(Gcz);
-        TetradMatrix Gczt = Gcz.transpose();
-        TetradMatrix Gztx = Gczt.times(Gcx);
-        TetradMatrix Gztz = Gczt.times(Gcz);
-        TetradMatrix Gztzr = Gztz.copy();
-        for (int i = 0; i < kz; i++) {
-            Gztzr.set(i, i, Gztz.get(i, i) + this.regularizer);
-        }
-        // invert matrix
-        TetradMatrix ZI = Gztzr.inverse();
-        TetradMatrix ZIzt = ZI.times(Gczt);
-        TetradMatrix Gzr = Gcz.copy();
-        for (int i = 0; i < m; i++) {
-            for (int j = 0; j < kz; j++) {
-                Gzr.set(i, j, Gcz.get(i, j) * (-1.0 / this.regularizer));
-            }
-        }
-        TetradMatrix Zinv = Gzr.times(ZIzt);
-        for (int i = 0; i < m; i++) {
-            Zinv.set(i, i, Zinv.get(i, i) + (1.0 / this.regularizer));
-        }
-        TetradMatrix Gztzinv = Gczt.times(Zinv);
-        TetradMatrix Gzinvz = Zinv.times(Gcz);
-        TetradMatrix Gztinv2z = Gztzinv.times(Gzinvz);
-        TetradMatrix Gytzztzinv2z = Gytz.times(Gztinv2z);
-        TetradMatrix Gytzztzinv2zztx = Gytzztzinv2z.times(Gztx);
-        TetradMatrix Gyytzztzinv2zztx = Gcy.times(Gytzztzinv2zztx);
-        double second = 0.0;
-        for (int i = 0; i < m; i++) {
-            second += matrixProductEntry(Gyytzztzinv2zztx, Gcxt, i, i);
-        }
-        empHSIC -= 2 * second;
-
-        // third block
-        TetradMatrix Gxtz = Gcxt.times(Gcz);
-        TetradMatrix Gxtzztinv2z = Gxtz.times(Gztinv2z);
-        TetradMatrix Gyytzztzinv2zztxxtzztinv2z = Gyytzztzinv2zztx.times(Gxtzztinv2z);
-        for (int i = 0; i < m; i++) {
-            empHSIC += matrixProductEntry(Gyytzztzinv2zztxxtzztinv2z, Gczt, i, i);
-        }
-
-        // beta z estimate
-        double betaz = 0.0;
-        for (int i = 0; i < (m - 1); i++) {
-            for (int j = (i + 1); j < m; j++) {
-                betaz += Math.pow(matrixProductEntry(Gcz, Gczt, i, j), 2);
-                betaz += Math.pow(matrixProductEntry(Gcz, Gczt, j, i), 2);
-            }
-        }
-
-        empHSIC *= (m / (betaz * (m - 1)));
-
-        return empHSIC;
+        return new CholeskyStatistic(Gy, Gx, Gz).value(identity(m));
     }
 
     /**
@@ -814,6 +642,11 @@ public final class IndTestHsic implements IndependenceTest {
         return getPValue();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     public void shuffleVariables() {
         List<Node> nodes = new ArrayList(this.variables);
         Collections.shuffle(nodes);
@@ -833,6 +666,296 @@ public final class IndTestHsic implements IndependenceTest {
 
     //==========================PRIVATE METHODS============================//
 
+    /**
+     * Estimates the p value as the fraction of permutations of y for which HSIC exceeds the observed value.
+     * Permutations are done in parallel, in batches of PERMUTATION_BATCH, each from its own seed drawn from
+     * RandomUtil, so the result does not depend on the number of threads. Once the decision at alpha can no
+     * longer change, the remaining batches are skipped and the p value is estimated from the permutations done.
+     */
+    private double permutationPValue(final HsicStatistic statistic, final int m, final int[][] clusters) {
+        final long[] seeds = new long[this.perms];
+        for (int i = 0; i < this.perms; i++) {
+            seeds[i] = RandomUtil.getInstance().nextLong();
+        }
+
+        final double observed = this.hsic;
+        final double cutoff = this.alpha * this.perms;
+        ExecutionContext context = ExecutionContext.current();
+
+        int greater = 0;
+        int done = 0;
+
+        while (done < this.perms) {
+            int to = Math.min(done + PERMUTATION_BATCH, this.perms);
+            int chunk = Math.max(1, (to - done + context.getParallelism() - 1) / context.getParallelism());
+            List<Callable<Integer>> tasks = new ArrayList<>();
+
+            for (int from = done; from < to; from += chunk) {
+                final int _from = from;
+                final int _to = Math.min(from + chunk, to);
+
+                tasks.add(new Callable<Integer>() {
+                    public Integer call() {
+                        RandomGenerator random = new Well44497b(seeds[_from]);
+                        int[] perm = new int[m];
+                        int[] scratch = new int[m];
+                        int greater = 0;
+
+                        for (int i = _from; i < _to; i++) {
+                            random.setSeed(seeds[i]);
+                            permute(perm, clusters, scratch, random);
+                            if (statistic.value(perm) > observed) greater++;
+                        }
+
+                        return greater;
+                    }
+                });
+            }
+
+            for (int g : context.invokeAll(tasks)) {
+                greater += g;
+            }
+
+            done = to;
+
+            // settled either way
+            if (greater > cutoff || greater + (this.perms - done) <= cutoff) {
+                break;
+            }
+        }
+
+        return greater / (double) done;
+    }
+
+    // Random permutation of the rows, within each cluster if there are clusters.
+    private static void permute(int[] perm, int[][] clusters, int[] scratch, RandomGenerator random) {
+        for (int i = 0; i < perm.length; i++) {
+            perm[i] = i;
+        }
+
+        if (clusters == null) {
+            shuffle(perm, perm.length, random);
+        } else {
+            for (int[] cluster : clusters) {
+                System.arraycopy(cluster, 0, scratch, 0, cluster.length);
+                shuffle(scratch, cluster.length, random);
+                for (int k = 0; k < cluster.length; k++) {
+                    perm[cluster[k]] = scratch[k];
+                }
+            }
+        }
+    }
+
+    private static void shuffle(int[] a, int n, RandomGenerator random) {
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+    private static int[] identity(int m) {
+        int[] perm = new int[m];
+        for (int i = 0; i < m; i++) {
+            perm[i] = i;
+        }
+        return perm;
+    }
+
+    // HSIC with the rows of y permuted; row i of the permuted data is row perm[i] of the data.
+    private interface HsicStatistic {
+        double value(int[] perm);
+    }
+
+    /**
+     * HSIC from incomplete Cholesky factors G of the Gram matrices, K ~ G G'. The factors are centered once;
+     * since centering commutes with permuting rows, a permutation of y only permutes the rows of its factor,
+     * and each value needs only the small products Gx'PGy and Gy'P'Gz, in O(m ky (kx + kz)) time.
+     */
+    private class CholeskyStatistic implements HsicStatistic {
+        private final double[][] gy;
+        private final double[][] gx;
+        private final double[][] gz;
+
+        // M Gz'Gx and M Gz'Gx Gx'Gz M, for M = Gz'(Kz + rI)^-2 Gz; null if there is no z.
+        private final double[][] mGztx;
+        private final double[][] mdm;
+
+        private final double scale;
+
+        private CholeskyStatistic(TetradMatrix Gy, TetradMatrix Gx, TetradMatrix Gz) {
+            int m = Gy.rows();
+            this.gy = center(Gy);
+            this.gx = center(Gx);
+
+            if (Gz == null) {
+                this.gz = null;
+                this.mGztx = null;
+                this.mdm = null;
+                this.scale = 1.0 / Math.pow(m - 1, 2);
+                return;
+            }
+
+            this.gz = center(Gz);
+            TetradMatrix Gcz = new TetradMatrix(gz);
+            TetradMatrix Gczt = Gcz.transpose();
+            TetradMatrix S = Gczt.times(Gcz);
+            int kz = S.rows();
+
+            // (Gz'Gz + rI)^-1
+            TetradMatrix Sr = S.copy();
+            for (int i = 0; i < kz; i++) {
+                Sr.set(i, i, S.get(i, i) + regularizer);
+            }
+            TetradMatrix ZI = Sr.inverse();
+
+            // Zinv Gz = Gz W for Zinv = (I - Gz ZI Gz') / r, so Gz' Zinv^2 Gz = W' S W.
+            TetradMatrix W = TetradMatrix.identity(kz).minus(ZI.times(S)).scalarMult(1.0 / regularizer);
+            TetradMatrix M = W.transpose().times(S).times(W);
+            TetradMatrix Gztx = Gczt.times(new TetradMatrix(gx));
+
+            this.mGztx = M.times(Gztx).toArray();
+            this.mdm = M.times(Gztx).times(Gztx.transpose()).times(M).toArray();
+
+            // sum over i != j of (Gz Gz')_ij^2
+            double betaz = 0.0;
+            for (int i = 0; i < kz; i++) {
+                for (int j = 0; j < kz; j++) {
+                    betaz += S.get(i, j) * S.get(i, j);
+                }
+            }
+            for (double[] row : gz) {
+                double d = 0.0;
+                for (double v : row) d += v * v;
+                betaz -= d * d;
+            }
+
+            this.scale = m / (betaz * (m - 1));
+        }
+
+        public double value(int[] perm) {
+            int ky = gy.length == 0 ? 0 : gy[0].length;
+            int kx = gx.length == 0 ? 0 : gx[0].length;
+            int kz = gz == null || gz.length == 0 ? 0 : gz[0].length;
+
+            // E = Gx' P Gy, T = Gy' P' Gz
+            double[][] e = new double[kx][ky];
+            double[][] t = gz == null ? null : new double[ky][kz];
+
+            for (int j = 0; j < perm.length; j++) {
+                double[] yr = gy[perm[j]];
+                double[] xr = gx[j];
+
+                for (int a = 0; a < kx; a++) {
+                    double xa = xr[a];
+                    double[] ea = e[a];
+                    for (int b = 0; b < ky; b++) {
+                        ea[b] += xa * yr[b];
+                    }
+                }
+
+                if (t != null) {
+                    double[] zr = gz[j];
+                    for (int b = 0; b < ky; b++) {
+                        double yb = yr[b];
+                        double[] tb = t[b];
+                        for (int c = 0; c < kz; c++) {
+                            tb[c] += yb * zr[c];
+                        }
+                    }
+                }
+            }
+
+            double first = 0.0;
+            for (double[] ea : e) {
+                for (double v : ea) first += v * v;
+            }
+
+            if (t == null) {
+                return first * scale;
+            }
+
+            // trace(E T M Gz'Gx)
+            double second = 0.0;
+            for (int b = 0; b < ky; b++) {
+                double[] tb = t[b];
+                for (int a = 0; a < kx; a++) {
+                    double s = 0.0;
+                    for (int c = 0; c < kz; c++) {
+                        s += tb[c] * mGztx[c][a];
+                    }
+                    second += e[a][b] * s;
+                }
+            }
+
+            // trace(T'T M Gz'Gx Gx'Gz M)
+            double third = 0.0;
+            for (int c = 0; c < kz; c++) {
+                for (int d = 0; d < kz; d++) {
+                    double s = 0.0;
+                    for (int b = 0; b < ky; b++) {
+                        s += t[b][c] * t[b][d];
+                    }
+                    third += s * mdm[d][c];
+                }
+            }
+
+            return (first - 2 * second + third) * scale;
+        }
+
+        private double[][] center(TetradMatrix G) {
+            double[][] g = G.toArray();
+            int m = g.length;
+            int k = G.columns();
+
+            for (int j = 0; j < k; j++) {
+                double mean = 0.0;
+                for (double[] row : g) mean += row[j];
+                mean /= m;
+                for (double[] row : g) row[j] -= mean;
+            }
+
+            return g;
+        }
+    }
+
+    // HSIC from centralized Gram matrices.
+    private class GramStatistic implements HsicStatistic {
+        private final TetradMatrix ky;
+        private final TetradMatrix kx;
+        private final TetradMatrix kz;
+
+        private GramStatistic(TetradMatrix ky, TetradMatrix kx, TetradMatrix kz) {
+            this.ky = ky;
+            this.kx = kx;
+            this.kz = kz;
+        }
+
+        public double value(int[] perm) {
+            int m = perm.length;
+
+            if (kz == null) {
+                double empHSIC = 0.0;
+                for (int i = 0; i < m; i++) {
+                    for (int j = 0; j < m; j++) {
+                        empHSIC += ky.get(perm[i], perm[j]) * kx.get(j, i);
+                    }
+                }
+                return empHSIC / Math.pow(m - 1, 2);
+            }
+
+            TetradMatrix kyn = new TetradMatrix(m, m);
+            for (int i = 0; i < m; i++) {
+                for (int j = 0; j < m; j++) {
+                    kyn.set(i, j, ky.get(perm[i], perm[j]));
+                }
+            }
+            return empiricalHSIC(kyn, kx, kz, m);
+        }
+    }
+
+
 
     private int sampleSize() {
         return this.dataSet.getNumRows();
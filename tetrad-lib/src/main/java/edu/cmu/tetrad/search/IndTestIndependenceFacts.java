@@ -164,6 +164,11 @@ public final class IndTestIndependenceFacts implements IndependenceTest {
         return getPValue();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     public boolean isVerbose() {
         return verbose;
     }
@@ -258,6 +258,11 @@ public final class IndTestKciMatlab implements IndependenceTest {
         return getPValue();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     /**
      * @return a string representation of this test.
      */
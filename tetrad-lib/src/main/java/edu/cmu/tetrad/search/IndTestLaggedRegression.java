@@ -445,6 +445,11 @@ public final class IndTestLaggedRegression implements IndependenceTest {
         return getPValue();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     public boolean isVerbose() {
         return verbose;
     }
@@ -435,6 +435,11 @@ public class IndTestMultinomialLogisticRegression implements IndependenceTest {
         return 0;
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     /**
      * @return a string representation of this test.
      */
@@ -309,6 +309,11 @@ public final class IndTestPartialCorrelation implements IndependenceTest {
         return getPValue();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
 
 }
 
@@ -263,6 +263,11 @@ public class IndTestProbabilistic implements IndependenceTest {
         return getPValue();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     public Map<IndependenceFact, Double> getH() {
         return new HashMap<>(H);
     }
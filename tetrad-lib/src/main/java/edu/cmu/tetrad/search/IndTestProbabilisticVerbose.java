@@ -267,6 +267,11 @@ public class IndTestProbabilisticVerbose implements IndependenceTest {
         return getPValue();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     public Map<IndependenceFact, Double> getH() {
         return new HashMap<>(H);
     }
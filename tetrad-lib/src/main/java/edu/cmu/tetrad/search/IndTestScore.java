@@ -214,6 +214,10 @@ public class IndTestScore implements IndependenceTest {
         return bump;
     }
 
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
 }
 
 
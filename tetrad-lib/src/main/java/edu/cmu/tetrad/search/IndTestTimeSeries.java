@@ -1511,6 +1511,11 @@ public final class IndTestTimeSeries implements IndependenceTest {
         return getPValue();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
 }
 
 
@@ -449,6 +449,11 @@ public final class IndTestTrekSep implements IndependenceTest {
         return getPValue();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     public TDistribution gettDistribution() {
         return tDistribution;
     }
@@ -130,6 +130,12 @@ public interface IndependenceTest {
      */
     double getScore();
 
+    /**
+     * @return the fraction of independence questions answered from a cache of earlier results, or Double.NaN if
+     * this test does not cache results.
+     */
+    double getCacheHitRate();
+
 }
 
 
@@ -0,0 +1,1377 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.search;
+
+import edu.cmu.tetrad.data.CompiledKnowledge;
+import edu.cmu.tetrad.graph.*;
+import edu.cmu.tetrad.util.ChoiceGenerator;
+import edu.cmu.tetrad.util.ExecutionContext;
+import edu.cmu.tetrad.util.TaskManager;
+import edu.cmu.tetrad.util.TetradLogger;
+
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The arrow bookkeeping of one Fgs search, kept by variable index instead of by node, for very large numbers of
+ * variables. Adjacencies, undirected neighbors and parents of the graph being built are mirrored in bitset rows that
+ * are refreshed after every change to the graph, arrows are primitive records with sorted index arrays for their T/H
+ * and NaYX sets, and the Insert and Delete operators are evaluated into per-thread buffers, so that scoring a
+ * candidate does not allocate sets or look up nodes in hash maps.
+ * <p>
+ * Fgs runs the same passes in the same order with this bookkeeping when it is set to be indexed, and makes the
+ * changes to the graph, runs the Meek rules and stores the top graphs itself, so the pattern found is the same.
+ *
+ * @author Joseph Ramsey
+ * @see Fgs#setIndexed
+ */
+final class IndexedFgsSearch {
+
+    private final Fgs fgs;
+    private final Score score;
+
+    // The graph being constructed, which Fgs changes.
+    private final Graph graph;
+
+    // Settings of the search.
+    private final Graph adjacencies;
+    private final Graph boundGraph;
+    private final Graph initialGraph;
+    private final ExecutionContext context;
+    private final PrintStream out;
+
+    // The variables of the score, by index.
+    private final Node[] nodes;
+
+    // Map from variables to their indices in the score; used only to translate to and from graphs.
+    private final Map<Node, Integer> indices = new HashMap<>();
+
+    // The indices of the measured variables, in order.
+    private final int[] measured;
+
+    // The knowledge, and the id in it of each variable, or -1 if it has none.
+    private final CompiledKnowledge knowledge;
+    private final int[] knowledgeIds;
+
+    // The number of longs in a bitset row.
+    private final int words;
+
+    // Bitset rows for the graph being constructed: adjacencies, undirected neighbors, and parents.
+    private long[][] adj;
+    private long[][] undir;
+    private long[][] par;
+
+    // Bitset rows for the effect edges graph; X--Y means that X and Y have non-zero total effect on one another.
+    private long[][] effect;
+
+    // Bitset rows for edges removed in the backward search.
+    private final long[][] removed;
+
+    // Potential arrows sorted by bump high to low. The first one is a candidate for adding to the graph.
+    private SortedSet<Arrow> sortedArrows = null;
+
+    // Arrows added to sortedArrows, by the index of the node they point to.
+    private List<Arrow>[] arrowsInto = null;
+
+    // The undirected neighbors of each node when its arrows were last calculated, sorted; null if never.
+    private int[][] storedNeighbors = null;
+
+    // Arrows with the same score are distinguished in sortedArrows by the order in which they were added.
+    private final AtomicInteger arrowIndex = new AtomicInteger();
+
+    // Per-thread work buffers for evaluating operators.
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch(words);
+        }
+    };
+
+    private final int[] count = new int[1];
+
+    /**
+     * Mirrors the given graph, which should already have the edges required by knowledge.
+     */
+    IndexedFgsSearch(Fgs fgs, Score score, List<Node> variables, Graph graph, CompiledKnowledge knowledge,
+                     Graph boundGraph) {
+        this.fgs = fgs;
+        this.score = score;
+        this.graph = graph;
+        this.knowledge = knowledge;
+        this.boundGraph = boundGraph;
+        this.adjacencies = fgs.getAdjacencies();
+        this.initialGraph = fgs.getInitialGraph();
+        this.context = fgs.getExecutionContext();
+        this.out = fgs.getOut();
+
+        List<Node> all = score.getVariables();
+        this.nodes = all.toArray(new Node[all.size()]);
+        this.knowledgeIds = new int[nodes.length];
+
+        for (int i = 0; i < nodes.length; i++) {
+            indices.put(nodes[i], i);
+            knowledgeIds[i] = knowledge.getId(nodes[i]);
+        }
+
+        this.measured = new int[variables.size()];
+
+        for (int i = 0; i < variables.size(); i++) {
+            measured[i] = indices.get(variables.get(i));
+        }
+
+        this.words = (nodes.length + 63) >>> 6;
+        this.removed = new long[nodes.length][];
+
+        rebuild();
+    }
+
+    //===========================PASSES, AS IN FGS========================//
+
+    void initializeForwardEdgesFromEmptyGraph() {
+        resetArrows();
+
+        this.effect = new long[nodes.length][];
+
+        class InitializeFromEmptyGraphTask extends RecursiveTask<Boolean> {
+
+            public InitializeFromEmptyGraphTask() {
+            }
+
+            @Override
+            protected Boolean compute() {
+                Queue<NodeTaskEmptyGraph> tasks = new ArrayDeque<>();
+                final int maxThreads = context.getParallelism();
+
+                int numNodesPerTask = Math.max(100, measured.length / maxThreads);
+
+                for (int i = 0; i < measured.length; i += numNodesPerTask) {
+                    NodeTaskEmptyGraph task = new NodeTaskEmptyGraph(i, Math.min(measured.length, i + numNodesPerTask));
+                    tasks.add(task);
+                    task.fork();
+
+                    for (NodeTaskEmptyGraph _task : new ArrayList<>(tasks)) {
+                        if (_task.isDone()) {
+                            _task.join();
+                            tasks.remove(_task);
+                        }
+                    }
+
+                    while (tasks.size() > maxThreads) {
+                        NodeTaskEmptyGraph _task = tasks.poll();
+                        _task.join();
+                    }
+                }
+
+                for (NodeTaskEmptyGraph task : tasks) {
+                    task.join();
+                }
+
+                return true;
+            }
+        }
+
+        context.invoke(new InitializeFromEmptyGraphTask());
+    }
+
+    void initializeTwoStepEdges() {
+        count[0] = 0;
+
+        resetArrows();
+        addInitialGraphToEffectEdges();
+
+        class InitializeFromExistingGraphTask extends RecursiveTask<Boolean> {
+            private int chunk;
+            private int from;
+            private int to;
+
+            public InitializeFromExistingGraphTask(int chunk, int from, int to) {
+                this.chunk = chunk;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected Boolean compute() {
+                if (TaskManager.getInstance().isCanceled()) return false;
+
+                if (to - from <= chunk) {
+                    for (int i = from; i < to; i++) {
+                        if ((i + 1) % 1000 == 0) {
+                            count[0] += 1000;
+                            out.println("Initializing effect edges: " + (count[0]));
+                        }
+
+                        int y = measured[i];
+                        long[] g = twoStepNonColliders(y, true);
+
+                        for (int w = 0; w < words; w++) {
+                            long word = g[w];
+
+                            while (word != 0) {
+                                int x = (w << 6) + Long.numberOfTrailingZeros(word);
+                                word &= word - 1;
+
+                                if (x == y) throw new IllegalArgumentException();
+
+                                if (existsKnowledge()) {
+                                    if (isForbidden(x, y) && isForbidden(y, x)) {
+                                        continue;
+                                    }
+                                }
+
+                                if (adjacencies != null && !adjacencies.isAdjacentTo(nodes[x], nodes[y])) {
+                                    continue;
+                                }
+
+                                if (has(removed, x, y)) {
+                                    continue;
+                                }
+
+                                calculateArrowsForward(x, y);
+                            }
+                        }
+                    }
+
+                    return true;
+                } else {
+                    int mid = (to + from) / 2;
+
+                    InitializeFromExistingGraphTask left = new InitializeFromExistingGraphTask(chunk, from, mid);
+                    InitializeFromExistingGraphTask right = new InitializeFromExistingGraphTask(chunk, mid, to);
+
+                    left.fork();
+                    right.compute();
+                    left.join();
+
+                    return true;
+                }
+            }
+        }
+
+        context.invoke(new InitializeFromExistingGraphTask(fgs.getMinChunk(measured.length), 0, measured.length));
+    }
+
+    void initializeForwardEdgesFromExistingGraph() {
+        count[0] = 0;
+
+        resetArrows();
+        addInitialGraphToEffectEdges();
+
+        class InitializeFromExistingGraphTask extends RecursiveTask<Boolean> {
+            private int chunk;
+            private int from;
+            private int to;
+
+            public InitializeFromExistingGraphTask(int chunk, int from, int to) {
+                this.chunk = chunk;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected Boolean compute() {
+                if (TaskManager.getInstance().isCanceled()) return false;
+
+                if (to - from <= chunk) {
+                    for (int i = from; i < to; i++) {
+                        if ((i + 1) % 1000 == 0) {
+                            count[0] += 1000;
+                            out.println("Initializing effect edges: " + (count[0]));
+                        }
+
+                        int y = measured[i];
+
+                        for (int x : dConnectedTo(y)) {
+                            if (has(effect, y, x)) continue;
+
+                            if (existsKnowledge()) {
+                                if (isForbidden(x, y) && isForbidden(y, x)) {
+                                    continue;
+                                }
+                            }
+
+                            if (adjacencies != null && !adjacencies.isAdjacentTo(nodes[x], nodes[y])) {
+                                continue;
+                            }
+
+                            calculateArrowsForward(x, y);
+                        }
+                    }
+
+                    return true;
+                } else {
+                    int mid = (to + from) / 2;
+
+                    InitializeFromExistingGraphTask left = new InitializeFromExistingGraphTask(chunk, from, mid);
+                    InitializeFromExistingGraphTask right = new InitializeFromExistingGraphTask(chunk, mid, to);
+
+                    left.fork();
+                    right.compute();
+                    left.join();
+
+                    return true;
+                }
+            }
+        }
+
+        context.invoke(new InitializeFromExistingGraphTask(fgs.getMinChunk(measured.length), 0, measured.length));
+    }
+
+    void fes() {
+        TetradLogger.getInstance().log("info", "** FORWARD EQUIVALENCE SEARCH");
+
+        int maxDegree = fgs.getMaxDegree() == -1 ? 1000 : fgs.getMaxDegree();
+
+        while (!sortedArrows.isEmpty()) {
+            context.checkCancelled();
+            Arrow arrow = sortedArrows.first();
+            sortedArrows.remove(arrow);
+
+            int x = arrow.a;
+            int y = arrow.b;
+
+            if (has(adj, x, y)) {
+                continue;
+            }
+
+            int[] naYX = getNaYX(x, y);
+
+            if (!Arrays.equals(arrow.naYX, naYX)) {
+                continue;
+            }
+
+            if (!containsAllTNeighbors(x, y, arrow.hOrT)) {
+                continue;
+            }
+
+            if (!validInsert(x, y, arrow.hOrT, naYX)) {
+                continue;
+            }
+
+            if (degree(x) > maxDegree - 1) continue;
+            if (degree(y) > maxDegree - 1) continue;
+
+            int[] T = arrow.hOrT;
+
+            boolean inserted = fgs.insert(nodes[x], nodes[y], asList(T), arrow.bump);
+            if (!inserted) continue;
+
+            refresh(x);
+            refresh(y);
+            refresh(T);
+
+            int[] visited = reapplyOrientation(x, y, null);
+            refresh(visited);
+
+            Set<Integer> toProcess = new LinkedHashSet<>();
+
+            for (int node : visited) {
+                if (!Arrays.equals(toArray(undir[node]), storedNeighbors[node])) {
+                    toProcess.add(node);
+                }
+            }
+
+            toProcess.add(x);
+            toProcess.add(y);
+
+            fgs.storeGraph();
+            reevaluateForward(toProcess);
+        }
+    }
+
+    void bes() {
+        TetradLogger.getInstance().log("info", "** BACKWARD EQUIVALENCE SEARCH");
+
+        resetArrows();
+
+        initializeArrowsBackward();
+
+        while (!sortedArrows.isEmpty()) {
+            context.checkCancelled();
+            Arrow arrow = sortedArrows.first();
+            sortedArrows.remove(arrow);
+
+            int x = arrow.a;
+            int y = arrow.b;
+
+            if (!Arrays.equals(arrow.naYX, getNaYX(x, y))) {
+                continue;
+            }
+
+            if (!has(adj, x, y)) continue;
+
+            if (has(par, x, y)) continue;
+
+            if (!validDelete(x, y, arrow.hOrT, arrow.naYX)) continue;
+
+            int[] H = arrow.hOrT;
+
+            boolean deleted = fgs.delete(nodes[x], nodes[y], asList(H), arrow.bump, asList(arrow.naYX));
+            if (!deleted) continue;
+
+            setBit(removed, x, y);
+            setBit(removed, y, x);
+
+            refresh(x);
+            refresh(y);
+            refresh(H);
+
+            clearArrow(x, y);
+
+            int[] visited = reapplyOrientation(x, y, H);
+            refresh(visited);
+
+            Set<Integer> toProcess = new LinkedHashSet<>();
+
+            for (int node : visited) {
+                if (!Arrays.equals(toArray(undir[node]), storedNeighbors[node])) {
+                    toProcess.add(node);
+                }
+            }
+
+            toProcess.add(x);
+            toProcess.add(y);
+
+            for (int z : toArray(and(adj[x], adj[y]))) {
+                toProcess.add(z);
+            }
+
+            fgs.storeGraph();
+            reevaluateBackward(toProcess);
+        }
+
+        fgs.meekOrientRestricted(Arrays.asList(asNodes(measured)), fgs.getKnowledge());
+        rebuild();
+    }
+
+    //===========================PRIVATE METHODS========================//
+
+    private class NodeTaskEmptyGraph extends RecursiveTask<Boolean> {
+        private final int from;
+        private final int to;
+
+        public NodeTaskEmptyGraph(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Boolean compute() {
+            final int[] empty = new int[0];
+
+            for (int i = from; i < to; i++) {
+                if ((i + 1) % 1000 == 0) {
+                    count[0] += 1000;
+                    out.println("Initializing effect edges: " + (count[0]));
+                }
+
+                int y = measured[i];
+                storedNeighbors[y] = empty;
+
+                for (int j = i + 1; j < measured.length; j++) {
+                    int x = measured[j];
+
+                    if (existsKnowledge()) {
+                        if (isForbidden(x, y) && isForbidden(y, x)) {
+                            continue;
+                        }
+                    }
+
+                    if (adjacencies != null && !adjacencies.isAdjacentTo(nodes[x], nodes[y])) {
+                        continue;
+                    }
+
+                    double bump = score.localScoreDiff(x, y);
+
+                    if (boundGraph != null && !boundGraph.isAdjacentTo(nodes[x], nodes[y])) continue;
+
+                    if (bump > 0.0) {
+                        addEffectEdge(x, y);
+                        addArrow(x, y, empty, empty, bump);
+                        addArrow(y, x, empty, empty, bump);
+                    }
+                }
+            }
+
+            return true;
+        }
+    }
+
+    // Resets the arrow bookkeeping for a new pass.
+    @SuppressWarnings("unchecked")
+    private void resetArrows() {
+        sortedArrows = new ConcurrentSkipListSet<>();
+        arrowsInto = new List[nodes.length];
+        storedNeighbors = new int[nodes.length][];
+
+        for (int i = 0; i < nodes.length; i++) {
+            arrowsInto[i] = new ArrayList<>();
+        }
+    }
+
+    private void addInitialGraphToEffectEdges() {
+        if (this.effect == null) {
+            this.effect = new long[nodes.length][];
+        }
+
+        if (initialGraph != null) {
+            for (Edge edge : initialGraph.getEdges()) {
+                addEffectEdge(index(edge.getNode1()), index(edge.getNode2()));
+            }
+        }
+    }
+
+    private synchronized void addEffectEdge(int x, int y) {
+        setBit(effect, x, y);
+        setBit(effect, y, x);
+    }
+
+    private int[] reapplyOrientation(int x, int y, int[] newArrows) {
+        Set<Node> toProcess = new HashSet<>();
+        toProcess.add(nodes[x]);
+        toProcess.add(nodes[y]);
+
+        if (newArrows != null) {
+            for (int h : newArrows) {
+                toProcess.add(nodes[h]);
+            }
+        }
+
+        Set<Node> visited = fgs.meekOrientRestricted(new ArrayList<>(toProcess), fgs.getKnowledge());
+        int[] _visited = new int[visited.size()];
+        int i = 0;
+
+        for (Node node : visited) {
+            _visited[i++] = index(node);
+        }
+
+        return _visited;
+    }
+
+    // Initiaizes the sorted arrows lists for the backward search.
+    private void initializeArrowsBackward() {
+        for (Edge edge : graph.getEdges()) {
+            int x = index(edge.getNode1());
+            int y = index(edge.getNode2());
+
+            if (existsKnowledge()) {
+                if (!noEdgeRequired(x, y)) {
+                    continue;
+                }
+            }
+
+            clearArrow(x, y);
+            clearArrow(y, x);
+
+            if (edge.pointsTowards(nodes[y])) {
+                calculateArrowsBackward(x, y);
+            } else if (edge.pointsTowards(nodes[x])) {
+                calculateArrowsBackward(y, x);
+            } else {
+                calculateArrowsBackward(x, y);
+                calculateArrowsBackward(y, x);
+            }
+
+            storedNeighbors[x] = toArray(undir[x]);
+            storedNeighbors[y] = toArray(undir[y]);
+        }
+    }
+
+    // Calcuates new arrows based on changes in the graph for the forward search.
+    private void reevaluateForward(final Set<Integer> nodes) {
+        final Fgs.Mode mode = fgs.getMode();
+
+        class AdjTask extends RecursiveTask<Boolean> {
+            private final int[] nodes;
+            private int from;
+            private int to;
+            private int chunk;
+
+            public AdjTask(int chunk, int[] nodes, int from, int to) {
+                this.nodes = nodes;
+                this.from = from;
+                this.to = to;
+                this.chunk = chunk;
+            }
+
+            @Override
+            protected Boolean compute() {
+                if (to - from <= chunk) {
+                    for (int _w = from; _w < to; _w++) {
+                        int x = nodes[_w];
+
+                        int[] candidates;
+
+                        if (mode == Fgs.Mode.heuristicSpeedup) {
+                            candidates = toArray(effect[x]);
+                        } else if (mode == Fgs.Mode.coverNoncolliders) {
+                            candidates = toArray(twoStepNonColliders(x, false));
+                        } else if (mode == Fgs.Mode.allowUnfaithfulness) {
+                            candidates = dConnectedTo(x);
+                        } else {
+                            throw new IllegalStateException();
+                        }
+
+                        for (int w : candidates) {
+                            if (adjacencies != null && !(adjacencies.isAdjacentTo(IndexedFgsSearch.this.nodes[w],
+                                    IndexedFgsSearch.this.nodes[x]))) {
+                                continue;
+                            }
+
+                            if (w == x) continue;
+
+                            if (!has(adj, w, x)) {
+                                clearArrow(w, x);
+                                calculateArrowsForward(w, x);
+                            }
+                        }
+                    }
+
+                    return true;
+                } else {
+                    int mid = (to - from) / 2;
+
+                    List<AdjTask> tasks = new ArrayList<>();
+
+                    tasks.add(new AdjTask(chunk, nodes, from, from + mid));
+                    tasks.add(new AdjTask(chunk, nodes, from + mid, to));
+
+                    invokeAll(tasks);
+
+                    return true;
+                }
+            }
+        }
+
+        int[] _nodes = toIntArray(nodes);
+        final AdjTask task = new AdjTask(fgs.getMinChunk(_nodes.length), _nodes, 0, _nodes.length);
+        context.invoke(task);
+    }
+
+    // Nodes m two steps from x through some n, not adjacent to x, where m->n<-x is not a collider. If
+    // excludeSelf is false, x itself may be included, as in Fgs.
+    private long[] twoStepNonColliders(int x, boolean excludeSelf) {
+        long[] g = new long[words];
+        long[] adjX = adj[x];
+
+        if (adjX == null) return g;
+
+        for (int n : toArray(adjX)) {
+            long[] adjN = adj[n];
+
+            for (int w = 0; w < words; w++) {
+                long word = adjN[w];
+
+                while (word != 0) {
+                    int m = (w << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+
+                    if (excludeSelf && m == x) continue;
+                    if (has(adj, x, m)) continue;
+                    if (has(par, n, m) && has(par, n, x)) continue;
+
+                    g[w] |= 1L << m;
+                }
+            }
+        }
+
+        return g;
+    }
+
+    // Variables d-connected to x given the empty set in the graph, other than x.
+    private int[] dConnectedTo(int x) {
+        Set<Node> D = new HashSet<>(GraphUtils.getDconnectedVars(nodes[x], new ArrayList<Node>(), graph));
+        D.remove(nodes[x]);
+
+        int[] d = new int[D.size()];
+        int i = 0;
+
+        for (Node node : D) {
+            d[i++] = index(node);
+        }
+
+        return d;
+    }
+
+    // Calculates the new arrows for an a->b edge.
+    private void calculateArrowsForward(int a, int b) {
+        if (fgs.getMode() == Fgs.Mode.heuristicSpeedup && !has(effect, a, b)) return;
+        if (adjacencies != null && !adjacencies.isAdjacentTo(nodes[a], nodes[b])) return;
+        storedNeighbors[b] = toArray(undir[b]);
+
+        if (a == b) throw new IllegalArgumentException();
+
+        if (existsKnowledge()) {
+            if (isForbidden(a, b)) {
+                return;
+            }
+        }
+
+        int[] naYX = getNaYX(a, b);
+        if (!isClique(naYX, new int[0])) return;
+
+        int[] tNeighbors = getTNeighbors(a, b);
+
+        List<int[]> previousCliques = new ArrayList<>();
+        previousCliques.add(new int[0]);
+        List<int[]> newCliques = new ArrayList<>();
+
+        FOR:
+        for (int i = 0; i <= tNeighbors.length; i++) {
+            final ChoiceGenerator gen = new ChoiceGenerator(tNeighbors.length, i);
+            int[] choice;
+
+            while ((choice = gen.next()) != null) {
+                boolean foundAPreviousClique = false;
+
+                for (int[] clique : previousCliques) {
+                    if (containsAll(choice, clique)) {
+                        foundAPreviousClique = true;
+                        break;
+                    }
+                }
+
+                if (!foundAPreviousClique) {
+                    break FOR;
+                }
+
+                int[] T = new int[choice.length];
+
+                for (int k = 0; k < choice.length; k++) {
+                    T[k] = tNeighbors[choice[k]];
+                }
+
+                if (!isClique(naYX, T)) continue;
+                newCliques.add(Arrays.copyOf(choice, choice.length));
+
+                double bump = insertEval(a, b, T, naYX);
+
+                if (bump > 0.0) {
+                    addArrow(a, b, naYX, T, bump);
+                }
+            }
+
+            previousCliques = newCliques;
+            newCliques = new ArrayList<>();
+        }
+    }
+
+    private void addArrow(int a, int b, int[] naYX, int[] hOrT, double bump) {
+        Arrow arrow = new Arrow(bump, a, b, hOrT, naYX, arrowIndex.getAndIncrement());
+        sortedArrows.add(arrow);
+
+        List<Arrow> arrows = arrowsInto[b];
+
+        synchronized (arrows) {
+            arrows.add(arrow);
+        }
+    }
+
+    // Reevaluates arrows after removing an edge from the graph.
+    private void reevaluateBackward(Set<Integer> toProcess) {
+        class BackwardTask extends RecursiveTask<Boolean> {
+            private final int r;
+            private int[] adj;
+            private int chunk;
+            private int from;
+            private int to;
+
+            public BackwardTask(int r, int[] adj, int chunk, int from, int to) {
+                this.adj = adj;
+                this.chunk = chunk;
+                this.from = from;
+                this.to = to;
+                this.r = r;
+            }
+
+            @Override
+            protected Boolean compute() {
+                if (to - from <= chunk) {
+                    for (int _w = from; _w < to; _w++) {
+                        final int w = adj[_w];
+
+                        if (has(par, r, w)) {
+                            clearArrow(w, r);
+                            clearArrow(r, w);
+
+                            calculateArrowsBackward(w, r);
+                        } else if (has(undir, r, w)) {
+                            clearArrow(w, r);
+                            clearArrow(r, w);
+
+                            calculateArrowsBackward(w, r);
+                            calculateArrowsBackward(r, w);
+                        }
+                    }
+
+                    return true;
+                } else {
+                    int mid = (to - from) / 2;
+
+                    List<BackwardTask> tasks = new ArrayList<>();
+
+                    tasks.add(new BackwardTask(r, adj, chunk, from, from + mid));
+                    tasks.add(new BackwardTask(r, adj, chunk, from + mid, to));
+
+                    invokeAll(tasks);
+
+                    return true;
+                }
+            }
+        }
+
+        for (int r : toProcess) {
+            storedNeighbors[r] = toArray(undir[r]);
+            int[] adjacentNodes = toArray(adj[r]);
+            context.invoke(new BackwardTask(r, adjacentNodes, fgs.getMinChunk(adjacentNodes.length), 0,
+                    adjacentNodes.length));
+        }
+    }
+
+    // Calculates the arrows for the removal in the backward direction.
+    private void calculateArrowsBackward(int a, int b) {
+        if (existsKnowledge()) {
+            if (!noEdgeRequired(a, b)) {
+                return;
+            }
+        }
+
+        int[] naYX = getNaYX(a, b);
+
+        final int _depth = naYX.length;
+
+        for (int i = 0; i <= _depth; i++) {
+            final ChoiceGenerator gen = new ChoiceGenerator(naYX.length, i);
+            int[] choice;
+
+            while ((choice = gen.next()) != null) {
+                int[] diff = new int[choice.length];
+                int[] h = new int[naYX.length - choice.length];
+                int d = 0;
+                int k = 0;
+
+                for (int j = 0; j < naYX.length; j++) {
+                    if (d < choice.length && choice[d] == j) {
+                        diff[d++] = naYX[j];
+                    } else {
+                        h[k++] = naYX[j];
+                    }
+                }
+
+                if (existsKnowledge()) {
+                    if (!validSetByKnowledge(b, h)) {
+                        continue;
+                    }
+                }
+
+                double bump = deleteEval(a, b, diff);
+
+                if (bump > 0.0) {
+                    addArrow(a, b, naYX, h, bump);
+                }
+            }
+        }
+    }
+
+    // Basic data structure for an arrow a->b considered for additiom or removal from the graph, together with
+    // associated sets needed to make this determination. For both forward and backward direction, NaYX is needed.
+    // For the forward direction, T neighbors are needed; for the backward direction, H neighbors are needed.
+    // See Chickering (2002). The score difference resulting from added in the edge (hypothetically) is recorded
+    // as the "bump". The sets are sorted arrays of variable indices.
+    private static final class Arrow implements Comparable<Arrow> {
+        private final double bump;
+        private final int a;
+        private final int b;
+        private final int[] hOrT;
+        private final int[] naYX;
+        private final int index;
+
+        public Arrow(double bump, int a, int b, int[] hOrT, int[] naYX, int index) {
+            this.bump = bump;
+            this.a = a;
+            this.b = b;
+            this.hOrT = hOrT;
+            this.naYX = naYX;
+            this.index = index;
+        }
+
+        // Sorting by bump, high to low, then by the order in which arrows were added.
+        public int compareTo(Arrow arrow) {
+            if (arrow == null) throw new NullPointerException();
+
+            final int compare = Double.compare(arrow.bump, bump);
+
+            if (compare == 0) {
+                return Integer.compare(index, arrow.index);
+            }
+
+            return compare;
+        }
+
+        public String toString() {
+            return "Arrow<" + a + "->" + b + " bump = " + bump + " t/h = " + Arrays.toString(hOrT)
+                    + " naYX = " + Arrays.toString(naYX) + ">";
+        }
+    }
+
+    // Get all adj that are connected to Y by an undirected edge and not adjacent to X.
+    private int[] getTNeighbors(int x, int y) {
+        return toArray(andNot(undir[y], adj[x]));
+    }
+
+    // True if all of the given nodes are T neighbors of y with respect to x.
+    private boolean containsAllTNeighbors(int x, int y, int[] t) {
+        for (int z : t) {
+            if (!has(undir, y, z) || has(adj, z, x)) return false;
+        }
+
+        return true;
+    }
+
+    // Find all adj that are connected to Y by an undirected edge that are adjacent to X (that is, by undirected or
+    // directed edge).
+    private int[] getNaYX(int x, int y) {
+        long[] undirY = undir[y];
+        long[] adjX = adj[x];
+
+        if (undirY == null || adjX == null) return new int[0];
+
+        int n = 0;
+
+        for (int w = 0; w < words; w++) {
+            long word = undirY[w] & adjX[w];
+            if ((x >>> 6) == w) word &= ~(1L << x);
+            n += Long.bitCount(word);
+        }
+
+        int[] nayx = new int[n];
+        int k = 0;
+
+        for (int w = 0; w < words; w++) {
+            long word = undirY[w] & adjX[w];
+            if ((x >>> 6) == w) word &= ~(1L << x);
+
+            while (word != 0) {
+                nayx[k++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+
+        return nayx;
+    }
+
+    // Evaluate the Insert(X, Y, T) operator (Definition 12 from Chickering, 2002).
+    private double insertEval(int x, int y, int[] t, int[] naYX) {
+        if (x == y) throw new IllegalArgumentException();
+        Scratch s = scratch.get();
+        s.load(par[y]);
+        s.add(naYX);
+        s.add(t);
+        return score.localScoreDiff(x, y, s.parents(-1));
+    }
+
+    // Evaluate the Delete(X, Y, T) operator (Definition 12 from Chickering, 2002).
+    private double deleteEval(int x, int y, int[] diff) {
+        Scratch s = scratch.get();
+        s.load(par[y]);
+        s.add(diff);
+        return -score.localScoreDiff(x, y, s.parents(x));
+    }
+
+    // Test if the candidate insertion is a valid operation
+    // (Theorem 15 from Chickering, 2002).
+    private boolean validInsert(int x, int y, int[] T, int[] naYX) {
+        boolean violatesKnowledge = false;
+
+        if (existsKnowledge()) {
+            if (isForbidden(x, y)) {
+                violatesKnowledge = true;
+            }
+
+            for (int t : T) {
+                if (isForbidden(t, y)) {
+                    violatesKnowledge = true;
+                }
+            }
+        }
+
+        boolean clique = isClique(naYX, T);
+        boolean noCycle = !existsUnblockedSemiDirectedPath(y, x, naYX, T, fgs.getCycleBound());
+        return clique && noCycle && !violatesKnowledge;
+    }
+
+    private boolean validDelete(int x, int y, int[] H, int[] naYX) {
+        boolean violatesKnowledge = false;
+
+        if (existsKnowledge()) {
+            for (int h : H) {
+                if (isForbidden(x, h)) {
+                    violatesKnowledge = true;
+                }
+
+                if (isForbidden(y, h)) {
+                    violatesKnowledge = true;
+                }
+            }
+        }
+
+        int[] diff = new int[naYX.length];
+        int n = 0;
+
+        for (int z : naYX) {
+            if (Arrays.binarySearch(H, z) < 0) diff[n++] = z;
+        }
+
+        return isClique(Arrays.copyOf(diff, n), new int[0]) && !violatesKnowledge;
+    }
+
+    // Use background knowledge to decide if an insert or delete operation does not orient edges in a forbidden
+    // direction according to prior knowledge. If some orientation is forbidden in the subset, the whole subset is
+    // forbidden.
+    private boolean validSetByKnowledge(int y, int[] subset) {
+        for (int node : subset) {
+            if (isForbidden(node, y)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns true iif the union of the given disjoint sets forms a clique in the graph.
+    private boolean isClique(int[] naYX, int[] t) {
+        for (int i = 0; i < naYX.length - 1; i++) {
+            for (int j = i + 1; j < naYX.length; j++) {
+                if (!has(adj, naYX[i], naYX[j])) return false;
+            }
+        }
+
+        for (int i = 0; i < t.length; i++) {
+            for (int j = i + 1; j < t.length; j++) {
+                if (!has(adj, t[i], t[j])) return false;
+            }
+
+            for (int z : naYX) {
+                if (!has(adj, t[i], z)) return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Returns true if a path consisting of undirected and directed edges toward 'to' exists of
+    // length at most 'bound'. Cycle checker in other words. Nodes in naYX or t block the path.
+    private boolean existsUnblockedSemiDirectedPath(int from, int to, int[] naYX, int[] t, int bound) {
+        Queue<Integer> Q = new LinkedList<>();
+        long[] V = new long[words];
+        long[] cond = new long[words];
+
+        for (int z : naYX) cond[z >>> 6] |= 1L << z;
+        for (int z : t) cond[z >>> 6] |= 1L << z;
+
+        Q.offer(from);
+        V[from >>> 6] |= 1L << from;
+        int e = -1;
+        int distance = 0;
+
+        while (!Q.isEmpty()) {
+            int _t = Q.remove();
+
+            if (_t == to) {
+                return true;
+            }
+
+            if (e == _t) {
+                e = -1;
+                distance++;
+                if (distance > (bound == -1 ? 1000 : bound)) return false;
+            }
+
+            long[] adjT = adj[_t];
+            long[] parT = par[_t];
+
+            if (adjT == null) continue;
+
+            // Semidirected out of t: undirected, or directed away from t.
+            for (int w = 0; w < words; w++) {
+                long word = adjT[w] & ~parT[w];
+
+                while (word != 0) {
+                    int c = (w << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+
+                    if ((cond[c >>> 6] & (1L << c)) != 0) continue;
+
+                    if (c == to) {
+                        return true;
+                    }
+
+                    if ((V[c >>> 6] & (1L << c)) == 0) {
+                        V[c >>> 6] |= 1L << c;
+                        Q.offer(c);
+
+                        if (e == -1) {
+                            e = c;
+                        }
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    // Removes information associated with an edge x->y.
+    private void clearArrow(int x, int y) {
+        List<Arrow> arrows = arrowsInto[y];
+
+        synchronized (arrows) {
+            Iterator<Arrow> it = arrows.iterator();
+
+            while (it.hasNext()) {
+                Arrow arrow = it.next();
+
+                if (arrow.a == x) {
+                    sortedArrows.remove(arrow);
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    // Returns true if knowledge is not empty.
+    private boolean existsKnowledge() {
+        return !knowledge.isEmpty();
+    }
+
+    // True if x --> y is forbidden; false if either has no id in the knowledge.
+    private boolean isForbidden(int x, int y) {
+        int _x = knowledgeIds[x];
+        int _y = knowledgeIds[y];
+        return _x != -1 && _y != -1 && knowledge.isForbidden(_x, _y);
+    }
+
+    private boolean noEdgeRequired(int x, int y) {
+        int _x = knowledgeIds[x];
+        int _y = knowledgeIds[y];
+        return _x == -1 || _y == -1 || knowledge.noEdgeRequired(_x, _y);
+    }
+
+    //===========================BITSET MIRROR OF THE GRAPH===================//
+
+    // Rebuilds the bitset rows for all nodes from the graph.
+    private void rebuild() {
+        adj = new long[nodes.length][words];
+        undir = new long[nodes.length][words];
+        par = new long[nodes.length][words];
+
+        for (Edge edge : graph.getEdges()) {
+            record(edge);
+        }
+    }
+
+    // Refreshes the bitset rows for the given node, and its bits in the rows of other nodes, from the graph.
+    private void refresh(int v) {
+        for (int u : toArray(adj[v])) {
+            clearBit(adj, u, v);
+            clearBit(undir, u, v);
+            clearBit(par, u, v);
+        }
+
+        Arrays.fill(adj[v], 0L);
+        Arrays.fill(undir[v], 0L);
+        Arrays.fill(par[v], 0L);
+
+        for (Edge edge : graph.getEdges(nodes[v])) {
+            record(edge);
+        }
+    }
+
+    private void refresh(int[] vs) {
+        for (int v : vs) refresh(v);
+    }
+
+    private void record(Edge edge) {
+        int a = index(edge.getNode1());
+        int b = index(edge.getNode2());
+
+        setBit(adj, a, b);
+        setBit(adj, b, a);
+
+        if (Edges.isUndirectedEdge(edge)) {
+            setBit(undir, a, b);
+            setBit(undir, b, a);
+        } else if (edge.pointsTowards(edge.getNode2())) {
+            setBit(par, b, a);
+        } else if (edge.pointsTowards(edge.getNode1())) {
+            setBit(par, a, b);
+        }
+    }
+
+    private int degree(int v) {
+        int d = 0;
+
+        for (long word : adj[v]) {
+            d += Long.bitCount(word);
+        }
+
+        return d;
+    }
+
+    private static boolean has(long[][] rows, int i, int j) {
+        long[] row = rows[i];
+        return row != null && (row[j >>> 6] & (1L << j)) != 0;
+    }
+
+    private void setBit(long[][] rows, int i, int j) {
+        if (rows[i] == null) rows[i] = new long[words];
+        rows[i][j >>> 6] |= 1L << j;
+    }
+
+    private static void clearBit(long[][] rows, int i, int j) {
+        long[] row = rows[i];
+        if (row != null) row[j >>> 6] &= ~(1L << j);
+    }
+
+    private long[] and(long[] a, long[] b) {
+        long[] c = new long[words];
+        if (a == null || b == null) return c;
+        for (int w = 0; w < words; w++) c[w] = a[w] & b[w];
+        return c;
+    }
+
+    private long[] andNot(long[] a, long[] b) {
+        long[] c = new long[words];
+        if (a == null) return c;
+        for (int w = 0; w < words; w++) c[w] = b == null ? a[w] : a[w] & ~b[w];
+        return c;
+    }
+
+    // The set bits of the given row, in increasing order.
+    private static int[] toArray(long[] row) {
+        if (row == null) return new int[0];
+
+        int n = 0;
+
+        for (long word : row) {
+            n += Long.bitCount(word);
+        }
+
+        int[] a = new int[n];
+        int k = 0;
+
+        for (int w = 0; w < row.length; w++) {
+            long word = row[w];
+
+            while (word != 0) {
+                a[k++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+
+        return a;
+    }
+
+    // True if the sorted array a contains every element of the sorted array b.
+    private static boolean containsAll(int[] a, int[] b) {
+        int i = 0;
+
+        for (int x : b) {
+            while (i < a.length && a[i] < x) i++;
+            if (i == a.length || a[i] != x) return false;
+        }
+
+        return true;
+    }
+
+    private static int[] toIntArray(Collection<Integer> c) {
+        int[] a = new int[c.size()];
+        int i = 0;
+        for (int x : c) a[i++] = x;
+        return a;
+    }
+
+    private int index(Node node) {
+        return indices.get(node);
+    }
+
+    private Node[] asNodes(int[] a) {
+        Node[] nodes = new Node[a.length];
+        for (int i = 0; i < a.length; i++) nodes[i] = this.nodes[a[i]];
+        return nodes;
+    }
+
+    private List<Node> asList(int[] a) {
+        return new ArrayList<>(Arrays.asList(asNodes(a)));
+    }
+
+    // Per-thread buffers for building parent sets without allocating.
+    private static final class Scratch {
+        private final long[] bits;
+        private final int[][] byLength = new int[16][];
+
+        Scratch(int words) {
+            this.bits = new long[words];
+        }
+
+        void load(long[] row) {
+            if (row == null) Arrays.fill(bits, 0L);
+            else System.arraycopy(row, 0, bits, 0, bits.length);
+        }
+
+        void add(int[] a) {
+            for (int i : a) bits[i >>> 6] |= 1L << i;
+        }
+
+        // The set bits other than 'exclude', in a buffer of exactly the right length. The buffer is
+        // reused by the next call.
+        int[] parents(int exclude) {
+            if (exclude >= 0) bits[exclude >>> 6] &= ~(1L << exclude);
+
+            int n = 0;
+
+            for (long word : bits) {
+                n += Long.bitCount(word);
+            }
+
+            if (n >= byLength.length) return toArray(bits);
+
+            int[] buffer = byLength[n];
+            if (buffer == null) buffer = byLength[n] = new int[n];
+
+            int k = 0;
+
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w];
+
+                while (word != 0) {
+                    buffer[k++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,516 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.search;
+
+import edu.cmu.tetrad.graph.*;
+
+import java.util.*;
+
+/**
+ * The propagation step of MeekRules, run over a compact int-indexed mirror of the graph instead of through the
+ * Graph interface. Nodes are given ids as they are first touched, and the edges of a node are copied out of the
+ * graph the first time they are needed, so the cost of a call depends on the part of the graph the propagation
+ * reaches rather than on the size of the graph. Every change is made both to the mirror and to the graph.
+ * <p>
+ * The orientations made are exactly those MeekRules would make working on the graph directly. For that the
+ * mirror keeps the neighbors of each node in the order of its edge list in the graph; like EdgeListGraph, an edge
+ * that is replaced moves to the end of the edge lists of both of its nodes. Only graphs with at most one edge
+ * between any two nodes are supported. Orientations are reported through MeekRules with the same messages.
+ * <p>
+ * Each propagation has its own state, so propagations over different graphs may run at the same time.
+ *
+ * @author Joseph Ramsey
+ */
+final class IndexedMeekPropagation {
+
+    private final MeekRules rules;
+    private final Graph graph;
+    private final boolean useRule4;
+    private final boolean undirectUnforcedEdges;
+    private final Set<Node> visited;
+
+    // Ids of the nodes touched so far, and the nodes by id.
+    private final Map<Node, Integer> ids = new HashMap<>();
+    private Node[] nodes = new Node[16];
+    private int numNodes = 0;
+
+    // For each node u whose edges have been loaded, the other nodes of its edges in edge list order, the endpoint
+    // of each edge at u and the endpoint at the other node. Null if not loaded yet.
+    private int[][] adj = new int[16][];
+    private Endpoint[][] near = new Endpoint[16][];
+    private Endpoint[][] far = new Endpoint[16][];
+    private int[] degree = new int[16];
+
+    // Edges already oriented, as (tail, head) pairs, to avoid undirecting them again.
+    private final Set<Long> oriented = new HashSet<>();
+
+    // The nodes still to be visited; the last one pushed is visited first.
+    private int[] stack = new int[16];
+    private int stackSize = 0;
+
+    IndexedMeekPropagation(MeekRules rules, Graph graph, boolean useRule4, boolean undirectUnforcedEdges,
+                           Set<Node> visited) {
+        this.rules = rules;
+        this.graph = graph;
+        this.useRule4 = useRule4;
+        this.undirectUnforcedEdges = undirectUnforcedEdges;
+        this.visited = visited;
+    }
+
+    /**
+     * Orients edges implied by the Meek rules, starting from the given nodes.
+     */
+    void orientImplied(List<Node> start) {
+        int[] starts = new int[start.size()];
+
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = id(start.get(i));
+        }
+
+        if (undirectUnforcedEdges) {
+            for (int node : starts) {
+                undirectUnforcedEdges(node);
+                load(node);
+
+                for (int k = 0; k < degree[node]; k++) {
+                    push(adj[node][k]);
+                }
+            }
+        }
+
+        for (int node : starts) {
+            runMeekRules(node);
+        }
+
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+
+            if (undirectUnforcedEdges) {
+                undirectUnforcedEdges(node);
+            }
+
+            runMeekRules(node);
+        }
+    }
+
+    //============================== Rules ===================================//
+
+    private void runMeekRules(int node) {
+        meekR1(node);
+        meekR2(node);
+        meekR3(node);
+        meekR4(node);
+    }
+
+    /**
+     * Meek's rule R1: if a-->b, b---c, and a not adj to c, then a-->c
+     */
+    private void meekR1(int b) {
+        int[] adjacentNodes = adjacentNodes(b);
+
+        for (int i = 0; i < adjacentNodes.length; i++) {
+            for (int j = i + 1; j < adjacentNodes.length; j++) {
+                r1Helper(adjacentNodes[i], b, adjacentNodes[j]);
+                r1Helper(adjacentNodes[j], b, adjacentNodes[i]);
+            }
+        }
+    }
+
+    private void r1Helper(int a, int b, int c) {
+        if (!isAdjacentTo(a, c) && isDirectedFromTo(a, b) && isUndirectedFromTo(b, c)) {
+            if (!isUnshieldedNoncollider(a, b, c)) {
+                return;
+            }
+
+            if (isArrowpointAllowed(b, c)) {
+                direct(b, c);
+
+                if (rules.isLogging()) {
+                    rules.log(SearchLogUtils.edgeOrientedMsg("Meek R1 triangle (" + nodes[b] + "-->" + nodes[a]
+                            + "---" + nodes[c] + ")", graph.getEdge(nodes[a], nodes[c])));
+                }
+            }
+        }
+    }
+
+    /**
+     * If a-->b-->c, a--c, then b-->c.
+     */
+    private void meekR2(int c) {
+        int[] adjacentNodes = adjacentNodes(c);
+
+        for (int i = 0; i < adjacentNodes.length; i++) {
+            for (int j = i + 1; j < adjacentNodes.length; j++) {
+                int a = adjacentNodes[i];
+                int b = adjacentNodes[j];
+
+                r2Helper(a, b, c);
+                r2Helper(b, a, c);
+                r2Helper(a, c, b);
+                r2Helper(c, a, b);
+            }
+        }
+    }
+
+    private void r2Helper(int a, int b, int c) {
+        if (isDirectedFromTo(a, b) && isDirectedFromTo(b, c) && isUndirectedFromTo(a, c)) {
+            if (isArrowpointAllowed(a, c)) {
+                direct(a, c);
+                log("Meek R2", b, c);
+            }
+        }
+    }
+
+    /**
+     * Meek's rule R3. If a--b, a--c, a--d, c-->b, d-->b, then orient a-->b.
+     */
+    private void meekR3(int a) {
+        int[] adjacentNodes = adjacentNodes(a);
+
+        if (adjacentNodes.length < 3) {
+            return;
+        }
+
+        for (int d : adjacentNodes) {
+            if (isUndirectedFromTo(a, d)) {
+                int[] otherAdjacents = without(adjacentNodes, d);
+
+                for (int i = 0; i < otherAdjacents.length; i++) {
+                    for (int j = i + 1; j < otherAdjacents.length; j++) {
+                        int b = otherAdjacents[i];
+                        int c = otherAdjacents[j];
+
+                        if (isKite(a, d, b, c)) {
+                            if (isArrowpointAllowed(d, a)) {
+                                if (!isUnshieldedNoncollider(c, d, b)) {
+                                    continue;
+                                }
+
+                                direct(d, a);
+                                log("Meek R3", d, a);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isKite(int a, int d, int b, int c) {
+        return isUndirectedFromTo(d, c) && isUndirectedFromTo(d, b) && isDirectedFromTo(b, a)
+                && isDirectedFromTo(c, a) && isUndirectedFromTo(d, a);
+    }
+
+    private void meekR4(int a) {
+        if (!useRule4) {
+            return;
+        }
+
+        int[] adjacentNodes = adjacentNodes(a);
+
+        if (adjacentNodes.length < 3) {
+            return;
+        }
+
+        for (int c : adjacentNodes) {
+            int[] otherAdjacents = without(adjacentNodes, c);
+
+            for (int i = 0; i < otherAdjacents.length; i++) {
+                for (int j = i + 1; j < otherAdjacents.length; j++) {
+                    int b = otherAdjacents[i];
+                    int d = otherAdjacents[j];
+
+                    if (!(isAdjacentTo(a, b) && isAdjacentTo(a, d) && isAdjacentTo(b, c) && isAdjacentTo(d, c)
+                            && isAdjacentTo(a, c))) {
+                        if (r4Helper(a, b, c, d)) {
+                            continue;
+                        }
+
+                        r4Helper(a, d, c, b);
+                    }
+                }
+            }
+        }
+    }
+
+    // Returns true if the rest of the choice is to be skipped.
+    private boolean r4Helper(int a, int b, int c, int d) {
+        if (isDirectedFromTo(b, c) && isDirectedFromTo(c, d) && isUndirectedFromTo(a, d)) {
+            if (isArrowpointAllowed(a, c)) {
+                if (!isUnshieldedNoncollider(b, a, d)) {
+                    return true;
+                }
+
+                if (isArrowpointAllowed(c, d)) {
+                    direct(c, d);
+                    log("Meek R4", c, d);
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private void direct(int a, int c) {
+        if (rules.isForbidden(nodes[a], nodes[c])) {
+            return;
+        }
+
+        Edge before = graph.getEdge(nodes[a], nodes[c]);
+
+        visited.add(nodes[a]);
+        visited.add(nodes[c]);
+
+        graph.removeEdge(before);
+        graph.addEdge(Edges.directedEdge(nodes[a], nodes[c]));
+        replaceEdge(a, c, Endpoint.TAIL, Endpoint.ARROW);
+
+        oriented.add(pair(a, c));
+
+        push(c);
+    }
+
+    // Reports the edge between u and v as oriented by the given rule, with the message the Graph-based rules use.
+    private void log(String rule, int u, int v) {
+        if (rules.isLogging()) {
+            rules.log(SearchLogUtils.edgeOrientedMsg(rule, graph.getEdge(nodes[u], nodes[v])));
+        }
+    }
+
+    private boolean isUnshieldedNoncollider(int a, int b, int c) {
+        int ab = indexOf(a, b);
+
+        if (ab == -1) {
+            return false;
+        }
+
+        int cb = indexOf(c, b);
+
+        if (cb == -1) {
+            return false;
+        }
+
+        if (isAdjacentTo(a, c)) {
+            return false;
+        }
+
+        if (graph.isAmbiguousTriple(nodes[a], nodes[b], nodes[c])) {
+            return false;
+        }
+
+        return !(far[a][ab] == Endpoint.ARROW && far[c][cb] == Endpoint.ARROW);
+    }
+
+    private boolean isArrowpointAllowed(int from, int to) {
+        return rules.isArrowpointAllowed(nodes[from], nodes[to]);
+    }
+
+    private void undirectUnforcedEdges(int y) {
+        load(y);
+
+        List<Node> parents = new ArrayList<>();
+
+        for (int k = 0; k < degree[y]; k++) {
+            if (far[y][k] == Endpoint.TAIL && near[y][k] == Endpoint.ARROW) {
+                parents.add(nodes[adj[y][k]]);
+            }
+        }
+
+        // A hash set, as in MeekRules, so that the edges are undirected in the same order.
+        Set<Node> parentsToUndirect = new HashSet<>();
+
+        NEXT_EDGE:
+        for (Node x : parents) {
+            for (Node parent : parents) {
+                if (parent != x) {
+                    if (!isAdjacentTo(id(parent), id(x))) {
+                        oriented.add(pair(id(x), y));
+                        continue NEXT_EDGE;
+                    }
+                }
+            }
+
+            parentsToUndirect.add(x);
+        }
+
+        boolean didit = false;
+        Node _y = nodes[y];
+
+        for (Node x : parentsToUndirect) {
+            int _x = id(x);
+            boolean mustOrient = rules.isRequired(x, _y) || rules.isForbidden(_y, x);
+
+            if (!(isDirectedFromTo(_x, y) && oriented.contains(pair(_x, y))) && !mustOrient) {
+                graph.removeEdge(x, _y);
+                graph.addUndirectedEdge(x, _y);
+                replaceEdge(_x, y, Endpoint.TAIL, Endpoint.TAIL);
+                visited.add(x);
+                visited.add(_y);
+                didit = true;
+            }
+        }
+
+        if (didit) {
+            for (int k = 0; k < degree[y]; k++) {
+                push(adj[y][k]);
+            }
+
+            push(y);
+        }
+    }
+
+    //============================== Mirror ===================================//
+
+    private int id(Node node) {
+        Integer id = ids.get(node);
+
+        if (id != null) {
+            return id;
+        }
+
+        if (numNodes == nodes.length) {
+            int capacity = 2 * numNodes;
+            nodes = Arrays.copyOf(nodes, capacity);
+            adj = Arrays.copyOf(adj, capacity);
+            near = Arrays.copyOf(near, capacity);
+            far = Arrays.copyOf(far, capacity);
+            degree = Arrays.copyOf(degree, capacity);
+        }
+
+        nodes[numNodes] = node;
+        ids.put(node, numNodes);
+        return numNodes++;
+    }
+
+    private void load(int u) {
+        if (adj[u] != null) {
+            return;
+        }
+
+        Node node = nodes[u];
+        List<Edge> edges = graph.getEdges(node);
+        int[] _adj = new int[Math.max(4, edges.size())];
+        Endpoint[] _near = new Endpoint[_adj.length];
+        Endpoint[] _far = new Endpoint[_adj.length];
+        int d = 0;
+
+        for (Edge edge : edges) {
+            if (edge == null) continue;
+            _adj[d] = id(edge.getDistalNode(node));
+            _near[d] = edge.getProximalEndpoint(node);
+            _far[d] = edge.getDistalEndpoint(node);
+            d++;
+        }
+
+        adj[u] = _adj;
+        near[u] = _near;
+        far[u] = _far;
+        degree[u] = d;
+    }
+
+    private int indexOf(int u, int v) {
+        load(u);
+        int[] _adj = adj[u];
+
+        for (int k = 0; k < degree[u]; k++) {
+            if (_adj[k] == v) return k;
+        }
+
+        return -1;
+    }
+
+    private int[] adjacentNodes(int u) {
+        load(u);
+        return Arrays.copyOf(adj[u], degree[u]);
+    }
+
+    private boolean isAdjacentTo(int u, int v) {
+        return indexOf(u, v) != -1;
+    }
+
+    private boolean isDirectedFromTo(int u, int v) {
+        int k = indexOf(u, v);
+        return k != -1 && far[u][k] == Endpoint.ARROW && (near[u][k] == Endpoint.TAIL || near[u][k] == Endpoint.CIRCLE);
+    }
+
+    private boolean isUndirectedFromTo(int u, int v) {
+        int k = indexOf(u, v);
+        return k != -1 && near[u][k] == Endpoint.TAIL && far[u][k] == Endpoint.TAIL;
+    }
+
+    /**
+     * Replaces the edge between u and v by one with the given endpoints, moving it to the end of the edge lists
+     * of u and v.
+     */
+    private void replaceEdge(int u, int v, Endpoint atU, Endpoint atV) {
+        moveToEnd(u, v, atU, atV);
+        moveToEnd(v, u, atV, atU);
+    }
+
+    private void moveToEnd(int u, int v, Endpoint atU, Endpoint atV) {
+        if (adj[u] == null) {
+            // Will be read from the graph, which already has the change, when needed.
+            return;
+        }
+
+        int k = indexOf(u, v);
+        int last = degree[u] - 1;
+
+        System.arraycopy(adj[u], k + 1, adj[u], k, last - k);
+        System.arraycopy(near[u], k + 1, near[u], k, last - k);
+        System.arraycopy(far[u], k + 1, far[u], k, last - k);
+
+        adj[u][last] = v;
+        near[u][last] = atU;
+        far[u][last] = atV;
+    }
+
+    private void push(int node) {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * stackSize);
+        }
+
+        stack[stackSize++] = node;
+    }
+
+    private static int[] without(int[] nodes, int node) {
+        int[] other = new int[nodes.length - 1];
+        int k = 0;
+        boolean removed = false;
+
+        for (int n : nodes) {
+            if (!removed && n == node) {
+                removed = true;
+                continue;
+            }
+
+            other[k++] = n;
+        }
+
+        return other;
+    }
+
+    private static long pair(int tail, int head) {
+        return ((long) tail << 32) | (head & 0xffffffffL);
+    }
+}
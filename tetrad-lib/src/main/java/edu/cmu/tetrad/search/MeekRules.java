@@ -21,6 +21,7 @@
 
 package edu.cmu.tetrad.search;
 
+import edu.cmu.tetrad.data.CompiledKnowledge;
 import edu.cmu.tetrad.data.IKnowledge;
 import edu.cmu.tetrad.graph.*;
 import edu.cmu.tetrad.util.ChoiceGenerator;
@@ -35,6 +36,9 @@ import java.util.*;
  * orienting.
  * <p>
  * For now, the fourth rule is always performed.
+ * <p>
+ * For an EdgeListGraph, by default, the rules are propagated over an int-indexed mirror of the graph (see
+ * IndexedMeekPropagation); the orientations are the same as when they are run through the Graph interface.
  *
  * @author Joseph Ramsey
  */
@@ -42,6 +46,9 @@ public class MeekRules implements ImpliedOrientation {
 
     private IKnowledge knowledge;
 
+    // A compiled view of the knowledge, used in its place if not null.
+    private CompiledKnowledge compiledKnowledge;
+
     //True if cycles are to be aggressively prevented. May be expensive for large graphs (but also useful for large
     //graphs).
     private boolean aggressivelyPreventCycles = false;
@@ -75,6 +82,9 @@ public class MeekRules implements ImpliedOrientation {
     // True if unforced parents should be undirected before orienting.
     private boolean undirectUnforcedEdges = false;
 
+    // True if the rules should be propagated over an int-indexed mirror of the graph where possible.
+    private boolean indexed = true;
+
     /**
      * Constructs the <code>MeekRules</code> with no logging.
      */
@@ -102,6 +112,14 @@ public class MeekRules implements ImpliedOrientation {
         this.knowledge = knowledge;
     }
 
+    /**
+     * Sets a compiled view of the knowledge to use for lookups in place of the knowledge; the nodes of the
+     * graph are matched to it by name. Null to use the knowledge again.
+     */
+    public void setCompiledKnowledge(CompiledKnowledge compiledKnowledge) {
+        this.compiledKnowledge = compiledKnowledge;
+    }
+
 
     public boolean isAggressivelyPreventCycles() {
         return aggressivelyPreventCycles;
@@ -115,6 +133,19 @@ public class MeekRules implements ImpliedOrientation {
         return changedEdges;
     }
 
+    public boolean isVerbose() {
+        return verbose;
+    }
+
+    /**
+     * True if each orientation should be printed to the out stream (System.out by default) and logged.
+     * Orientations are also logged, without being printed, whenever the "impliedOrientations" logger event
+     * is active.
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
     public void setOut(PrintStream out) {
         this.out = out;
     }
@@ -135,9 +166,25 @@ public class MeekRules implements ImpliedOrientation {
         this.undirectUnforcedEdges = undirectUnforcedEdges;
     }
 
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * True (the default) if, for an EdgeListGraph, the rules should be propagated over an int-indexed mirror of
+     * the graph, false if they should be run through the Graph interface. The orientations are the same either way.
+     */
+    public void setIndexed(boolean indexed) {
+        this.indexed = indexed;
+    }
+
     //============================== Private Methods ===================================//
 
     private void orientUsingMeekRulesLocally(IKnowledge knowledge, Graph graph) {
+        if (indexed && graph instanceof EdgeListGraph) {
+            new IndexedMeekPropagation(this, graph, useRule4, undirectUnforcedEdges, visited).orientImplied(nodes);
+            return;
+        }
 
         oriented = new HashSet<>();
 
@@ -199,11 +246,13 @@ public class MeekRules implements ImpliedOrientation {
                 return;
             }
 
-            if (isArrowpointAllowed(b, c, knowledge)) {
+            if (isArrowpointAllowed(b, c)) {
                 direct(b, c, graph);
-                String message = SearchLogUtils.edgeOrientedMsg(
-                        "Meek R1 triangle (" + b + "-->" + a + "---" + c + ")", graph.getEdge(a, c));
-                log(message);
+
+                if (isLogging()) {
+                    log(SearchLogUtils.edgeOrientedMsg(
+                            "Meek R1 triangle (" + b + "-->" + a + "---" + c + ")", graph.getEdge(a, c)));
+                }
             }
         }
     }
@@ -237,9 +286,9 @@ public class MeekRules implements ImpliedOrientation {
         if (graph.isDirectedFromTo(a, b) &&
                 graph.isDirectedFromTo(b, c) &&
                 graph.isUndirectedFromTo(a, c)) {
-            if (isArrowpointAllowed(a, c, knowledge)) {
+            if (isArrowpointAllowed(a, c)) {
                 direct(a, c, graph);
-                log(SearchLogUtils.edgeOrientedMsg("Meek R2", graph.getEdge(b, c)));
+                if (isLogging()) log(SearchLogUtils.edgeOrientedMsg("Meek R2", graph.getEdge(b, c)));
             }
         }
     }
@@ -270,13 +319,13 @@ public class MeekRules implements ImpliedOrientation {
                     boolean isKite = isKite(a, d, b, c, graph);
 
                     if (isKite) {
-                        if (isArrowpointAllowed(d, a, knowledge)) {
+                        if (isArrowpointAllowed(d, a)) {
                             if (!isUnshieldedNoncollider(c, d, b, graph)) {
                                 continue;
                             }
 
                             direct(d, a, graph);
-                            log(SearchLogUtils.edgeOrientedMsg("Meek R3", graph.getEdge(d, a)));
+                            if (isLogging()) log(SearchLogUtils.edgeOrientedMsg("Meek R3", graph.getEdge(d, a)));
                         }
                     }
                 }
@@ -318,14 +367,14 @@ public class MeekRules implements ImpliedOrientation {
 
                 if (!(graph.isAdjacentTo(a, b) && graph.isAdjacentTo(a, d) && graph.isAdjacentTo(b, c) && graph.isAdjacentTo(d, c) && graph.isAdjacentTo(a, c))) {
                     if (graph.isDirectedFromTo(b, c) && graph.isDirectedFromTo(c, d) && graph.isUndirectedFromTo(a, d)) {
-                        if (isArrowpointAllowed(a, c, knowledge)) {
+                        if (isArrowpointAllowed(a, c)) {
                             if (!isUnshieldedNoncollider(b, a, d, graph)) {
                                 continue;
                             }
 //
-                            if (isArrowpointAllowed(c, d, knowledge)) {
+                            if (isArrowpointAllowed(c, d)) {
                                 direct(c, d, graph);
-                                log(SearchLogUtils.edgeOrientedMsg("Meek R4", graph.getEdge(c, d)));
+                                if (isLogging()) log(SearchLogUtils.edgeOrientedMsg("Meek R4", graph.getEdge(c, d)));
                                 continue;
                             }
                         }
@@ -336,14 +385,14 @@ public class MeekRules implements ImpliedOrientation {
                     b = e;
 
                     if (graph.isDirectedFromTo(b, c) && graph.isDirectedFromTo(c, d) && graph.isUndirectedFromTo(a, d)) {
-                        if (isArrowpointAllowed(a, c, knowledge)) {
+                        if (isArrowpointAllowed(a, c)) {
                             if (!isUnshieldedNoncollider(b, a, d, graph)) {
                                 continue;
                             }
 
-                            if (isArrowpointAllowed(c, d, knowledge)) {
+                            if (isArrowpointAllowed(c, d)) {
                                 direct(c, d, graph);
-                                log(SearchLogUtils.edgeOrientedMsg("Meek R4", graph.getEdge(c, d)));
+                                if (isLogging()) log(SearchLogUtils.edgeOrientedMsg("Meek R4", graph.getEdge(c, d)));
                                 continue;
                             }
                         }
@@ -356,7 +405,7 @@ public class MeekRules implements ImpliedOrientation {
     private void direct(Node a, Node c, Graph graph) {
         Edge before = graph.getEdge(a, c);
 
-        if (knowledge != null && knowledge.isForbidden(a.getName(), c.getName())) {
+        if (isForbidden(a, c)) {
             return;
         }
 
@@ -400,10 +449,18 @@ public class MeekRules implements ImpliedOrientation {
     }
 
 
-    private static boolean isArrowpointAllowed(Node from, Node to, IKnowledge knowledge) {
-        if (knowledge == null) return true;
-        return !knowledge.isRequired(to.toString(), from.toString()) &&
-                !knowledge.isForbidden(from.toString(), to.toString());
+    boolean isArrowpointAllowed(Node from, Node to) {
+        return !isRequired(to, from) && !isForbidden(from, to);
+    }
+
+    boolean isForbidden(Node from, Node to) {
+        if (compiledKnowledge != null) return compiledKnowledge.isForbidden(from, to);
+        return knowledge != null && knowledge.isForbidden(from.getName(), to.getName());
+    }
+
+    boolean isRequired(Node from, Node to) {
+        if (compiledKnowledge != null) return compiledKnowledge.isRequired(from, to);
+        return knowledge != null && knowledge.isRequired(from.getName(), to.getName());
     }
 
     private void undirectUnforcedEdges(Node y, Graph graph) {
@@ -427,8 +484,7 @@ public class MeekRules implements ImpliedOrientation {
         boolean didit = false;
 
         for (Node x : parentsToUndirect) {
-            boolean mustOrient = knowledge.isRequired(x.getName(), y.getName()) ||
-                    knowledge.isForbidden(y.getName(), x.getName());
+            boolean mustOrient = isRequired(x, y) || isForbidden(y, x);
             if (!oriented.contains(graph.getEdge(x, y)) && !mustOrient) {
                 graph.removeEdge(x, y);
                 graph.addUndirectedEdge(x, y);
@@ -447,11 +503,17 @@ public class MeekRules implements ImpliedOrientation {
         }
     }
 
-    private void log(String message) {
+    // True if orientations are to be reported, so that messages need to be made.
+    boolean isLogging() {
+        return verbose || TetradLogger.getInstance().isEventActive("impliedOrientations");
+    }
+
+    void log(String message) {
         if (verbose) {
-            System.out.println(message);
-            TetradLogger.getInstance().log("impliedOrientations", message);
+            (out == null ? System.out : out).println(message);
         }
+
+        TetradLogger.getInstance().log("impliedOrientations", message);
     }
 }
 
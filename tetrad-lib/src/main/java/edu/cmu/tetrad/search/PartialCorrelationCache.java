@@ -0,0 +1,264 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.search;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe cache of partial correlations, keyed by the unordered pair of variable indices together
+ * with the sorted conditioning set, so that x _||_ y | Z and y _||_ x | Z' for any ordering Z' of Z share an
+ * entry. The cache is bounded by an approximate number of bytes.
+ * <p>
+ * Entries are spread by key hash over up to 16 segments, each an LRU map with its own lock and an equal
+ * share of the budget, so that threads looking up different keys seldom wait on one another. Eviction is
+ * least recently used within a segment, so only approximately so over the whole cache; a budget too small
+ * to give each segment room for a reasonable number of entries gets fewer segments, down to one.
+ *
+ * @author Joseph Ramsey
+ */
+public class PartialCorrelationCache {
+
+    // Approximate size of an entry not counting the conditioning indices: map entry, key, boxed value
+    // and the conditioning array header.
+    private static final int ENTRY_OVERHEAD = 112;
+
+    // The maximum number of segments; a power of 2.
+    private static final int MAX_SEGMENTS = 16;
+
+    // The least number of entries (without conditioning indices) each segment's budget should hold.
+    private static final int MIN_SEGMENT_ENTRIES = 64;
+
+    // The maximum number of bytes (approximately) to be used by entries.
+    private final long maxBytes;
+
+    // The segments, a power of 2 of them, chosen by key hash.
+    private final Segment[] segments;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructs a cache that uses at most (approximately) the given number of bytes.
+     *
+     * @param maxBytes The byte budget; must be positive.
+     */
+    public PartialCorrelationCache(long maxBytes) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("Byte budget must be positive: " + maxBytes);
+        this.maxBytes = maxBytes;
+
+        int numSegments = MAX_SEGMENTS;
+
+        while (numSegments > 1 && maxBytes / numSegments < (long) MIN_SEGMENT_ENTRIES * ENTRY_OVERHEAD) {
+            numSegments /= 2;
+        }
+
+        this.segments = new Segment[numSegments];
+
+        for (int i = 0; i < numSegments; i++) {
+            segments[i] = new Segment(maxBytes / numSegments);
+        }
+    }
+
+    /**
+     * @return the cached partial correlation of x and y given z, or NaN if it is not in the cache. The
+     * conditioning indices may be given in any order and are not modified.
+     */
+    public double get(int x, int y, int[] z) {
+        Key key = new Key(x, y, sort(z));
+        Double r = segment(key).get(key);
+
+        if (r == null) {
+            misses.incrementAndGet();
+            return Double.NaN;
+        }
+
+        hits.incrementAndGet();
+        return r;
+    }
+
+    /**
+     * Records the partial correlation of x and y given z, evicting least recently used entries of its
+     * segment if necessary to stay within the byte budget.
+     */
+    public void put(int x, int y, int[] z, double r) {
+        Key key = new Key(x, y, sort(z));
+        segment(key).put(key, r);
+    }
+
+    /**
+     * Removes all entries. The counters are not reset.
+     */
+    public void clear() {
+        for (Segment segment : segments) segment.clear();
+    }
+
+    /**
+     * @return The number of lookups answered from the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of lookups not answered from the cache.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of entries evicted so far.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return The fraction of lookups answered from the cache, or NaN if there have been none.
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? Double.NaN : h / (double) total;
+    }
+
+    /**
+     * @return The number of entries currently cached.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) size += segment.size();
+        return size;
+    }
+
+    /**
+     * @return The approximate number of bytes currently used by entries.
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) bytes += segment.bytes();
+        return bytes;
+    }
+
+    /**
+     * @return The byte budget.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return The number of segments the entries are spread over.
+     */
+    public int getNumSegments() {
+        return segments.length;
+    }
+
+    private Segment segment(Key key) {
+        int h = key.hashCode;
+        return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+    }
+
+    // An LRU map of entries with its own lock and share of the budget.
+    private final class Segment {
+        private final long maxBytes;
+        private long bytes = 0;
+
+        // (x, y, sorted z) --> partial correlation, in access order.
+        private final Map<Key, Double> map = new LinkedHashMap<>(16, 0.75f, true);
+
+        private Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        private synchronized Double get(Key key) {
+            return map.get(key);
+        }
+
+        private synchronized void put(Key key, double r) {
+            if (map.put(key, r) == null) {
+                bytes += key.size();
+            }
+
+            while (bytes > maxBytes && !map.isEmpty()) {
+                Key eldest = map.keySet().iterator().next();
+                map.remove(eldest);
+                bytes -= eldest.size();
+                evictions.incrementAndGet();
+            }
+        }
+
+        private synchronized void clear() {
+            map.clear();
+            bytes = 0;
+        }
+
+        private synchronized int size() {
+            return map.size();
+        }
+
+        private synchronized long bytes() {
+            return bytes;
+        }
+    }
+
+    private static int[] sort(int[] z) {
+        int[] sorted = Arrays.copyOf(z, z.length);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static final class Key {
+        private final int x;
+        private final int y;
+        private final int[] z;
+        private final int hashCode;
+
+        private Key(int x, int y, int[] z) {
+            this.x = Math.min(x, y);
+            this.y = Math.max(x, y);
+            this.z = z;
+            this.hashCode = 31 * (31 * this.x + this.y) + Arrays.hashCode(z);
+        }
+
+        private int size() {
+            return ENTRY_OVERHEAD + 4 * z.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return x == key.x && y == key.y && Arrays.equals(z, key.z);
+        }
+    }
+}
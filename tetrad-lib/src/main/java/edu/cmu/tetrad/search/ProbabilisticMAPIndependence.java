@@ -239,6 +239,11 @@ public class ProbabilisticMAPIndependence implements IndependenceTest {
         return getPValue();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     public Map<IndependenceFact, Double> getH() {
         return new HashMap<>(H);
     }
@@ -31,8 +31,10 @@ import edu.cmu.tetrad.util.TetradVector;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Implements the continuous BIC score for FGS.
@@ -65,6 +67,12 @@ public class SemBicScore implements Score {
     private Set<Integer> forbidden = new HashSet<>();
     private final double logn;
 
+    // True if Cholesky factors of parent covariance blocks should be kept and updated one parent at a time.
+    private boolean incremental = true;
+
+    // The most recent Cholesky factor of the parent covariance block for each child.
+    private AtomicReferenceArray<Factor> factors;
+
     /**
      * Constructs the score using a covariance matrix.
      */
@@ -75,6 +83,7 @@ public class SemBicScore implements Score {
 
         this.setCovariances(covariances);
         this.variables = covariances.getVariables();
+        this.factors = new AtomicReferenceArray<>(variables.size());
         this.sampleSize = covariances.getSampleSize();
         this.penaltyDiscount = 2;
         logn = Math.log(sampleSize);
@@ -86,6 +95,14 @@ public class SemBicScore implements Score {
     public double localScore(int i, int... parents) {
         for (int p : parents) if (forbidden.contains(p)) return Double.NaN;
 
+        if (incremental && forbidden.isEmpty()) {
+            Factor factor = getFactor(i, parents);
+
+            if (factor != null) {
+                return score(factor);
+            }
+        }
+
 //        if (parents.length == 0) return localScore(i);
 //        else if (parents.length == 1) return localScore(i, parents[0]);
 
@@ -126,9 +143,30 @@ public class SemBicScore implements Score {
         }
     }
 
+    /**
+     * Scores y given z together with x, minus y given z. The Cholesky factor for y given z is usually
+     * an update of the one used in the previous call for y, and the factor for z together with x is an
+     * extension of it by one row, so this costs O(k^2) in the number k of parents rather than O(k^3).
+     */
     @Override
     public double localScoreDiff(int x, int y, int[] z) {
-        return localScore(y, append(z, x)) - localScore(y, z);
+        if (!incremental || !forbidden.isEmpty()) {
+            return localScore(y, append(z, x)) - localScore(y, z);
+        }
+
+        Factor factor = getFactor(y, z);
+
+        if (factor == null) {
+            return localScore(y, append(z, x)) - localScore(y, z);
+        }
+
+        Factor extended = factor.extend(x, getCovariances());
+
+        if (extended == null) {
+            return localScore(y, append(z, x)) - score(factor);
+        }
+
+        return score(extended) - score(factor);
     }
 
     @Override
@@ -194,6 +232,23 @@ public class SemBicScore implements Score {
         return score(residualVariance, n, logn, p, c);
     }
 
+    /**
+     * True if Cholesky factors of parent covariance blocks are kept for each child and updated when a
+     * parent is added or removed. True by default.
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Sets whether Cholesky factors of parent covariance blocks are kept for each child and updated
+     * when a parent is added or removed, instead of inverting each parent covariance block afresh.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        this.factors = new AtomicReferenceArray<>(variables.size());
+    }
+
     /**
      * True iff edges that cause linear dependence are ignored.
      */
@@ -277,6 +332,220 @@ public class SemBicScore implements Score {
 //    }
 
 
+    private double score(Factor factor) {
+        double residualVariance = factor.residualVariance;
+
+        if (residualVariance <= 0) {
+            if (isVerbose()) {
+                out.println("Nonpositive residual varianceY: resVar / varianceY = " +
+                        (residualVariance / getCovariances().getValue(factor.child, factor.child)));
+            }
+            return Double.NaN;
+        }
+
+        return score(residualVariance, getSampleSize(), logn, factor.parents.length, getPenaltyDiscount());
+    }
+
+    // Returns a Cholesky factor for the child given the parents, updating the last one used for the
+    // child if it differs from the parents by only a few variables. Returns null if the parent
+    // covariance block is singular.
+    private Factor getFactor(int child, int[] parents) {
+        int[] sorted = Arrays.copyOf(parents, parents.length);
+        Arrays.sort(sorted);
+
+        Factor factor = factors.get(child);
+
+        if (factor != null) {
+            int[] removed = minus(factor.sorted, sorted);
+            int[] added = minus(sorted, factor.sorted);
+            int changes = removed.length + added.length;
+
+            if (changes == 0) {
+                return factor;
+            }
+
+            if (changes <= Math.max(2, sorted.length / 4)) {
+                for (int v : removed) {
+                    factor = factor.remove(v, getCovariances());
+                }
+
+                for (int v : added) {
+                    if (factor == null) break;
+                    factor = factor.extend(v, getCovariances());
+                }
+
+                if (factor != null) {
+                    factors.set(child, factor);
+                }
+
+                return factor;
+            }
+        }
+
+        factor = new Factor(child, getCovariances());
+
+        for (int v : parents) {
+            factor = factor.extend(v, getCovariances());
+            if (factor == null) return null;
+        }
+
+        factors.set(child, factor);
+        return factor;
+    }
+
+    // The elements of sorted array a not in sorted array b.
+    private static int[] minus(int[] a, int[] b) {
+        int[] c = new int[a.length];
+        int n = 0;
+        int j = 0;
+
+        for (int v : a) {
+            while (j < b.length && b[j] < v) j++;
+            if (j == b.length || b[j] != v) c[n++] = v;
+        }
+
+        return Arrays.copyOf(c, n);
+    }
+
+    /**
+     * An immutable Cholesky factor L of the covariance block of a list of parents of a child, together
+     * with w = inverse(L) * cov(parents, child), so that the residual variance of the child given the
+     * parents is var(child) - w'w. Rows of L are shared between factors that have them in common.
+     */
+    private static final class Factor {
+        private final int child;
+        private final int[] parents;
+        private final int[] sorted;
+        private final double[][] l;
+        private final double[] w;
+        private final double residualVariance;
+
+        private Factor(int child, ICovarianceMatrix cov) {
+            this(child, new int[0], new double[0][], new double[0], cov.getValue(child, child));
+        }
+
+        private Factor(int child, int[] parents, double[][] l, double[] w, double residualVariance) {
+            this.child = child;
+            this.parents = parents;
+            this.sorted = Arrays.copyOf(parents, parents.length);
+            Arrays.sort(this.sorted);
+            this.l = l;
+            this.w = w;
+            this.residualVariance = residualVariance;
+        }
+
+        // Adds v as the last parent, or returns null if the extended block is (numerically) singular.
+        private Factor extend(int v, ICovarianceMatrix cov) {
+            int k = parents.length;
+            double[] row = new double[k + 1];
+            double sum = 0.0;
+
+            for (int j = 0; j < k; j++) {
+                double d = cov.getValue(v, parents[j]);
+                double[] lj = l[j];
+
+                for (int m = 0; m < j; m++) {
+                    d -= lj[m] * row[m];
+                }
+
+                row[j] = d / lj[j];
+                sum += row[j] * row[j];
+            }
+
+            double vv = cov.getValue(v, v);
+            double d2 = vv - sum;
+
+            if (!(d2 > 1e-12 * vv)) {
+                return null;
+            }
+
+            row[k] = Math.sqrt(d2);
+
+            double wv = cov.getValue(v, child);
+
+            for (int j = 0; j < k; j++) {
+                wv -= row[j] * w[j];
+            }
+
+            wv /= row[k];
+
+            int[] _parents = Arrays.copyOf(parents, k + 1);
+            _parents[k] = v;
+
+            double[][] _l = Arrays.copyOf(l, k + 1);
+            _l[k] = row;
+
+            double[] _w = Arrays.copyOf(w, k + 1);
+            _w[k] = wv;
+
+            return new Factor(child, _parents, _l, _w, residualVariance - wv * wv);
+        }
+
+        // Removes parent v by a rank-one update of the trailing block.
+        private Factor remove(int v, ICovarianceMatrix cov) {
+            int k = parents.length;
+            int i = 0;
+
+            while (parents[i] != v) i++;
+
+            int[] _parents = new int[k - 1];
+            System.arraycopy(parents, 0, _parents, 0, i);
+            System.arraycopy(parents, i + 1, _parents, i, k - i - 1);
+
+            double[][] _l = new double[k - 1][];
+            System.arraycopy(l, 0, _l, 0, i);
+
+            int m = k - i - 1;
+            double[] x = new double[m];
+
+            for (int j = 0; j < m; j++) {
+                double[] old = l[i + 1 + j];
+                double[] row = new double[i + j + 1];
+                System.arraycopy(old, 0, row, 0, i);
+                System.arraycopy(old, i + 1, row, i, j + 1);
+                x[j] = old[i];
+                _l[i + j] = row;
+            }
+
+            // Cholesky update of the trailing block by x x'.
+            for (int j = 0; j < m; j++) {
+                double[] lj = _l[i + j];
+                double ljj = lj[i + j];
+                double r = Math.hypot(ljj, x[j]);
+                double c = r / ljj;
+                double s = x[j] / ljj;
+                lj[i + j] = r;
+
+                for (int q = j + 1; q < m; q++) {
+                    double[] lq = _l[i + q];
+                    lq[i + j] = (lq[i + j] + s * x[q]) / c;
+                    x[q] = c * x[q] - s * lq[i + j];
+                }
+            }
+
+            double[] _w = Arrays.copyOf(w, k - 1);
+            double residualVariance = cov.getValue(child, child);
+
+            for (int j = 0; j < i; j++) {
+                residualVariance -= _w[j] * _w[j];
+            }
+
+            for (int j = i; j < k - 1; j++) {
+                double d = cov.getValue(_parents[j], child);
+                double[] lj = _l[j];
+
+                for (int q = 0; q < j; q++) {
+                    d -= lj[q] * _w[q];
+                }
+
+                _w[j] = d / lj[j];
+                residualVariance -= _w[j] * _w[j];
+            }
+
+            return new Factor(child, _parents, _l, _w, residualVariance);
+        }
+    }
+
     private TetradMatrix getSelection1(ICovarianceMatrix cov, int[] rows) {
         return cov.getSelection(rows, rows);
     }
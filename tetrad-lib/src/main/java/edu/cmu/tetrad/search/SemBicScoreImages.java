@@ -49,6 +49,9 @@ public class SemBicScoreImages implements ISemBicScore, Score {
 
     private int sampleSize;
 
+    // Scores families in all of the data sets at once.
+    private ImagesScoring scoring;
+
     // The penalty penaltyDiscount.
     private double penaltyDiscount = 2.0;
 
@@ -99,6 +102,7 @@ public class SemBicScoreImages implements ISemBicScore, Score {
         }
 
         this.semBicScores = semBicScores;
+        this.scoring = new ImagesScoring(semBicScores);
         this.variables = variables;
         this.sampleSize = semBicScores.get(0).getSampleSize();
         setParameter1(2.0);
@@ -107,19 +111,7 @@ public class SemBicScoreImages implements ISemBicScore, Score {
 
     @Override
     public double localScoreDiff(int x, int y, int[] z) {
-        double sum = 0.0;
-        int count = 0;
-
-        for (SemBicScore score : semBicScores) {
-            double _score = score.localScoreDiff(x, y, z);
-
-            if (!Double.isNaN(_score)) {
-                sum += _score;
-                count++;
-            }
-        }
-
-        return sum / count;
+        return ImagesScoring.averageOfDefined(scoring.localScoreDiffs(x, y, z));
     }
 
     @Override
@@ -131,19 +123,7 @@ public class SemBicScoreImages implements ISemBicScore, Score {
      * Calculates the sample likelihood and BIC score for i given its parents in a simple SEM model
      */
     public double localScore(int i, int[] parents) {
-        double sum = 0.0;
-        int count = 0;
-
-        for (SemBicScore score : semBicScores) {
-            double _score = score.localScore(i, parents);
-
-            if (!Double.isNaN(_score)) {
-                sum += _score;
-                count++;
-            }
-        }
-
-        return sum / count;
+        return ImagesScoring.averageOfDefined(scoring.localScores(i, parents));
     }
 
     public double localScore(int i, int[] parents, int index) {
@@ -166,38 +146,14 @@ public class SemBicScoreImages implements ISemBicScore, Score {
      * Specialized scoring method for a single parent. Used to speed up the effect edges search.
      */
     public double localScore(int i, int parent) {
-        double sum = 0.0;
-        int count = 0;
-
-        for (SemBicScore score : semBicScores) {
-            double _score = score.localScore(i, parent);
-
-            if (!Double.isNaN(_score)) {
-                sum += _score;
-                count++;
-            }
-        }
-
-        return sum / count;
+        return ImagesScoring.averageOfDefined(scoring.localScores(i, parent));
     }
 
     /**
      * Specialized scoring method for no parents. Used to speed up the effect edges search.
      */
     public double localScore(int i) {
-        double sum = 0.0;
-        int count = 0;
-
-        for (SemBicScore score : semBicScores) {
-            double _score = score.localScore(i);
-
-            if (!Double.isNaN(_score)) {
-                sum += _score;
-                count++;
-            }
-        }
-
-        return sum / count;
+        return ImagesScoring.averageOfDefined(scoring.localScores(i));
     }
 
     public void setOut(PrintStream out) {
@@ -224,6 +180,20 @@ public class SemBicScoreImages implements ISemBicScore, Score {
         }
     }
 
+    /**
+     * @return True if the data sets are scored in parallel, in the current execution context.
+     */
+    public boolean isParallel() {
+        return scoring.isParallel();
+    }
+
+    /**
+     * Sets whether the data sets are scored in parallel. The scores are the same either way.
+     */
+    public void setParallel(boolean parallel) {
+        scoring.setParallel(parallel);
+    }
+
     public boolean isVerbose() {
         return verbose;
     }
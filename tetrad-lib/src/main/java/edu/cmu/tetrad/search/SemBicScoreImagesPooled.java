@@ -0,0 +1,479 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.search;
+
+import edu.cmu.tetrad.data.CovarianceKernel;
+import edu.cmu.tetrad.data.DataModel;
+import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.data.ICovarianceMatrix;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.io.TabularContinuousCovarianceReader;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The IMaGES average of the continuous BIC score over many subjects, for FGS, keeping only the
+ * covariance matrices of the subjects, packed together.
+ * <p>
+ * For each variable j there is one array holding cov(i, j) for i <= j, and within it the values
+ * of all of the subjects for a given (i, j) are next to one another. This takes half of the memory
+ * of full matrices, or a quarter in float precision, and there is no SemBicScore per subject. A
+ * family is scored for all of the subjects together, by a Cholesky factorization of the parent
+ * covariance blocks done in lockstep, with the subjects in the innermost loops.
+ * <p>
+ * The scores are those of SemBicScoreImages: the BIC score of each subject with its own sample
+ * size, averaged over the subjects for which it is defined. A subject whose parent covariance block
+ * is (numerically) singular is left out of the average for that family.
+ * <p>
+ * Subjects may be read one at a time from disk, so that only one subject's data is in memory at once.
+ *
+ * @author Joseph Ramsey
+ * @see SemBicScoreImages
+ */
+public class SemBicScoreImagesPooled implements ISemBicScore, Score {
+
+    // The variables, the same for all subjects.
+    private List<Node> variables;
+
+    // The number of subjects.
+    private final int numSubjects;
+
+    // The sample size of each subject.
+    private final int[] sampleSizes;
+
+    // cov(i, j) for subject s, i <= j, is at columns[j][i * numSubjects + s]. Null in float precision.
+    private double[][] columns;
+
+    // The same, in float precision. Null in double precision.
+    private float[][] floatColumns;
+
+    // The penalty discount.
+    private double penaltyDiscount = 2.0;
+
+    // True if verbose output should be sent to out.
+    private boolean verbose = false;
+
+    // The print stream verbose output is sent to.
+    private PrintStream out = System.out;
+
+    /**
+     * Constructs the score from the given continuous data sets or covariance matrices, all over the
+     * same variables in the same order. The covariances are stored in float precision if floatPrecision
+     * is true. Covariances of data sets are computed straight into the packed arrays.
+     */
+    public SemBicScoreImagesPooled(List<DataModel> dataModels, boolean floatPrecision) {
+        if (dataModels == null) {
+            throw new NullPointerException();
+        }
+
+        if (dataModels.isEmpty()) {
+            throw new IllegalArgumentException("No data models were given.");
+        }
+
+        this.numSubjects = dataModels.size();
+        this.sampleSizes = new int[numSubjects];
+
+        for (int s = 0; s < numSubjects; s++) {
+            DataModel model = dataModels.get(s);
+
+            if (model instanceof DataSet) {
+                DataSet dataSet = (DataSet) model;
+
+                if (!dataSet.isContinuous()) {
+                    throw new IllegalArgumentException("Datasets must be continuous.");
+                }
+
+                addSubject(s, dataSet.getVariables(), dataSet.getNumRows(), floatPrecision);
+
+                final int subject = s;
+
+                CovarianceKernel.covariances(dataSet, new CovarianceKernel.Sink() {
+                    public void set(int i, int j, double covariance) {
+                        store(i, j, subject, covariance);
+                    }
+                });
+            } else if (model instanceof ICovarianceMatrix) {
+                addSubject(s, (ICovarianceMatrix) model, floatPrecision);
+            } else {
+                throw new IllegalArgumentException("Only continuous data sets and covariance matrices may be used as input.");
+            }
+        }
+    }
+
+    /**
+     * Constructs the score from the given tabular continuous data files, one per subject, reading
+     * them one at a time and keeping only their covariances.
+     *
+     * @throws IOException if a file can't be read.
+     */
+    public SemBicScoreImagesPooled(List<Path> dataFiles, char delimiter, boolean floatPrecision) throws IOException {
+        if (dataFiles == null) {
+            throw new NullPointerException();
+        }
+
+        if (dataFiles.isEmpty()) {
+            throw new IllegalArgumentException("No data files were given.");
+        }
+
+        this.numSubjects = dataFiles.size();
+        this.sampleSizes = new int[numSubjects];
+
+        for (int s = 0; s < numSubjects; s++) {
+            TabularContinuousCovarianceReader reader = new TabularContinuousCovarianceReader(dataFiles.get(s), delimiter);
+            addSubject(s, reader.readInStatistics().getCovarianceMatrix(), floatPrecision);
+        }
+    }
+
+    //============================PUBLIC METHODS=========================//
+
+    /**
+     * Calculates the sample likelihood and BIC score for i given its parents in a simple SEM model,
+     * averaged over the subjects.
+     */
+    public double localScore(int i, int... parents) {
+        return ImagesScoring.averageOfDefined(new Family(i, parents).score(parents.length));
+    }
+
+    /**
+     * Scores y given z together with x, minus y given z, averaged over the subjects. Both scores
+     * come from one factorization, since the factor for z is the leading part of the one for z with x.
+     */
+    @Override
+    public double localScoreDiff(int x, int y, int[] z) {
+        Family family = new Family(y, append(z, x));
+        double[] with = family.score(z.length + 1);
+        double[] without = family.score(z.length);
+
+        for (int s = 0; s < numSubjects; s++) {
+            with[s] -= without[s];
+        }
+
+        return ImagesScoring.averageOfDefined(with);
+    }
+
+    @Override
+    public double localScoreDiff(int x, int y) {
+        return localScoreDiff(x, y, new int[0]);
+    }
+
+    /**
+     * Specialized scoring method for a single parent. Used to speed up the effect edges search.
+     */
+    public double localScore(int i, int parent) {
+        return localScore(i, new int[]{parent});
+    }
+
+    /**
+     * Specialized scoring method for no parents. Used to speed up the effect edges search.
+     */
+    public double localScore(int i) {
+        return localScore(i, new int[0]);
+    }
+
+    /**
+     * @return The covariance of variables i and j for the given subject.
+     */
+    public double getCovariance(int i, int j, int subject) {
+        if (i > j) return getCovariance(j, i, subject);
+        int index = i * numSubjects + subject;
+        return columns != null ? columns[j][index] : floatColumns[j][index];
+    }
+
+    public int getNumSubjects() {
+        return numSubjects;
+    }
+
+    /**
+     * @return The sample size of the given subject.
+     */
+    public int getSampleSize(int subject) {
+        return sampleSizes[subject];
+    }
+
+    public boolean isFloatPrecision() {
+        return floatColumns != null;
+    }
+
+    public double getPenaltyDiscount() {
+        return penaltyDiscount;
+    }
+
+    public void setPenaltyDiscount(double penaltyDiscount) {
+        this.penaltyDiscount = penaltyDiscount;
+    }
+
+    @Override
+    public boolean isEffectEdge(double bump) {
+        return bump > -0.25 * getPenaltyDiscount() * Math.log(getSampleSize());
+    }
+
+    public boolean isVerbose() {
+        return verbose;
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    public void setOut(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public List<Node> getVariables() {
+        return variables;
+    }
+
+    @Override
+    public double getParameter1() {
+        return penaltyDiscount;
+    }
+
+    @Override
+    public void setParameter1(double value) {
+        this.penaltyDiscount = value;
+    }
+
+    /**
+     * @return The sample size of the first subject.
+     */
+    @Override
+    public int getSampleSize() {
+        return sampleSizes[0];
+    }
+
+    @Override
+    public Node getVariable(String targetName) {
+        for (Node node : variables) {
+            if (node.getName().equals(targetName)) {
+                return node;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public int getMaxDegree() {
+        return 1000;
+    }
+
+    //========================PRIVATE METHODS============================//
+
+    private void addSubject(int s, ICovarianceMatrix cov, boolean floatPrecision) {
+        addSubject(s, cov.getVariables(), cov.getSampleSize(), floatPrecision);
+
+        for (int j = 0; j < variables.size(); j++) {
+            for (int i = 0; i <= j; i++) {
+                store(i, j, s, cov.getValue(i, j));
+            }
+        }
+    }
+
+    // Checks the variables of subject s and allocates the arrays for the first subject.
+    private void addSubject(int s, List<Node> subjectVariables, int sampleSize, boolean floatPrecision) {
+        if (s == 0) {
+            this.variables = new ArrayList<>(subjectVariables);
+            int numVars = variables.size();
+
+            if (floatPrecision) {
+                floatColumns = new float[numVars][];
+                for (int j = 0; j < numVars; j++) floatColumns[j] = new float[(j + 1) * numSubjects];
+            } else {
+                columns = new double[numVars][];
+                for (int j = 0; j < numVars; j++) columns[j] = new double[(j + 1) * numSubjects];
+            }
+        } else {
+            if (subjectVariables.size() != variables.size()) {
+                throw new IllegalArgumentException("Subject " + (s + 1) + " has " + subjectVariables.size()
+                        + " variables; the first has " + variables.size() + ".");
+            }
+
+            for (int i = 0; i < variables.size(); i++) {
+                if (!subjectVariables.get(i).getName().equals(variables.get(i).getName())) {
+                    throw new IllegalArgumentException("Variable " + (i + 1) + " of subject " + (s + 1) + " is "
+                            + subjectVariables.get(i) + "; for the first subject it is " + variables.get(i) + ".");
+                }
+            }
+        }
+
+        sampleSizes[s] = sampleSize;
+    }
+
+    private void store(int i, int j, int s, double covariance) {
+        if (i > j) {
+            store(j, i, s, covariance);
+            return;
+        }
+
+        if (columns != null) {
+            columns[j][i * numSubjects + s] = covariance;
+        } else {
+            floatColumns[j][i * numSubjects + s] = (float) covariance;
+        }
+    }
+
+    // Copies cov(i, j) for all of the subjects into values.
+    private void load(int i, int j, double[] values) {
+        if (i > j) {
+            load(j, i, values);
+            return;
+        }
+
+        int offset = i * numSubjects;
+
+        if (columns != null) {
+            System.arraycopy(columns[j], offset, values, 0, numSubjects);
+        } else {
+            float[] column = floatColumns[j];
+
+            for (int s = 0; s < numSubjects; s++) {
+                values[s] = column[offset + s];
+            }
+        }
+    }
+
+    private static int[] append(int[] parents, int extra) {
+        int[] all = new int[parents.length + 1];
+        System.arraycopy(parents, 0, all, 0, parents.length);
+        all[parents.length] = extra;
+        return all;
+    }
+
+    /**
+     * The Cholesky factors L of the parent covariance blocks of a child for all subjects, with
+     * w = inverse(L) * cov(parents, child), so that the residual variance of the child given the first
+     * k parents is var(child) minus the sum of the first k squares of w.
+     */
+    private class Family {
+        private final int child;
+
+        // residualVariances[k][s] is the residual variance of the child given the first k parents,
+        // or NaN if their covariance block is singular.
+        private final double[][] residualVariances;
+
+        private Family(int child, int[] parents) {
+            this.child = child;
+
+            int k = parents.length;
+            double[][][] l = new double[k][][];
+            double[][] w = new double[k][];
+            double[] cov = new double[numSubjects];
+
+            residualVariances = new double[k + 1][numSubjects];
+            load(child, child, residualVariances[0]);
+
+            for (int j = 0; j < k; j++) {
+                double[][] row = new double[j + 1][numSubjects];
+                double[] sum = new double[numSubjects];
+
+                for (int m = 0; m < j; m++) {
+                    double[] d = row[m];
+                    load(parents[j], parents[m], d);
+
+                    for (int q = 0; q < m; q++) {
+                        double[] rq = row[q];
+                        double[] lmq = l[m][q];
+
+                        for (int s = 0; s < numSubjects; s++) {
+                            d[s] -= lmq[s] * rq[s];
+                        }
+                    }
+
+                    double[] lmm = l[m][m];
+
+                    for (int s = 0; s < numSubjects; s++) {
+                        d[s] /= lmm[s];
+                        sum[s] += d[s] * d[s];
+                    }
+                }
+
+                double[] diagonal = row[j];
+                load(parents[j], parents[j], diagonal);
+
+                double[] wj = new double[numSubjects];
+                load(parents[j], child, wj);
+
+                for (int m = 0; m < j; m++) {
+                    double[] rm = row[m];
+                    double[] wm = w[m];
+
+                    for (int s = 0; s < numSubjects; s++) {
+                        wj[s] -= rm[s] * wm[s];
+                    }
+                }
+
+                double[] previous = residualVariances[j];
+                double[] residualVariance = residualVariances[j + 1];
+
+                for (int s = 0; s < numSubjects; s++) {
+                    double vv = diagonal[s];
+                    double d2 = vv - sum[s];
+
+                    if (d2 > 1e-12 * vv) {
+                        diagonal[s] = Math.sqrt(d2);
+                        wj[s] /= diagonal[s];
+                        residualVariance[s] = previous[s] - wj[s] * wj[s];
+                    } else {
+                        // Singular; later factors for this subject are NaN as well.
+                        diagonal[s] = Double.NaN;
+                        wj[s] = Double.NaN;
+                        residualVariance[s] = Double.NaN;
+                    }
+                }
+
+                l[j] = row;
+                w[j] = wj;
+            }
+        }
+
+        // The BIC scores of the child given its first k parents, for each subject.
+        private double[] score(int k) {
+            double[] scores = new double[numSubjects];
+            double[] residualVariance = residualVariances[k];
+            double c = getPenaltyDiscount();
+
+            for (int s = 0; s < numSubjects; s++) {
+                double r = residualVariance[s];
+
+                if (!(r > 0)) {
+                    if (verbose && !Double.isNaN(r)) {
+                        out.println("Nonpositive residual variance for subject " + (s + 1) + ": resVar / varianceY = "
+                                + (r / getCovariance(child, child, s)));
+                    }
+
+                    scores[s] = Double.NaN;
+                    continue;
+                }
+
+                int n = sampleSizes[s];
+                scores[s] = -n * Math.log(r) - c * (k + 1) * Math.log(n);
+            }
+
+            return scores;
+        }
+    }
+}
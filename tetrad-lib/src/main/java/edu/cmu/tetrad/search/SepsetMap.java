@@ -24,10 +24,18 @@ package edu.cmu.tetrad.search;
 import edu.cmu.tetrad.graph.Node;
 import edu.cmu.tetrad.util.TetradSerializable;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>Stores a map from pairs of nodes to separating sets--that is, for each unordered pair of nodes {node1, node2} in a
@@ -39,17 +47,45 @@ import java.util.concurrent.ConcurrentHashMap;
  * variable-like objects to Node to allow them either to be variables explicitly or else to be graph nodes that in some
  * model could be considered as variables. This allows us to use d-separation as a graphical indicator of what
  * independendence in models ideally should be.</p>
+ * <p>Internally each node is given an int id the first time it is stored, pairs are keyed by their two ids packed into
+ * a long, and sepsets are kept as int arrays of ids, so that setting and getting sepsets from many threads at once
+ * does not allocate set keys. If a spill directory is given, the sepsets themselves are appended to a temporary file
+ * in that directory and only their file offsets are kept in memory, in a table of primitive longs; sepsets are read
+ * back from the file when they are asked for. The file is kept until the map is closed or garbage collected. The map
+ * is serialized in the same form as before, as maps from pairs of nodes to lists of nodes.</p>
  *
  * @author Joseph Ramsey
  */
-public final class SepsetMap implements TetradSerializable {
+public final class SepsetMap implements TetradSerializable, Closeable {
     static final long serialVersionUID = 23L;
 
     /**
-     * @serial
+     * The serialized fields, which are written as maps keyed by sets of nodes.
      */
-    private Map<Set<Node>, List<Node>> sepsets = new ConcurrentHashMap<>();
-    private Map<Set<Node>, Double> pValues = new ConcurrentHashMap<>();
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("sepsets", Map.class),
+            new ObjectStreamField("pValues", Map.class),
+            new ObjectStreamField("parents", Map.class),
+            new ObjectStreamField("correlations", Set.class),
+            new ObjectStreamField("returnEmptyIfNotSet", boolean.class)
+    };
+
+    private static final int[] EMPTY = new int[0];
+
+    // Node ids. A node is placed in idNodes before its id is published in ids.
+    private transient Map<Node, Integer> ids = new ConcurrentHashMap<>();
+    private transient volatile Node[] idNodes = new Node[16];
+    private transient int numIds = 0;
+
+    // Sepsets and p values keyed by packed id pairs.
+    private transient Map<Long, int[]> sepsets = new ConcurrentHashMap<>();
+    private transient Map<Long, Double> pValues = new ConcurrentHashMap<>();
+
+    // Offsets into the spill file of the sepsets that have been written to disk, if spilling.
+    private transient OffsetTable spilled;
+    private transient File spillFile;
+    private transient FileChannel spillChannel;
+    private transient AtomicLong spillPosition;
 
     private Map<Node, HashSet<Node>> parents = new HashMap<>();
     private Set<Set<Node>> correlations;
@@ -60,9 +96,27 @@ public final class SepsetMap implements TetradSerializable {
     public SepsetMap() {
     }
 
+    /**
+     * Constructs a map that writes its sepsets to a temporary file in the given directory rather than keeping them in
+     * memory. The file is deleted when the map is closed or garbage collected, or on exit.
+     */
+    public SepsetMap(File spillDirectory) {
+        try {
+            File file = File.createTempFile("sepsets", ".bin", spillDirectory);
+            file.deleteOnExit();
+            this.spillFile = file;
+            this.spillChannel = new RandomAccessFile(file, "rw").getChannel();
+            this.spillPosition = new AtomicLong(0);
+            this.spilled = new OffsetTable();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public SepsetMap(SepsetMap map) {
-        this.sepsets = new HashMap<>(map.sepsets);
-        this.pValues = new HashMap<>(map.pValues);
+        setAll(map.sepsetMap());
+
+        setAllPValues(map.pValueMap());
     }
 
     /**
@@ -78,48 +132,84 @@ public final class SepsetMap implements TetradSerializable {
      * Sets the sepset for {x, y} to be z. Note that {x, y} is unordered.
      */
     public void set(Node x, Node y, List<Node> z) {
-        Set<Node> pair = new HashSet<>(2);
-        pair.add(x);
-        pair.add(y);
         if (z == null) {
-            sepsets.remove(pair);
+            long key = key(x, y, false);
+
+            if (key != -1) {
+                sepsets.remove(key);
+                if (spilled != null) spilled.remove(key);
+            }
         } else {
-            sepsets.put(pair, z);
+            long key = key(x, y, true);
+            int[] set = EMPTY;
+
+            if (!z.isEmpty()) {
+                set = new int[z.size()];
+
+                for (int i = 0; i < set.length; i++) {
+                    set[i] = id(z.get(i));
+                }
+            }
+
+            if (spillChannel == null) {
+                sepsets.put(key, set);
+                if (spilled != null) spilled.remove(key);
+            } else {
+                spilled.put(key, spill(set));
+            }
+        }
+    }
+
+    /**
+     * If this map spills to disk, closes the spill file and deletes it, discarding the sepsets in it; asking for one
+     * of those afterward throws an IllegalStateException. Sepsets set afterward are kept in memory. Does nothing
+     * otherwise. Should not be called while other threads are using the map.
+     */
+    public synchronized void close() {
+        if (spillChannel == null) {
+            return;
+        }
+
+        try {
+            spillChannel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            spillChannel = null;
+            spillFile.delete();
+            spillFile = null;
         }
     }
 
     public void setPValue(Node x, Node y, double p) {
-        Set<Node> pair = new HashSet<>(2);
-        pair.add(x);
-        pair.add(y);
-        pValues.put(pair, p);
+        pValues.put(key(x, y, true), p);
     }
 
     /**
      * Retrieves the sepset previously set for {x, y}, or null if no such set was previously set.
      */
     public List<Node> get(Node x, Node y) {
-        Set<Node> pair = new HashSet<>(2);
-        pair.add(x);
-        pair.add(y);
-
-        if (correlations != null && !correlations.contains(pair)) {
+        if (correlations != null && !correlations.contains(pair(x, y))) {
             return Collections.emptyList();
         }
 
-        if (returnEmptyIfNotSet && sepsets.get(pair) == null) {
+        List<Node> sepset = null;
+        long key = key(x, y, false);
+
+        if (key != -1) {
+            sepset = nodes(lookup(key));
+        }
+
+        if (returnEmptyIfNotSet && sepset == null) {
             return Collections.emptyList();
         }
 
-        return sepsets.get(pair);
+        return sepset;
     }
 
     public double getPValue(Node x, Node y) {
-        Set<Node> pair = new HashSet<>(2);
-        pair.add(x);
-        pair.add(y);
-
-        return pValues.get(pair);
+        long key = key(x, y, false);
+        return pValues.get(key);
     }
 
     public void set(Node x, LinkedHashSet<Node> z) {
@@ -144,36 +234,65 @@ public final class SepsetMap implements TetradSerializable {
         }
 
         SepsetMap _sepset = (SepsetMap) o;
-        return sepsets.equals(_sepset.sepsets);
+        return sepsetMap().equals(_sepset.sepsetMap());
     }
 
+    /**
+     * Writes the sepsets and p values out as maps from pairs of nodes, as in earlier versions of this class.
+     */
+    private void writeObject(ObjectOutputStream s) throws IOException {
+        ObjectOutputStream.PutField fields = s.putFields();
+        fields.put("sepsets", sepsetMap());
+        fields.put("pValues", pValueMap());
+        fields.put("parents", parents);
+        fields.put("correlations", correlations);
+        fields.put("returnEmptyIfNotSet", returnEmptyIfNotSet);
+        s.writeFields();
+    }
 
     /**
-     * Adds semantic checks to the default deserialization method. This method must have the standard signature for a
-     * readObject method, and the body of the method must begin with "s.defaultReadObject();". Other than that, any
-     * semantic checks can be specified and do not need to stay the same from version to version. A readObject method of
-     * this form may be added to any class, even if Tetrad sessions were previously saved out using a version of the
-     * class that didn't include it. (That's what the "s.defaultReadObject();" is for. See J. Bloch, Effective Java, for
-     * help.
+     * Reads the maps written by writeObject, or by earlier versions of this class, and stores them by id pairs.
      *
      * @throws java.io.IOException
      * @throws ClassNotFoundException
      */
+    @SuppressWarnings("unchecked")
     private void readObject(ObjectInputStream s)
             throws IOException, ClassNotFoundException {
-        s.defaultReadObject();
+        ObjectInputStream.GetField fields = s.readFields();
+
+        Map<Set<Node>, List<Node>> sepsets = (Map<Set<Node>, List<Node>>) fields.get("sepsets", null);
+        Map<Set<Node>, Double> pValues = (Map<Set<Node>, Double>) fields.get("pValues", null);
 
         if (sepsets == null) {
             throw new NullPointerException();
         }
+
+        this.ids = new ConcurrentHashMap<>();
+        this.idNodes = new Node[16];
+        this.sepsets = new ConcurrentHashMap<>();
+        this.pValues = new ConcurrentHashMap<>();
+        this.parents = (Map<Node, HashSet<Node>>) fields.get("parents", null);
+        this.correlations = (Set<Set<Node>>) fields.get("correlations", null);
+        this.returnEmptyIfNotSet = fields.get("returnEmptyIfNotSet", false);
+
+        if (this.parents == null) {
+            this.parents = new HashMap<>();
+        }
+
+        setAll(sepsets);
+
+        if (pValues != null) {
+            setAllPValues(pValues);
+        }
     }
 
     public int size() {
-        return sepsets.keySet().size();
+        return sepsets.size() + (spilled == null ? 0 : spilled.size());
     }
 
     public String toString() {
-        return sepsets.toString();
+        return sepsetMap().toString();
     }
 
     /**
@@ -193,11 +312,315 @@ public final class SepsetMap implements TetradSerializable {
     }
 
     public void addAll(SepsetMap newSepsets) {
-        sepsets.putAll(newSepsets.sepsets);
+        setAll(newSepsets.sepsetMap());
     }
-}
 
+    /**
+     * Deletes the spill file, if any, once the map is no longer reachable.
+     */
+    protected void finalize() throws Throwable {
+        try {
+            close();
+        } finally {
+            super.finalize();
+        }
+    }
+
+    //=============================PRIVATE METHODS========================//
+
+    /**
+     * Returns the id of the given node, assigning the next id if it doesn't have one yet.
+     */
+    private int id(Node node) {
+        Integer id = ids.get(node);
+
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (this) {
+            id = ids.get(node);
+
+            if (id == null) {
+                if (numIds == idNodes.length) {
+                    idNodes = Arrays.copyOf(idNodes, 2 * numIds);
+                }
+
+                idNodes[numIds] = node;
+                id = numIds++;
+                ids.put(node, id);
+            }
+
+            return id;
+        }
+    }
+
+    /**
+     * Returns the key for the unordered pair {x, y}, or -1 if one of them has no id and assign is false.
+     */
+    private long key(Node x, Node y, boolean assign) {
+        int i, j;
+
+        if (assign) {
+            i = id(x);
+            j = id(y);
+        } else {
+            Integer _i = ids.get(x);
+            Integer _j = ids.get(y);
+            if (_i == null || _j == null) return -1;
+            i = _i;
+            j = _j;
+        }
+
+        return i < j ? ((long) i << 32) | j : ((long) j << 32) | i;
+    }
+
+    private Set<Node> pair(Node x, Node y) {
+        Set<Node> pair = new HashSet<>(2);
+        pair.add(x);
+        pair.add(y);
+        return pair;
+    }
+
+    private int[] lookup(long key) {
+        int[] set = sepsets.get(key);
+
+        if (set == null && spilled != null) {
+            long offset = spilled.get(key);
+
+            if (offset != -1) {
+                FileChannel channel = spillChannel;
+
+                if (channel == null) {
+                    throw new IllegalStateException("The sepset spill file has been closed.");
+                }
 
+                set = unspill(channel, offset);
+            }
+        }
+
+        return set;
+    }
+
+    private List<Node> nodes(int[] set) {
+        if (set == null) {
+            return null;
+        }
+
+        Node[] idNodes = this.idNodes;
+        List<Node> nodes = new ArrayList<>(set.length);
+
+        for (int id : set) {
+            nodes.add(idNodes[id]);
+        }
+
+        return nodes;
+    }
+
+    /**
+     * Appends the given sepset to the spill file and returns its offset.
+     */
+    private long spill(int[] set) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * (set.length + 1));
+        buffer.putInt(set.length);
+
+        for (int id : set) {
+            buffer.putInt(id);
+        }
+
+        buffer.flip();
+        long offset = spillPosition.getAndAdd(buffer.capacity());
+
+        try {
+            for (long position = offset; buffer.hasRemaining(); ) {
+                position += spillChannel.write(buffer, position);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return offset;
+    }
+
+    private int[] unspill(FileChannel channel, long offset) {
+        try {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            read(channel, length, offset);
+            int[] set = new int[length.getInt(0)];
+
+            ByteBuffer buffer = ByteBuffer.allocate(4 * set.length);
+            read(channel, buffer, offset + 4);
+
+            for (int i = 0; i < set.length; i++) {
+                set[i] = buffer.getInt(4 * i);
+            }
+
+            return set;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
+    private void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Unexpected end of sepset spill file.");
+            position += read;
+        }
+    }
 
+    private void setAll(Map<Set<Node>, List<Node>> sepsets) {
+        for (Map.Entry<Set<Node>, List<Node>> entry : sepsets.entrySet()) {
+            Iterator<Node> pair = entry.getKey().iterator();
+            Node x = pair.next();
+            set(x, pair.hasNext() ? pair.next() : x, entry.getValue());
+        }
+    }
+
+    private void setAllPValues(Map<Set<Node>, Double> pValues) {
+        for (Map.Entry<Set<Node>, Double> entry : pValues.entrySet()) {
+            Iterator<Node> pair = entry.getKey().iterator();
+            Node x = pair.next();
+            setPValue(x, pair.hasNext() ? pair.next() : x, entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the sepsets keyed by pairs of nodes.
+     */
+    private Map<Set<Node>, List<Node>> sepsetMap() {
+        Set<Long> keys = new HashSet<>(sepsets.keySet());
+
+        if (spilled != null) {
+            for (long key : spilled.keys()) {
+                keys.add(key);
+            }
+        }
 
+        Map<Set<Node>, List<Node>> map = new HashMap<>();
+        Node[] idNodes = this.idNodes;
+
+        for (long key : keys) {
+            List<Node> sepset = nodes(lookup(key));
+            if (sepset != null) map.put(pair(idNodes[(int) (key >>> 32)], idNodes[(int) key]), sepset);
+        }
+
+        return map;
+    }
+
+    private Map<Set<Node>, Double> pValueMap() {
+        Map<Set<Node>, Double> map = new HashMap<>();
+        Node[] idNodes = this.idNodes;
+
+        for (Map.Entry<Long, Double> entry : pValues.entrySet()) {
+            long key = entry.getKey();
+            map.put(pair(idNodes[(int) (key >>> 32)], idNodes[(int) key]), entry.getValue());
+        }
+
+        return map;
+    }
+
+    /**
+     * An open-addressing hash table from pair keys to spill file offsets, stored in two arrays of primitive longs so
+     * that a spilled sepset costs a few words of heap rather than a pair of boxed longs and a map entry. Pair keys
+     * are never negative, so -1 marks an empty slot; a removed key keeps its slot with offset -1.
+     */
+    private static final class OffsetTable {
+        private long[] keys = newKeys(64);
+        private long[] offsets = new long[64];
+        private int used = 0;
+        private int size = 0;
+
+        public synchronized long get(long key) {
+            int slot = slot(keys, key);
+            return keys[slot] == key ? offsets[slot] : -1;
+        }
+
+        public synchronized void put(long key, long offset) {
+            int slot = slot(keys, key);
+
+            if (keys[slot] != key) {
+                if (4 * (used + 1) > 3 * keys.length) {
+                    rehash();
+                    slot = slot(keys, key);
+                }
+
+                keys[slot] = key;
+                offsets[slot] = -1;
+                used++;
+            }
+
+            if (offsets[slot] == -1) size++;
+            offsets[slot] = offset;
+        }
+
+        public synchronized void remove(long key) {
+            int slot = slot(keys, key);
+
+            if (keys[slot] == key && offsets[slot] != -1) {
+                offsets[slot] = -1;
+                size--;
+            }
+        }
+
+        public synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Returns the keys that have offsets.
+         */
+        public synchronized long[] keys() {
+            long[] keys = new long[size];
+            int k = 0;
+
+            for (int i = 0; i < this.keys.length; i++) {
+                if (this.keys[i] != -1 && offsets[i] != -1) keys[k++] = this.keys[i];
+            }
+
+            return keys;
+        }
+
+        /**
+         * Grows the table if it is more than half full of keys with offsets, and otherwise just drops removed keys.
+         */
+        private void rehash() {
+            int capacity = 2 * size > keys.length ? 2 * keys.length : keys.length;
+            long[] keys = newKeys(capacity);
+            long[] offsets = new long[capacity];
+
+            for (int i = 0; i < this.keys.length; i++) {
+                if (this.keys[i] != -1 && this.offsets[i] != -1) {
+                    int slot = slot(keys, this.keys[i]);
+                    keys[slot] = this.keys[i];
+                    offsets[slot] = this.offsets[i];
+                }
+            }
+
+            this.keys = keys;
+            this.offsets = offsets;
+            this.used = size;
+        }
+
+        /**
+         * Returns the slot holding the given key, or else the empty slot at which its probe sequence ends.
+         */
+        private static int slot(long[] keys, long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            int mask = keys.length - 1;
+            int slot = (int) (h ^ (h >>> 32)) & mask;
+
+            while (keys[slot] != -1 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+
+            return slot;
+        }
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, -1);
+            return keys;
+        }
+    }
+}
@@ -139,6 +139,10 @@ public class SepsetsPossibleDsep implements SepsetProducer {
         return !(bk.isForbidden(_z, _x) || bk.isRequired(_x, _z));
     }
 
+    /**
+     * @return the p-value of the most recent test. This is not meaningful if sepsets have been asked for from
+     * several threads at once, as Fci does for thread-safe tests.
+     */
     @Override
     public double getPValue() {
         return independenceTest.getPValue();
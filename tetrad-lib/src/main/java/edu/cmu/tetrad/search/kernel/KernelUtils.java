@@ -96,6 +96,7 @@ public class KernelUtils {
                     H.set(i, j, d);
                 } else {
                     H.set(i, j, od);
+                    H.set(j, i, od);
                 }
             }
         }
@@ -141,7 +142,7 @@ public class KernelUtils {
 
             // exit if best element does not exceed precision
             if (best < precision) {
-                cols = k - 1;
+                cols = k;
                 break;
             }
 
@@ -176,11 +177,11 @@ public class KernelUtils {
             Dadv[k] = 0;
         }
 
-        // trim columns
+        // trim columns, putting the rows back in the order of the data
         TetradMatrix Gm = new TetradMatrix(m, cols);
         for (int i = 0; i < m; i++) {
             for (int j = 0; j < cols; j++) {
-                Gm.set(i, j, G.get(i, j));
+                Gm.set(p[i], j, G.get(i, j));
             }
         }
         return Gm;
@@ -21,6 +21,7 @@
 
 package edu.cmu.tetrad.sem;
 
+import edu.cmu.tetrad.calculator.expression.CompiledExpression;
 import edu.cmu.tetrad.calculator.expression.Context;
 import edu.cmu.tetrad.calculator.expression.Expression;
 import edu.cmu.tetrad.calculator.parser.ExpressionLexer;
@@ -36,9 +37,12 @@ import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
 import org.apache.commons.math3.optim.nonlinear.scalar.MultivariateOptimizer;
 import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
 import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.PowellOptimizer;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well44497b;
 
 import java.text.NumberFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * Represents a generalized SEM instantiated model. The parameteric form of this
@@ -50,6 +54,9 @@ import java.util.*;
 public class GeneralizedSemIm implements IM, Simulator, TetradSerializable {
     static final long serialVersionUID = 23L;
 
+    // The number of rows simulated together by one task.
+    private static final int SIMULATION_CHUNK = 1000;
+
     /**
      * The wrapped PM, that holds all of the expressions and structure for the model.
      */
@@ -414,26 +421,6 @@ public class GeneralizedSemIm implements IM, Simulator, TetradSerializable {
      * @return the simulated data set.
      */
     public DataSet simulateDataRecursive(int sampleSize, boolean latentDataSaved) {
-        final Map<String, Double> variableValues = new HashMap<>();
-
-        Context context = new Context() {
-            public Double getValue(String term) {
-                Double value = parameterValues.get(term);
-
-                if (value != null) {
-                    return value;
-                }
-
-                value = variableValues.get(term);
-
-                if (value != null) {
-                    return value;
-                }
-
-                throw new IllegalArgumentException("No value recorded for '" + term + "'");
-            }
-        };
-
         List<Node> variables = pm.getNodes();
         List<Node> continuousVariables = new LinkedList<>();
         List<Node> nonErrorVariables = pm.getVariableNodes();
@@ -448,62 +435,46 @@ public class GeneralizedSemIm implements IM, Simulator, TetradSerializable {
             }
         }
 
-        DataSet fullDataSet = new ColtDataSet(sampleSize, continuousVariables);
-
         // Create some index arrays to hopefully speed up the simulation.
         SemGraph graph = pm.getGraph();
         List<Node> tierOrdering = graph.getFullTierOrdering();
+        Map<String, Integer> slots = slots(variables);
 
-        int[] tierIndices = new int[variables.size()];
+        final int[] tierIndices = new int[variables.size()];
+        final int[] tierSlots = new int[variables.size()];
+        final CompiledExpression[] expressions = new CompiledExpression[variables.size()];
 
         for (int i = 0; i < tierIndices.length; i++) {
-            tierIndices[i] = nonErrorVariables.indexOf(tierOrdering.get(i));
+            Node node = tierOrdering.get(i);
+            tierIndices[i] = nonErrorVariables.indexOf(node);
+            tierSlots[i] = slots.get(node.getName());
+            expressions[i] = CompiledExpression.compile(pm.getNodeExpression(node), slots, parameterValues);
         }
 
-        int[][] _parents = new int[variables.size()][];
-
-        for (int i = 0; i < variables.size(); i++) {
-            Node node = variables.get(i);
-            List<Node> parents = graph.getParents(node);
-
-            _parents[i] = new int[parents.size()];
-
-            for (int j = 0; j < parents.size(); j++) {
-                Node _parent = parents.get(j);
-                _parents[i][j] = variables.indexOf(_parent);
-            }
-        }
+        final double[][] data = new double[sampleSize][continuousVariables.size()];
+        final int numSlots = variables.size();
 
         // Do the simulation.
-        for (int row = 0; row < sampleSize; row++) {
-            variableValues.clear();
+        simulateInChunks(sampleSize, !anyInterpreted(expressions), new ChunkSimulator() {
+            public void simulate(int from, int to, RandomGenerator random) {
+                double[] values = new double[numSlots];
 
-            for (int tier = 0; tier < tierOrdering.size(); tier++) {
-                Node node = tierOrdering.get(tier);
-                Expression expression = pm.getNodeExpression(node);
-                double value = expression.evaluate(context);
-                variableValues.put(node.getName(), value);
+                for (int row = from; row < to; row++) {
+                    for (int tier = 0; tier < expressions.length; tier++) {
+                        double value = expressions[tier].evaluate(values, random);
+                        values[tierSlots[tier]] = value;
 
-                int col = tierIndices[tier];
+                        int col = tierIndices[tier];
 
-                if (col == -1) {
-                    continue;
+                        if (col != -1) {
+                            data[row][col] = value;
+                        }
+                    }
                 }
-
-//                if (isSimulatePositiveDataOnly() && value < 0) {
-//                    row--;
-//                    continue ROW;
-//                }
-
-//                if (!Double.isNaN(selfLoopCoef) && row > 0) {
-//                    value += selfLoopCoef * fullDataSet.getDouble(row - 1, col);
-//                }
-
-//                value = min(max(value, -5.), 5.);
-
-                fullDataSet.setDouble(row, col, value);
             }
-        }
+        });
+
+        DataSet fullDataSet = toDataSet(data, continuousVariables);
 
         if (latentDataSaved) {
             return fullDataSet;
@@ -660,8 +631,6 @@ public class GeneralizedSemIm implements IM, Simulator, TetradSerializable {
     }
 
     public DataSet simulateDataAvoidInfinity(int sampleSize, boolean latentDataSaved) {
-        final Map<String, Double> variableValues = new HashMap<>();
-
         List<Node> continuousVariables = new LinkedList<>();
         final List<Node> variableNodes = pm.getVariableNodes();
 
@@ -675,144 +644,145 @@ public class GeneralizedSemIm implements IM, Simulator, TetradSerializable {
             }
         }
 
-        DataSet fullDataSet = new ColtDataSet(sampleSize, continuousVariables);
-
-        final Context context = new Context() {
-            public Double getValue(String term) {
-                Double value = parameterValues.get(term);
+        final int numVars = variableNodes.size();
+        List<Node> nodes = new ArrayList<>(variableNodes);
+        final int[] variableSlots = new int[numVars];
+        final int[] errorSlots = new int[numVars];
+        final Expression[] errorExpressions = new Expression[numVars];
 
-                if (value != null) {
-                    return value;
-                }
-
-                value = variableValues.get(term);
-
-                if (value != null) {
-                    return value;
-                }
+        for (int i = 0; i < numVars; i++) {
+            Node error = pm.getErrorNode(variableNodes.get(i));
 
-                throw new IllegalArgumentException("No value recorded for '" + term + "'");
+            if (error == null) {
+                throw new NullPointerException();
             }
-        };
-
-        boolean allInRange = true;
 
-        // Do the simulation.
-        ROW:
-        for (int row = 0; row < sampleSize; row++) {
-
-            // Take random draws from error distributions.
-            for (Node variable : variableNodes) {
-                Node error = pm.getErrorNode(variable);
-
-                if (error == null) {
-                    throw new NullPointerException();
-                }
+            variableSlots[i] = i;
+            errorSlots[i] = nodes.size();
+            errorExpressions[i] = pm.getNodeExpression(error);
+            nodes.add(error);
+        }
 
-                Expression expression = pm.getNodeExpression(error);
-                double value;
+        Map<String, Integer> slots = slots(nodes);
+        final CompiledExpression[] errors = new CompiledExpression[numVars];
+        final CompiledExpression[] expressions = new CompiledExpression[numVars];
 
-                value = expression.evaluate(context);
+        for (int i = 0; i < numVars; i++) {
+            errors[i] = CompiledExpression.compile(errorExpressions[i], slots, parameterValues);
+            expressions[i] = CompiledExpression.compile(pm.getNodeExpression(variableNodes.get(i)), slots,
+                    parameterValues);
+        }
 
-                if (Double.isNaN(value)) {
-                    throw new IllegalArgumentException("Undefined value for expression: " + expression);
-                }
+        final double[][] data = new double[sampleSize][numVars];
+        final int numSlots = nodes.size();
+        final boolean positiveOnly = isSimulatePositiveDataOnly();
 
-                variableValues.put(error.getName(), value);
-            }
+        // Do the simulation.
+        simulateInChunks(sampleSize, !anyInterpreted(errors) && !anyInterpreted(expressions), new ChunkSimulator() {
+            public void simulate(int from, int to, RandomGenerator random) {
+                double[] values = new double[numSlots];
+                double[] next = new double[numVars];
+                boolean allInRange = true;
+
+                ROW:
+                for (int row = from; row < to; row++) {
+
+                    // Take random draws from error distributions.
+                    for (int i = 0; i < numVars; i++) {
+                        double value = errors[i].evaluate(values, random);
+
+                        if (Double.isNaN(value)) {
+                            throw new IllegalArgumentException("Undefined value for expression: "
+                                    + errorExpressions[i]);
+                        }
 
-            // Set the variable nodes to zero.
-            for (Node variable : variableNodes) {
-                Node error = pm.getErrorNode(variable);
+                        values[errorSlots[i]] = value;
+                    }
 
-                Expression expression = pm.getNodeExpression(error);
-                double value = expression.evaluate(context);
+                    // Set the variable nodes to zero. The errors are drawn again, only so that the draws
+                    // are the same as they have always been for a given seed.
+                    for (int i = 0; i < numVars; i++) {
+                        double value = errors[i].evaluate(values, random);
 
-                if (Double.isNaN(value)) {
-                    throw new IllegalArgumentException("Undefined value for expression: " + expression);
-                }
+                        if (Double.isNaN(value)) {
+                            throw new IllegalArgumentException("Undefined value for expression: "
+                                    + errorExpressions[i]);
+                        }
 
-                variableValues.put(variable.getName(), 0.0);//value); //0.0; //RandomUtil.getInstance().nextUniform(-1, 1));
-            }
+                        values[variableSlots[i]] = 0.0;
+                    }
 
-            // Repeatedly update variable values until one of them hits infinity or negative infinity or
-            // convergence within delta.
+                    // Repeatedly update variable values until one of them hits infinity or negative infinity or
+                    // convergence within delta.
 
-            double delta = 1e-10;
-            int count = -1;
+                    double delta = 1e-10;
+                    int count = -1;
 
-            while (++count < 5000) {
-                double[] values = new double[variableNodes.size()];
+                    while (++count < 5000) {
+                        for (int i = 0; i < numVars; i++) {
+                            next[i] = expressions[i].evaluate(values, random);
+                        }
 
-                for (int i = 0; i < values.length; i++) {
-                    Node node = variableNodes.get(i);
-                    Expression expression = pm.getNodeExpression(node);
-                    double value = expression.evaluate(context);
-                    values[i] = value;
-                }
+                        allInRange = true;
 
-                allInRange = true;
+                        for (int i = 0; i < numVars; i++) {
+                            double current = values[variableSlots[i]];
 
-                for (int i = 0; i < values.length; i++) {
-                    Node node = variableNodes.get(i);
+                            // If any of the variables hasn't converged or if any of the variable values has gone
+                            // outside of the bound (-1e6, 1e6), judge nonconvergence and pick another random
+                            // starting point.
+                            if (!(Math.abs(current - next[i]) < delta)) {
+                                if (!(Math.abs(current) < 1e6)) {
+                                    if (count < 1000) {
+                                        row--;
+                                        continue ROW;
+                                    }
+                                }
 
-                    // If any of the variables hasn't converged or if any of the variable values has gone
-                    // outside of the bound (-1e6, 1e6), judge nonconvergence and pick another random starting point.
-                    if (!(Math.abs(variableValues.get(node.getName()) - values[i]) < delta)) {
-                        if (!(Math.abs(variableValues.get(node.getName())) < 1e6)) {
-                            if (count < 1000) {
-                                row--;
-                                continue ROW;
+                                allInRange = false;
+                                break;
                             }
                         }
 
-                        allInRange = false;
-                        break;
-                    }
+                        for (int i = 0; i < numVars; i++) {
+                            values[variableSlots[i]] = next[i];
+                        }
 
-                }
+                        if (allInRange) {
+                            break;
+                        }
+                    }
 
-                for (int i = 0; i < variableNodes.size(); i++) {
-                    variableValues.put(variableNodes.get(i).getName(), values[i]);
-                }
+                    if (!allInRange) {
+                        row--;
+                        System.out.println("Trying another starting point...");
+                        continue;
+                    }
 
-                if (allInRange) {
-                    break;
-                }
-            }
+                    for (int i = 0; i < numVars; i++) {
+                        double value = values[variableSlots[i]];
 
-            if (!allInRange) {
-                if (count < 10000) {
-                    row--;
-                    System.out.println("Trying another starting point...");
-                    continue;
-                } else {
-                    System.out.println("Couldn't converge in simulation.");
+                        if (positiveOnly && value < 0) {
+                            row--;
+                            continue ROW;
+                        }
 
-                    for (int i = 0; i < variableNodes.size(); i++) {
-                        fullDataSet.setDouble(row, i, Double.NaN);
+                        data[row][i] = value;
                     }
-
-                    return fullDataSet;
                 }
             }
+        });
 
-            for (int i = 0; i < variableNodes.size(); i++) {
-                double value = variableValues.get(variableNodes.get(i).getName());
-
-                if (isSimulatePositiveDataOnly() && value < 0) {
-                    row--;
-                    continue ROW;
-                }
-
-                if (!Double.isNaN(selfLoopCoef) && row > 0) {
-                    value += selfLoopCoef * fullDataSet.getDouble(row - 1, i);
+        if (!Double.isNaN(selfLoopCoef)) {
+            for (int row = 1; row < sampleSize; row++) {
+                for (int i = 0; i < numVars; i++) {
+                    data[row][i] += selfLoopCoef * data[row - 1][i];
                 }
-
-                fullDataSet.setDouble(row, i, value);
             }
         }
 
+        DataSet fullDataSet = toDataSet(data, continuousVariables);
+
         if (latentDataSaved) {
             return fullDataSet;
         } else {
@@ -1028,6 +998,72 @@ public class GeneralizedSemIm implements IM, Simulator, TetradSerializable {
         }
     }
 
+    // Simulates rows [from, to) with the given random generator.
+    private interface ChunkSimulator {
+        void simulate(int from, int to, RandomGenerator random);
+    }
+
+    /**
+     * Simulates the rows in chunks of SIMULATION_CHUNK rows in parallel, each chunk with its own generator
+     * seeded from RandomUtil, so that for a given seed the data do not depend on the number of threads. A
+     * sample that fits in one chunk, or one whose expressions are not all compiled (and so may draw from
+     * RandomUtil's generator themselves), is simulated on the calling thread from RandomUtil directly.
+     */
+    private void simulateInChunks(int sampleSize, boolean parallel, final ChunkSimulator simulator) {
+        if (!parallel || sampleSize <= SIMULATION_CHUNK) {
+            simulator.simulate(0, sampleSize, RandomUtil.getInstance().getRandomGenerator());
+            return;
+        }
+
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+
+        for (int from = 0; from < sampleSize; from += SIMULATION_CHUNK) {
+            final int _from = from;
+            final int to = Math.min(from + SIMULATION_CHUNK, sampleSize);
+            final long seed = RandomUtil.getInstance().nextLong();
+
+            tasks.add(new Callable<Boolean>() {
+                public Boolean call() {
+                    simulator.simulate(_from, to, new Well44497b(seed));
+                    return true;
+                }
+            });
+        }
+
+        ExecutionContext.current().invokeAll(tasks);
+    }
+
+    private boolean anyInterpreted(CompiledExpression[] expressions) {
+        for (CompiledExpression expression : expressions) {
+            if (expression.isInterpreted()) return true;
+        }
+
+        return false;
+    }
+
+    // Slot of each node, by name, for compiled expressions.
+    private Map<String, Integer> slots(List<Node> nodes) {
+        Map<String, Integer> slots = new HashMap<>();
+
+        for (int i = 0; i < nodes.size(); i++) {
+            slots.put(nodes.get(i).getName(), i);
+        }
+
+        return slots;
+    }
+
+    private DataSet toDataSet(double[][] data, List<Node> variables) {
+        DataSet dataSet = new ColtDataSet(data.length, variables);
+
+        for (int row = 0; row < data.length; row++) {
+            for (int col = 0; col < variables.size(); col++) {
+                dataSet.setDouble(row, col, data[row][col]);
+            }
+        }
+
+        return dataSet;
+    }
+
     private boolean isSimulatePositiveDataOnly() {
         return simulatePositiveDataOnly;
     }
@@ -167,9 +167,10 @@ public final class LargeScaleSimulation {
 
         double[][] all = new double[variableNodes.size()][sampleSize];
 
-        int chunk = sampleSize / ForkJoinPoolInstance.getInstance().getPool().getParallelism() + 1;
+        ExecutionContext context = ExecutionContext.current();
+        int chunk = sampleSize / context.getParallelism() + 1;
 
-        ForkJoinPoolInstance.getInstance().getPool().invoke(new SimulateTask(0, sampleSize, all, chunk));
+        context.invoke(new SimulateTask(0, sampleSize, all, chunk));
 
         if (graph instanceof TimeLagGraph) {
             int[] rem = new int[200];
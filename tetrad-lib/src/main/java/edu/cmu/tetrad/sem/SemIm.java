@@ -1337,6 +1337,10 @@ public final class SemIm implements IM, ISemIm, TetradSerializable {
         this.scoreType = scoreType;
     }
 
+    public ScoreType getScoreType() {
+        return scoreType;
+    }
+
     private DataSet simulateTimeSeries(int sampleSize) {
         SemGraph semGraph = new SemGraph(semPm.getGraph());
         semGraph.setShowErrorTerms(true);
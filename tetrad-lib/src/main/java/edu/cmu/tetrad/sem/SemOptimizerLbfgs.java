@@ -0,0 +1,652 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.sem;
+
+import edu.cmu.tetrad.data.DataUtils;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.graph.SemGraph;
+import edu.cmu.tetrad.util.ExecutionContext;
+import edu.cmu.tetrad.util.RandomUtil;
+import edu.cmu.tetrad.util.TetradMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Optimizes a SEM by minimizing its score, FML or FGLS, with L-BFGS, using the analytic gradient of the score.
+ * <p>
+ * With B the coefficient matrix (B[child][parent]), Omega the error covariance matrix, A = inverse(I - B) and Sigma =
+ * A Omega A', let Sigma_m be the submatrix of Sigma over the measured variables, S the sample covariance matrix and W
+ * = inverse(S). Then FML = log|Sigma_m| + tr(S inverse(Sigma_m)) - log|S| - p, with derivative G = inverse(Sigma_m) -
+ * inverse(Sigma_m) S inverse(Sigma_m) with respect to Sigma_m, and FGLS = tr((I - Sigma_m W)^2) / 2, with derivative G
+ * = W Sigma_m W - W. With C the matrix that has G at the measured positions and zeros elsewhere, the derivative with
+ * respect to B[j][i] is 2 (A' C Sigma)[j][i], with respect to a variance Omega[k][k] it is (A' C A)[k][k], and with
+ * respect to a covariance Omega[k][l] it is 2 (A' C A)[k][l]. The value and the gradient at a point share one
+ * computation of A. Error variances are searched over as logs, so they stay positive.
+ * <p>
+ * The first run starts from the current parameter values of the SemIm; each restart starts from random values, drawn
+ * as in SemOptimizerPowell. The runs are done in parallel in the current execution context, and the best result is
+ * kept. Fixed parameters keep their values.
+ *
+ * @author Joseph Ramsey
+ */
+public class SemOptimizerLbfgs implements SemOptimizer {
+    static final long serialVersionUID = 23L;
+
+    // The number of correction pairs kept.
+    private static final int MEMORY = 10;
+
+    private static final int MAX_ITERATIONS = 2000;
+
+    private int numRestarts = 0;
+
+    //=========================CONSTRUCTORS============================//
+
+    /**
+     * Blank constructor.
+     */
+    public SemOptimizerLbfgs() {
+    }
+
+    /**
+     * Generates a simple exemplar of this class to test serialization.
+     */
+    public static SemOptimizerLbfgs serializableInstance() {
+        return new SemOptimizerLbfgs();
+    }
+
+    //=========================PUBLIC METHODS==========================//
+
+    public void optimize(SemIm semIm) {
+        TetradMatrix sampleCovar = semIm.getSampleCovar();
+
+        if (sampleCovar == null) {
+            throw new NullPointerException("Sample covar has not been set.");
+        }
+
+        if (DataUtils.containsMissingValue(sampleCovar)) {
+            throw new IllegalArgumentException("Please remove or impute missing values.");
+        }
+
+        final Model model = new Model(semIm);
+        List<Parameter> freeParameters = semIm.getFreeParameters();
+
+        List<double[]> starts = new ArrayList<>();
+        starts.add(semIm.getFreeParamValues());
+
+        for (int count = 0; count < numRestarts; count++) {
+            double[] p = new double[freeParameters.size()];
+
+            for (int i = 0; i < freeParameters.size(); i++) {
+                if (freeParameters.get(i).getType() == ParamType.VAR) {
+                    p[i] = RandomUtil.getInstance().nextUniform(0, 1);
+                } else {
+                    p[i] = RandomUtil.getInstance().nextUniform(-1, 1);
+                }
+            }
+
+            starts.add(p);
+        }
+
+        List<Callable<Result>> tasks = new ArrayList<>();
+
+        for (final double[] start : starts) {
+            tasks.add(new Callable<Result>() {
+                public Result call() {
+                    Result result = minimize(new Evaluator(model), model.toSearch(start));
+                    return new Result(model.fromSearch(result.point), result.value);
+                }
+            });
+        }
+
+        Result best = null;
+
+        for (Result result : ExecutionContext.current().invokeAll(tasks)) {
+            if (best == null || result.value < best.value) {
+                best = result;
+            }
+        }
+
+        if (best != null && !Double.isInfinite(best.value)) {
+            semIm.setFreeParamValues(best.point);
+        }
+    }
+
+    @Override
+    public void setNumRestarts(int numRestarts) {
+        this.numRestarts = numRestarts;
+    }
+
+    @Override
+    public int getNumRestarts() {
+        return numRestarts;
+    }
+
+    public String toString() {
+        return "Sem Optimizer L-BFGS";
+    }
+
+    //=========================PRIVATE METHODS=========================//
+
+    private static Result minimize(Evaluator evaluator, double[] start) {
+        int n = start.length;
+        double[] x = start.clone();
+        double[] g = new double[n];
+        double f = evaluator.evaluate(x, g);
+
+        if (Double.isInfinite(f)) {
+            return new Result(x, f);
+        }
+
+        double[][] s = new double[MEMORY][];
+        double[][] y = new double[MEMORY][];
+        double[] rho = new double[MEMORY];
+        double[] alpha = new double[MEMORY];
+        int numPairs = 0;
+        int newest = -1;
+
+        double[] d = new double[n];
+        double[] xNew = new double[n];
+        double[] gNew = new double[n];
+
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            ExecutionContext.current().checkCancelled();
+
+            if (maxAbs(g) <= 1e-10) {
+                break;
+            }
+
+            // Two-loop recursion for d = -H g.
+            for (int i = 0; i < n; i++) d[i] = -g[i];
+
+            for (int k = 0; k < numPairs; k++) {
+                int m = (newest - k + MEMORY) % MEMORY;
+                alpha[m] = rho[m] * dot(s[m], d);
+                axpy(-alpha[m], y[m], d);
+            }
+
+            if (numPairs > 0) {
+                double gamma = dot(s[newest], y[newest]) / dot(y[newest], y[newest]);
+                for (int i = 0; i < n; i++) d[i] *= gamma;
+            }
+
+            for (int k = numPairs - 1; k >= 0; k--) {
+                int m = (newest - k + MEMORY) % MEMORY;
+                double beta = rho[m] * dot(y[m], d);
+                axpy(alpha[m] - beta, s[m], d);
+            }
+
+            double slope = dot(g, d);
+
+            if (!(slope < 0)) {
+                for (int i = 0; i < n; i++) d[i] = -g[i];
+                slope = dot(g, d);
+                numPairs = 0;
+            }
+
+            // Backtracking line search for sufficient decrease; steps that leave the feasible region give an
+            // infinite value and are shortened too.
+            double t = numPairs == 0 ? Math.min(1.0, 1.0 / maxAbs(g)) : 1.0;
+            double fNew = Double.POSITIVE_INFINITY;
+            boolean found = false;
+
+            for (int trial = 0; trial < 60; trial++) {
+                for (int i = 0; i < n; i++) xNew[i] = x[i] + t * d[i];
+                fNew = evaluator.evaluate(xNew, gNew);
+
+                if (fNew <= f + 1e-4 * t * slope) {
+                    found = true;
+                    break;
+                }
+
+                t *= 0.5;
+            }
+
+            if (!found) {
+                break;
+            }
+
+            double[] _s = new double[n];
+            double[] _y = new double[n];
+
+            for (int i = 0; i < n; i++) {
+                _s[i] = xNew[i] - x[i];
+                _y[i] = gNew[i] - g[i];
+            }
+
+            double sy = dot(_s, _y);
+
+            if (sy > 1e-12 * Math.sqrt(dot(_s, _s) * dot(_y, _y))) {
+                newest = (newest + 1) % MEMORY;
+                s[newest] = _s;
+                y[newest] = _y;
+                rho[newest] = 1.0 / sy;
+                numPairs = Math.min(numPairs + 1, MEMORY);
+            }
+
+            double change = f - fNew;
+
+            System.arraycopy(xNew, 0, x, 0, n);
+            System.arraycopy(gNew, 0, g, 0, n);
+            f = fNew;
+
+            if (change <= 1e-14 * (1.0 + Math.abs(f))) {
+                break;
+            }
+        }
+
+        return new Result(x, f);
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) sum += a[i] * b[i];
+        return sum;
+    }
+
+    private static void axpy(double a, double[] x, double[] y) {
+        for (int i = 0; i < x.length; i++) y[i] += a * x[i];
+    }
+
+    private static double maxAbs(double[] a) {
+        double max = 0.0;
+        for (double v : a) max = Math.max(max, Math.abs(v));
+        return max;
+    }
+
+    private static class Result {
+        private final double[] point;
+        private final double value;
+
+        private Result(double[] point, double value) {
+            this.point = point;
+            this.value = value;
+        }
+    }
+
+    /**
+     * What is needed of the SemIm to evaluate FML: the fixed parts of B and Omega, where each free parameter goes, and
+     * the sample covariance matrix. Shared, read only, by the runs.
+     */
+    private static class Model {
+        private final int numVars;
+        private final int[] measured;
+        private final double[][] b;
+        private final double[][] omega;
+        private final ParamType[] types;
+        private final int[] rows;
+        private final int[] cols;
+        private final SemIm.ScoreType scoreType;
+        private final double[][] sample;
+        private final double[][] sampleInverse;
+        private final double logDetSample;
+
+        private Model(SemIm semIm) {
+            List<Node> variables = semIm.getVariableNodes();
+            List<Node> measuredNodes = semIm.getMeasuredNodes();
+            SemGraph graph = semIm.getSemPm().getGraph();
+
+            this.numVars = variables.size();
+            this.measured = new int[measuredNodes.size()];
+
+            for (int i = 0; i < measured.length; i++) {
+                measured[i] = variables.indexOf(measuredNodes.get(i));
+            }
+
+            this.b = semIm.getEdgeCoef().transpose().toArray();
+            this.omega = semIm.getErrCovar().toArray();
+
+            List<Parameter> parameters = semIm.getFreeParameters();
+            this.types = new ParamType[parameters.size()];
+            this.rows = new int[parameters.size()];
+            this.cols = new int[parameters.size()];
+
+            for (int k = 0; k < parameters.size(); k++) {
+                Parameter parameter = parameters.get(k);
+                int i = variables.indexOf(graph.getVarNode(parameter.getNodeA()));
+                int j = variables.indexOf(graph.getVarNode(parameter.getNodeB()));
+                types[k] = parameter.getType();
+
+                if (types[k] == ParamType.COEF) {
+
+                    // The coefficient of i --> j, in B[j][i].
+                    rows[k] = j;
+                    cols[k] = i;
+                } else if (types[k] == ParamType.VAR) {
+                    rows[k] = i;
+                    cols[k] = i;
+                } else {
+                    rows[k] = i;
+                    cols[k] = j;
+                }
+            }
+
+            this.scoreType = semIm.getScoreType();
+            this.sample = semIm.getSampleCovar().toArray();
+            this.sampleInverse = semIm.getSampleCovar().inverse().toArray();
+            this.logDetSample = Math.log(semIm.getSampleCovar().det());
+        }
+
+        // Error variances are searched over as logs, which keeps them positive.
+        private double[] toSearch(double[] values) {
+            double[] x = values.clone();
+
+            for (int k = 0; k < x.length; k++) {
+                if (types[k] == ParamType.VAR) {
+                    x[k] = x[k] > 0.0 ? Math.log(x[k]) : Double.NaN;
+                }
+            }
+
+            return x;
+        }
+
+        private double[] fromSearch(double[] x) {
+            double[] values = x.clone();
+
+            for (int k = 0; k < values.length; k++) {
+                if (types[k] == ParamType.VAR) {
+                    values[k] = Math.exp(values[k]);
+                }
+            }
+
+            return values;
+        }
+    }
+
+    /**
+     * Evaluates FML and its gradient for one run, reusing its work arrays.
+     */
+    private static class Evaluator {
+        private final Model model;
+        private final int n;
+        private final int p;
+        private final double[][] b;
+        private final double[][] omega;
+        private double[][] a;
+
+        private Evaluator(Model model) {
+            this.model = model;
+            this.n = model.numVars;
+            this.p = model.measured.length;
+            this.b = new double[n][];
+            this.omega = new double[n][];
+
+            for (int i = 0; i < n; i++) {
+                b[i] = model.b[i].clone();
+                omega[i] = model.omega[i].clone();
+            }
+        }
+
+        // Returns the score at x, with error variances given as logs, putting its gradient with respect to x in
+        // gradient, or returns infinity if x is not admissible.
+        private double evaluate(double[] x, double[] gradient) {
+            for (int k = 0; k < x.length; k++) {
+                if (Double.isNaN(x[k]) || Double.isInfinite(x[k])) {
+                    return Double.POSITIVE_INFINITY;
+                }
+
+                int i = model.rows[k];
+                int j = model.cols[k];
+
+                if (model.types[k] == ParamType.COEF) {
+                    b[i][j] = x[k];
+                } else if (model.types[k] == ParamType.VAR) {
+                    omega[i][i] = Math.exp(x[k]);
+                } else {
+                    omega[i][j] = x[k];
+                    omega[j][i] = x[k];
+                }
+            }
+
+            if (!computeA()) {
+                return Double.POSITIVE_INFINITY;
+            }
+
+            // Sigma = A Omega A'.
+            double[][] aOmega = times(a, omega);
+            double[][] sigma = new double[n][n];
+
+            for (int i = 0; i < n; i++) {
+                for (int j = i; j < n; j++) {
+                    double sum = 0.0;
+                    for (int k = 0; k < n; k++) sum += aOmega[i][k] * a[j][k];
+                    sigma[i][j] = sum;
+                    sigma[j][i] = sum;
+                }
+            }
+
+            int[] measured = model.measured;
+            double[][] sigmaM = new double[p][p];
+
+            for (int i = 0; i < p; i++) {
+                for (int j = 0; j < p; j++) {
+                    sigmaM[i][j] = sigma[measured[i]][measured[j]];
+                }
+            }
+
+            double[][] g = new double[p][p];
+            double score;
+
+            if (model.scoreType == SemIm.ScoreType.Fml) {
+                score = fml(sigmaM, g);
+            } else if (model.scoreType == SemIm.ScoreType.Fgls) {
+                score = fgls(sigmaM, g);
+            } else {
+                throw new IllegalStateException("Unrecognized score type; " + model.scoreType);
+            }
+
+            if (Double.isNaN(score) || Double.isInfinite(score)) {
+                return Double.POSITIVE_INFINITY;
+            }
+
+            // C = A' J' G J, which is zero outside of the measured columns.
+            double[][] c = new double[n][n];
+
+            for (int k = 0; k < n; k++) {
+                for (int q = 0; q < p; q++) {
+                    double sum = 0.0;
+                    for (int r = 0; r < p; r++) sum += a[measured[r]][k] * g[r][q];
+                    c[k][measured[q]] = sum;
+                }
+            }
+
+            double[][] cA = null;
+            double[][] cSigma = null;
+
+            for (int k = 0; k < x.length; k++) {
+                int i = model.rows[k];
+                int j = model.cols[k];
+
+                if (model.types[k] == ParamType.COEF) {
+                    if (cSigma == null) cSigma = timesMeasured(c, sigma);
+                    gradient[k] = 2.0 * cSigma[i][j];
+                } else {
+                    if (cA == null) cA = timesMeasured(c, a);
+                    gradient[k] = model.types[k] == ParamType.VAR ? cA[i][i] * omega[i][i] : 2.0 * cA[i][j];
+                }
+            }
+
+            return score;
+        }
+
+        // FML at the given implied covariance matrix over the measured variables, with its derivative in g, or infinity
+        // if the matrix is not positive definite.
+        private double fml(double[][] sigmaM, double[][] g) {
+            double[][] l = new double[p][p];
+
+            for (int i = 0; i < p; i++) {
+                System.arraycopy(sigmaM[i], 0, l[i], 0, i + 1);
+            }
+
+            if (!cholesky(l)) {
+                return Double.POSITIVE_INFINITY;
+            }
+
+            double logDet = 0.0;
+            for (int i = 0; i < p; i++) logDet += 2.0 * Math.log(l[i][i]);
+
+            double[][] sigmaInv = choleskyInverse(l);
+            double[][] sSigmaInv = times(model.sample, sigmaInv);
+
+            double trace = 0.0;
+            for (int i = 0; i < p; i++) trace += sSigmaInv[i][i];
+
+            double[][] sigmaInvSSigmaInv = times(sigmaInv, sSigmaInv);
+
+            for (int i = 0; i < p; i++) {
+                for (int j = 0; j < p; j++) {
+                    g[i][j] = sigmaInv[i][j] - sigmaInvSSigmaInv[i][j];
+                }
+            }
+
+            return logDet + trace - model.logDetSample - p;
+        }
+
+        // FGLS at the given implied covariance matrix over the measured variables, with its derivative in g.
+        private double fgls(double[][] sigmaM, double[][] g) {
+            double[][] w = model.sampleInverse;
+            double[][] sigmaW = times(sigmaM, w);
+            double[][] wSigmaW = times(w, sigmaW);
+
+            double sum = 0.0;
+
+            for (int i = 0; i < p; i++) {
+                for (int j = 0; j < p; j++) {
+                    double dij = (i == j ? 1.0 : 0.0) - sigmaW[i][j];
+                    double dji = (i == j ? 1.0 : 0.0) - sigmaW[j][i];
+                    sum += dij * dji;
+                    g[i][j] = wSigmaW[i][j] - w[i][j];
+                }
+            }
+
+            return 0.5 * sum;
+        }
+
+        // Computes A = inverse(I - B), returning false if I - B is singular.
+        private boolean computeA() {
+            double[][] iMinusB = new double[n][n];
+
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    iMinusB[i][j] = (i == j ? 1.0 : 0.0) - b[i][j];
+                }
+            }
+
+            try {
+                a = new TetradMatrix(iMinusB).inverse().toArray();
+            } catch (Exception e) {
+                a = null;
+                return false;
+            }
+
+            return true;
+        }
+
+        private static double[][] times(double[][] x, double[][] y) {
+            int rows = x.length;
+            int inner = y.length;
+            int cols = y[0].length;
+            double[][] z = new double[rows][cols];
+
+            for (int i = 0; i < rows; i++) {
+                double[] zi = z[i];
+
+                for (int k = 0; k < inner; k++) {
+                    double xik = x[i][k];
+                    if (xik == 0.0) continue;
+                    double[] yk = y[k];
+                    for (int j = 0; j < cols; j++) zi[j] += xik * yk[j];
+                }
+            }
+
+            return z;
+        }
+
+        // C Y, where the columns of C outside of the measured variables are zero.
+        private double[][] timesMeasured(double[][] c, double[][] y) {
+            int[] measured = model.measured;
+            double[][] z = new double[n][n];
+
+            for (int i = 0; i < n; i++) {
+                double[] zi = z[i];
+
+                for (int m : measured) {
+                    double cim = c[i][m];
+                    double[] ym = y[m];
+                    for (int j = 0; j < n; j++) zi[j] += cim * ym[j];
+                }
+            }
+
+            return z;
+        }
+
+        // Replaces the lower triangle of the given matrix by its Cholesky factor; false if it's not positive definite.
+        private static boolean cholesky(double[][] l) {
+            int p = l.length;
+
+            for (int j = 0; j < p; j++) {
+                double d = l[j][j];
+                for (int k = 0; k < j; k++) d -= l[j][k] * l[j][k];
+                if (!(d > 0)) return false;
+                l[j][j] = Math.sqrt(d);
+
+                for (int i = j + 1; i < p; i++) {
+                    double v = l[i][j];
+                    for (int k = 0; k < j; k++) v -= l[i][k] * l[j][k];
+                    l[i][j] = v / l[j][j];
+                }
+            }
+
+            return true;
+        }
+
+        // The inverse of L L', given the Cholesky factor L.
+        private static double[][] choleskyInverse(double[][] l) {
+            int p = l.length;
+            double[][] lInv = new double[p][p];
+
+            for (int j = 0; j < p; j++) {
+                lInv[j][j] = 1.0 / l[j][j];
+
+                for (int i = j + 1; i < p; i++) {
+                    double sum = 0.0;
+                    for (int k = j; k < i; k++) sum -= l[i][k] * lInv[k][j];
+                    lInv[i][j] = sum / l[i][i];
+                }
+            }
+
+            double[][] inverse = new double[p][p];
+
+            for (int i = 0; i < p; i++) {
+                for (int j = 0; j <= i; j++) {
+                    double sum = 0.0;
+                    for (int k = i; k < p; k++) sum += lInv[k][i] * lInv[k][j];
+                    inverse[i][j] = sum;
+                    inverse[j][i] = sum;
+                }
+            }
+
+            return inverse;
+        }
+    }
+}
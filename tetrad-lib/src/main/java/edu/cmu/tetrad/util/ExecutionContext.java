@@ -0,0 +1,444 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named ForkJoinPool together with counters of the work done in it and a cancellation flag.
+ * Parallel code asks for the current context rather than using a single static pool, so that
+ * several searches can be run at once in one JVM, each with its own threads and counters.
+ * </p>
+ * The current context of a thread is, in order, the context whose pool the thread belongs to,
+ * the context bound to the thread by <code>call</code> or <code>run</code>, or the default
+ * context, which has one thread per processor. Since work started from a worker thread stays
+ * in that worker's pool, searches nested inside other parallel work (for instance, algorithms
+ * run by algcomparison) do not start threads of their own.
+ * </p>
+ * Cancellation is cooperative: once <code>cancel</code> has been called, <code>invoke</code>
+ * and <code>invokeAll</code> refuse new work and tasks that call <code>checkCancelled</code>
+ * stop by throwing a CancellationException.
+ *
+ * @author Joseph Ramsey
+ */
+public final class ExecutionContext {
+
+    // Named contexts, which live as long as the JVM.
+    private static final Map<String, ExecutionContext> registry = new HashMap<>();
+
+    private static final ExecutionContext DEFAULT =
+            named("default", Runtime.getRuntime().availableProcessors());
+
+    // The context bound to a thread that is not a worker of any context.
+    private static final ThreadLocal<ExecutionContext> bound = new ThreadLocal<>();
+
+    private final String name;
+    private final ForkJoinPool pool;
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final AtomicInteger threadIndex = new AtomicInteger();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // Top level tasks currently running, so that they can be cancelled.
+    private final Set<Future<?>> running = Collections.newSetFromMap(new ConcurrentHashMap<Future<?>, Boolean>());
+
+    private ExecutionContext(String name, int parallelism) {
+        if (name == null) throw new NullPointerException("Name must not be null.");
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+
+        this.name = name;
+        this.pool = new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                return new Worker(pool, ExecutionContext.this);
+            }
+        }, null, false);
+    }
+
+    /**
+     * @return The default context, with one thread per available processor.
+     */
+    public static ExecutionContext getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return The current context of the calling thread.
+     */
+    public static ExecutionContext current() {
+        Thread thread = Thread.currentThread();
+
+        if (thread instanceof Worker) {
+            return ((Worker) thread).context;
+        }
+
+        ExecutionContext context = bound.get();
+        return context != null ? context : DEFAULT;
+    }
+
+    /**
+     * @return The context with the given name, which is created with the given parallelism if it does
+     * not exist yet. Named contexts are shared and are never shut down.
+     * @throws IllegalArgumentException if the context exists with a different parallelism.
+     */
+    public static ExecutionContext named(String name, int parallelism) {
+        synchronized (registry) {
+            ExecutionContext context = registry.get(name);
+
+            if (context == null) {
+                context = new ExecutionContext(name, parallelism);
+                registry.put(name, context);
+            } else if (context.getParallelism() != parallelism) {
+                throw new IllegalArgumentException("Context " + name + " already exists with parallelism "
+                        + context.getParallelism() + ".");
+            }
+
+            return context;
+        }
+    }
+
+    /**
+     * @return A shared context with the given parallelism. Use this instead of making a new pool for each
+     * search when the number of threads is to be limited.
+     */
+    public static ExecutionContext withParallelism(int parallelism) {
+        if (parallelism == DEFAULT.getParallelism()) return DEFAULT;
+        return named("parallelism-" + parallelism, parallelism);
+    }
+
+    /**
+     * @return A new context that is not shared. It should be shut down when no longer needed.
+     */
+    public static ExecutionContext create(String name, int parallelism) {
+        return new ExecutionContext(name, parallelism);
+    }
+
+    /**
+     * Calls the given callable in the calling thread with this as the current context, so that parallel
+     * work started by it is done in this context.
+     */
+    public <T> T call(Callable<T> callable) throws Exception {
+        Thread thread = Thread.currentThread();
+
+        if (thread instanceof Worker && ((Worker) thread).context != this) {
+            // A worker's context can't be rebound; run in this pool instead.
+            return invoke(ForkJoinTask.adapt(callable));
+        }
+
+        ExecutionContext previous = bound.get();
+        bound.set(this);
+
+        try {
+            return callable.call();
+        } finally {
+            if (previous == null) {
+                bound.remove();
+            } else {
+                bound.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Runs the given runnable in the calling thread with this as the current context.
+     */
+    public void run(final Runnable runnable) {
+        try {
+            call(Executors.callable(runnable));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Runs the given task in this context's pool and waits for its result.
+     *
+     * @throws CancellationException if the context has been cancelled.
+     */
+    public <T> T invoke(ForkJoinTask<T> task) {
+        checkCancelled();
+        submitted.incrementAndGet();
+        running.add(task);
+
+        try {
+            T result = pool.invoke(task);
+            completed.incrementAndGet();
+            return result;
+        } catch (RuntimeException | Error e) {
+            failed.incrementAndGet();
+            throw e;
+        } finally {
+            running.remove(task);
+        }
+    }
+
+    /**
+     * Runs the given callables in this context's pool and returns their results in order. An exception
+     * thrown by a callable is rethrown, wrapped in a RuntimeException if it is checked.
+     *
+     * @throws CancellationException if the context has been cancelled.
+     */
+    public <T> List<T> invokeAll(Collection<? extends Callable<T>> callables) {
+        checkCancelled();
+
+        List<CallableTask<T>> tasks = new ArrayList<>(callables.size());
+
+        for (Callable<T> callable : callables) {
+            tasks.add(new CallableTask<>(callable));
+        }
+
+        submitted.addAndGet(tasks.size());
+        running.addAll(tasks);
+
+        try {
+            for (CallableTask<T> task : tasks) {
+                if (Thread.currentThread() instanceof Worker && ((Worker) Thread.currentThread()).context == this) {
+                    task.fork();
+                } else {
+                    pool.execute(task);
+                }
+            }
+
+            List<T> results = new ArrayList<>(tasks.size());
+
+            for (CallableTask<T> task : tasks) {
+                try {
+                    T result = task.join();
+
+                    if (task.exception != null) {
+                        throw new RuntimeException(task.exception);
+                    }
+
+                    results.add(result);
+                    completed.incrementAndGet();
+                } catch (RuntimeException | Error e) {
+                    failed.incrementAndGet();
+
+                    for (CallableTask<T> _task : tasks) {
+                        _task.cancel(false);
+                    }
+
+                    throw e;
+                }
+            }
+
+            return results;
+        } finally {
+            running.removeAll(tasks);
+        }
+    }
+
+    /**
+     * Asks the work in this context to stop. Tasks that have not started are cancelled, new work is
+     * refused, and running tasks stop at their next call to <code>checkCancelled</code>.
+     */
+    public void cancel() {
+        cancelled.set(true);
+
+        for (Future<?> future : running) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Allows work in this context again after <code>cancel</code>.
+     */
+    public void resetCancelled() {
+        cancelled.set(false);
+    }
+
+    /**
+     * @return True if <code>cancel</code> has been called.
+     */
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * @throws CancellationException if the context has been cancelled.
+     */
+    public void checkCancelled() {
+        if (cancelled.get()) {
+            throw new CancellationException("Execution context " + name + " was cancelled.");
+        }
+    }
+
+    /**
+     * Shuts down the pool. Named contexts and the default context can't be shut down.
+     */
+    public void shutdown() {
+        synchronized (registry) {
+            if (registry.get(name) == this) {
+                throw new IllegalStateException("Shared context " + name + " can't be shut down.");
+            }
+        }
+
+        pool.shutdown();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * @return The underlying pool, for code that forks its own tasks.
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return A snapshot of the counters of this context.
+     */
+    public Metrics getMetrics() {
+        return new Metrics(name, pool.getParallelism(), submitted.get(), completed.get(), failed.get(),
+                pool.getStealCount(), pool.getQueuedTaskCount(), pool.getQueuedSubmissionCount(),
+                pool.getActiveThreadCount(), pool.getPoolSize());
+    }
+
+    public String toString() {
+        return "ExecutionContext[" + name + ", parallelism = " + getParallelism() + "]";
+    }
+
+    /**
+     * Counters of a context at some moment. Submitted, completed and failed count the tasks given to
+     * <code>invoke</code> and <code>invokeAll</code>; the rest are as reported by the pool.
+     */
+    public static final class Metrics {
+        private final String name;
+        private final int parallelism;
+        private final long submitted;
+        private final long completed;
+        private final long failed;
+        private final long steals;
+        private final long queuedTasks;
+        private final int queuedSubmissions;
+        private final int activeThreads;
+        private final int poolSize;
+
+        private Metrics(String name, int parallelism, long submitted, long completed, long failed, long steals,
+                        long queuedTasks, int queuedSubmissions, int activeThreads, int poolSize) {
+            this.name = name;
+            this.parallelism = parallelism;
+            this.submitted = submitted;
+            this.completed = completed;
+            this.failed = failed;
+            this.steals = steals;
+            this.queuedTasks = queuedTasks;
+            this.queuedSubmissions = queuedSubmissions;
+            this.activeThreads = activeThreads;
+            this.poolSize = poolSize;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getSteals() {
+            return steals;
+        }
+
+        public long getQueuedTasks() {
+            return queuedTasks;
+        }
+
+        public int getQueuedSubmissions() {
+            return queuedSubmissions;
+        }
+
+        public int getActiveThreads() {
+            return activeThreads;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public String toString() {
+            return name + ": parallelism = " + parallelism + ", submitted = " + submitted
+                    + ", completed = " + completed + ", failed = " + failed + ", steals = " + steals
+                    + ", queued tasks = " + queuedTasks + ", queued submissions = " + queuedSubmissions
+                    + ", active threads = " + activeThreads + ", pool size = " + poolSize;
+        }
+    }
+
+    // Runs a callable, keeping a checked exception to be rethrown by the caller.
+    private static final class CallableTask<T> extends RecursiveTask<T> {
+        private final Callable<T> callable;
+        private Exception exception;
+
+        private CallableTask(Callable<T> callable) {
+            this.callable = callable;
+        }
+
+        @Override
+        protected T compute() {
+            try {
+                return callable.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                exception = e;
+                return null;
+            }
+        }
+    }
+
+    // Worker threads know their context, so that work they start stays in it.
+    private static final class Worker extends ForkJoinWorkerThread {
+        private final ExecutionContext context;
+
+        private Worker(ForkJoinPool pool, ExecutionContext context) {
+            super(pool);
+            this.context = context;
+            setName("tetrad-" + context.name + "-" + context.threadIndex.incrementAndGet());
+        }
+    }
+}
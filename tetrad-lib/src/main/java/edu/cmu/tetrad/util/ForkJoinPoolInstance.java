@@ -24,12 +24,12 @@ package edu.cmu.tetrad.util;
 import java.util.concurrent.ForkJoinPool;
 
 /**
- * Static instance of a ForkJoinPool. Not sure this is necessary.
+ * Gives the pool of the current execution context; see ExecutionContext. Kept for code that
+ * only needs a pool.
  * Created by josephramsey on 2/7/15.
  */
 public class ForkJoinPoolInstance {
     private static final ForkJoinPoolInstance INSTANCE = new ForkJoinPoolInstance();
-    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
 
     private ForkJoinPoolInstance() {
 
@@ -39,8 +39,10 @@ public class ForkJoinPoolInstance {
         return INSTANCE;
     }
 
+    /**
+     * @return The pool of the calling thread's current execution context.
+     */
     public ForkJoinPool getPool() {
-        return pool;
+        return ExecutionContext.current().getPool();
     }
 }
-
@@ -490,6 +490,11 @@ public class IndTestMultinomialLogisticRegressionWald implements IndependenceTes
         return getPValue();
     }
 
+    @Override
+    public double getCacheHitRate() {
+        return Double.NaN;
+    }
+
     /**
      * @return a string representation of this test.
      */
@@ -90,6 +90,16 @@ public class MGM extends ConvexProximal implements GraphSearch{
     //parameter weights
     private DoubleMatrix1D weights;
 
+    //outer product of the weights, used by the penalty
+    private DoubleMatrix2D weightMat;
+
+    //Work buffers for the smooth part: Xbeta, Dtheta, squared loss residuals (n by p) and wxprod (n by Ltot). These
+    //are allocated once and overwritten on each call, so an MGM should only be used by one thread at a time.
+    private DoubleMatrix2D xBetaBuf;
+    private DoubleMatrix2D dThetaBuf;
+    private DoubleMatrix2D lossBuf;
+    private DoubleMatrix2D wxProdBuf;
+
     public MGM(DoubleMatrix2D x, DoubleMatrix2D y, List<Node> variables, int[] l, double[] lambda){
 
         if(l.length != y.columns())
@@ -294,6 +304,10 @@ public class MGM extends ConvexProximal implements GraphSearch{
 
     private MGMParams params;
 
+    public MGMParams getParams(){
+        return params;
+    }
+
     public void setParams(MGMParams newParams){
         params = newParams;
     }
@@ -332,9 +346,65 @@ public class MGM extends ConvexProximal implements GraphSearch{
 
     // avoid underflow in log(sum(exp(x))) calculation
     private double logsumexp(DoubleMatrix1D x){
-        DoubleMatrix1D myX = x.copy();
-        double maxX = StatUtils.max(myX.toArray());
-        return Math.log(myX.assign(Functions.minus(maxX)).assign(Functions.exp).zSum()) + maxX;
+        double maxX = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < x.size(); i++){
+            maxX = Math.max(maxX, x.getQuick(i));
+        }
+
+        double sum = 0;
+        for(int i = 0; i < x.size(); i++){
+            sum += Math.exp(x.getQuick(i) - maxX);
+        }
+        return Math.log(sum) + maxX;
+    }
+
+    /**
+     * Fills the work buffers for the given parameters, which should already be symmetrized:
+     * Xbeta=X*beta*diag(1./betad), Dtheta=D*theta*diag(1./betad), lossBuf=X-e*alpha1'-Xbeta-Dtheta and
+     * wxprod=X*(theta')+D*phi+e*alpha2'.
+     */
+    private void fillWorkBuffers(MGMParams par){
+        if(lossBuf == null){
+            xBetaBuf = factory2D.make(n, p);
+            dThetaBuf = factory2D.make(n, p);
+            lossBuf = factory2D.make(n, p);
+            wxProdBuf = factory2D.make(n, lsum);
+        }
+
+        //zMult gives alpha*A*B+beta*C, and 0 times a non-finite value left over from the last call isn't 0
+        xBetaBuf.assign(0);
+        dThetaBuf.assign(0);
+        wxProdBuf.assign(0);
+
+        DoubleMatrix2D divBetaD = factory2D.diagonal(factory1D.make(p,1.0).assign(par.betad, Functions.div));
+        xDat.zMult(alg.mult(par.beta, divBetaD), xBetaBuf);
+        dDat.zMult(alg.mult(par.theta, divBetaD), dThetaBuf);
+        xDat.zMult(par.theta, wxProdBuf, 1.0, 0.0, false, true);
+        dDat.zMult(par.phi, wxProdBuf, 1.0, 1.0, false, false);
+
+        for(int i = 0; i < n; i++){
+            for(int j = 0; j < p; j++){
+                lossBuf.setQuick(i,j,xDat.getQuick(i,j) - par.alpha1.getQuick(j) - xBetaBuf.getQuick(i,j) -
+                        dThetaBuf.getQuick(i,j));
+            }
+            for(int j = 0; j < lsum; j++){
+                wxProdBuf.setQuick(i,j,wxProdBuf.getQuick(i,j) + par.alpha2.getQuick(j));
+            }
+        }
+    }
+
+    //norm(mat*diag(sqrt(w)),'fro')^2, without making the product
+    private static double weightedSquaredNorm(DoubleMatrix2D mat, DoubleMatrix1D w){
+        double sum = 0;
+        for(int j = 0; j < mat.columns(); j++){
+            double colSum = 0;
+            for(int i = 0; i < mat.rows(); i++){
+                double v = mat.getQuick(i, j);
+                colSum += v*v;
+            }
+            sum += w.getQuick(j)*colSum;
+        }
+        return sum;
     }
 
     //calculate parameter weights as in Lee and Hastie
@@ -351,6 +421,7 @@ public class MGM extends ConvexProximal implements GraphSearch{
             }
             weights.set(p+j, Math.sqrt(curWeight));
         }
+        weightMat = alg.multOuter(weights, weights, null);
     }
 
     /**
@@ -415,33 +486,12 @@ public class MGM extends ConvexProximal implements GraphSearch{
         upperTri(par.phi,0);
         par.phi.assign(alg.transpose(par.phi), Functions.plus);
 
+        fillWorkBuffers(par);
 
-        //Xbeta=X*beta*diag(1./betad);
-        DoubleMatrix2D divBetaD = factory2D.diagonal(factory1D.make(p,1.0).assign(par.betad, Functions.div));
-        DoubleMatrix2D xBeta = alg.mult(xDat,alg.mult(par.beta, divBetaD));
-
-        //Dtheta=D*theta*diag(1./betad);
-        DoubleMatrix2D dTheta = alg.mult(alg.mult(dDat, par.theta), divBetaD);
-
-        // Squared loss
         //sqloss=-n/2*sum(log(betad))+...
         //.5*norm((X-e*alpha1'-Xbeta-Dtheta)*diag(sqrt(betad)),'fro')^2;
-        DoubleMatrix2D tempLoss = factory2D.make(n, xDat.columns());
-
-        //wxprod=X*(theta')+D*phi+e*alpha2';
-        DoubleMatrix2D wxProd = alg.mult(xDat, alg.transpose(par.theta));
-        wxProd.assign(alg.mult(dDat, par.phi), Functions.plus);
-        for(int i = 0; i < n; i++){
-            for(int j = 0; j < xDat.columns(); j++){
-                tempLoss.set(i,j,xDat.get(i,j) - par.alpha1.get(j) - xBeta.get(i,j) - dTheta.get(i,j));
-            }
-            for(int j = 0; j < dDat.columns(); j++){
-                wxProd.set(i,j,wxProd.get(i,j) + par.alpha2.get(j));
-            }
-        }
-
         double sqloss = -n/2.0*par.betad.copy().assign(Functions.log).zSum() +
-                .5 * Math.pow(alg.normF(alg.mult(tempLoss, factory2D.diagonal(par.betad.copy().assign(Functions.sqrt)))), 2);
+                .5 * weightedSquaredNorm(lossBuf, par.betad);
 
 
         // categorical loss
@@ -457,7 +507,7 @@ public class MGM extends ConvexProximal implements GraphSearch{
 
         double catloss = 0;
         for(int i = 0; i < yDat.columns(); i++){
-            DoubleMatrix2D wxTemp = wxProd.viewPart(0, lcumsum[i], n, l[i]);
+            DoubleMatrix2D wxTemp = wxProdBuf.viewPart(0, lcumsum[i], n, l[i]);
             for(int k = 0; k < n; k++){
                 DoubleMatrix1D curRow = wxTemp.viewRow(k);
 
@@ -506,39 +556,18 @@ public class MGM extends ConvexProximal implements GraphSearch{
         upperTri(par.phi,0);
         par.phi.assign(alg.transpose(par.phi), Functions.plus);
 
-        //Xbeta=X*beta*diag(1./betad);
-        DoubleMatrix2D divBetaD = factory2D.diagonal(factory1D.make(p,1.0).assign(par.betad, Functions.div));
-        DoubleMatrix2D xBeta = alg.mult(xDat,alg.mult(par.beta, divBetaD));
-
-        //Dtheta=D*theta*diag(1./betad);
-        DoubleMatrix2D dTheta = alg.mult(alg.mult(dDat, par.theta), divBetaD);
-
-        // Squared loss
-        //tempLoss =  (X-e*alpha1'-Xbeta-Dtheta) = -res (in gradient code)
-        DoubleMatrix2D tempLoss = factory2D.make(n, xDat.columns());
-
-        //wxprod=X*(theta')+D*phi+e*alpha2';
-        DoubleMatrix2D wxProd = alg.mult(xDat, alg.transpose(par.theta));
-        wxProd.assign(alg.mult(dDat, par.phi), Functions.plus);
-        for(int i = 0; i < n; i++){
-            for(int j = 0; j < xDat.columns(); j++){
-                tempLoss.set(i,j,xDat.get(i,j) - par.alpha1.get(j) - xBeta.get(i,j) - dTheta.get(i,j));
-            }
-            for(int j = 0; j < dDat.columns(); j++){
-                wxProd.set(i,j,wxProd.get(i,j) + par.alpha2.get(j));
-            }
-        }
+        fillWorkBuffers(par);
 
         //sqloss=-n/2*sum(log(betad))+...
         //.5*norm((X-e*alpha1'-Xbeta-Dtheta)*diag(sqrt(betad)),'fro')^2;
         double sqloss = -n/2.0*par.betad.copy().assign(Functions.log).zSum() +
-                .5 * Math.pow(alg.normF(alg.mult(tempLoss, factory2D.diagonal(par.betad.copy().assign(Functions.sqrt)))), 2);
+                .5 * weightedSquaredNorm(lossBuf, par.betad);
 
-        //ok now tempLoss = res
-        tempLoss.assign(Functions.mult(-1));
+        //ok now lossBuf = res
+        DoubleMatrix2D res = lossBuf.assign(Functions.neg);
 
         //gradbeta=X'*(res);
-        gradOut.beta = alg.mult(alg.transpose(xDat), tempLoss);
+        gradOut.beta = alg.mult(alg.transpose(xDat), res);
 
         //gradbeta=gradbeta-diag(diag(gradbeta)); % zero out diag
         //gradbeta=tril(gradbeta)'+triu(gradbeta);
@@ -546,10 +575,10 @@ public class MGM extends ConvexProximal implements GraphSearch{
         upperTri(gradOut.beta, 1).assign(lowerBeta, Functions.plus);
 
         //gradalpha1=diag(betad)*sum(res,1)';
-        gradOut.alpha1 = alg.mult(factory2D.diagonal(par.betad),margSum(tempLoss, 1));
+        gradOut.alpha1 = margSum(res, 1).assign(par.betad, Functions.mult);
 
         //gradtheta=D'*(res);
-        gradOut.theta = alg.mult(alg.transpose(dDat), tempLoss);
+        gradOut.theta = alg.mult(alg.transpose(dDat), res);
 
         // categorical loss
         /*catloss=0;
@@ -564,38 +593,36 @@ public class MGM extends ConvexProximal implements GraphSearch{
 
         double catloss = 0;
         for(int i = 0; i < yDat.columns(); i++){
-            DoubleMatrix2D wxTemp = wxProd.viewPart(0, lcumsum[i], n, l[i]);
-            //need to copy init values for calculating nll
-            DoubleMatrix2D wxTemp0 = wxTemp.copy();
-
-            // does this need to be done in log space??
-            wxTemp.assign(Functions.exp);
-            DoubleMatrix1D invDenom = factory1D.make(n,1.0).assign(margSum(wxTemp, 2), Functions.div);
-            wxTemp.assign(alg.mult(factory2D.diagonal(invDenom), wxTemp));
+            DoubleMatrix2D wxTemp = wxProdBuf.viewPart(0, lcumsum[i], n, l[i]);
             for(int k = 0; k < n; k++){
                 DoubleMatrix1D curRow = wxTemp.viewRow(k);
-                DoubleMatrix1D curRow0 = wxTemp0.viewRow(k);
+                int level = (int) yDat.get(k, i) - 1;
+                double denom = logsumexp(curRow);
 
-                catloss -= curRow0.get((int) yDat.get(k, i) - 1);
-                catloss += logsumexp(curRow0);
+                catloss -= curRow.get(level);
+                catloss += denom;
 
+                //wxtemp=diag(sparse(1./denom))*exp(wxtemp), in place
+                for(int j = 0; j < l[i]; j++){
+                    curRow.setQuick(j, Math.exp(curRow.getQuick(j) - denom));
+                }
 
                 //wxtemp(sub2ind(size(wxtemp),(1:n)',Y(:,r)))=wxtemp(sub2ind(size(wxtemp),(1:n)',Y(:,r)))-1;
-                curRow.set((int) yDat.get(k,i)-1, curRow.get((int) yDat.get(k,i)-1) - 1);
+                curRow.set(level, curRow.get(level) - 1);
             }
         }
 
         //gradalpha2=sum(wxprod,1)';
-        gradOut.alpha2 = margSum(wxProd,1);
+        gradOut.alpha2 = margSum(wxProdBuf,1);
 
         //gradw=X'*wxprod;
-        DoubleMatrix2D gradW = alg.mult(alg.transpose(xDat), wxProd);
+        DoubleMatrix2D gradW = alg.mult(alg.transpose(xDat), wxProdBuf);
 
         //gradtheta=gradtheta+gradw';
         gradOut.theta.assign(alg.transpose(gradW), Functions.plus);
 
         //gradphi=D'*wxprod;
-        gradOut.phi = alg.mult(alg.transpose(dDat), wxProd);
+        gradOut.phi = alg.mult(alg.transpose(dDat), wxProdBuf);
 
         //zero out gradphi diagonal
         //for r=1:q
@@ -616,8 +643,9 @@ public class MGM extends ConvexProximal implements GraphSearch{
          */
         gradOut.betad = factory1D.make(xDat.columns());
         for(int i = 0; i < p; i++){
-            gradOut.betad.set(i, -n / (2.0 * par.betad.get(i)) + alg.norm2(tempLoss.viewColumn(i)) / 2.0 -
-                    alg.mult(tempLoss.viewColumn(i), xBeta.viewColumn(i).copy().assign(dTheta.viewColumn(i), Functions.plus)));
+            DoubleMatrix1D resCol = res.viewColumn(i);
+            gradOut.betad.set(i, -n / (2.0 * par.betad.get(i)) + alg.norm2(resCol) / 2.0 -
+                    alg.mult(resCol, xBetaBuf.viewColumn(i)) - alg.mult(resCol, dThetaBuf.viewColumn(i)));
         }
 
         gradOut.alpha1.assign(Functions.div((double) n));
@@ -646,8 +674,6 @@ public class MGM extends ConvexProximal implements GraphSearch{
         //penbeta = t(1).*(wv(1:p)'*wv(1:p));
         //betascale=zeros(size(beta));
         //betascale=max(0,1-penbeta./abs(beta));
-        DoubleMatrix2D weightMat = alg.multOuter(weights,
-                weights, null);
 
         //int p = xDat.columns();
 
@@ -707,127 +733,10 @@ public class MGM extends ConvexProximal implements GraphSearch{
      * @return
      */
     public DoubleMatrix1D smoothGradient(DoubleMatrix1D parIn){
-        int n = xDat.rows();
-        MGMParams grad = new MGMParams();
-
-        //
-        MGMParams par = new MGMParams(parIn, p, lsum);
-        upperTri(par.beta, 1);
-        par.beta.assign(alg.transpose(par.beta), Functions.plus);
-
-        for(int i = 0; i < q; i++){
-            par.phi.viewPart(lcumsum[i], lcumsum[i], l[i], l[i]).assign(0);
-        }
-        upperTri(par.phi, 0);
-        par.phi.assign(alg.transpose(par.phi), Functions.plus);
-
-        //Xbeta=X*beta*diag(1./betad);
-        //Dtheta=D*theta*diag(1./betad);
-        DoubleMatrix2D divBetaD = factory2D.diagonal(factory1D.make(p, 1.0).assign(par.betad, Functions.div));
-
-        DoubleMatrix2D xBeta = alg.mult(alg.mult(xDat, par.beta), divBetaD);
-        DoubleMatrix2D dTheta = alg.mult(alg.mult(dDat, par.theta), divBetaD);
-
-        //res=Xbeta-X+e*alpha1'+Dtheta;
-        DoubleMatrix2D negLoss = factory2D.make(n, xDat.columns());
-
-        //wxprod=X*(theta')+D*phi+e*alpha2';
-        DoubleMatrix2D wxProd = alg.mult(xDat, alg.transpose(par.theta));
-        wxProd.assign(alg.mult(dDat, par.phi), Functions.plus);
-        for(int i = 0; i < n; i++){
-            for(int j = 0; j < p; j++){
-                negLoss.set(i,j, xBeta.get(i,j) - xDat.get(i,j) + par.alpha1.get(j) + dTheta.get(i,j));
-            }
-            for(int j = 0; j < dDat.columns(); j++){
-                wxProd.set(i,j,wxProd.get(i,j) + par.alpha2.get(j));
-            }
-        }
-
-        //gradbeta=X'*(res);
-        grad.beta = alg.mult(alg.transpose(xDat), negLoss);
-
-        //gradbeta=gradbeta-diag(diag(gradbeta)); % zero out diag
-        //gradbeta=tril(gradbeta)'+triu(gradbeta);
-        DoubleMatrix2D lowerBeta = alg.transpose(lowerTri(grad.beta.copy(), -1));
-        upperTri(grad.beta, 1).assign(lowerBeta, Functions.plus);
-
-        //gradalpha1=diag(betad)*sum(res,1)';
-        grad.alpha1 = alg.mult(factory2D.diagonal(par.betad),margSum(negLoss, 1));
-
-        //gradtheta=D'*(res);
-        grad.theta = alg.mult(alg.transpose(dDat), negLoss);
-
-        /*
-        wxprod=X*(theta')+D*phi+e*alpha2'; %this is n by Ltot
-        Lsum=[0;cumsum(L)];
-        for r=1:q
-            idx=Lsum(r)+1:Lsum(r)+L(r);
-            wxtemp=wxprod(:,idx); %n by L(r)
-            denom=sum(exp(wxtemp),2); % this is n by 1
-            wxtemp=diag(sparse(1./denom))*exp(wxtemp);
-            wxtemp(sub2ind(size(wxtemp),(1:n)',Y(:,r)))=wxtemp(sub2ind(size(wxtemp),(1:n)',Y(:,r)))-1;
-            wxprod(:,idx)=wxtemp;
-        end
-        */
-
-        for(int i = 0; i < yDat.columns(); i++){
-            DoubleMatrix2D wxTemp = wxProd.viewPart(0, lcumsum[i], n, l[i]);
-
-            // does this need to be done in log space??
-            wxTemp.assign(Functions.exp);
-            DoubleMatrix1D invDenom = factory1D.make(n,1.0).assign(margSum(wxTemp, 2), Functions.div);
-            wxTemp.assign(alg.mult(factory2D.diagonal(invDenom), wxTemp));
-            for(int k = 0; k < n; k++){
-                DoubleMatrix1D curRow = wxTemp.viewRow(k);
-
-                //wxtemp(sub2ind(size(wxtemp),(1:n)',Y(:,r)))=wxtemp(sub2ind(size(wxtemp),(1:n)',Y(:,r)))-1;
-                curRow.set((int) yDat.get(k,i)-1, curRow.get((int) yDat.get(k,i)-1) - 1);
-            }
-        }
-
-        //gradalpha2=sum(wxprod,1)';
-        grad.alpha2 = margSum(wxProd,1);
-
-        //gradw=X'*wxprod;
-        DoubleMatrix2D gradW = alg.mult(alg.transpose(xDat), wxProd);
-
-        //gradtheta=gradtheta+gradw';
-        grad.theta.assign(alg.transpose(gradW), Functions.plus);
-
-        //gradphi=D'*wxprod;
-        grad.phi = alg.mult(alg.transpose(dDat), wxProd);
-
-        //zero out gradphi diagonal
-        //for r=1:q
-        //gradphi(Lsum(r)+1:Lsum(r+1),Lsum(r)+1:Lsum(r+1))=0;
-        //end
-        for(int i = 0; i < q; i++){
-            grad.phi.viewPart(lcumsum[i], lcumsum[i], l[i], l[i]).assign(0);
-        }
-
-        //gradphi=tril(gradphi)'+triu(gradphi);
-        DoubleMatrix2D lowerPhi = alg.transpose(lowerTri(grad.phi.copy(), 0));
-        upperTri(grad.phi, 0).assign(lowerPhi, Functions.plus);
-
-        /*
-        for s=1:p
-            gradbetad(s)=-n/(2*betad(s))+1/2*norm(res(:,s))^2-res(:,s)'*(Xbeta(:,s)+Dtheta(:,s));
-        end
-         */
-        grad.betad = factory1D.make(xDat.columns());
-        for(int i = 0; i < p; i++){
-            grad.betad.set(i, -n / (2.0 * par.betad.get(i)) + alg.norm2(negLoss.viewColumn(i)) / 2.0 -
-                    alg.mult(negLoss.viewColumn(i), xBeta.viewColumn(i).copy().assign(dTheta.viewColumn(i), Functions.plus)));
-        }
-
-        grad.alpha1.assign(Functions.div((double) n));
-        grad.alpha2.assign(Functions.div((double) n));
-        grad.betad.assign(Functions.div((double) n));
-        grad.beta.assign(Functions.div((double) n));
-        grad.theta.assign(Functions.div((double) n));
-        grad.phi.assign(Functions.div((double) n));
-
-        return grad.toMatrix1D();
+        //same work as smooth, which shares the work buffers
+        DoubleMatrix1D grad = factory1D.make(parIn.size());
+        smooth(parIn, grad);
+        return grad;
     }
 
     /**
@@ -852,8 +761,6 @@ public class MGM extends ConvexProximal implements GraphSearch{
         //penbeta = t(1).*(wv(1:p)'*wv(1:p));
         //betascale=zeros(size(beta));
         //betascale=max(0,1-penbeta./abs(beta));
-        DoubleMatrix2D weightMat = alg.multOuter(weights,
-                weights, null);
         DoubleMatrix2D betaWeight = weightMat.viewPart(0, 0, p, p);
         DoubleMatrix2D betascale = betaWeight.copy().assign(Functions.mult(-tlam.get(0)));
         betascale.assign(par.beta.copy().assign(Functions.abs), Functions.div);
@@ -945,8 +852,6 @@ public class MGM extends ConvexProximal implements GraphSearch{
         //penbeta = t(1).*(wv(1:p)'*wv(1:p));
         //betascale=zeros(size(beta));
         //betascale=max(0,1-penbeta./abs(beta));
-        DoubleMatrix2D weightMat = alg.multOuter(weights,
-                weights, null);
         DoubleMatrix2D betaWeight = weightMat.viewPart(0, 0, p, p);
         DoubleMatrix2D betascale = betaWeight.copy().assign(Functions.mult(-tlam.get(0)));
         DoubleMatrix2D absBeta = par.beta.copy().assign(Functions.abs);
@@ -1087,6 +992,40 @@ public class MGM extends ConvexProximal implements GraphSearch{
         setParams(new MGMParams(pg.learnBackTrack(this, params.toMatrix1D(), 0.0, iterLimit), p, lsum));
     }
 
+    /**
+     * Sets the lambdas for cc, cd and dd edges used by the next fit. The current parameters are kept, so the next fit
+     * warm starts from the last solution.
+     *
+     * @param lambda three values for cc, cd, and dd edges respectively
+     */
+    public void setLambda(double... lambda){
+        if(lambda.length != 3)
+            throw new IllegalArgumentException("Lambda should have three values for cc, cd, and dd edges respectively");
+
+        this.lambda = factory1D.make(lambda);
+    }
+
+    /**
+     * Learns a graph for each lambda triple in turn, using edge convergence as in search(). Each fit warm starts from
+     * the solution of the one before it, so a path is cheapest when it goes from large lambdas to small ones.
+     *
+     * @param lambdas lambda triples for cc, cd, and dd edges
+     * @return the graph for each lambda triple, in the same order
+     */
+    public List<Graph> searchPath(List<double[]> lambdas){
+        long startTime = System.currentTimeMillis();
+        List<Graph> graphs = new ArrayList<>();
+
+        for(double[] lam : lambdas){
+            setLambda(lam);
+            learnEdges(1000);
+            graphs.add(graphFromMGM());
+        }
+
+        elapsedTime = System.currentTimeMillis() - startTime;
+        return graphs;
+    }
+
     /**
      * Converts MGM object to Graph object with edges if edge parameters are non-zero. Loses all edge param information
      *
@@ -95,6 +95,11 @@ public class ProximalGradient {
         DoubleMatrix1D GrY = cp.smoothGradient(Y);
         DoubleMatrix1D GrX = cp.smoothGradient(X);
 
+        //work vectors, reused across iterations
+        DoubleMatrix1D Xold = X.like();
+        DoubleMatrix1D temp = X.like();
+        DoubleMatrix1D XmY = X.like();
+
         int iterCount = 0;
         int noEdgeChangeCount = 0;
 
@@ -115,19 +120,19 @@ public class ProximalGradient {
             Lold = L;
             L = L*alpha;
             thetaOld = theta;
-            DoubleMatrix1D Xold = X.copy();
+            Xold.assign(X);
             obj = Fx + Gx;
 
             while(true) {
                 theta = 2.0/(1.0+Math.sqrt(1.0+(4.0*L)/(Lold*Math.pow(thetaOld,2))));
                 if(theta < 1){
-                    Y.assign(Xold.copy().assign(Functions.mult(1 - theta)));
-                    Y.assign(Z.copy().assign(Functions.mult(theta)), Functions.plus);
+                    Y.assign(Xold).assign(Functions.mult(1 - theta));
+                    Y.assign(Z, Functions.plusMult(theta));
                 }
 
 
                 Fy = cp.smooth(Y, GrY);
-                DoubleMatrix1D temp = Y.copy().assign(GrY.copy().assign(Functions.mult(1.0 / L)), Functions.minus);
+                temp.assign(Y).assign(GrY, Functions.minusMult(1.0 / L));
                 Gx = cp.nonSmooth(1.0 / L, temp, X);
 
                 if(backtrackSwitch){
@@ -138,7 +143,7 @@ public class ProximalGradient {
                     //GrX.assign(factory1D.make(tempPar.toVector()[0]));
                 }
 
-                DoubleMatrix1D XmY = X.copy().assign(Y, Functions.minus);
+                XmY.assign(X).assign(Y, Functions.minus);
                 double normXY = alg.norm2(XmY);
                 if(normXY==0)
                     break;
@@ -189,7 +194,7 @@ public class ProximalGradient {
                 }
             }
 
-            dx = norm2(X.copy().assign(Xold, Functions.minus)) / Math.max(1,norm2(X));
+            dx = norm2(XmY.assign(X).assign(Xold, Functions.minus)) / Math.max(1,norm2(X));
 
             //sometimes there are more edge changes after initial 0, so may want to do two zeros in a row...
             if (diffEdges == 0 && edgeConverge) {
@@ -221,16 +226,16 @@ public class ProximalGradient {
             //restart acceleration if objective got worse
             if(Fx + Gx > obj) {
                 theta = Double.POSITIVE_INFINITY;
-                Y.assign(X.copy());
+                Y.assign(X);
                 //Ypar = new MGMParams(Xpar);
-                Z.assign(X.copy());
+                Z.assign(X);
                 //Fy = Fx;
                 //GrY.assign(GrX.copy());
             }else if(theta==1){
-                Z.assign(X.copy());
+                Z.assign(X);
             } else {
-                Z.assign(X.copy().assign(Functions.mult(1 / theta)));
-                Z.assign(Xold.copy().assign(Functions.mult(1 - (1.0 / theta))), Functions.plus);
+                Z.assign(X).assign(Functions.mult(1 / theta));
+                Z.assign(Xold, Functions.plusMult(1 - (1.0 / theta)));
             }
 
 
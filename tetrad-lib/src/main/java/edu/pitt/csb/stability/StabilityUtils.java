@@ -92,9 +92,11 @@ public class StabilityUtils {
             }
 
             //could avoid using syncronized if we keep track of array of mats and add at end, but that needs lots of
-            //memory
-            private synchronized void addToMat(DoubleMatrix2D matSum, DoubleMatrix2D curMat){
-                matSum.assign(curMat, Functions.plus);
+            //memory. Locks the sum itself, since each action is a different object.
+            private void addToMat(DoubleMatrix2D matSum, DoubleMatrix2D curMat){
+                synchronized (matSum) {
+                    matSum.assign(curMat, Functions.plus);
+                }
             }
 
             @Override
@@ -137,6 +139,80 @@ public class StabilityUtils {
         return thetaMat;
     }
 
+    //returns, for each lambda triple in order, an adjacency matrix of edge frequencies over N subsamples of size b, as
+    //in StabilitySearchPar. Each subsample fits the whole MGM lambda path, warm starting each lambda from the solution
+    //for the one before (see MGM.searchPath); the subsamples are fit in parallel.
+    public static List<DoubleMatrix2D> StabilitySearchPathPar(final DataSet data, final List<double[]> lambdas, int N, int b){
+
+        final int numVars = data.getNumColumns();
+        final List<DoubleMatrix2D> thetaMats = new ArrayList<>();
+
+        for(int k = 0; k < lambdas.size(); k++){
+            thetaMats.add(DoubleFactory2D.dense.make(numVars, numVars, 0.0));
+        }
+
+        if(lambdas.isEmpty()){
+            return thetaMats;
+        }
+
+        final int[][] samps = subSampleNoReplacement(data.getNumRows(), b, N);
+
+        final ForkJoinPool pool = ForkJoinPoolInstance.getInstance().getPool();
+
+        class StabilityPathAction extends RecursiveAction{
+            private int chunk;
+            private int from;
+            private int to;
+
+            public StabilityPathAction(int chunk, int from, int to){
+                this.chunk = chunk;
+                this.from = from;
+                this.to = to;
+            }
+
+            private void addToMat(DoubleMatrix2D matSum, DoubleMatrix2D curMat){
+                synchronized (matSum) {
+                    matSum.assign(curMat, Functions.plus);
+                }
+            }
+
+            @Override
+            protected void compute(){
+                if (to - from <= chunk) {
+                    for (int s = from; s < to; s++) {
+                        DataSet dataSubSamp = data.subsetRows(samps[s]).copy();
+                        MGM mgm = new MGM(dataSubSamp, lambdas.get(0));
+                        List<Graph> graphs = mgm.searchPath(lambdas);
+
+                        for (int k = 0; k < graphs.size(); k++) {
+                            addToMat(thetaMats.get(k), MixedUtils.skeletonToMatrix(graphs.get(k)));
+                        }
+                    }
+                } else {
+                    List<StabilityPathAction> tasks = new ArrayList<>();
+
+                    final int mid = (to + from) / 2;
+
+                    tasks.add(new StabilityPathAction(chunk, from, mid));
+                    tasks.add(new StabilityPathAction(chunk, mid, to));
+
+                    invokeAll(tasks);
+                }
+            }
+        }
+
+        //each subsample fits a whole path, so one per task
+        final int chunk = 1;
+
+        pool.invoke(new StabilityPathAction(chunk, 0, N));
+
+        for(DoubleMatrix2D thetaMat : thetaMats){
+            thetaMat.assign(Functions.mult(1.0 / N));
+        }
+
+        return thetaMats;
+    }
+
     //needs a symmetric matrix
     //array of averages of instability matrix over [all, cc, cd, dd] edges
     public static double[] totalInstabilityUndir(DoubleMatrix2D xi, List<Node> vars){
@@ -0,0 +1,132 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.bayes.BayesIm;
+import edu.cmu.tetrad.bayes.BayesPm;
+import edu.cmu.tetrad.bayes.MlBayesIm;
+import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.data.DiscreteVariable;
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.GraphUtils;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.search.AdLeafTree;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the cells of AdLeafTree against partitioning the rows directly.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestAdLeafTree {
+
+    @Test
+    public void testCells() {
+        RandomUtil.getInstance().setSeed(2938472938L);
+
+        Graph dag = GraphUtils.randomGraph(8, 0, 10, 10, 10, 10, false);
+        BayesPm pm = new BayesPm(dag, 2, 4);
+        BayesIm im = new MlBayesIm(pm, MlBayesIm.RANDOM);
+        DataSet data = im.simulateData(500, false);
+
+        // Unbounded, and so small that almost nothing is stored.
+        AdLeafTree tree = new AdLeafTree(data);
+        AdLeafTree small = new AdLeafTree(data, 600);
+
+        RandomUtil random = RandomUtil.getInstance();
+
+        for (int trial = 0; trial < 200; trial++) {
+            List<DiscreteVariable> A = new ArrayList<>();
+
+            for (Node node : data.getVariables()) {
+                if (random.nextInt(3) == 0) A.add((DiscreteVariable) node);
+            }
+
+            Collections.shuffle(A);
+
+            int[][] expected = partition(data, A);
+            assertCells(expected, tree.getCellRows(A));
+            assertCells(expected, small.getCellRows(A));
+
+            List<List<Integer>> leaves = tree.getCellLeaves(A);
+            assertEquals(expected.length, leaves.size());
+
+            for (int k = 0; k < expected.length; k++) {
+                assertEquals(expected[k].length, leaves.get(k).size());
+            }
+        }
+
+        assertTrue(small.getNumCachedRows() <= 600);
+        assertTrue(tree.getNumCachedRows() > small.getNumCachedRows());
+    }
+
+    private void assertCells(int[][] expected, int[][] actual) {
+        assertEquals(expected.length, actual.length);
+
+        for (int k = 0; k < expected.length; k++) {
+            assertArrayEquals(expected[k], actual[k]);
+        }
+    }
+
+    // Rows of each cell, the variables taken in column order with the last varying fastest.
+    private int[][] partition(DataSet data, List<DiscreteVariable> A) {
+        int[] cols = new int[A.size()];
+        for (int k = 0; k < A.size(); k++) cols[k] = data.getColumn(A.get(k));
+        Arrays.sort(cols);
+
+        int numCells = 1;
+        for (int col : cols) numCells *= ((DiscreteVariable) data.getVariable(col)).getNumCategories();
+
+        List<List<Integer>> cells = new ArrayList<>();
+        for (int k = 0; k < numCells; k++) cells.add(new ArrayList<Integer>());
+
+        for (int i = 0; i < data.getNumRows(); i++) {
+            int cell = 0;
+
+            for (int col : cols) {
+                int dim = ((DiscreteVariable) data.getVariable(col)).getNumCategories();
+                cell = cell * dim + data.getInt(i, col);
+            }
+
+            cells.get(cell).add(i);
+        }
+
+        int[][] rows = new int[numCells][];
+
+        for (int k = 0; k < numCells; k++) {
+            rows[k] = new int[cells.get(k).size()];
+            for (int i = 0; i < rows[k].length; i++) rows[k][i] = cells.get(k).get(i);
+        }
+
+        return rows;
+    }
+}
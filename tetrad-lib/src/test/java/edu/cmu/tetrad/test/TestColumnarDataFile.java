@@ -0,0 +1,203 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.data.*;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests writing data sets in the binary columnar format and mapping them back in.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestColumnarDataFile {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        DataSet data = mixedData(1000);
+
+        File file = File.createTempFile("data", ".tcb");
+        file.deleteOnExit();
+
+        ColumnarDataFile.write(data, file);
+        DataSet mapped = ColumnarDataFile.open(file);
+
+        assertEquals(data.getNumRows(), mapped.getNumRows());
+        assertEquals(data.getNumColumns(), mapped.getNumColumns());
+
+        for (int j = 0; j < data.getNumColumns(); j++) {
+            assertEquals(data.getVariable(j).getName(), mapped.getVariable(j).getName());
+            assertEquals(data.getVariable(j).getClass(), mapped.getVariable(j).getClass());
+        }
+
+        assertEquals(((DiscreteVariable) data.getVariable(2)).getCategories(),
+                ((DiscreteVariable) mapped.getVariable(2)).getCategories());
+
+        for (int i = 0; i < data.getNumRows(); i++) {
+            for (int j = 0; j < data.getNumColumns(); j++) {
+                assertEquals(data.getDouble(i, j), mapped.getDouble(i, j), 0.0);
+            }
+        }
+
+        // The mapped data are read-only; the setters throw rather than moving the data onto the heap. A copy
+        // is on the heap and may be changed, leaving the file alone.
+        double original = mapped.getDouble(0, 0);
+
+        try {
+            mapped.setDouble(0, 0, 100.0);
+            fail("setDouble should throw for mapped data.");
+        } catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+
+        try {
+            mapped.setInt(3, 2, 0);
+            fail("setInt should throw for mapped data.");
+        } catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+
+        assertTrue(((BoxDataSet) mapped).getDataBox() instanceof MappedDataBox);
+        assertEquals(original, mapped.getDouble(0, 0), 0.0);
+        assertEquals(data.getInt(3, 2), mapped.getInt(3, 2));
+
+        DataSet copy = mapped.copy();
+        assertFalse(((BoxDataSet) copy).getDataBox() instanceof MappedDataBox);
+        copy.setDouble(0, 0, 100.0);
+        copy.setInt(3, 2, (data.getInt(3, 2) + 1) % 3);
+        assertEquals(100.0, copy.getDouble(0, 0), 0.0);
+        assertEquals((data.getInt(3, 2) + 1) % 3, copy.getInt(3, 2));
+        assertEquals(data.getDouble(1, 1), copy.getDouble(1, 1), 0.0);
+        assertEquals(original, ColumnarDataFile.open(file).getDouble(0, 0), 0.0);
+    }
+
+    @Test
+    public void testMissingValues() throws IOException {
+        List<Node> variables = new ArrayList<>();
+        variables.add(new ContinuousVariable("X1"));
+        DataSet continuous = new BoxDataSet(new VerticalDoubleDataBox(new double[][]{{1.0, Double.NaN, 3.0}}), variables);
+
+        variables = new ArrayList<>();
+        variables.add(new DiscreteVariable("D1", 2));
+        DataSet discrete = new BoxDataSet(new VerticalIntDataBox(new int[][]{{1, -99, 0}}), variables);
+
+        File file = File.createTempFile("data", ".tcb");
+        file.deleteOnExit();
+
+        ColumnarDataFile.write(continuous, file);
+        DataSet mapped = ColumnarDataFile.open(file);
+        assertEquals(3.0, mapped.getDouble(2, 0), 0.0);
+        assertTrue(Double.isNaN(mapped.getDouble(1, 0)));
+
+        ColumnarDataFile.write(discrete, file);
+        mapped = ColumnarDataFile.open(file);
+        assertEquals(1, mapped.getInt(0, 0));
+        assertEquals(-99, mapped.getInt(1, 0));
+    }
+
+    @Test
+    public void testFloats() throws IOException {
+        DataSet data = mixedData(100);
+
+        File file = File.createTempFile("data", ".tcb");
+        file.deleteOnExit();
+
+        ColumnarDataFile.write(data, file, true);
+        DataSet mapped = ColumnarDataFile.open(file);
+
+        for (int i = 0; i < data.getNumRows(); i++) {
+            assertEquals((float) data.getDouble(i, 1), mapped.getDouble(i, 1), 0.0);
+            assertEquals(data.getInt(i, 3), mapped.getInt(i, 3));
+        }
+
+        // Floats take half the space.
+        File doubles = File.createTempFile("data", ".tcb");
+        doubles.deleteOnExit();
+        ColumnarDataFile.write(data, doubles);
+        assertTrue(file.length() < doubles.length());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        DataSet data = mixedData(50);
+
+        File file = File.createTempFile("data", ".tcb");
+        file.deleteOnExit();
+
+        ColumnarDataFile.write(data, file);
+        DataSet mapped = ColumnarDataFile.open(file);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(mapped);
+        }
+
+        DataSet restored;
+
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            restored = (DataSet) in.readObject();
+        }
+
+        for (int i = 0; i < data.getNumRows(); i++) {
+            for (int j = 0; j < data.getNumColumns(); j++) {
+                assertEquals(data.getDouble(i, j), restored.getDouble(i, j), 0.0);
+            }
+        }
+    }
+
+    private DataSet mixedData(int numRows) {
+        RandomUtil.getInstance().setSeed(2938492834L);
+
+        List<Node> variables = new ArrayList<>();
+        variables.add(new ContinuousVariable("X1"));
+        variables.add(new ContinuousVariable("X2"));
+        variables.add(new DiscreteVariable("D1", 3));
+
+        List<String> categories = new ArrayList<>();
+
+        for (int k = 0; k < 300; k++) {
+            categories.add("c" + k);
+        }
+
+        variables.add(new DiscreteVariable("D2", categories));
+
+        DataSet data = new BoxDataSet(new MixedDataBox(variables, numRows), variables);
+
+        for (int i = 0; i < numRows; i++) {
+            data.setDouble(i, 0, RandomUtil.getInstance().nextNormal(0, 1));
+            data.setDouble(i, 1, RandomUtil.getInstance().nextNormal(0, 1));
+            data.setInt(i, 2, RandomUtil.getInstance().nextInt(3));
+            data.setInt(i, 3, RandomUtil.getInstance().nextInt(300));
+        }
+
+        return data;
+    }
+}
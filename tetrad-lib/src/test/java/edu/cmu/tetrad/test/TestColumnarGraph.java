@@ -0,0 +1,240 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.graph.*;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks ColumnarGraph against EdgeListGraph, and checks that its snapshots are independent of the graphs they are
+ * taken from.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestColumnarGraph {
+
+    @Test
+    public void testAgainstEdgeListGraph() {
+        RandomUtil.getInstance().setSeed(2039481726L);
+
+        for (int t = 0; t < 10; t++) {
+            Graph dag = GraphUtils.randomGraph(25, 0, 40, 10, 10, 10, false);
+            Graph mixed = randomMixedGraph(dag);
+
+            checkSame(new EdgeListGraph(dag), new ColumnarGraph(dag));
+            checkSame(new EdgeListGraph(mixed), new ColumnarGraph(mixed));
+        }
+    }
+
+    @Test
+    public void testChanges() {
+        RandomUtil.getInstance().setSeed(5019283746L);
+
+        Graph dag = GraphUtils.randomGraph(20, 0, 30, 10, 10, 10, false);
+        Graph edgeList = new EdgeListGraph(dag);
+        Graph columnar = new ColumnarGraph(dag);
+        List<Node> nodes = edgeList.getNodes();
+
+        for (int i = 0; i < 200; i++) {
+            Node x = nodes.get(RandomUtil.getInstance().nextInt(nodes.size()));
+            Node y = nodes.get(RandomUtil.getInstance().nextInt(nodes.size()));
+            if (x == y) continue;
+
+            switch (RandomUtil.getInstance().nextInt(4)) {
+                case 0:
+                    if (!edgeList.isAdjacentTo(x, y)) {
+                        edgeList.addUndirectedEdge(x, y);
+                        columnar.addUndirectedEdge(x, y);
+                    }
+                    break;
+                case 1:
+                    if (edgeList.isAdjacentTo(x, y)) {
+                        edgeList.setEndpoint(x, y, Endpoint.ARROW);
+                        columnar.setEndpoint(x, y, Endpoint.ARROW);
+                    }
+                    break;
+                case 2:
+                    if (edgeList.isAdjacentTo(x, y)) {
+                        edgeList.setEndpoint(x, y, Endpoint.CIRCLE);
+                        columnar.setEndpoint(x, y, Endpoint.CIRCLE);
+                    }
+                    break;
+                default:
+                    assertEquals(edgeList.removeEdge(x, y), columnar.removeEdge(x, y));
+            }
+        }
+
+        checkSame(edgeList, columnar);
+
+        Node removed = nodes.get(3);
+        edgeList.removeNode(removed);
+        columnar.removeNode(removed);
+        checkSame(edgeList, columnar);
+    }
+
+    @Test
+    public void testSnapshots() {
+        RandomUtil.getInstance().setSeed(1928374650L);
+
+        Graph dag = GraphUtils.randomGraph(20, 0, 30, 10, 10, 10, false);
+        ColumnarGraph graph = new ColumnarGraph(dag);
+        ColumnarGraph snapshot = new ColumnarGraph(graph);
+
+        assertEquals(graph, snapshot);
+
+        Edge edge = graph.getEdges().iterator().next();
+        graph.removeEdge(edge);
+        graph.addBidirectedEdge(edge.getNode1(), edge.getNode2());
+
+        assertTrue(snapshot.containsEdge(edge));
+        assertFalse(graph.containsEdge(edge));
+        assertEquals(new EdgeListGraph(dag), snapshot);
+
+        snapshot.removeNode(edge.getNode1());
+        assertTrue(graph.containsNode(edge.getNode1()));
+        assertEquals(30, graph.getNumEdges());
+    }
+
+    @Test
+    public void testConcurrentSnapshots() throws InterruptedException {
+        RandomUtil.getInstance().setSeed(1928374651L);
+
+        Graph dag = GraphUtils.randomGraph(20, 0, 30, 10, 10, 10, false);
+        final ColumnarGraph graph = new ColumnarGraph(dag);
+        final ColumnarGraph[] snapshots = new ColumnarGraph[8];
+        Thread[] threads = new Thread[snapshots.length];
+
+        for (int t = 0; t < threads.length; t++) {
+            final int _t = t;
+
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 100; i++) {
+                        snapshots[_t] = new ColumnarGraph(graph);
+                    }
+                }
+            };
+
+            threads[t].start();
+        }
+
+        for (Thread thread : threads) thread.join();
+
+        // Each snapshot and the graph can now be changed without changing any of the others.
+        List<Edge> edges = new ArrayList<>(graph.getEdges());
+
+        for (int t = 0; t < snapshots.length; t++) {
+            snapshots[t].removeEdge(edges.get(t));
+        }
+
+        graph.removeEdge(edges.get(snapshots.length));
+
+        for (int t = 0; t < snapshots.length; t++) {
+            assertEquals(29, snapshots[t].getNumEdges());
+            assertFalse(snapshots[t].containsEdge(edges.get(t)));
+            assertTrue(snapshots[t].containsEdge(edges.get(snapshots.length)));
+            assertTrue(graph.containsEdge(edges.get(t)));
+        }
+
+        assertEquals(29, graph.getNumEdges());
+    }
+
+    @Test
+    public void testReplaceNodes() {
+        RandomUtil.getInstance().setSeed(3847561029L);
+
+        Graph dag = GraphUtils.randomGraph(15, 0, 20, 10, 10, 10, false);
+        List<Node> variables = new ArrayList<>();
+
+        for (Node node : dag.getNodes()) {
+            variables.add(new GraphNode(node.getName()));
+        }
+
+        variables.remove(0);
+        variables.add(new GraphNode("Extra"));
+
+        Graph expected = GraphUtils.replaceNodes(new EdgeListGraph(dag), variables);
+        Graph replaced = GraphUtils.replaceNodes(new ColumnarGraph(dag), variables);
+
+        assertTrue(replaced instanceof ColumnarGraph);
+        assertEquals(new HashSet<>(expected.getNodes()), new HashSet<>(replaced.getNodes()));
+        assertEquals(expected.getEdges(), replaced.getEdges());
+
+        for (Node node : replaced.getNodes()) {
+            assertSame(expected.getNode(node.getName()), node);
+        }
+    }
+
+    private void checkSame(Graph expected, Graph graph) {
+        assertEquals(expected, graph);
+        assertEquals(expected.getNumEdges(), graph.getNumEdges());
+        assertEquals(expected.getNodes(), graph.getNodes());
+        assertEquals(expected.existsDirectedCycle(), graph.existsDirectedCycle());
+        assertEquals(expected.getConnectivity(), graph.getConnectivity());
+        assertArrayEquals(expected.getEndpointMatrix(), graph.getEndpointMatrix());
+
+        List<Node> nodes = expected.getNodes();
+
+        for (Node x : nodes) {
+            assertEquals(expected.getEdges(x), graph.getEdges(x));
+            assertEquals(expected.getParents(x), graph.getParents(x));
+            assertEquals(expected.getChildren(x), graph.getChildren(x));
+            assertEquals(expected.getAdjacentNodes(x), graph.getAdjacentNodes(x));
+            assertEquals(expected.getNodesInTo(x, Endpoint.ARROW), graph.getNodesInTo(x, Endpoint.ARROW));
+            assertEquals(expected.getNodesOutTo(x, Endpoint.CIRCLE), graph.getNodesOutTo(x, Endpoint.CIRCLE));
+            assertEquals(new HashSet<>(expected.getAncestors(Collections.singletonList(x))),
+                    new HashSet<>(graph.getAncestors(Collections.singletonList(x))));
+            assertEquals(new HashSet<>(expected.getDescendants(Collections.singletonList(x))),
+                    new HashSet<>(graph.getDescendants(Collections.singletonList(x))));
+
+            for (Node y : nodes) {
+                assertEquals(expected.isAdjacentTo(x, y), graph.isAdjacentTo(x, y));
+                assertEquals(expected.getEdge(x, y), graph.getEdge(x, y));
+                assertEquals(expected.getEndpoint(x, y), graph.getEndpoint(x, y));
+                assertEquals(expected.isParentOf(x, y), graph.isParentOf(x, y));
+                assertEquals(expected.isChildOf(x, y), graph.isChildOf(x, y));
+                assertEquals(expected.isAncestorOf(x, y), graph.isAncestorOf(x, y));
+                assertEquals(expected.existsDirectedPathFromTo(x, y), graph.existsDirectedPathFromTo(x, y));
+                assertEquals(expected.existsUndirectedPathFromTo(x, y), graph.existsUndirectedPathFromTo(x, y));
+                assertEquals(expected.possibleAncestor(x, y), graph.possibleAncestor(x, y));
+                assertEquals(expected.existsTrek(x, y), graph.existsTrek(x, y));
+            }
+        }
+    }
+
+    private Graph randomMixedGraph(Graph dag) {
+        Graph graph = new EdgeListGraph(dag.getNodes());
+        Endpoint[] endpoints = {Endpoint.TAIL, Endpoint.ARROW, Endpoint.CIRCLE};
+
+        for (Edge edge : dag.getEdges()) {
+            graph.addEdge(new Edge(edge.getNode1(), edge.getNode2(),
+                    endpoints[RandomUtil.getInstance().nextInt(3)], endpoints[RandomUtil.getInstance().nextInt(3)]));
+        }
+
+        return graph;
+    }
+}
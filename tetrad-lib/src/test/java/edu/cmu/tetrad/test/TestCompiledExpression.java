@@ -0,0 +1,193 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.calculator.expression.CompiledExpression;
+import edu.cmu.tetrad.calculator.expression.Context;
+import edu.cmu.tetrad.calculator.expression.Expression;
+import edu.cmu.tetrad.calculator.parser.ExpressionParser;
+import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.graph.Dag;
+import edu.cmu.tetrad.graph.GraphNode;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.sem.GeneralizedSemIm;
+import edu.cmu.tetrad.sem.GeneralizedSemPm;
+import edu.cmu.tetrad.util.ExecutionContext;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.apache.commons.math3.random.Well44497b;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks compiled expressions against the interpreted ones, and the simulation that uses them.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestCompiledExpression {
+
+    @Test
+    public void testAgainstInterpreted() throws ParseException {
+        String[] formulas = {
+                "a * X + b * Y - Z",
+                "tanh(X) + sin(Y) * cos(Z)",
+                "X ^ 2 + pow(abs(Y), 1.5) / (1 + Z * Z)",
+                "max(X, Y, Z) - min(X, Y) + -Z",
+                "exp(-X * X) + ln(1 + abs(Y)) + sqrt(abs(Z))",
+                "logistic(a * X) + signum(Y) + floor(Z) + ceil(X) + round(Y)",
+                "atan(X) + cosh(Z / 10)",
+        };
+
+        ExpressionParser parser = new ExpressionParser();
+
+        Map<String, Integer> slots = new HashMap<>();
+        slots.put("X", 0);
+        slots.put("Y", 1);
+        slots.put("Z", 2);
+
+        Map<String, Double> constants = new HashMap<>();
+        constants.put("a", 0.7);
+        constants.put("b", -1.3);
+
+        RandomUtil random = RandomUtil.getInstance();
+        random.setSeed(29384729384L);
+
+        for (String formula : formulas) {
+            Expression expression = parser.parseExpression(formula);
+            CompiledExpression compiled = CompiledExpression.compile(expression, slots, constants);
+            assertFalse(formula, compiled.isInterpreted());
+
+            for (int trial = 0; trial < 100; trial++) {
+                final double[] values = {random.nextNormal(0, 2), random.nextNormal(0, 2), random.nextNormal(0, 2)};
+                final Map<String, Double> context = new HashMap<>(constants);
+                context.put("X", values[0]);
+                context.put("Y", values[1]);
+                context.put("Z", values[2]);
+
+                double expected = expression.evaluate(new Context() {
+                    public Double getValue(String var) {
+                        return context.get(var);
+                    }
+                });
+
+                assertEquals(formula, expected, compiled.evaluate(values, new Well44497b(1)), 1e-10);
+            }
+        }
+    }
+
+    @Test
+    public void testSimulation() throws ParseException {
+        Dag dag = new Dag();
+        Node x1 = new GraphNode("X1");
+        Node x2 = new GraphNode("X2");
+        dag.addNode(x1);
+        dag.addNode(x2);
+        dag.addDirectedEdge(x1, x2);
+
+        GeneralizedSemPm pm = new GeneralizedSemPm(dag);
+        pm.setNodeExpression(x1, "E_X1");
+        pm.setNodeExpression(x2, "0.5 * X1 + E_X2");
+        pm.setNodeExpression(pm.getErrorNode(x1), "N(0, 1)");
+        pm.setNodeExpression(pm.getErrorNode(x2), "U(-1, 1)");
+
+        GeneralizedSemIm im = new GeneralizedSemIm(pm);
+
+        RandomUtil.getInstance().setSeed(492873492L);
+        DataSet data = im.simulateDataRecursive(20000, false);
+
+        RandomUtil.getInstance().setSeed(492873492L);
+        DataSet again = im.simulateDataRecursive(20000, false);
+
+        assertArrayEquals(data.getDoubleData().toArray(), again.getDoubleData().toArray());
+
+        // Var(X2) = 0.25 * 1 + 1 / 3.
+        assertEquals(1.0, variance(data, 0), 0.05);
+        assertEquals(0.25 + 1.0 / 3.0, variance(data, 1), 0.05);
+
+        RandomUtil.getInstance().setSeed(492873492L);
+        DataSet avoid = im.simulateDataAvoidInfinity(20000, false);
+
+        assertEquals(1.0, variance(avoid, 0), 0.05);
+        assertEquals(0.25 + 1.0 / 3.0, variance(avoid, 1), 0.05);
+    }
+
+    @Test
+    public void testSimulationInterpreted() throws Exception {
+        Dag dag = new Dag();
+        Node x1 = new GraphNode("X1");
+        Node x2 = new GraphNode("X2");
+        dag.addNode(x1);
+        dag.addNode(x2);
+        dag.addDirectedEdge(x1, x2);
+
+        GeneralizedSemPm pm = new GeneralizedSemPm(dag);
+        pm.setNodeExpression(x1, "E_X1");
+        pm.setNodeExpression(x2, "0.5 * X1 + E_X2");
+        pm.setNodeExpression(pm.getErrorNode(x1), "Beta(2, 5)");
+        pm.setNodeExpression(pm.getErrorNode(x2), "TruncNormal(0, 1, -1, 1)");
+
+        Map<String, Integer> slots = new HashMap<>();
+        assertTrue(CompiledExpression.compile(new ExpressionParser().parseExpression("1 + Beta(2, 5)"), slots,
+                new HashMap<String, Double>()).isInterpreted());
+
+        final GeneralizedSemIm im = new GeneralizedSemIm(pm);
+
+        // Beta and TruncNormal draw from RandomUtil themselves, so with more rows than fit in one chunk the
+        // data are still the same for a given seed only if they are not simulated in parallel.
+        Callable<DataSet[]> simulate = new Callable<DataSet[]>() {
+            public DataSet[] call() {
+                RandomUtil.getInstance().setSeed(492873493L);
+                DataSet recursive = im.simulateDataRecursive(5000, false);
+                RandomUtil.getInstance().setSeed(492873493L);
+                DataSet avoid = im.simulateDataAvoidInfinity(5000, false);
+                return new DataSet[]{recursive, avoid};
+            }
+        };
+
+        DataSet[] first = ExecutionContext.withParallelism(4).call(simulate);
+        DataSet[] second = ExecutionContext.withParallelism(4).call(simulate);
+
+        assertArrayEquals(first[0].getDoubleData().toArray(), second[0].getDoubleData().toArray());
+        assertArrayEquals(first[1].getDoubleData().toArray(), second[1].getDoubleData().toArray());
+    }
+
+    private double variance(DataSet data, int col) {
+        double sum = 0, sumSq = 0;
+        int n = data.getNumRows();
+
+        for (int i = 0; i < n; i++) {
+            double x = data.getDouble(i, data.getColumn(data.getVariable(col)));
+            sum += x;
+            sumSq += x * x;
+        }
+
+        return sumSq / n - (sum / n) * (sum / n);
+    }
+}
@@ -0,0 +1,142 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.data.CompiledKnowledge;
+import edu.cmu.tetrad.data.IKnowledge;
+import edu.cmu.tetrad.data.Knowledge;
+import edu.cmu.tetrad.data.Knowledge2;
+import edu.cmu.tetrad.graph.GraphNode;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks CompiledKnowledge against the knowledge it was compiled from.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestCompiledKnowledge {
+
+    @Test
+    public void testKnowledge2() {
+        RandomUtil.getInstance().setSeed(4829374829L);
+
+        for (int trial = 0; trial < 20; trial++) {
+            List<Node> nodes = nodes(30);
+            Knowledge2 knowledge = new Knowledge2();
+            for (Node node : nodes) knowledge.addVariable(node.getName());
+            fill(knowledge, nodes, true);
+
+            // Tiered with each variable in at most one tier, and then with a variable in two tiers.
+            assertSame(knowledge, nodes);
+            knowledge.addToTier(0, nodes.get(29).getName());
+            knowledge.addToTier(2, nodes.get(29).getName());
+            assertSame(knowledge, nodes);
+        }
+    }
+
+    @Test
+    public void testKnowledge() {
+        RandomUtil.getInstance().setSeed(2938472934L);
+
+        for (int trial = 0; trial < 20; trial++) {
+            List<Node> nodes = nodes(20);
+            Knowledge knowledge = new Knowledge();
+            fill(knowledge, nodes, false);
+            assertSame(knowledge, nodes);
+        }
+    }
+
+    @Test
+    public void testWildcardsAndUnknownNodes() {
+        Knowledge2 knowledge = new Knowledge2();
+        List<Node> nodes = nodes(5);
+        for (Node node : nodes) knowledge.addVariable(node.getName());
+        knowledge.setForbidden("X*", "X0");
+
+        CompiledKnowledge compiled = CompiledKnowledge.compile(knowledge, nodes);
+
+        assertFalse(compiled.isEmpty());
+        assertTrue(compiled.isForbidden(nodes.get(3), new GraphNode("X0")));
+        assertFalse(compiled.isForbidden(nodes.get(0), nodes.get(0)));
+        assertFalse(compiled.isForbidden(new GraphNode("Y"), nodes.get(0)));
+        assertTrue(CompiledKnowledge.compile(new Knowledge2(), nodes).isEmpty());
+    }
+
+    private List<Node> nodes(int n) {
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < n; i++) nodes.add(new GraphNode("X" + i));
+        return nodes;
+    }
+
+    // Random tiers (for all but the last variable), forbidden and required edges.
+    private void fill(IKnowledge knowledge, List<Node> nodes, boolean forbiddenWithin) {
+        RandomUtil random = RandomUtil.getInstance();
+
+        for (int i = 0; i < nodes.size() - 1; i++) {
+            if (random.nextInt(4) != 0) knowledge.addToTier(random.nextInt(4), nodes.get(i).getName());
+        }
+
+        if (forbiddenWithin) knowledge.setTierForbiddenWithin(1, true);
+
+        for (int k = 0; k < 15; k++) {
+            String x = nodes.get(random.nextInt(nodes.size())).getName();
+            String y = nodes.get(random.nextInt(nodes.size())).getName();
+            if (x.equals(y)) continue;
+
+            try {
+                if (random.nextInt(2) == 0) {
+                    knowledge.setForbidden(x, y);
+                } else {
+                    knowledge.setRequired(x, y);
+                }
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                // Knowledge does not allow contradictory requirements.
+            }
+        }
+    }
+
+    private void assertSame(IKnowledge knowledge, List<Node> nodes) {
+        CompiledKnowledge compiled = CompiledKnowledge.compile(knowledge, nodes);
+
+        for (int x = 0; x < nodes.size(); x++) {
+            for (int y = 0; y < nodes.size(); y++) {
+                if (x == y) continue;
+
+                String _x = nodes.get(x).getName();
+                String _y = nodes.get(y).getName();
+
+                assertEquals(knowledge.isForbidden(_x, _y), compiled.isForbidden(x, y));
+                assertEquals(knowledge.isRequired(_x, _y), compiled.isRequired(x, y));
+                assertEquals(knowledge.noEdgeRequired(_x, _y), compiled.noEdgeRequired(nodes.get(x), nodes.get(y)));
+            }
+        }
+    }
+}
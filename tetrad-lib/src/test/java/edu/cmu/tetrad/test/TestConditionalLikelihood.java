@@ -10,10 +10,14 @@ import edu.cmu.tetrad.graph.Node;
 import edu.cmu.tetrad.search.ConditionalGaussianLikelihood;
 import edu.cmu.tetrad.sem.GeneralizedSemIm;
 import edu.cmu.tetrad.sem.GeneralizedSemPm;
+import edu.cmu.tetrad.util.TetradMatrix;
 import edu.pitt.csb.mgm.MixedUtils;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 
@@ -70,4 +74,131 @@ public class TestConditionalLikelihood {
         assertEquals(ret1.getLik() + ret2.getLik(), ret3.getLik() + ret4.getLik(), 0.001);
         assertEquals(ret1.getDof() + ret2.getDof(), ret3.getDof() + ret4.getDof(), 0.001);
     }
+
+    /**
+     * Likelihood ratios calculated from cached cell statistics should match ones calculated directly from the
+     * data, whether or not the cross-products fit in the cache, and on repeated calls.
+     */
+    @Test
+    public void testCachedMatchesUncached() {
+        Graph dag = new EdgeListGraph();
+
+        Node n1 = new GraphNode("X0");
+        Node n2 = new GraphNode("X1");
+        Node n3 = new GraphNode("X2");
+        Node n4 = new GraphNode("X3");
+
+        dag.addNode(n1);
+        dag.addNode(n2);
+        dag.addNode(n3);
+        dag.addNode(n4);
+
+        dag.addDirectedEdge(n1, n2);
+        dag.addDirectedEdge(n1, n3);
+        dag.addDirectedEdge(n2, n3);
+        dag.addDirectedEdge(n3, n4);
+
+        HashMap<String, Integer> nd = new HashMap<>();
+
+        nd.put(n1.getName(), 3);
+        nd.put(n2.getName(), 0);
+        nd.put(n3.getName(), 0);
+        nd.put(n4.getName(), 2);
+
+        Graph graph = MixedUtils.makeMixedGraph(dag, nd);
+        GeneralizedSemPm pm = MixedUtils.GaussianCategoricalPm(graph, "Split(-1.5,-.5,.5,1.5)");
+        GeneralizedSemIm im = MixedUtils.GaussianCategoricalIm(pm);
+        DataSet data = MixedUtils.makeMixedData(im.simulateDataAvoidInfinity(500, false), nd);
+
+        int[][] families = {{1, 0}, {2, 0, 1}, {2, 1}, {1, 2, 3}, {3, 2}, {0, 1, 2}, {2, 0, 1}, {1, 0}};
+
+        ConditionalGaussianLikelihood cached = new ConditionalGaussianLikelihood(data);
+
+        ConditionalGaussianLikelihood uncached = new ConditionalGaussianLikelihood(data);
+        uncached.setMaxCachedCrossProducts(0);
+
+        ConditionalGaussianLikelihood partlyCached = new ConditionalGaussianLikelihood(data);
+        partlyCached.setMaxCachedCrossProducts(data.getNumColumns());
+
+        for (int rep = 0; rep < 2; rep++) {
+            for (int[] family : families) {
+                int i = family[0];
+                int[] parents = new int[family.length - 1];
+                System.arraycopy(family, 1, parents, 0, parents.length);
+
+                double expected = jointLik(data, family) - jointLik(data, parents);
+
+                assertEquals(expected, cached.getLikelihoodRatio(i, parents).getLik(), 1e-8);
+                assertEquals(expected, uncached.getLikelihoodRatio(i, parents).getLik(), 1e-8);
+                assertEquals(expected, partlyCached.getLikelihoodRatio(i, parents).getLik(), 1e-8);
+            }
+        }
+    }
+
+    // The joint conditional Gaussian likelihood of the given columns, calculated directly from the data.
+    private double jointLik(DataSet data, int[] cols) {
+        List<Integer> continuous = new ArrayList<>();
+        List<Integer> discrete = new ArrayList<>();
+
+        for (int col : cols) {
+            if (data.getVariable(col) instanceof DiscreteVariable) {
+                discrete.add(col);
+            } else {
+                continuous.add(col);
+            }
+        }
+
+        Map<List<Integer>, List<Integer>> cells = new HashMap<>();
+
+        for (int i = 0; i < data.getNumRows(); i++) {
+            List<Integer> values = new ArrayList<>();
+            for (int col : discrete) values.add(data.getInt(i, col));
+            if (!cells.containsKey(values)) cells.put(values, new ArrayList<Integer>());
+            cells.get(values).add(i);
+        }
+
+        int N = data.getNumRows();
+        int p = continuous.size();
+        double lik = 0;
+
+        for (List<Integer> rows : cells.values()) {
+            int r = rows.size();
+
+            if (!discrete.isEmpty()) {
+                lik += r * Math.log(r / (double) N);
+            }
+
+            if (p > 0) {
+                if (r > 3 * p) {
+                    double[] means = new double[p];
+
+                    for (int a = 0; a < p; a++) {
+                        for (int row : rows) means[a] += data.getDouble(row, continuous.get(a));
+                        means[a] /= r;
+                    }
+
+                    TetradMatrix sigma = new TetradMatrix(p, p);
+
+                    for (int a = 0; a < p; a++) {
+                        for (int b = 0; b < p; b++) {
+                            double sum = 0;
+
+                            for (int row : rows) {
+                                sum += (data.getDouble(row, continuous.get(a)) - means[a])
+                                        * (data.getDouble(row, continuous.get(b)) - means[b]);
+                            }
+
+                            sigma.set(a, b, sum / r);
+                        }
+                    }
+
+                    lik -= 0.5 * r * Math.log(sigma.det());
+                }
+
+                lik -= 0.5 * r * p * (1.0 + Math.log(2.0 * Math.PI));
+            }
+        }
+
+        return lik;
+    }
 }
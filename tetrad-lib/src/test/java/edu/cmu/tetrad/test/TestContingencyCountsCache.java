@@ -0,0 +1,136 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.search.ContingencyCountsCache;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the contingency counts cache used by BDeuScore.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestContingencyCountsCache {
+
+    @Test
+    public void testCountsMatchDirectCount() {
+        RandomUtil.getInstance().setSeed(28492384L);
+
+        int[] numCategories = {2, 3, 4, 2, 3};
+        int[][] data = randomData(numCategories, 500);
+
+        ContingencyCountsCache cache = new ContingencyCountsCache(data, numCategories);
+
+        int[][] families = {{}, {1}, {1, 2}, {2, 1}, {1, 2, 3}, {3, 1, 2}, {4, 2}, {2, 3, 4}};
+
+        for (int[] parents : families) {
+            ContingencyCountsCache.Counts counts = cache.getCounts(0, parents);
+            assertEquals(sorted(directCounts(data, numCategories, 0, parents)),
+                    sorted(counts.getCellCounts()));
+
+            int total = 0;
+
+            for (int n : counts.getRowCounts()) total += n;
+
+            assertEquals(500, total);
+        }
+
+        // {2, 1} and {3, 1, 2} are the same families as {1, 2} and {1, 2, 3}.
+        assertEquals(2, cache.getHits());
+        assertEquals(6, cache.getMisses());
+        assertTrue(cache.getIndexHits() > 0);
+    }
+
+    @Test
+    public void testEviction() {
+        RandomUtil.getInstance().setSeed(28492385L);
+
+        int[] numCategories = {2, 2, 2, 2};
+        int[][] data = randomData(numCategories, 100);
+
+        ContingencyCountsCache cache = new ContingencyCountsCache(data, numCategories, 2);
+
+        cache.getCounts(0, new int[]{1});
+        cache.getCounts(0, new int[]{2});
+        cache.getCounts(0, new int[]{3});
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+
+        // {1} was least recently used and has been evicted.
+        cache.getCounts(0, new int[]{1});
+        assertEquals(0, cache.getHits());
+
+        cache.getCounts(0, new int[]{1});
+        assertEquals(1, cache.getHits());
+    }
+
+    private int[][] randomData(int[] numCategories, int sampleSize) {
+        int[][] data = new int[numCategories.length][sampleSize];
+
+        for (int j = 0; j < numCategories.length; j++) {
+            for (int i = 0; i < sampleSize; i++) {
+                data[j][i] = RandomUtil.getInstance().nextInt(numCategories[j]);
+            }
+        }
+
+        return data;
+    }
+
+    private int[][] directCounts(int[][] data, int[] numCategories, int child, int[] parents) {
+        int r = 1;
+
+        for (int p : parents) r *= numCategories[p];
+
+        int[][] n_jk = new int[r][numCategories[child]];
+
+        for (int i = 0; i < data[child].length; i++) {
+            int row = 0;
+
+            for (int p : parents) {
+                row = row * numCategories[p] + data[p][i];
+            }
+
+            n_jk[row][data[child][i]]++;
+        }
+
+        return n_jk;
+    }
+
+    // Parent configurations may be numbered differently, so compare rows as a multiset.
+    private String sorted(int[][] n_jk) {
+        String[] rows = new String[n_jk.length];
+
+        for (int j = 0; j < n_jk.length; j++) {
+            rows[j] = Arrays.toString(n_jk[j]);
+        }
+
+        Arrays.sort(rows);
+        return Arrays.toString(rows);
+    }
+}
@@ -0,0 +1,226 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.data.*;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.util.ExecutionContext;
+import edu.cmu.tetrad.util.RandomUtil;
+import edu.cmu.tetrad.util.TetradMatrix;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the blocked covariance kernel and the packed covariance matrix against
+ * a straightforward two-pass computation.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestCovarianceKernel {
+
+    @Test
+    public void testLayouts() {
+        RandomUtil.getInstance().setSeed(29384729384L);
+
+        // Sizes that are not multiples of the tile sizes.
+        double[][] data = data(1000, 150, 5.0);
+        double[][] expected = covariances(data);
+
+        DataSet vertical = new BoxDataSet(new VerticalDoubleDataBox(transpose(data)), variables(150));
+        DataSet horizontal = new BoxDataSet(new DoubleDataBox(data), variables(150));
+        DataSet colt = ColtDataSet.makeContinuousData(variables(150), new TetradMatrix(data));
+
+        for (DataSet dataSet : Arrays.asList(vertical, horizontal, colt)) {
+            assertClose(expected, new CovarianceMatrix(dataSet), 1e-10);
+            assertClose(expected, new PackedCovarianceMatrix(dataSet), 1e-10);
+            assertClose(expected, new PackedCovarianceMatrix(dataSet, true), 1e-5);
+        }
+
+        // The data are not centered in place.
+        assertEquals(data[0][0], vertical.getDouble(0, 0), 0.0);
+    }
+
+    @Test
+    public void testMissingValues() {
+        RandomUtil.getInstance().setSeed(29384729385L);
+
+        double[][] data = data(300, 70, 0.0);
+
+        for (int k = 0; k < 200; k++) {
+            data[RandomUtil.getInstance().nextInt(300)][RandomUtil.getInstance().nextInt(70)] = Double.NaN;
+        }
+
+        DataSet dataSet = new BoxDataSet(new VerticalDoubleDataBox(transpose(data)), variables(70));
+        ICovarianceMatrix cov = new PackedCovarianceMatrix(dataSet);
+
+        // Centered by the mean of the present values, summed over the rows where both are present.
+        double[] means = new double[70];
+
+        for (int j = 0; j < 70; j++) {
+            int count = 0;
+
+            for (double[] row : data) {
+                if (Double.isNaN(row[j])) continue;
+                means[j] += row[j];
+                count++;
+            }
+
+            means[j] /= count;
+        }
+
+        for (int i = 0; i < 70; i++) {
+            for (int j = 0; j < 70; j++) {
+                double sum = 0.0;
+                int count = 0;
+
+                for (double[] row : data) {
+                    if (Double.isNaN(row[i]) || Double.isNaN(row[j])) continue;
+                    sum += (row[i] - means[i]) * (row[j] - means[j]);
+                    count++;
+                }
+
+                assertEquals(sum / (count - 1), cov.getValue(i, j), 1e-10);
+            }
+        }
+    }
+
+    @Test
+    public void testPacked() {
+        RandomUtil.getInstance().setSeed(29384729386L);
+
+        double[][] data = data(200, 10, 0.0);
+        DataSet dataSet = new BoxDataSet(new DoubleDataBox(data), variables(10));
+
+        PackedCovarianceMatrix packed = new PackedCovarianceMatrix(dataSet);
+        ICovarianceMatrix full = new CovarianceMatrix(dataSet);
+
+        assertArrayEquals(full.getMatrix().toArray(), packed.getMatrix().toArray());
+
+        int[] rows = {7, 2, 5};
+        int[] cols = {1, 7};
+        assertArrayEquals(full.getSelection(rows, cols).toArray(), packed.getSelection(rows, cols).toArray());
+
+        ICovarianceMatrix sub = packed.getSubmatrix(new String[]{"X9", "X3", "X4"});
+        assertEquals(Arrays.asList("X9", "X3", "X4"), sub.getVariableNames());
+        assertEquals(full.getValue(8, 2), sub.getValue(0, 1), 0.0);
+        assertEquals(full.getValue(3, 3), sub.getValue(2, 2), 0.0);
+
+        packed.setValue(4, 1, 17.0);
+        assertEquals(17.0, packed.getValue(1, 4), 0.0);
+
+        PackedCovarianceMatrix single = new PackedCovarianceMatrix(full, true);
+        assertTrue(single.isFloatPrecision());
+        assertEquals((float) full.getValue(6, 3), single.getValue(3, 6), 0.0);
+        assertTrue(((PackedCovarianceMatrix) single.getSubmatrix(new int[]{0, 1})).isFloatPrecision());
+    }
+
+    @Test
+    public void testParallelism() throws Exception {
+        RandomUtil.getInstance().setSeed(29384729387L);
+
+        final DataSet dataSet = new BoxDataSet(new VerticalDoubleDataBox(transpose(data(600, 200, 1.0))), variables(200));
+
+        Callable<double[][]> covariances = new Callable<double[][]>() {
+            public double[][] call() {
+                return new CovarianceMatrix(dataSet).getMatrix().toArray();
+            }
+        };
+
+        // Each covariance is summed in the same order however the tiles are scheduled.
+        assertArrayEquals(ExecutionContext.withParallelism(1).call(covariances),
+                ExecutionContext.withParallelism(4).call(covariances));
+    }
+
+    private double[][] data(int numRows, int numCols, double offset) {
+        double[][] data = new double[numRows][numCols];
+
+        for (int i = 0; i < numRows; i++) {
+            double common = RandomUtil.getInstance().nextNormal(0, 1);
+
+            for (int j = 0; j < numCols; j++) {
+                data[i][j] = offset * j + common + RandomUtil.getInstance().nextNormal(0, 1 + j % 3);
+            }
+        }
+
+        return data;
+    }
+
+    private double[][] covariances(double[][] data) {
+        int n = data.length;
+        int p = data[0].length;
+        double[] means = new double[p];
+
+        for (double[] row : data) {
+            for (int j = 0; j < p; j++) means[j] += row[j] / n;
+        }
+
+        double[][] cov = new double[p][p];
+
+        for (double[] row : data) {
+            for (int i = 0; i < p; i++) {
+                for (int j = 0; j < p; j++) {
+                    cov[i][j] += (row[i] - means[i]) * (row[j] - means[j]) / (n - 1);
+                }
+            }
+        }
+
+        return cov;
+    }
+
+    private double[][] transpose(double[][] data) {
+        double[][] t = new double[data[0].length][data.length];
+
+        for (int i = 0; i < data.length; i++) {
+            for (int j = 0; j < data[0].length; j++) {
+                t[j][i] = data[i][j];
+            }
+        }
+
+        return t;
+    }
+
+    private List<Node> variables(int numVars) {
+        List<Node> variables = new ArrayList<>();
+
+        for (int i = 0; i < numVars; i++) {
+            variables.add(new ContinuousVariable("X" + (i + 1)));
+        }
+
+        return variables;
+    }
+
+    private void assertClose(double[][] expected, ICovarianceMatrix cov, double tolerance) {
+        for (int i = 0; i < expected.length; i++) {
+            for (int j = 0; j < expected.length; j++) {
+                assertEquals(expected[i][j], cov.getValue(i, j), tolerance * Math.max(1.0, Math.abs(expected[i][j])));
+            }
+        }
+    }
+}
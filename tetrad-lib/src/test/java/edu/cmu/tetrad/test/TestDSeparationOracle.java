@@ -0,0 +1,108 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.graph.*;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks DSeparationOracle against GraphUtils.isDConnectedTo.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestDSeparationOracle {
+
+    @Test
+    public void testDag() {
+        RandomUtil.getInstance().setSeed(394827394L);
+        Graph graph = GraphUtils.randomGraph(25, 0, 40, 10, 10, 10, false);
+        check(graph, 2000);
+    }
+
+    @Test
+    public void testBidirected() {
+        RandomUtil.getInstance().setSeed(394827395L);
+        Graph graph = GraphUtils.randomGraph(25, 0, 30, 10, 10, 10, false);
+        List<Node> nodes = graph.getNodes();
+        RandomUtil random = RandomUtil.getInstance();
+
+        for (int i = 0; i < 10; i++) {
+            Node x = nodes.get(random.nextInt(nodes.size()));
+            Node y = nodes.get(random.nextInt(nodes.size()));
+            if (x != y && !graph.isAdjacentTo(x, y)) graph.addBidirectedEdge(x, y);
+        }
+
+        check(graph, 2000);
+    }
+
+    @Test
+    public void testCycle() {
+        RandomUtil.getInstance().setSeed(394827396L);
+        Graph graph = GraphUtils.randomGraph(20, 0, 25, 10, 10, 10, false);
+        List<Node> nodes = graph.getNodes();
+        RandomUtil random = RandomUtil.getInstance();
+
+        for (int i = 0; i < 5; i++) {
+            Node x = nodes.get(random.nextInt(nodes.size()));
+            Node y = nodes.get(random.nextInt(nodes.size()));
+            if (x != y && !graph.isAdjacentTo(x, y)) graph.addDirectedEdge(x, y);
+        }
+
+        check(graph, 1000);
+    }
+
+    private void check(Graph graph, int numQueries) {
+        DSeparationOracle oracle = new DSeparationOracle(graph);
+        List<Node> nodes = graph.getNodes();
+        RandomUtil random = RandomUtil.getInstance();
+
+        for (int i = 0; i < numQueries; i++) {
+            Node x = nodes.get(random.nextInt(nodes.size()));
+            Node y = nodes.get(random.nextInt(nodes.size()));
+            List<Node> z = new ArrayList<>();
+
+            for (Node node : nodes) {
+                if (node != x && node != y && random.nextInt(5) == 0) z.add(node);
+            }
+
+            boolean expected = GraphUtils.isDConnectedTo(x, y, z, graph);
+            assertEquals(expected, oracle.isDConnected(x, y, z));
+
+            int[] _z = new int[z.size()];
+            for (int k = 0; k < z.size(); k++) _z[k] = oracle.getId(z.get(k));
+            assertEquals(!expected, oracle.isDSeparated(oracle.getId(x), oracle.getId(y), _z));
+        }
+
+        for (Node a : nodes) {
+            for (Node b : nodes) {
+                assertEquals(a == b || graph.isAncestorOf(a, b),
+                        oracle.isAncestorOf(oracle.getId(a), oracle.getId(b)));
+            }
+        }
+    }
+}
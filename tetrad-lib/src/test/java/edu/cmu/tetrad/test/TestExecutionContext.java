@@ -0,0 +1,192 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.data.ContinuousVariable;
+import edu.cmu.tetrad.data.CovarianceMatrixOnTheFly;
+import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.GraphUtils;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.search.Fgs;
+import edu.cmu.tetrad.search.SemBicScore;
+import edu.cmu.tetrad.sem.LargeScaleSimulation;
+import edu.cmu.tetrad.util.ExecutionContext;
+import edu.cmu.tetrad.util.ForkJoinPoolInstance;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests ExecutionContext.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestExecutionContext {
+
+    @Test
+    public void testCurrent() throws Exception {
+        final ExecutionContext context = ExecutionContext.create("test-current", 2);
+
+        try {
+            assertSame(ExecutionContext.getDefault(), ExecutionContext.current());
+
+            ExecutionContext inside = context.call(new Callable<ExecutionContext>() {
+                public ExecutionContext call() {
+                    assertSame(context.getPool(), ForkJoinPoolInstance.getInstance().getPool());
+                    return ExecutionContext.current();
+                }
+            });
+
+            assertSame(context, inside);
+            assertSame(ExecutionContext.getDefault(), ExecutionContext.current());
+
+            // Work started in a worker stays in the worker's context.
+            List<Callable<ExecutionContext>> tasks = new ArrayList<>();
+
+            for (int i = 0; i < 5; i++) {
+                tasks.add(new Callable<ExecutionContext>() {
+                    public ExecutionContext call() {
+                        return ExecutionContext.current();
+                    }
+                });
+            }
+
+            for (ExecutionContext _context : context.invokeAll(tasks)) {
+                assertSame(context, _context);
+            }
+
+            assertEquals(5, context.getMetrics().getSubmitted());
+            assertEquals(5, context.getMetrics().getCompleted());
+        } finally {
+            context.shutdown();
+        }
+    }
+
+    @Test
+    public void testShared() {
+        assertSame(ExecutionContext.withParallelism(3), ExecutionContext.withParallelism(3));
+        assertEquals(3, ExecutionContext.withParallelism(3).getParallelism());
+
+        try {
+            ExecutionContext.named("parallelism-3", 4);
+            fail("Should not be able to change the parallelism of a named context.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+
+        try {
+            ExecutionContext.getDefault().shutdown();
+            fail("Should not be able to shut down the default context.");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testExceptionsAndCancel() {
+        ExecutionContext context = ExecutionContext.create("test-cancel", 2);
+
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<>();
+
+            tasks.add(new Callable<Integer>() {
+                public Integer call() throws IOException {
+                    throw new IOException("Expected.");
+                }
+            });
+
+            try {
+                context.invokeAll(tasks);
+                fail("Should have thrown.");
+            } catch (RuntimeException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+
+            assertEquals(1, context.getMetrics().getFailed());
+
+            context.cancel();
+
+            try {
+                context.invokeAll(tasks);
+                fail("Should have been cancelled.");
+            } catch (CancellationException e) {
+                // Expected.
+            }
+
+            context.resetCancelled();
+            assertFalse(context.isCancelled());
+        } finally {
+            context.shutdown();
+        }
+    }
+
+    @Test
+    public void testFgs() throws Exception {
+        RandomUtil.getInstance().setSeed(2938478234L);
+
+        List<Node> vars = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            vars.add(new ContinuousVariable("X" + i));
+        }
+
+        Graph dag = GraphUtils.randomGraphRandomForwardEdges(vars, 0, 30, 30, 15, 15, false, true);
+        DataSet data = new LargeScaleSimulation(dag).simulateDataFisher(500);
+        final SemBicScore score = new SemBicScore(new CovarianceMatrixOnTheFly(data));
+
+        Graph expected = new Fgs(score).search();
+
+        ExecutionContext context = ExecutionContext.create("test-fgs", 2);
+
+        try {
+            Graph actual = context.call(new Callable<Graph>() {
+                public Graph call() {
+                    return new Fgs(score).search();
+                }
+            });
+
+            assertEquals(expected, actual);
+            assertTrue(context.getMetrics().getSubmitted() > 0);
+
+            Fgs fgs = new Fgs(score);
+            fgs.setExecutionContext(context);
+            context.cancel();
+
+            try {
+                fgs.search();
+                fail("Should have been cancelled.");
+            } catch (CancellationException e) {
+                // Expected.
+            }
+        } finally {
+            context.shutdown();
+        }
+    }
+}
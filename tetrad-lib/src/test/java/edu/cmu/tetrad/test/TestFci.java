@@ -21,12 +21,16 @@
 
 package edu.cmu.tetrad.test;
 
+import edu.cmu.tetrad.bayes.BayesPm;
+import edu.cmu.tetrad.bayes.MlBayesIm;
 import edu.cmu.tetrad.data.*;
 import edu.cmu.tetrad.graph.*;
 import edu.cmu.tetrad.search.*;
 import edu.cmu.tetrad.sem.SemIm;
 import edu.cmu.tetrad.sem.SemPm;
 import edu.cmu.tetrad.util.ChoiceGenerator;
+import edu.cmu.tetrad.util.ExecutionContext;
+import edu.cmu.tetrad.util.RandomUtil;
 import edu.cmu.tetrad.util.TextTable;
 import org.junit.Test;
 
@@ -36,6 +40,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -195,6 +200,71 @@ public class TestFci {
         assertEquals(graph, truePag);
     }
 
+    /**
+     * R4 uses an indexed search, and the possible-D-sep searches may be run in parallel; with a d-separation oracle
+     * the result should be the true PAG however many threads are used.
+     */
+    @Test
+    public void testParallelPossibleDsep() throws Exception {
+        RandomUtil.getInstance().setSeed(4829103847L);
+
+        for (int i = 0; i < 5; i++) {
+            List<Node> nodes = new ArrayList<>();
+
+            for (int j = 0; j < 20; j++) {
+                nodes.add(new ContinuousVariable("X" + (j + 1)));
+            }
+
+            final Dag trueGraph = new Dag(GraphUtils.randomGraph(nodes, 6, 25,
+                    7, 5, 5, false));
+
+            Callable<Graph> search = new Callable<Graph>() {
+                public Graph call() {
+                    return new Fci(new IndTestDSep(trueGraph)).search();
+                }
+            };
+
+            Graph truePag = new DagToPag(trueGraph).convert();
+
+            assertEquals(truePag, ExecutionContext.withParallelism(1).call(search));
+            assertEquals(truePag, ExecutionContext.withParallelism(4).call(search));
+        }
+    }
+
+    /**
+     * The possible-D-sep searches share the independence test, so they are run in parallel only for thread-safe
+     * tests; with a test that is not, such as the chi-square test, or one that is, such as Fisher Z, the result on
+     * several threads should be the same as on one.
+     */
+    @Test
+    public void testParallelPossibleDsepWithData() throws Exception {
+        RandomUtil.getInstance().setSeed(4829103848L);
+
+        Dag dag = new Dag(GraphUtils.randomGraph(15, 3, 20, 5, 5, 5, false));
+
+        BayesPm pm = new BayesPm(dag, 2, 3);
+        MlBayesIm im = new MlBayesIm(pm, MlBayesIm.RANDOM);
+        DataSet discrete = im.simulateData(2000, false);
+
+        SemPm semPm = new SemPm(dag);
+        DataSet continuous = new SemIm(semPm).simulateData(2000, false);
+
+        for (final IndependenceTest test : new IndependenceTest[]{new IndTestChiSquare(discrete, 0.05),
+                new IndTestFisherZ(continuous, 0.05)}) {
+            Callable<Graph> search = new Callable<Graph>() {
+                public Graph call() {
+                    return new Fci(test).search();
+                }
+            };
+
+            Graph serial = ExecutionContext.withParallelism(1).call(search);
+
+            for (int i = 0; i < 3; i++) {
+                assertEquals(serial, ExecutionContext.withParallelism(4).call(search));
+            }
+        }
+    }
+
     @Test
     public void testSearch15() {
         int numVars = 80;
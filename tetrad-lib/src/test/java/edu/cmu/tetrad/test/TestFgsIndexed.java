@@ -0,0 +1,157 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.bayes.BayesIm;
+import edu.cmu.tetrad.bayes.BayesPm;
+import edu.cmu.tetrad.bayes.MlBayesIm;
+import edu.cmu.tetrad.data.ContinuousVariable;
+import edu.cmu.tetrad.data.CovarianceMatrixOnTheFly;
+import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.data.IKnowledge;
+import edu.cmu.tetrad.data.Knowledge2;
+import edu.cmu.tetrad.graph.EdgeListGraph;
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.GraphUtils;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.search.*;
+import edu.cmu.tetrad.sem.LargeScaleSimulation;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that Fgs gives the same patterns when it is indexed as when it is not.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestFgsIndexed {
+
+    @Test
+    public void testContinuous() {
+        RandomUtil.getInstance().setSeed(1450184147770L);
+
+        for (int run = 0; run < 3; run++) {
+            List<Node> vars = variables(30);
+            Graph dag = GraphUtils.randomGraphRandomForwardEdges(vars, 0, 45, 30, 15, 15, false, true);
+
+            LargeScaleSimulation simulator = new LargeScaleSimulation(dag);
+            DataSet data = simulator.simulateDataFisher(1000);
+
+            SemBicScore score = new SemBicScore(new CovarianceMatrixOnTheFly(data));
+            score.setPenaltyDiscount(2.0);
+
+            for (boolean faithfulnessAssumed : new boolean[]{true, false}) {
+                Fgs fgs = new Fgs(score);
+                fgs.setFaithfulnessAssumed(faithfulnessAssumed);
+
+                Fgs indexed = new Fgs(score);
+                indexed.setIndexed(true);
+                indexed.setFaithfulnessAssumed(faithfulnessAssumed);
+
+                assertEquals(fgs.search(), indexed.search());
+            }
+        }
+    }
+
+    @Test
+    public void testDiscrete() {
+        RandomUtil.getInstance().setSeed(1457220623122L);
+
+        List<Node> vars = variables(15);
+        Graph dag = GraphUtils.randomGraphRandomForwardEdges(vars, 0, 15, 30, 15, 15, false, true);
+
+        BayesPm pm = new BayesPm(dag, 2, 3);
+        BayesIm im = new MlBayesIm(pm, MlBayesIm.RANDOM);
+        DataSet data = im.simulateData(1000, false);
+
+        BDeuScore score = new BDeuScore(data);
+
+        Fgs indexed = new Fgs(score);
+        indexed.setIndexed(true);
+
+        assertEquals(new Fgs(score).search(), indexed.search());
+    }
+
+    @Test
+    public void testKnowledge() {
+        RandomUtil.getInstance().setSeed(1450184147771L);
+
+        List<Node> vars = variables(20);
+        Graph dag = GraphUtils.randomGraphRandomForwardEdges(vars, 0, 30, 30, 15, 15, false, true);
+
+        DataSet data = new LargeScaleSimulation(dag).simulateDataFisher(1000);
+        SemBicScore score = new SemBicScore(new CovarianceMatrixOnTheFly(data));
+
+        IKnowledge knowledge = new Knowledge2();
+
+        for (int i = 0; i < vars.size(); i++) {
+            knowledge.addToTier(i < 10 ? 0 : 1, vars.get(i).getName());
+        }
+
+        Fgs fgs = new Fgs(score);
+        fgs.setKnowledge(knowledge);
+
+        Fgs indexed = new Fgs(score);
+        indexed.setIndexed(true);
+        indexed.setKnowledge(knowledge);
+
+        assertEquals(fgs.search(), indexed.search());
+    }
+
+    @Test
+    public void testModelScore() {
+        RandomUtil.getInstance().setSeed(1450184147772L);
+
+        List<Node> vars = variables(20);
+        Graph dag = GraphUtils.randomGraphRandomForwardEdges(vars, 0, 30, 30, 15, 15, false, true);
+
+        DataSet data = new LargeScaleSimulation(dag).simulateDataFisher(1000);
+        SemBicScore score = new SemBicScore(new CovarianceMatrixOnTheFly(data));
+
+        // The model score is the score gained over the empty graph, and is the same on a second search.
+        for (boolean _indexed : new boolean[]{false, true}) {
+            Fgs fgs = new Fgs(score);
+            fgs.setIndexed(_indexed);
+
+            for (int run = 0; run < 2; run++) {
+                Graph pattern = fgs.search();
+                double gain = fgs.getScore(SearchGraphUtils.dagFromPattern(pattern)) - fgs.getScore(new EdgeListGraph(vars));
+                assertEquals(gain, fgs.getModelScore(), 1e-6 * Math.abs(gain));
+            }
+        }
+    }
+
+    private List<Node> variables(int numVars) {
+        List<Node> vars = new ArrayList<>();
+
+        for (int i = 0; i < numVars; i++) {
+            vars.add(new ContinuousVariable("X" + i));
+        }
+
+        return vars;
+    }
+}
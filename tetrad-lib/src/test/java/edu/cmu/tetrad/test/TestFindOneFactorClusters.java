@@ -0,0 +1,126 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.data.DataGraphUtils;
+import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.graph.NodeType;
+import edu.cmu.tetrad.search.FindOneFactorClusters;
+import edu.cmu.tetrad.search.TestType;
+import edu.cmu.tetrad.sem.SemIm;
+import edu.cmu.tetrad.sem.SemPm;
+import edu.cmu.tetrad.util.ExecutionContext;
+import edu.cmu.tetrad.util.Parameters;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that FOFC finds the clusters of a pure measurement model, and finds the same ones whatever the number of
+ * threads.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestFindOneFactorClusters {
+
+    @Test
+    public void testGap() throws Exception {
+        RandomUtil.getInstance().setSeed(30495827L);
+
+        Graph mim = DataGraphUtils.randomSingleFactorModel(5, 5, 6, 0, 0, 0);
+
+        Parameters params = new Parameters();
+        params.set("coefLow", .5);
+        params.set("coefHigh", 1.5);
+
+        DataSet data = new SemIm(new SemPm(mim), params).simulateData(1000, false);
+
+        for (TestType testType : new TestType[]{TestType.TETRAD_DELTA, TestType.TETRAD_WISHART}) {
+            Set<Set<String>> serial = clusters(data, testType, 1);
+            Set<Set<String>> parallel = clusters(data, testType, 4);
+
+            assertEquals(serial, parallel);
+
+            // Each cluster found should be (nearly all of) one of the true clusters.
+            Set<Set<String>> trueClusters = trueClusters(mim);
+            assertEquals(trueClusters.size(), serial.size());
+
+            for (Set<String> cluster : serial) {
+                assertTrue(inSome(cluster, trueClusters));
+            }
+        }
+    }
+
+    private Set<Set<String>> clusters(final DataSet data, final TestType testType, int parallelism) throws Exception {
+        List<List<Node>> clusters = ExecutionContext.withParallelism(parallelism).call(new Callable<List<List<Node>>>() {
+            public List<List<Node>> call() {
+                FindOneFactorClusters fofc = new FindOneFactorClusters(data, testType,
+                        FindOneFactorClusters.Algorithm.GAP, 0.001);
+                fofc.search();
+                return fofc.getClusters();
+            }
+        });
+
+        Set<Set<String>> names = new HashSet<>();
+
+        for (List<Node> cluster : clusters) {
+            Set<String> _names = new HashSet<>();
+            for (Node node : cluster) _names.add(node.getName());
+            names.add(_names);
+        }
+
+        return names;
+    }
+
+    private boolean inSome(Set<String> cluster, Set<Set<String>> clusters) {
+        for (Set<String> _cluster : clusters) {
+            if (_cluster.containsAll(cluster)) return true;
+        }
+
+        return false;
+    }
+
+    private Set<Set<String>> trueClusters(Graph mim) {
+        Set<Set<String>> clusters = new HashSet<>();
+
+        for (Node node : mim.getNodes()) {
+            if (node.getNodeType() != NodeType.LATENT) continue;
+
+            Set<String> cluster = new HashSet<>();
+
+            for (Node child : mim.getChildren(node)) {
+                if (child.getNodeType() == NodeType.MEASURED) cluster.add(child.getName());
+            }
+
+            clusters.add(cluster);
+        }
+
+        return clusters;
+    }
+}
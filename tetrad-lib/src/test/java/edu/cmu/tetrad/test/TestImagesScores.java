@@ -0,0 +1,176 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.bayes.BayesIm;
+import edu.cmu.tetrad.bayes.BayesPm;
+import edu.cmu.tetrad.bayes.MlBayesIm;
+import edu.cmu.tetrad.data.DataModel;
+import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.data.DataWriter;
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.GraphUtils;
+import edu.cmu.tetrad.search.BdeuScoreImages;
+import edu.cmu.tetrad.search.Fgs;
+import edu.cmu.tetrad.search.Score;
+import edu.cmu.tetrad.search.SemBicScoreImages;
+import edu.cmu.tetrad.search.SemBicScoreImagesPooled;
+import edu.cmu.tetrad.sem.SemIm;
+import edu.cmu.tetrad.sem.SemPm;
+import edu.cmu.tetrad.util.ExecutionContext;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the IMaGES scores give the same scores and the same search results whether the data
+ * sets are scored in parallel or not.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestImagesScores {
+
+    @Test
+    public void testSemBicScoreImages() throws Exception {
+        RandomUtil.getInstance().setSeed(4820193847L);
+
+        Graph dag = GraphUtils.randomGraph(10, 0, 12, 10, 10, 10, false);
+        SemIm im = new SemIm(new SemPm(dag));
+        List<DataModel> dataModels = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            dataModels.add(im.simulateData(100, false));
+        }
+
+        SemBicScoreImages serial = new SemBicScoreImages(dataModels);
+        serial.setParallel(false);
+        SemBicScoreImages parallel = new SemBicScoreImages(dataModels);
+
+        checkScores(serial, parallel);
+    }
+
+    @Test
+    public void testBdeuScoreImages() throws Exception {
+        RandomUtil.getInstance().setSeed(1039485721L);
+
+        Graph dag = GraphUtils.randomGraph(8, 0, 10, 10, 10, 10, false);
+        BayesIm im = new MlBayesIm(new BayesPm(dag, 2, 3), MlBayesIm.RANDOM);
+        List<DataModel> dataModels = new ArrayList<>();
+
+        for (int i = 0; i < 12; i++) {
+            dataModels.add(im.simulateData(200, false));
+        }
+
+        BdeuScoreImages serial = new BdeuScoreImages(dataModels);
+        serial.setParallel(false);
+        BdeuScoreImages parallel = new BdeuScoreImages(dataModels);
+
+        checkScores(serial, parallel);
+    }
+
+    @Test
+    public void testSemBicScoreImagesPooled() throws Exception {
+        RandomUtil.getInstance().setSeed(2938475610L);
+
+        Graph dag = GraphUtils.randomGraph(10, 0, 12, 10, 10, 10, false);
+        SemIm im = new SemIm(new SemPm(dag));
+        List<DataModel> dataModels = new ArrayList<>();
+        List<Path> files = new ArrayList<>();
+
+        for (int i = 0; i < 6; i++) {
+            DataSet dataSet = im.simulateData(100 + 20 * i, false);
+            dataModels.add(dataSet);
+            files.add(write(dataSet));
+        }
+
+        SemBicScoreImages expected = new SemBicScoreImages(dataModels);
+
+        checkScores(expected, new SemBicScoreImagesPooled(dataModels, false), 1e-8);
+        checkScores(expected, new SemBicScoreImagesPooled(dataModels, true), 1e-2);
+        checkScores(expected, new SemBicScoreImagesPooled(files, '\t', false), 1e-2);
+
+        for (Path file : files) {
+            file.toFile().delete();
+        }
+    }
+
+    private Path write(DataSet dataSet) throws IOException {
+        File file = File.createTempFile("images", ".txt");
+        FileWriter writer = new FileWriter(file);
+        DataWriter.writeRectangularData(dataSet, writer, '\t');
+        writer.close();
+        return file.toPath();
+    }
+
+    private void checkScores(Score expected, Score score, double tolerance) {
+        int numVars = expected.getVariables().size();
+
+        for (int i = 0; i < numVars; i++) {
+            assertEquals(expected.localScore(i), score.localScore(i), tolerance);
+
+            for (int j = 0; j < numVars; j++) {
+                if (i == j) continue;
+                int k = (j + 1) % numVars == i ? (j + 2) % numVars : (j + 1) % numVars;
+
+                assertEquals(expected.localScore(i, j), score.localScore(i, j), tolerance);
+                assertEquals(expected.localScore(i, new int[]{j, k}), score.localScore(i, new int[]{j, k}), tolerance);
+                assertEquals(expected.localScoreDiff(j, i, new int[]{k}), score.localScoreDiff(j, i, new int[]{k}), tolerance);
+            }
+        }
+    }
+
+    private void checkScores(final Score serial, final Score parallel) throws Exception {
+        int numVars = serial.getVariables().size();
+
+        for (int i = 0; i < numVars; i++) {
+            assertEquals(serial.localScore(i), parallel.localScore(i), 0.0);
+
+            for (int j = 0; j < numVars; j++) {
+                if (i == j) continue;
+                int k = (j + 1) % numVars == i ? (j + 2) % numVars : (j + 1) % numVars;
+
+                assertEquals(serial.localScore(i, j), parallel.localScore(i, j), 0.0);
+                assertEquals(serial.localScore(i, new int[]{j, k}), parallel.localScore(i, new int[]{j, k}), 0.0);
+                assertEquals(serial.localScoreDiff(j, i, new int[]{k}), parallel.localScoreDiff(j, i, new int[]{k}), 0.0);
+            }
+        }
+
+        Graph expected = new Fgs(serial).search();
+
+        Graph graph = ExecutionContext.withParallelism(4).call(new Callable<Graph>() {
+            public Graph call() {
+                return new Fgs(parallel).search();
+            }
+        });
+
+        assertEquals(expected, graph);
+    }
+}
@@ -0,0 +1,158 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.data.ContinuousVariable;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.search.IndTestHsic;
+import edu.cmu.tetrad.search.kernel.KernelUtils;
+import edu.cmu.tetrad.util.ExecutionContext;
+import edu.cmu.tetrad.util.RandomUtil;
+import edu.cmu.tetrad.util.TetradMatrix;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the HSIC statistic computed from Cholesky factors against the Gram matrices, and the permutation test.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestIndTestHsic {
+
+    @Test
+    public void testStatistic() {
+        RandomUtil random = RandomUtil.getInstance();
+        random.setSeed(3928749283L);
+
+        int m = 40;
+        TetradMatrix Gy = randomMatrix(m, 4);
+        TetradMatrix Gx = randomMatrix(m, 3);
+        TetradMatrix Gz = randomMatrix(m, 5);
+
+        IndTestHsic test = new IndTestHsic(randomMatrix(m, 1), variables(1), 0.05);
+        double r = test.getRegularizer();
+
+        TetradMatrix H = KernelUtils.constructH(m);
+        TetradMatrix Ky = gram(H, Gy);
+        TetradMatrix Kx = gram(H, Gx);
+        TetradMatrix Kz = gram(H, Gz);
+
+        double unconditional = trace(Ky.times(Kx)) / Math.pow(m - 1, 2);
+        assertEquals(unconditional, test.empiricalHSICincompleteCholesky(Gy, Gx, m), 1e-8 * unconditional);
+
+        // (Kz + rI)^-1
+        TetradMatrix R = Kz.plus(TetradMatrix.identity(m).scalarMult(r)).inverse();
+        TetradMatrix P = Kz.times(R).times(R).times(Kz);
+
+        double betaz = 0.0;
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < m; j++) {
+                if (i != j) betaz += Kz.get(i, j) * Kz.get(i, j);
+            }
+        }
+
+        double conditional = (trace(Ky.times(Kx)) - 2 * trace(Ky.times(P).times(Kx))
+                + trace(Ky.times(P).times(Kx).times(P))) * m / (betaz * (m - 1));
+
+        assertEquals(conditional, test.empiricalHSICincompleteCholesky(Gy, Gx, Gz, m),
+                1e-6 * Math.abs(conditional));
+    }
+
+    @Test
+    public void testPermutations() throws Exception {
+        RandomUtil random = RandomUtil.getInstance();
+        random.setSeed(2938472934L);
+
+        int m = 200;
+        TetradMatrix data = new TetradMatrix(m, 4);
+
+        for (int i = 0; i < m; i++) {
+            double x = random.nextNormal(0, 1);
+            data.set(i, 0, x);
+            data.set(i, 1, x * x + random.nextNormal(0, .2));
+            data.set(i, 2, random.nextNormal(0, 1));
+            data.set(i, 3, random.nextNormal(0, 1));
+        }
+
+        List<Node> variables = variables(4);
+        final IndTestHsic test = new IndTestHsic(data, variables, 0.05);
+        final Node x = variables.get(0);
+        final Node y = variables.get(1);
+        final Node w = variables.get(2);
+        final Node z = variables.get(3);
+
+        // Uncorrelated but dependent.
+        assertFalse(test.isIndependent(x, y));
+        assertTrue(test.isIndependent(x, w));
+
+        // The p value does not depend on the number of threads.
+        Callable<Double> pValue = new Callable<Double>() {
+            public Double call() {
+                RandomUtil.getInstance().setSeed(82734982L);
+                test.isIndependent(w, x, Collections.singletonList(z));
+                return test.getPValue();
+            }
+        };
+
+        double p1 = ExecutionContext.withParallelism(1).call(pValue);
+        double p4 = ExecutionContext.withParallelism(4).call(pValue);
+
+        assertEquals(p1, p4, 0.0);
+    }
+
+    private TetradMatrix gram(TetradMatrix H, TetradMatrix G) {
+        TetradMatrix Gc = H.times(G);
+        return Gc.times(Gc.transpose());
+    }
+
+    private double trace(TetradMatrix A) {
+        double trace = 0.0;
+        for (int i = 0; i < A.rows(); i++) trace += A.get(i, i);
+        return trace;
+    }
+
+    private TetradMatrix randomMatrix(int rows, int cols) {
+        TetradMatrix A = new TetradMatrix(rows, cols);
+
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                A.set(i, j, RandomUtil.getInstance().nextNormal(0, 1));
+            }
+        }
+
+        return A;
+    }
+
+    private List<Node> variables(int n) {
+        List<Node> variables = new ArrayList<>();
+        for (int i = 0; i < n; i++) variables.add(new ContinuousVariable("X" + i));
+        return variables;
+    }
+}
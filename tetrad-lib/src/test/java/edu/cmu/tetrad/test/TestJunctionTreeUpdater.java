@@ -0,0 +1,180 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.bayes.*;
+import edu.cmu.tetrad.graph.Dag;
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.GraphUtils;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks JunctionTreeUpdater against RowSummingExactUpdater.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestJunctionTreeUpdater {
+
+    @Test
+    public void testMarginals() {
+        RandomUtil random = RandomUtil.getInstance();
+        random.setSeed(2039482034L);
+
+        for (int run = 0; run < 5; run++) {
+            BayesIm im = randomIm(9, 12);
+
+            Evidence evidence = Evidence.tautology(im);
+            evidence.getProposition().setCategory(random.nextInt(9), 0);
+            int v = random.nextInt(9);
+            evidence.getProposition().removeCategory(v, im.getNumColumns(v) - 1);
+
+            RowSummingExactUpdater expected = new RowSummingExactUpdater(im, evidence);
+            JunctionTreeUpdater actual = new JunctionTreeUpdater(im, evidence);
+
+            for (int i = 0; i < im.getNumNodes(); i++) {
+                double[] marginals = actual.calculateUpdatedMarginals(i);
+
+                for (int j = 0; j < im.getNumColumns(i); j++) {
+                    assertEquals(expected.getMarginal(i, j), actual.getMarginal(i, j), 1e-10);
+                    assertEquals(expected.getMarginal(i, j), marginals[j], 1e-10);
+                }
+            }
+
+            for (int k = 0; k < 10; k++) {
+                int[] vars = {random.nextInt(9), random.nextInt(9), random.nextInt(9)};
+                if (vars[0] == vars[1] || vars[1] == vars[2] || vars[0] == vars[2]) continue;
+                int[] values = {0, 1, 0};
+
+                assertEquals(expected.getJointMarginal(vars, values), actual.getJointMarginal(vars, values), 1e-10);
+            }
+
+            BayesIm expectedIm = expected.getUpdatedBayesIm();
+            BayesIm actualIm = actual.getUpdatedBayesIm();
+
+            for (int i = 0; i < im.getNumNodes(); i++) {
+                for (int row = 0; row < im.getNumRows(i); row++) {
+                    for (int col = 0; col < im.getNumColumns(i); col++) {
+                        double p = expectedIm.getProbability(i, row, col);
+                        double q = actualIm.getProbability(i, row, col);
+                        assertTrue(Double.isNaN(p) ? Double.isNaN(q) : Math.abs(p - q) < 1e-10);
+                    }
+                }
+            }
+
+            double[] prior = actual.calculatePriorMarginals(v);
+            double[] expectedPrior = new RowSummingExactUpdater(im).calculateUpdatedMarginals(v);
+
+            for (int j = 0; j < prior.length; j++) {
+                assertEquals(expectedPrior[j], prior[j], 1e-10);
+            }
+        }
+    }
+
+    /**
+     * Manipulating a variable should give the same marginals as removing the edges into it and giving
+     * it a uniform distribution.
+     */
+    @Test
+    public void testManipulation() {
+        RandomUtil random = RandomUtil.getInstance();
+        random.setSeed(2039482035L);
+
+        BayesIm im = randomIm(8, 10);
+        Graph dag = im.getDag();
+
+        Node manipulated = null;
+
+        for (Node node : dag.getNodes()) {
+            if (!dag.getParents(node).isEmpty()) {
+                manipulated = node;
+                break;
+            }
+        }
+
+        Dag manipulatedDag = new Dag(dag);
+        List<Node> parents = manipulatedDag.getParents(manipulatedDag.getNode(manipulated.getName()));
+
+        for (Node parent : parents) {
+            manipulatedDag.removeEdge(parent, manipulatedDag.getNode(manipulated.getName()));
+        }
+
+        BayesIm manipulatedIm = new MlBayesIm(new BayesPm(manipulatedDag, im.getBayesPm()), im, MlBayesIm.MANUAL);
+        int m = manipulatedIm.getNodeIndex(manipulatedIm.getNode(manipulated.getName()));
+
+        for (int j = 0; j < manipulatedIm.getNumColumns(m); j++) {
+            manipulatedIm.setProbability(m, 0, j, 1.0 / manipulatedIm.getNumColumns(m));
+        }
+
+        Evidence evidence = Evidence.tautology(im);
+        int x = im.getNodeIndex(manipulated);
+        evidence.getProposition().setCategory(x, 1);
+        evidence.setManipulated(x, true);
+
+        Evidence manipulatedEvidence = Evidence.tautology(manipulatedIm);
+        manipulatedEvidence.getProposition().setCategory(m, 1);
+
+        JunctionTreeUpdater actual = new JunctionTreeUpdater(im, evidence);
+        RowSummingExactUpdater expected = new RowSummingExactUpdater(manipulatedIm, manipulatedEvidence);
+
+        for (int i = 0; i < im.getNumNodes(); i++) {
+            int _i = manipulatedIm.getNodeIndex(manipulatedIm.getNode(im.getNode(i).getName()));
+
+            for (int j = 0; j < im.getNumColumns(i); j++) {
+                assertEquals(expected.getMarginal(_i, j), actual.getMarginal(i, j), 1e-10);
+            }
+        }
+    }
+
+    @Test
+    public void testLarge() {
+        RandomUtil.getInstance().setSeed(2039482036L);
+
+        BayesIm im = randomIm(200, 200);
+        JunctionTreeUpdater updater = new JunctionTreeUpdater(im);
+
+        Evidence evidence = Evidence.tautology(im);
+        evidence.getProposition().setCategory(17, 0);
+        evidence.getProposition().setCategory(123, 1);
+        updater.setEvidence(evidence);
+
+        for (int i = 0; i < im.getNumNodes(); i++) {
+            double sum = 0.0;
+            for (double p : updater.calculateUpdatedMarginals(i)) sum += p;
+            assertEquals(1.0, sum, 1e-8);
+        }
+
+        assertEquals(1.0, updater.getMarginal(17, 0), 1e-10);
+    }
+
+    private BayesIm randomIm(int numNodes, int numEdges) {
+        Graph dag = GraphUtils.randomGraph(numNodes, 0, numEdges, 3, 3, 3, false);
+        BayesPm pm = new BayesPm(dag, 2, 3);
+        return new MlBayesIm(pm, MlBayesIm.RANDOM);
+    }
+}
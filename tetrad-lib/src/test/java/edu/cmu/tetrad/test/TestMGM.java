@@ -0,0 +1,141 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.GraphUtils;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.sem.GeneralizedSemIm;
+import edu.cmu.tetrad.sem.GeneralizedSemPm;
+import edu.cmu.tetrad.util.RandomUtil;
+import edu.pitt.csb.mgm.MGM;
+import edu.pitt.csb.mgm.MixedUtils;
+import edu.pitt.csb.stability.StabilityUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the MGM pseudolikelihood gradient and the lambda path.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestMGM {
+
+    @Test
+    public void testSmoothGradient() {
+        RandomUtil.getInstance().setSeed(3948573021L);
+        DataSet data = mixedData(8, 300);
+
+        MGM mgm = new MGM(data, new double[]{.1, .1, .1});
+        DoubleMatrix1D x = mgm.getParams().toMatrix1D();
+        int dim = x.size();
+
+        Random random = new Random(10394857L);
+
+        for (int i = 0; i < dim; i++) {
+            x.set(i, x.get(i) + 0.05 * random.nextGaussian());
+        }
+
+        DoubleMatrix1D gradient = DoubleFactory1D.dense.make(dim);
+        double value = mgm.smooth(x, gradient);
+
+        assertEquals(mgm.smoothValue(x), value, 1e-12);
+
+        DoubleMatrix1D gradient2 = mgm.smoothGradient(x);
+
+        for (int i = 0; i < dim; i++) {
+            assertEquals(gradient.get(i), gradient2.get(i), 1e-12);
+        }
+
+        // The gradient is taken over the free parameters only, so check it along its own direction.
+        double h = 1e-6;
+        DoubleMatrix1D plus = x.copy();
+        DoubleMatrix1D minus = x.copy();
+
+        for (int i = 0; i < dim; i++) {
+            plus.set(i, x.get(i) + h * gradient.get(i));
+            minus.set(i, x.get(i) - h * gradient.get(i));
+        }
+
+        double slope = (mgm.smoothValue(plus) - mgm.smoothValue(minus)) / (2 * h);
+        double squaredNorm = gradient.zDotProduct(gradient);
+        assertEquals(squaredNorm, slope, 1e-4 * squaredNorm);
+    }
+
+    @Test
+    public void testSearchPath() {
+        RandomUtil.getInstance().setSeed(2039485712L);
+        DataSet data = mixedData(8, 300);
+
+        List<double[]> lambdas = new ArrayList<>();
+
+        for (double lambda : new double[]{.5, .3, .2, .1}) {
+            lambdas.add(new double[]{lambda, lambda, lambda});
+        }
+
+        List<Graph> path = new MGM(data.copy(), lambdas.get(0)).searchPath(lambdas);
+        assertEquals(lambdas.size(), path.size());
+
+        // The first fit on the path is a cold start.
+        Graph first = new MGM(data.copy(), lambdas.get(0)).search();
+        assertEquals(first.getNumEdges(), path.get(0).getNumEdges());
+
+        List<DoubleMatrix2D> stabilities = StabilityUtils.StabilitySearchPathPar(data, lambdas, 4, 200);
+        assertEquals(lambdas.size(), stabilities.size());
+
+        for (DoubleMatrix2D stability : stabilities) {
+            for (int i = 0; i < stability.rows(); i++) {
+                for (int j = 0; j < stability.columns(); j++) {
+                    assertTrue(stability.get(i, j) >= 0 && stability.get(i, j) <= 1);
+                    assertEquals(stability.get(i, j), stability.get(j, i), 0.0);
+                }
+            }
+        }
+    }
+
+    private DataSet mixedData(int numNodes, int sampleSize) {
+        Graph graph = GraphUtils.randomGraph(numNodes, 0, numNodes, 10, 10, 10, false);
+        HashMap<String, Integer> nd = new HashMap<>();
+        List<Node> nodes = graph.getNodes();
+
+        for (int i = 0; i < nodes.size(); i++) {
+            nd.put(nodes.get(i).getName(), i < nodes.size() / 2 ? 3 : 0);
+        }
+
+        graph = MixedUtils.makeMixedGraph(graph, nd);
+        GeneralizedSemPm pm = MixedUtils.GaussianCategoricalPm(graph, "Split(-1.5,-.5,.5,1.5)");
+        GeneralizedSemIm im = MixedUtils.GaussianCategoricalIm(pm);
+        DataSet dataSet = im.simulateDataAvoidInfinity(sampleSize, false);
+        return MixedUtils.makeMixedData(dataSet, nd);
+    }
+}
@@ -0,0 +1,206 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.data.IKnowledge;
+import edu.cmu.tetrad.data.Knowledge2;
+import edu.cmu.tetrad.graph.*;
+import edu.cmu.tetrad.search.MeekRules;
+import edu.cmu.tetrad.search.SearchGraphUtils;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the indexed Meek propagation orients graphs the same way as running the rules through the Graph
+ * interface.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestMeekRules {
+
+    @Test
+    public void testPatterns() {
+        RandomUtil.getInstance().setSeed(4928374928L);
+
+        for (int i = 0; i < 20; i++) {
+            Graph dag = GraphUtils.randomGraph(30, 0, 45, 10, 10, 10, false);
+            Graph pattern = new EdgeListGraph(dag);
+            SearchGraphUtils.basicPattern(pattern, false);
+
+            checkSame(pattern, null, false);
+            checkSame(pattern, null, true);
+        }
+    }
+
+    @Test
+    public void testMixedGraphs() {
+        RandomUtil.getInstance().setSeed(1029384756L);
+
+        for (int i = 0; i < 20; i++) {
+            Graph graph = randomMixedGraph(25, 0.15);
+
+            checkSame(graph, null, false);
+            checkSame(graph, null, true);
+            checkSame(graph, randomKnowledge(graph, 10), false);
+            checkSame(graph, randomKnowledge(graph, 10), true);
+        }
+    }
+
+    @Test
+    public void testSingleConnections() {
+        RandomUtil.getInstance().setSeed(5647382910L);
+
+        for (int i = 0; i < 10; i++) {
+            Graph dag = GraphUtils.randomGraph(20, 0, 30, 10, 10, 10, false);
+            Graph pattern = new EdgeListGraphSingleConnections(dag);
+            SearchGraphUtils.basicPattern(pattern, false);
+
+            Graph indexed = new EdgeListGraphSingleConnections(pattern);
+            Graph plain = new EdgeListGraphSingleConnections(pattern);
+
+            MeekRules indexedRules = new MeekRules();
+            indexedRules.orientImplied(indexed);
+
+            MeekRules plainRules = new MeekRules();
+            plainRules.setIndexed(false);
+            plainRules.orientImplied(plain);
+
+            assertEquals(new HashSet<>(plain.getEdges()), new HashSet<>(indexed.getEdges()));
+            assertEquals(plainRules.getVisited(), indexedRules.getVisited());
+        }
+    }
+
+    @Test
+    public void testVerbose() {
+        RandomUtil.getInstance().setSeed(4928374929L);
+
+        for (int i = 0; i < 10; i++) {
+            Graph dag = GraphUtils.randomGraph(30, 0, 45, 10, 10, 10, false);
+            Graph pattern = new EdgeListGraph(dag);
+            SearchGraphUtils.basicPattern(pattern, false);
+
+            ByteArrayOutputStream indexedOut = new ByteArrayOutputStream();
+            MeekRules indexedRules = new MeekRules();
+            indexedRules.setVerbose(true);
+            indexedRules.setOut(new PrintStream(indexedOut));
+            indexedRules.orientImplied(new EdgeListGraph(pattern));
+
+            ByteArrayOutputStream plainOut = new ByteArrayOutputStream();
+            MeekRules plainRules = new MeekRules();
+            plainRules.setIndexed(false);
+            plainRules.setVerbose(true);
+            plainRules.setOut(new PrintStream(plainOut));
+            plainRules.orientImplied(new EdgeListGraph(pattern));
+
+            // Both report the same orientations, in the same order.
+            assertEquals(plainOut.toString(), indexedOut.toString());
+
+            if (i == 0) {
+                assertTrue(indexedOut.toString().contains("Meek R"));
+            }
+        }
+    }
+
+    private void checkSame(Graph graph, IKnowledge knowledge, boolean undirectUnforcedEdges) {
+        Graph indexed = new EdgeListGraph(graph);
+        Graph plain = new EdgeListGraph(graph);
+
+        MeekRules indexedRules = new MeekRules();
+        MeekRules plainRules = new MeekRules();
+        plainRules.setIndexed(false);
+
+        for (MeekRules rules : new MeekRules[]{indexedRules, plainRules}) {
+            if (knowledge != null) rules.setKnowledge(knowledge);
+            rules.setUndirectUnforcedEdges(undirectUnforcedEdges);
+        }
+
+        indexedRules.orientImplied(indexed);
+        plainRules.orientImplied(plain);
+
+        assertEquals(new HashSet<>(plain.getEdges()), new HashSet<>(indexed.getEdges()));
+        assertEquals(plainRules.getVisited(), indexedRules.getVisited());
+    }
+
+    private Graph randomMixedGraph(int numNodes, double density) {
+        List<Node> nodes = new ArrayList<>();
+
+        for (int i = 0; i < numNodes; i++) {
+            nodes.add(new GraphNode("X" + (i + 1)));
+        }
+
+        Graph graph = new EdgeListGraph(nodes);
+        RandomUtil random = RandomUtil.getInstance();
+
+        for (int i = 0; i < numNodes; i++) {
+            for (int j = i + 1; j < numNodes; j++) {
+                if (random.nextDouble() >= density) continue;
+
+                int kind = random.nextInt(3);
+
+                if (kind == 0) {
+                    graph.addDirectedEdge(nodes.get(i), nodes.get(j));
+                } else if (kind == 1) {
+                    graph.addUndirectedEdge(nodes.get(i), nodes.get(j));
+                } else {
+                    graph.addUndirectedEdge(nodes.get(j), nodes.get(i));
+                }
+            }
+        }
+
+        return graph;
+    }
+
+    private IKnowledge randomKnowledge(Graph graph, int numConstraints) {
+        List<Node> nodes = graph.getNodes();
+        List<String> names = new ArrayList<>();
+
+        for (Node node : nodes) {
+            names.add(node.getName());
+        }
+
+        IKnowledge knowledge = new Knowledge2(names);
+        RandomUtil random = RandomUtil.getInstance();
+
+        for (int i = 0; i < numConstraints; i++) {
+            String x = names.get(random.nextInt(names.size()));
+            String y = names.get(random.nextInt(names.size()));
+            if (x.equals(y)) continue;
+
+            if (random.nextInt(2) == 0) {
+                knowledge.setForbidden(x, y);
+            } else {
+                knowledge.setRequired(x, y);
+            }
+        }
+
+        return knowledge;
+    }
+}
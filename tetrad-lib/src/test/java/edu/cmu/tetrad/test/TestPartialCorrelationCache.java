@@ -0,0 +1,149 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.data.ContinuousVariable;
+import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.GraphUtils;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.search.IndTestFisherZ;
+import edu.cmu.tetrad.search.Pc;
+import edu.cmu.tetrad.search.PartialCorrelationCache;
+import edu.cmu.tetrad.sem.LargeScaleSimulation;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the partial correlation cache used by IndTestFisherZ.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestPartialCorrelationCache {
+
+    @Test
+    public void testKeys() {
+        PartialCorrelationCache cache = new PartialCorrelationCache(1000000);
+
+        cache.put(1, 2, new int[]{5, 3, 4}, 0.25);
+
+        assertEquals(0.25, cache.get(2, 1, new int[]{3, 4, 5}), 0.0);
+        assertEquals(0.25, cache.get(1, 2, new int[]{4, 5, 3}), 0.0);
+        assertTrue(Double.isNaN(cache.get(1, 3, new int[]{2, 4, 5})));
+        assertTrue(Double.isNaN(cache.get(1, 2, new int[]{3, 4})));
+
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate(), 0.0);
+    }
+
+    @Test
+    public void testBudget() {
+        PartialCorrelationCache cache = new PartialCorrelationCache(2000);
+
+        for (int i = 0; i < 100; i++) {
+            cache.put(0, i + 1, new int[]{i + 2, i + 3}, i);
+        }
+
+        assertTrue(cache.getBytes() <= 2000);
+        assertTrue(cache.getEvictions() > 0);
+        assertEquals(100, cache.size() + cache.getEvictions());
+
+        // The most recent entry is kept; the first has been evicted.
+        assertEquals(99, cache.get(0, 100, new int[]{101, 102}), 0.0);
+        assertTrue(Double.isNaN(cache.get(0, 1, new int[]{2, 3})));
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        final PartialCorrelationCache cache = new PartialCorrelationCache(1L << 20);
+        assertEquals(16, cache.getNumSegments());
+
+        final int numThreads = 8;
+        final int numKeys = 2000;
+        final boolean[] failed = new boolean[1];
+        Thread[] threads = new Thread[numThreads];
+
+        // Each thread writes its own keys and reads back both its own and the others'.
+        for (int t = 0; t < numThreads; t++) {
+            final int _t = t;
+
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < numKeys; i++) {
+                        cache.put(_t, numThreads + i, new int[]{i % 7, 100 + i}, _t * numKeys + i);
+                    }
+
+                    for (int i = 0; i < numKeys; i++) {
+                        int u = (_t + i) % numThreads;
+                        double r = cache.get(numThreads + i, u, new int[]{100 + i, i % 7});
+
+                        if (!Double.isNaN(r) && r != u * numKeys + i) {
+                            failed[0] = true;
+                        }
+                    }
+                }
+            };
+
+            threads[t].start();
+        }
+
+        for (Thread thread : threads) thread.join();
+
+        assertFalse(failed[0]);
+        assertTrue(cache.getBytes() <= cache.getMaxBytes());
+        assertEquals(numThreads * numKeys, cache.size() + cache.getEvictions());
+        assertEquals(numThreads * numKeys, cache.getHits() + cache.getMisses());
+    }
+
+    @Test
+    public void testPcWithCache() {
+        RandomUtil.getInstance().setSeed(29348234L);
+
+        List<Node> vars = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            vars.add(new ContinuousVariable("X" + i));
+        }
+
+        Graph dag = GraphUtils.randomGraphRandomForwardEdges(vars, 0, 30, 30, 15, 15, false, true);
+        DataSet data = new LargeScaleSimulation(dag).simulateDataFisher(1000);
+
+        IndTestFisherZ test = new IndTestFisherZ(data, 0.01);
+        assertTrue(Double.isNaN(test.getCacheHitRate()));
+        Graph expected = new Pc(test).search();
+
+        IndTestFisherZ cached = new IndTestFisherZ(data, 0.01);
+        cached.setCacheBudget(1L << 20);
+
+        assertEquals(expected, new Pc(cached).search());
+        assertEquals(expected, new Pc(cached).search());
+        assertTrue(cached.getCacheHitRate() > 0.5);
+    }
+}
@@ -0,0 +1,99 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.data.ContinuousVariable;
+import edu.cmu.tetrad.data.CovarianceMatrix;
+import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.data.ICovarianceMatrix;
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.GraphUtils;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.search.SemBicScore;
+import edu.cmu.tetrad.sem.LargeScaleSimulation;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the incremental Cholesky scoring in SemBicScore against scoring each parent set afresh.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestSemBicScore {
+
+    @Test
+    public void testIncremental() {
+        RandomUtil.getInstance().setSeed(3928472934L);
+
+        List<Node> vars = new ArrayList<>();
+
+        for (int i = 0; i < 15; i++) {
+            vars.add(new ContinuousVariable("X" + i));
+        }
+
+        Graph dag = GraphUtils.randomGraphRandomForwardEdges(vars, 0, 30, 30, 15, 15, false, true);
+        DataSet data = new LargeScaleSimulation(dag).simulateDataFisher(500);
+        ICovarianceMatrix cov = new CovarianceMatrix(data);
+
+        SemBicScore incremental = new SemBicScore(cov);
+        SemBicScore direct = new SemBicScore(cov);
+        direct.setIncremental(false);
+
+        RandomUtil random = RandomUtil.getInstance();
+
+        // Random walks over parent sets for each child, adding and removing a parent or two at a time,
+        // with occasional jumps to unrelated sets.
+        for (int y = 0; y < vars.size(); y++) {
+            List<Integer> z = new ArrayList<>();
+
+            for (int step = 0; step < 50; step++) {
+                int r = random.nextInt(10);
+
+                if (r == 0) {
+                    z.clear();
+                    for (int i = 0; i < vars.size(); i++) {
+                        if (i != y && random.nextInt(3) == 0) z.add(i);
+                    }
+                } else if (r < 5 || z.isEmpty()) {
+                    int v = random.nextInt(vars.size());
+                    if (v != y && !z.contains(v)) z.add(v);
+                } else {
+                    z.remove(random.nextInt(z.size()));
+                }
+
+                int x = random.nextInt(vars.size());
+                if (x == y || z.contains(x)) continue;
+
+                int[] _z = new int[z.size()];
+                for (int i = 0; i < z.size(); i++) _z[i] = z.get(i);
+
+                assertEquals(direct.localScore(y, _z), incremental.localScore(y, _z), 1e-6);
+                assertEquals(direct.localScoreDiff(x, y, _z), incremental.localScoreDiff(x, y, _z), 1e-6);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.data.DataGraphUtils;
+import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.GraphConverter;
+import edu.cmu.tetrad.graph.GraphUtils;
+import edu.cmu.tetrad.sem.*;
+import edu.cmu.tetrad.util.ExecutionContext;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the L-BFGS SEM optimizer against the other optimizers.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestSemOptimizerLbfgs {
+
+    @Test
+    public void testRegression() {
+        RandomUtil.getInstance().setSeed(2039485721L);
+
+        Graph dag = GraphUtils.randomGraph(10, 0, 15, 10, 10, 10, false);
+        SemPm pm = new SemPm(dag);
+        DataSet data = new SemIm(pm).simulateData(1000, false);
+
+        SemIm expected = estimate(data, pm, new SemOptimizerRegression(), SemIm.ScoreType.Fml);
+        SemIm lbfgs = estimate(data, pm, new SemOptimizerLbfgs(), SemIm.ScoreType.Fml);
+
+        assertEquals(expected.getScore(), lbfgs.getScore(), 1e-6);
+    }
+
+    @Test
+    public void testLatents() {
+        RandomUtil.getInstance().setSeed(3948572610L);
+
+        Graph mim = DataGraphUtils.randomSingleFactorModel(3, 2, 4, 0, 0, 0);
+        SemPm pm = new SemPm(mim);
+        DataSet data = new SemIm(pm).simulateData(1000, false);
+
+        for (SemIm.ScoreType scoreType : SemIm.ScoreType.values()) {
+            SemIm powell = estimate(data, pm, new SemOptimizerPowell(), scoreType);
+            SemIm lbfgs = estimate(data, pm, new SemOptimizerLbfgs(), scoreType);
+
+            assertTrue(lbfgs.getScore() <= powell.getScore() + 1e-4);
+        }
+    }
+
+    @Test
+    public void testCycle() {
+        RandomUtil.getInstance().setSeed(1209384756L);
+
+        Graph graph = GraphConverter.convert("X1-->X2,X2-->X3,X3-->X4,X4-->X1,X1-->X5,X5-->X6");
+        SemPm pm = new SemPm(graph);
+        DataSet data = new SemIm(pm).simulateData(1000, false);
+
+        for (SemIm.ScoreType scoreType : SemIm.ScoreType.values()) {
+            SemIm powell = estimate(data, pm, new SemOptimizerPowell(), scoreType);
+            SemIm lbfgs = estimate(data, pm, new SemOptimizerLbfgs(), scoreType);
+
+            assertTrue(lbfgs.getScore() <= powell.getScore() + 1e-4);
+        }
+    }
+
+    @Test
+    public void testRestarts() throws Exception {
+        RandomUtil.getInstance().setSeed(5647382910L);
+
+        Graph mim = DataGraphUtils.randomSingleFactorModel(3, 2, 4, 0, 0, 0);
+        final SemPm pm = new SemPm(mim);
+        final DataSet data = new SemIm(pm).simulateData(1000, false);
+
+        RandomUtil.getInstance().setSeed(19283746L);
+        SemIm serial = ExecutionContext.withParallelism(1).call(new Callable<SemIm>() {
+            public SemIm call() {
+                return estimate(data, pm);
+            }
+        });
+
+        RandomUtil.getInstance().setSeed(19283746L);
+        SemIm parallel = ExecutionContext.withParallelism(4).call(new Callable<SemIm>() {
+            public SemIm call() {
+                return estimate(data, pm);
+            }
+        });
+
+        assertArrayEquals(serial.getFreeParamValues(), parallel.getFreeParamValues(), 0.0);
+    }
+
+    private SemIm estimate(DataSet data, SemPm pm, SemOptimizer optimizer, SemIm.ScoreType scoreType) {
+        SemEstimator estimator = new SemEstimator(data, pm, optimizer);
+        estimator.setScoreType(scoreType);
+        return estimator.estimate();
+    }
+
+    private SemIm estimate(DataSet data, SemPm pm) {
+        SemEstimator estimator = new SemEstimator(data, pm, new SemOptimizerLbfgs());
+        estimator.setNumRestarts(5);
+        return estimator.estimate();
+    }
+}
@@ -0,0 +1,251 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.GraphNode;
+import edu.cmu.tetrad.graph.GraphUtils;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.search.Fci;
+import edu.cmu.tetrad.search.IndTestDSep;
+import edu.cmu.tetrad.search.SepsetMap;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the in-memory and spilled storage of SepsetMap.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestSepsetMap {
+
+    @Test
+    public void testSetAndGet() {
+        checkSetAndGet(new SepsetMap());
+        checkSetAndGet(new SepsetMap(new File(System.getProperty("java.io.tmpdir"))));
+    }
+
+    @Test
+    public void testConcurrentSets() throws InterruptedException {
+        final List<Node> nodes = nodes(40);
+        final SepsetMap memory = new SepsetMap();
+        final SepsetMap spilled = new SepsetMap(new File(System.getProperty("java.io.tmpdir")));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+
+            executor.execute(new Runnable() {
+                public void run() {
+                    for (int i = offset; i < nodes.size(); i += 4) {
+                        for (int j = i + 1; j < nodes.size(); j++) {
+                            List<Node> sepset = nodes.subList(j, Math.min(j + 3, nodes.size()));
+                            memory.set(nodes.get(i), nodes.get(j), sepset);
+                            spilled.set(nodes.get(j), nodes.get(i), sepset);
+                        }
+                    }
+                }
+            });
+        }
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertEquals(40 * 39 / 2, memory.size());
+        assertEquals(memory, spilled);
+        assertEquals(nodes.subList(12, 15), spilled.get(nodes.get(12), nodes.get(3)));
+    }
+
+    @Test
+    public void testClose() throws IOException {
+        File directory = File.createTempFile("sepsets", "");
+        assertTrue(directory.delete() && directory.mkdir());
+
+        List<Node> nodes = nodes(5);
+        SepsetMap spilled = new SepsetMap(directory);
+        spilled.set(nodes.get(0), nodes.get(1), Arrays.asList(nodes.get(2), nodes.get(3)));
+        spilled.set(nodes.get(2), nodes.get(4), new ArrayList<Node>());
+        assertEquals(1, directory.listFiles().length);
+
+        // The sepsets stay on disk, and are read from there, until the map is closed.
+        assertEquals(Arrays.asList(nodes.get(2), nodes.get(3)), spilled.get(nodes.get(1), nodes.get(0)));
+        assertEquals(Collections.<Node>emptyList(), spilled.get(nodes.get(4), nodes.get(2)));
+        assertEquals(1, directory.listFiles().length);
+
+        spilled.close();
+        assertEquals(0, directory.listFiles().length);
+
+        try {
+            spilled.get(nodes.get(1), nodes.get(0));
+            fail("Spilled sepsets should be discarded on close.");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+
+        spilled.set(nodes.get(0), nodes.get(1), null);
+        spilled.set(nodes.get(3), nodes.get(4), Arrays.asList(nodes.get(0)));
+        assertEquals(Arrays.asList(nodes.get(0)), spilled.get(nodes.get(3), nodes.get(4)));
+        assertNull(spilled.get(nodes.get(0), nodes.get(1)));
+        assertEquals(2, spilled.size());
+        assertEquals(0, directory.listFiles().length);
+
+        spilled.close();
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        List<Node> nodes = nodes(5);
+        SepsetMap map = new SepsetMap();
+        map.set(nodes.get(0), nodes.get(1), Arrays.asList(nodes.get(2), nodes.get(3)));
+        map.set(nodes.get(2), nodes.get(4), new ArrayList<Node>());
+        map.setPValue(nodes.get(2), nodes.get(4), 0.25);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(map);
+        out.close();
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        SepsetMap copy = (SepsetMap) in.readObject();
+
+        assertEquals(map, copy);
+        assertEquals(Arrays.asList(nodes.get(2), nodes.get(3)), copy.get(nodes.get(1), nodes.get(0)));
+        assertEquals(Collections.<Node>emptyList(), copy.get(nodes.get(4), nodes.get(2)));
+        assertEquals(0.25, copy.getPValue(nodes.get(4), nodes.get(2)), 0.0);
+    }
+
+    @Test
+    public void testFciSpill() throws IOException {
+        RandomUtil.getInstance().setSeed(3847562910L);
+
+        Graph dag = GraphUtils.randomGraph(20, 0, 25, 10, 10, 10, false);
+
+        Fci memory = new Fci(new IndTestDSep(dag));
+        Graph pag1 = memory.search();
+
+        File directory = File.createTempFile("sepsets", "");
+        assertTrue(directory.delete() && directory.mkdir());
+
+        Fci spilled = new Fci(new IndTestDSep(dag));
+        spilled.setSepsetSpillDirectory(directory);
+        Graph pag2 = spilled.search();
+
+        // The sepsets are still on disk after the search.
+        assertEquals(1, directory.listFiles().length);
+        assertEquals(pag1, pag2);
+        assertEquals(memory.getSepsets(), spilled.getSepsets());
+
+        spilled.getSepsets().close();
+        assertEquals(0, directory.listFiles().length);
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void testHeapUse() throws Exception {
+        List<Node> nodes = nodes(300);
+
+        long memory = retainedHeap(nodes, null);
+        long spilled = retainedHeap(nodes, new File(System.getProperty("java.io.tmpdir")));
+
+        assertTrue("in memory " + memory + ", spilled " + spilled, spilled < memory / 2);
+    }
+
+    /**
+     * Returns the heap retained by a map holding a sepset of size 20 for each pair of the given nodes.
+     */
+    private long retainedHeap(List<Node> nodes, File spillDirectory) throws InterruptedException {
+        long before = usedHeap();
+
+        SepsetMap map = spillDirectory == null ? new SepsetMap() : new SepsetMap(spillDirectory);
+
+        for (int i = 0; i < nodes.size(); i++) {
+            for (int j = i + 1; j < nodes.size(); j++) {
+                int from = (i + j) % (nodes.size() - 20);
+                map.set(nodes.get(i), nodes.get(j), nodes.subList(from, from + 20));
+            }
+        }
+
+        long retained = usedHeap() - before;
+
+        assertEquals(nodes.size() * (nodes.size() - 1) / 2, map.size());
+        map.close();
+
+        return retained;
+    }
+
+    private long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private void checkSetAndGet(SepsetMap map) {
+        List<Node> nodes = nodes(5);
+        Node x = nodes.get(0);
+        Node y = nodes.get(1);
+
+        assertNull(map.get(x, y));
+
+        map.set(x, y, Arrays.asList(nodes.get(2), nodes.get(3)));
+        assertEquals(Arrays.asList(nodes.get(2), nodes.get(3)), map.get(y, x));
+
+        map.set(y, x, new ArrayList<Node>());
+        assertEquals(Collections.<Node>emptyList(), map.get(x, y));
+        assertEquals(1, map.size());
+
+        map.set(x, y, null);
+        assertNull(map.get(x, y));
+        assertEquals(0, map.size());
+
+        assertNull(map.get(x, nodes.get(4)));
+        map.setReturnEmptyIfNotSet(true);
+        assertEquals(Collections.<Node>emptyList(), map.get(x, nodes.get(4)));
+
+        map.setPValue(nodes.get(3), x, 0.05);
+        assertEquals(0.05, map.getPValue(x, nodes.get(3)), 0.0);
+    }
+
+    private List<Node> nodes(int numNodes) {
+        List<Node> nodes = new ArrayList<>();
+
+        for (int i = 0; i < numNodes; i++) {
+            nodes.add(new GraphNode("X" + (i + 1)));
+        }
+
+        return nodes;
+    }
+}
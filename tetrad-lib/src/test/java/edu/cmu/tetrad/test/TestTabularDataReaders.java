@@ -0,0 +1,262 @@
+///////////////////////////////////////////////////////////////////////////////
+// For information as to what this class does, see the Javadoc, below.       //
+// Copyright (C) 1998, 1999, 2000, 2001, 2002, 2003, 2004, 2005, 2006,       //
+// 2007, 2008, 2009, 2010, 2014, 2015 by Peter Spirtes, Richard Scheines, Joseph   //
+// Ramsey, and Clark Glymour.                                                //
+//                                                                           //
+// This program is free software; you can redistribute it and/or modify      //
+// it under the terms of the GNU General Public License as published by      //
+// the Free Software Foundation; either version 2 of the License, or         //
+// (at your option) any later version.                                       //
+//                                                                           //
+// This program is distributed in the hope that it will be useful,           //
+// but WITHOUT ANY WARRANTY; without even the implied warranty of            //
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             //
+// GNU General Public License for more details.                              //
+//                                                                           //
+// You should have received a copy of the GNU General Public License         //
+// along with this program; if not, write to the Free Software               //
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA //
+///////////////////////////////////////////////////////////////////////////////
+
+package edu.cmu.tetrad.test;
+
+import edu.cmu.tetrad.data.CovarianceMatrixOnTheFly;
+import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.data.DiscreteVariable;
+import edu.cmu.tetrad.data.ICovarianceMatrix;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.io.ContinuousSufficientStatistics;
+import edu.cmu.tetrad.io.MappedFileBuffer;
+import edu.cmu.tetrad.io.TabularContinuousCovarianceReader;
+import edu.cmu.tetrad.io.TabularContinuousDataReader;
+import edu.cmu.tetrad.io.VerticalTabularDiscreteDataReader;
+import edu.cmu.tetrad.util.ExecutionContext;
+import edu.cmu.tetrad.util.RandomUtil;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the chunked, parallel tabular data readers on files big enough to be split into several chunks.
+ *
+ * @author Joseph Ramsey
+ */
+public class TestTabularDataReaders {
+
+    @Test
+    public void testContinuous() throws IOException {
+        RandomUtil.getInstance().setSeed(3948239482L);
+
+        int numRows = 20000;
+        int numCols = 8;
+        double[][] values = new double[numRows][numCols];
+
+        File file = File.createTempFile("continuous", ".txt");
+        file.deleteOnExit();
+
+        try (PrintWriter out = new PrintWriter(file)) {
+            for (int j = 0; j < numCols; j++) {
+                out.print((j > 0 ? "\t" : "") + "X" + j);
+            }
+            out.print("\r\n");
+
+            for (int i = 0; i < numRows; i++) {
+                for (int j = 0; j < numCols; j++) {
+                    values[i][j] = RandomUtil.getInstance().nextNormal(0, 1);
+                    out.print((j > 0 ? "\t" : "") + values[i][j]);
+                }
+
+                // Mixed line endings and the odd blank line; no newline at the end of the file.
+                if (i < numRows - 1) out.print(i % 3 == 0 ? "\r\n" : "\n");
+                if (i % 1000 == 0 && i < numRows - 1) out.print("\n");
+            }
+        }
+
+        DataSet data = new TabularContinuousDataReader(file.toPath(), '\t').readInData(Collections.singleton("X3"));
+
+        assertEquals(numRows, data.getNumRows());
+        assertEquals(numCols - 1, data.getNumColumns());
+        assertEquals("X4", data.getVariable(3).getName());
+
+        for (int i = 0; i < numRows; i++) {
+            for (int j = 0; j < numCols; j++) {
+                if (j == 3) continue;
+                assertEquals(values[i][j], data.getDouble(i, j < 3 ? j : j - 1), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testContinuousCovariance() throws Exception {
+        RandomUtil.getInstance().setSeed(3948239484L);
+
+        int numRows = 20000;
+        int numCols = 7;
+
+        final File file = File.createTempFile("covariance", ".csv");
+        file.deleteOnExit();
+
+        // X2 is constant, X4 is a copy of X1 and X5 has the values of X1 in reverse order.
+        double[][] values = new double[numRows][numCols];
+
+        for (int i = 0; i < numRows; i++) {
+            values[i][0] = RandomUtil.getInstance().nextNormal(10, 1);
+            values[i][1] = RandomUtil.getInstance().nextNormal(0, 2);
+            values[i][2] = 3.5;
+            values[i][3] = values[i][0] + RandomUtil.getInstance().nextNormal(0, 1);
+            values[i][6] = RandomUtil.getInstance().nextNormal(-5, 1) + values[i][3];
+        }
+
+        for (int i = 0; i < numRows; i++) {
+            values[i][4] = values[i][1];
+            values[i][5] = values[numRows - 1 - i][1];
+        }
+
+        try (PrintWriter out = new PrintWriter(file)) {
+            for (int j = 0; j < numCols; j++) {
+                out.print((j > 0 ? "," : "") + "X" + j);
+            }
+            out.print("\n");
+
+            for (int i = 0; i < numRows; i++) {
+                for (int j = 0; j < numCols; j++) {
+                    out.print((j > 0 ? "," : "") + values[i][j]);
+                }
+
+                if (i < numRows - 1) out.print("\n");
+            }
+        }
+
+        DataSet data = new TabularContinuousDataReader(file.toPath(), ',').readInData(Collections.singleton("X6"));
+        ICovarianceMatrix expected = new CovarianceMatrixOnTheFly(data);
+
+        Callable<ContinuousSufficientStatistics> read = new Callable<ContinuousSufficientStatistics>() {
+            @Override
+            public ContinuousSufficientStatistics call() throws Exception {
+                return new TabularContinuousCovarianceReader(file.toPath(), ',').readInStatistics(Collections.singleton("X6"));
+            }
+        };
+
+        ContinuousSufficientStatistics statistics = ExecutionContext.withParallelism(4).call(read);
+        ICovarianceMatrix cov = statistics.getCovarianceMatrix();
+
+        assertEquals(numRows, cov.getSampleSize());
+        assertEquals(data.getVariableNames(), cov.getVariableNames());
+
+        for (int i = 0; i < numCols - 1; i++) {
+            for (int j = 0; j < numCols - 1; j++) {
+                assertEquals(expected.getValue(i, j), cov.getValue(i, j), 1e-9);
+            }
+        }
+
+        double[] means = statistics.getMeans();
+
+        for (int j = 0; j < numCols - 1; j++) {
+            double sum = 0.0;
+            for (int i = 0; i < numRows; i++) sum += values[i][j];
+            assertEquals(sum / numRows, means[j], 1e-9);
+        }
+
+        List<Node> zeroVariance = statistics.getZeroVarianceVariables();
+        assertEquals(1, zeroVariance.size());
+        assertEquals("X2", zeroVariance.get(0).getName());
+
+        Map<Node, Node> duplicates = statistics.getDuplicateVariables();
+        assertEquals(1, duplicates.size());
+        Node duplicate = duplicates.keySet().iterator().next();
+        assertEquals("X4", duplicate.getName());
+        assertEquals("X1", duplicates.get(duplicate).getName());
+
+        // The statistics do not depend on the timing of the threads.
+        ContinuousSufficientStatistics again = ExecutionContext.withParallelism(4).call(read);
+        assertArrayEquals(statistics.getCovarianceMatrix().getMatrix().toArray(),
+                again.getCovarianceMatrix().getMatrix().toArray());
+    }
+
+    @Test
+    public void testDiscrete() throws IOException {
+        RandomUtil.getInstance().setSeed(3948239483L);
+
+        int numRows = 30000;
+        int numCols = 6;
+        String[] categories = {"a", "b", "c", "d"};
+        int[][] values = new int[numRows][numCols];
+
+        File file = File.createTempFile("discrete", ".txt");
+        file.deleteOnExit();
+
+        try (PrintWriter out = new PrintWriter(file)) {
+            for (int j = 0; j < numCols; j++) {
+                out.print((j > 0 ? "," : "") + "V" + j);
+            }
+            out.print("\n");
+
+            for (int i = 0; i < numRows; i++) {
+                for (int j = 0; j < numCols; j++) {
+                    // Column j takes only the first j + 1 categories.
+                    values[i][j] = RandomUtil.getInstance().nextInt(Math.min(j + 1, categories.length));
+                    out.print((j > 0 ? "," : "") + categories[values[i][j]]);
+                }
+
+                out.print("\n");
+            }
+        }
+
+        DataSet data = new VerticalTabularDiscreteDataReader(file.toPath(), ',').readInData();
+
+        assertEquals(numRows, data.getNumRows());
+        assertEquals(numCols, data.getNumColumns());
+
+        for (int j = 0; j < numCols; j++) {
+            assertEquals(Math.min(j + 1, categories.length),
+                    ((DiscreteVariable) data.getVariable(j)).getNumCategories());
+        }
+
+        for (int i = 0; i < numRows; i++) {
+            for (int j = 0; j < numCols; j++) {
+                assertEquals(values[i][j], data.getInt(i, j));
+            }
+        }
+    }
+
+    @Test
+    public void testMappedFileBuffer() throws IOException {
+        File file = File.createTempFile("buffer", ".txt");
+        file.deleteOnExit();
+
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < 1000; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+
+        try (PrintWriter out = new PrintWriter(file)) {
+            out.print(builder);
+        }
+
+        try (FileChannel fc = new RandomAccessFile(file, "r").getChannel()) {
+            // A window size that does not divide the region size.
+            MappedFileBuffer buffer = new MappedFileBuffer(fc, 10, 990, 7);
+            StringBuilder read = new StringBuilder();
+
+            while (buffer.hasRemaining()) {
+                read.append((char) buffer.get());
+            }
+
+            assertEquals(builder.substring(10, 990), read.toString());
+            assertEquals(990, buffer.position());
+        }
+    }
+}